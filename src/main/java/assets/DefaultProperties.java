@@ -14,6 +14,14 @@ public abstract class DefaultProperties {
         defaultConfig.setProperty("autoPlayOnIncomingStream", "true");
         defaultConfig.setProperty("firstRun", "true");
         defaultConfig.setProperty("highOrderRoutine", "2");
+        defaultConfig.setProperty("streamRetainOperations", "0");
+        defaultConfig.setProperty("streamRetainSeconds", "0");
+        defaultConfig.setProperty("streamCaptureDirectory", "");
+        defaultConfig.setProperty("streamCaptureRotateMB", "64");
+        defaultConfig.setProperty("streamCaptureFlushSeconds", "1");
+        defaultConfig.setProperty("logIndexing", "true");
+        defaultConfig.setProperty("transport", "jgroups");
+        defaultConfig.setProperty("transportAddress", "");
         return defaultConfig;
     }
 }
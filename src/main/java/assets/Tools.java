@@ -38,9 +38,6 @@ public abstract class Tools {
     private Tools () {
     } // Not to be instantiated.
 
-    // A FXML pane showing user instructions.
-    public static final Visualization.HintPane HINT_PANE = new Visualization.HintPane();
-
     /*
      * Render base stuff
      */
@@ -0,0 +1,141 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import contract.io.Communicator;
+import contract.io.CommunicatorListener;
+import contract.io.JGroupCommunicator;
+import contract.json.Operation;
+import contract.json.Root;
+import contract.utility.LatencyHistogram;
+
+/**
+ * Command line benchmark of streaming wrappers between two {@link JGroupCommunicator}s in this
+ * process, in each of the sender modes. For every number of operations per wrapper, the latency
+ * from sending a wrapper to it being decoded by the receiver is measured one wrapper at a time,
+ * followed by the throughput of sending wrappers back to back.
+ *
+ * <pre>
+ * JGroupsBenchmark [wrappers] [operations per wrapper...]
+ * </pre>
+ *
+ * The communicators join a channel of their own using the {@code udp.xml} stack of JGroups, which
+ * may need {@code -Djava.net.preferIPv4Stack=true}. Latencies include encoding and decoding.
+ */
+public class JGroupsBenchmark {
+
+    private static final long TIMEOUT_NANOS = 10000000000L;
+
+    private JGroupsBenchmark () {
+    }
+
+    public static void main (String[] args) {
+        int wrappers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int[] sizes = { 1, 16, 256 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        CommunicatorListener ignore = messageType -> {
+        };
+        String channel = "benchmark-" + System.nanoTime();
+        JGroupCommunicator receiver = new JGroupCommunicator("receiver", 1, channel, ignore, false);
+        JGroupCommunicator sender = new JGroupCommunicator("sender", 2, channel, ignore, true);
+        try {
+            sender.setBinarySenderMode();
+            if (roundTrip(sender, receiver, wrapper(1, 0), TIMEOUT_NANOS) < 0) {
+                System.out.println("Nothing received on " + channel);
+                System.exit(1);
+            }
+
+            System.out.println("mode    ops/wrapper    p50 us    p99 us    max us  lost   wrappers/s      ops/s");
+            for (String mode : new String[] { "native", "json", "binary" }) {
+                if (mode.equals("native")) {
+                    sender.setNativeSenderMode();
+                } else if (mode.equals("json")) {
+                    sender.setJSONSenderMode();
+                } else {
+                    sender.setBinarySenderMode();
+                }
+                for (int size : sizes) {
+                    List<Root> trace = new ArrayList<Root>(wrappers);
+                    for (int i = 0; i < wrappers; i++) {
+                        trace.add(wrapper(size, i));
+                    }
+                    // Warm up.
+                    for (int i = 0; i < Math.min(wrappers, 200); i++) {
+                        roundTrip(sender, receiver, trace.get(i), TIMEOUT_NANOS);
+                    }
+
+                    LatencyHistogram latency = new LatencyHistogram();
+                    int lost = 0;
+                    for (Root wrapper : trace) {
+                        long time = roundTrip(sender, receiver, wrapper, TIMEOUT_NANOS / 10);
+                        if (time < 0) {
+                            lost++;
+                        } else {
+                            latency.record(time);
+                        }
+                    }
+
+                    receiver.getAllQueuedMessages(); // Late arrivals.
+                    long start = System.nanoTime();
+                    sender.sendWrappers(trace);
+                    int received = receive(receiver, wrappers, start + TIMEOUT_NANOS);
+                    long time = System.nanoTime() - start;
+                    lost += wrappers - received;
+                    System.out.printf("%-7s %11d %9.1f %9.1f %9.1f %5d %12.0f %10.0f%n", mode, size,
+                            latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3, latency.getMax() / 1e3,
+                            lost, received / (time / 1e9), (double) received * size / (time / 1e9));
+                }
+            }
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    /**
+     * Returns a wrapper holding {@code size} operations of a trace, which differs for every
+     * {@code seed}.
+     */
+    static Root wrapper (int size, int seed) {
+        List<Operation> trace = Traces.operations(4, 100, size, seed, true);
+        // Without the initial writes.
+        return new Root(null, new ArrayList<Operation>(trace.subList(trace.size() - size, trace.size())));
+    }
+
+    /**
+     * Send a wrapper and wait for it to be received.
+     *
+     * @return The time until it was received in nanoseconds, or -1 if it was not received within
+     *         {@code timeout} nanoseconds.
+     */
+    static long roundTrip (Communicator sender, Communicator receiver, Root wrapper, long timeout) {
+        long start = System.nanoTime();
+        sender.sendWrapper(wrapper);
+        return receive(receiver, 1, start + timeout) == 1 ? System.nanoTime() - start : -1;
+    }
+
+    /**
+     * Take wrappers from the receiver until {@code count} have been received or the deadline has
+     * passed.
+     *
+     * @return The number of wrappers received.
+     */
+    static int receive (Communicator receiver, int count, long deadline) {
+        int received = 0;
+        while (received < count && System.nanoTime() < deadline) {
+            if (receiver.popQueuedMessage() != null) {
+                received++;
+            } else {
+                Thread.yield();
+            }
+        }
+        return received;
+    }
+}
@@ -0,0 +1,111 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import contract.datastructure.DataStructure;
+import contract.json.Operation;
+import model.OperationStore;
+import model.Step;
+
+/**
+ * Command line benchmark comparing operations held as a list of {@link Operation} objects with
+ * operations held by an {@link OperationStore}. For every trace length, the heap used by each
+ * representation is measured, along with the time and the bytes allocated per operation when
+ * replaying it using {@link Step#applyOperation(Operation)} and
+ * {@link Step#applyOperation(OperationStore, int)} respectively.
+ *
+ * <pre>
+ * MemoryBenchmark [operations...]
+ * </pre>
+ *
+ * A representation which would not fit in the heap (see {@code -Xmx}) is not built. Its size is
+ * extrapolated from the largest length measured and marked with a {@code ~}.
+ */
+public class MemoryBenchmark {
+
+    private static final int ARRAYS = 4;
+    private static final int SIZE   = 100;
+
+    private MemoryBenchmark () {
+    }
+
+    public static void main (String[] args) {
+        int[] lengths = { 1000000, 10000000, 50000000 };
+        if (args.length > 0) {
+            lengths = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                lengths[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("operations  representation        heap MB   bytes/op   replay ns/op   alloc B/op");
+        double[] perOperation = new double[2];
+        for (int length : lengths) {
+            List<Operation> trace = Traces.operations(ARRAYS, SIZE, length, 1, false);
+            for (int representation = 0; representation < 2; representation++) {
+                String name = representation == 0 ? "List<Operation>" : "OperationStore";
+                long estimate = (long) (perOperation[representation] * trace.size());
+                if (estimate > Runtime.getRuntime().maxMemory() * 3 / 4) {
+                    System.out.printf("%10d  %-18s %11s %10s %14s %12s%n", length, name, "~" + (estimate >> 20),
+                            String.format("~%.1f", perOperation[representation]), "-", "-");
+                    continue;
+                }
+
+                long before = usedHeap();
+                List<Operation> operations = representation == 0 ? new ArrayList<Operation>(trace)
+                        : new OperationStore();
+                if (representation == 1) {
+                    operations.addAll(trace);
+                }
+                long used = usedHeap() - before;
+                perOperation[representation] = (double) used / trace.size();
+
+                Step step = new Step(Traces.structures(ARRAYS, SIZE, false));
+                step.setJournaling(false);
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < operations.size(); i++) {
+                    if (representation == 0) {
+                        step.applyOperation(operations.get(i));
+                    } else {
+                        step.applyOperation((OperationStore) operations, i);
+                    }
+                    if ((i & 4095) == 0) {
+                        drawn(step.getStructures());
+                    }
+                }
+                long time = System.nanoTime() - start;
+                allocated = allocatedBytes() - allocated;
+
+                System.out.printf("%10d  %-18s %11d %10.1f %14.1f %12.1f%n", length, name, used >> 20,
+                        perOperation[representation], (double) time / trace.size(),
+                        (double) allocated / trace.size());
+                operations = null;
+            }
+        }
+    }
+
+    /**
+     * Clear the lists of modified elements, which grow until the structures are drawn.
+     */
+    private static void drawn (Map<String, DataStructure> structures) {
+        for (DataStructure struct : structures.values()) {
+            struct.getModifiedElements().clear();
+        }
+    }
+
+    private static long usedHeap () {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long allocatedBytes () {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,94 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import contract.json.Operation;
+import model.Model;
+import model.OperationStore;
+import model.Step;
+
+/**
+ * Command line benchmark of {@link Model#goToEnd()} replaying serially and in parallel, see
+ * {@link Model#setParallelReplay(boolean)}. Parallel replay does not journal the operations it
+ * applies, so the time of applying the operations on one thread without journaling is also
+ * reported, and the speedup is relative to it. Plain traces only have operations within one array,
+ * so every array is replayed by its own partition. Mixed traces also move values between the
+ * arrays and an independent element, each such operation being a barrier.
+ *
+ * <pre>
+ * ParallelBenchmark [operations] [runs]
+ * </pre>
+ *
+ * Parallel replay uses the common pool, whose size is set using
+ * {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism}. The best of {@code runs} is
+ * reported. A speedup below 1 is the cost of partitioning the operations.
+ */
+public class ParallelBenchmark {
+
+    private static final int SIZE = 1000;
+
+    private ParallelBenchmark () {
+    }
+
+    public static void main (String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, common pool parallelism "
+                + ForkJoinPool.getCommonPoolParallelism());
+        System.out.println("trace    arrays    serial ms  unjournaled ms  parallel ms   speedup");
+        for (boolean mixed : new boolean[] { false, true }) {
+            for (int arrays : new int[] { 2, 4, 8 }) {
+                List<Operation> operations = Traces.operations(arrays, SIZE, length, 1, mixed);
+                Model model = new Model("benchmark");
+                model.set(Traces.structures(arrays, SIZE, mixed), operations);
+
+                long serial = time(model, false, runs);
+                long unjournaled = time((OperationStore) model.getOperations(), arrays, mixed, runs);
+                long parallel = time(model, true, runs);
+                System.out.printf("%-7s %7d %12.1f %15.1f %12.1f %9.2f%n", mixed ? "mixed" : "plain", arrays,
+                        serial / 1e6, unjournaled / 1e6, parallel / 1e6, (double) unjournaled / parallel);
+            }
+        }
+    }
+
+    /**
+     * Returns the shortest time of {@code runs} replays from the start to the end, after one
+     * replay to warm up.
+     */
+    private static long time (Model model, boolean parallel, int runs) {
+        model.setParallelReplay(parallel);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run <= runs; run++) {
+            model.reset();
+            long start = System.nanoTime();
+            model.goToEnd();
+            long time = System.nanoTime() - start;
+            if (run > 0) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the shortest time of {@code runs} replays using a Step without journaling.
+     */
+    private static long time (OperationStore store, int arrays, boolean mixed, int runs) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run <= runs; run++) {
+            Step step = new Step(Traces.structures(arrays, SIZE, mixed));
+            step.setJournaling(false);
+            long start = System.nanoTime();
+            for (int i = 0; i < store.size(); i++) {
+                step.applyOperation(store, i);
+            }
+            long time = System.nanoTime() - start;
+            if (run > 0) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+}
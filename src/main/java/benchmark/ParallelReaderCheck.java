@@ -0,0 +1,265 @@
+package benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import contract.io.GsonContructor;
+import contract.io.LogReader;
+import contract.io.ParallelLogReader;
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Command line check that a {@link ParallelLogReader} reads the same operations as a
+ * {@link LogReader}, followed by a benchmark of both. Logs are written to temporary files and read
+ * from the files, which lets the parallel reader cut chunks speculatively, and from plain streams,
+ * which it scans exactly. Besides a compact mixed trace, the logs checked are:
+ * <ul>
+ * <li>{@code tricky}: every fifth operation is a message holding <code>},{</code>, escaped quotes
+ * and backslashes, or carries unknown members holding nested objects and arrays with such strings,
+ * or has nested value arrays. Speculative cuts land inside these strings and values.</li>
+ * <li>{@code pretty}: the tricky log, pretty printed.</li>
+ * <li>{@code header last}: the tricky log with the header following the body, so that chunks
+ * cannot be cut speculatively.</li>
+ * </ul>
+ *
+ * <pre>
+ * ParallelReaderCheck [operations] [runs]
+ * </pre>
+ *
+ * Differences are printed and the exit status is 1 if any were found. The benchmark reads the
+ * compact trace from its file, and reports the best of {@code runs}. The parallel reader uses the
+ * common pool, whose size is set using
+ * {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism}.
+ */
+public class ParallelReaderCheck {
+
+    /**
+     * Tricky strings, each of which contains a sequence at which chunks may be cut.
+     */
+    private static final String[] STRINGS = { "},{", "}, {\"operation\":\"write\"}", "\\\"},{\\\"",
+            "a\\\\\"},{\"\\\\", "\"}\n,\n{\"", "}],[{", "}},{{" };
+
+    private ParallelReaderCheck () {
+    }
+
+    public static void main (String[] args) throws IOException {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+        int runs = args.length > 1 ? Math.max(1, Integer.parseInt(args[1])) : 3;
+
+        List<Operation> trace = Traces.operations(4, 100, length, 1, true);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        int mismatches = 0;
+        File compact = null;
+        try {
+            for (String log : new String[] { "compact", "tricky", "pretty", "header last" }) {
+                File file = File.createTempFile("log", ".json");
+                file.deleteOnExit();
+                write(file, trace, log.equals("compact") == false, log.equals("pretty"), log.equals("header last"));
+                if (log.equals("compact")) {
+                    compact = file;
+                }
+
+                List<Operation> expected = readSerial(file);
+                for (boolean fromFile : new boolean[] { true, false }) {
+                    List<Operation> actual = readParallel(file, fromFile, pool);
+                    int failed = compare(expected, actual);
+                    System.out.printf("%-12s %-7s %8d operations, %6d KiB, %d differ%n", log,
+                            fromFile ? "file" : "stream", actual.size(), file.length() >> 10, failed);
+                    mismatches += failed;
+                }
+                if (file != compact) {
+                    file.delete();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println(ForkJoinPool.getCommonPoolParallelism() + " threads in the common pool");
+        System.out.println("reader              ms    ops/s  speedup");
+        long serial = 0;
+        for (boolean parallel : new boolean[] { false, true }) {
+            long best = Long.MAX_VALUE;
+            int count = 0;
+            for (int run = 0; run <= runs; run++) {
+                long start = System.nanoTime();
+                count = parallel ? count(new ParallelLogReader(compact)) : count(new LogReader(compact));
+                long time = System.nanoTime() - start;
+                if (run > 0) {
+                    best = Math.min(best, time);
+                }
+            }
+            if (parallel == false) {
+                serial = best;
+            }
+            System.out.printf("%-14s %7.1f %8.0f %8.2f%n", parallel ? "parallel" : "serial", best / 1e6,
+                    count / (best / 1e9), (double) serial / best);
+        }
+        compact.delete();
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write a log of {@code trace}, adding tricky operations if {@code tricky} is set.
+     */
+    private static void write (File file, List<Operation> trace, boolean tricky, boolean pretty,
+            boolean headerLast) throws IOException {
+        TypeAdapter<Operation> adapter = GsonContructor.build().getAdapter(Operation.class);
+        try (JsonWriter out = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8))) {
+            if (pretty) {
+                out.setIndent("  ");
+            }
+            out.beginObject();
+            if (headerLast == false) {
+                out.name("header").nullValue();
+            }
+            out.name("body");
+            out.beginArray();
+            for (int i = 0; i < trace.size(); i++) {
+                if (tricky && i % 5 == 0) {
+                    writeTricky(out, i);
+                } else {
+                    adapter.write(out, trace.get(i));
+                }
+            }
+            out.endArray();
+            if (headerLast) {
+                out.name("header").nullValue();
+            }
+            out.endObject();
+        }
+    }
+
+    private static void writeTricky (JsonWriter out, int i) throws IOException {
+        String string = STRINGS [i / 5 % STRINGS.length];
+        out.beginObject();
+        switch (i / 5 % 3) {
+        case 0:
+            out.name("operation").value("message");
+            out.name("operationBody").beginObject();
+            out.name("value").value(string + i + string);
+            out.endObject();
+            break;
+        case 1:
+            out.name("operation").value("write");
+            out.name("operationBody").beginObject();
+            out.name("nested").beginArray();
+            out.beginObject().name("value").value(string).endObject();
+            out.beginObject().name("body").beginArray().beginArray().value(i).endArray().endArray().endObject();
+            out.endArray();
+            out.name("target").beginObject().name("identifier").value("a0").name("index").beginArray().value(i % 100)
+                    .endArray().name("extra").beginObject().name(string).value(string).endObject().endObject();
+            out.name("value").beginArray().value(i).endArray();
+            out.endObject();
+            break;
+        default:
+            out.name("operation").value("swap");
+            out.name("operationBody").beginObject();
+            out.name("var1").beginObject().name("identifier").value("a1").name("index").beginArray().value(0)
+                    .endArray().endObject();
+            out.name("var2").beginObject().name("identifier").value("a1").name("index").beginArray().value(1)
+                    .endArray().endObject();
+            out.name("value").beginArray().beginArray().value(i).endArray().beginArray().value(-i).endArray()
+                    .endArray();
+            out.endObject();
+        }
+        out.name("source").value(string);
+        out.name("beginLine").value(i);
+        out.endObject();
+    }
+
+    private static int compare (List<Operation> expected, List<Operation> actual) {
+        int mismatches = Math.abs(expected.size() - actual.size());
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            String e = ParseBenchmark.describe(expected.get(i));
+            String a = ParseBenchmark.describe(actual.get(i));
+            if (e.equals(a) == false) {
+                if (mismatches < 10) {
+                    System.out.println("operation " + i + ": expected " + e + ", got " + a);
+                }
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    private static List<Operation> readSerial (File file) throws IOException {
+        List<Operation> operations = new ArrayList<Operation>();
+        try (LogReader reader = new LogReader(file)) {
+            reader.read(collect(operations));
+        }
+        return operations;
+    }
+
+    /**
+     * Read a log using a ParallelLogReader, either from the file or from a stream which is not a
+     * {@link FileInputStream}.
+     */
+    private static List<Operation> readParallel (File file, boolean fromFile, ForkJoinPool pool)
+            throws IOException {
+        List<Operation> operations = new ArrayList<Operation>();
+        FileInputStream stream = new FileInputStream(file);
+        try (ParallelLogReader reader = new ParallelLogReader(fromFile ? stream : new BufferedInputStream(stream),
+                file.length(), pool)) {
+            reader.read(collect(operations));
+        }
+        return operations;
+    }
+
+    private static LogReader.Handler collect (final List<Operation> operations) {
+        return new LogReader.Handler() {
+            @Override public boolean header (Header header) {
+                return true;
+            }
+
+            @Override public boolean operation (Operation op) {
+                return operations.add(op);
+            }
+        };
+    }
+
+    private static int count (LogReader reader) throws IOException {
+        try {
+            reader.read(collect(new Discarding()));
+            return reader.getOperationCount();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int count (ParallelLogReader reader) throws IOException {
+        try {
+            reader.read(collect(new Discarding()));
+            return reader.getOperationCount();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * A list which discards what is added to it, so that the benchmark does not time the garbage
+     * collection of the operations read.
+     */
+    private static final class Discarding extends ArrayList<Operation> {
+        private static final long serialVersionUID = 1L;
+
+        @Override public boolean add (Operation op) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import contract.io.GsonContructor;
+import contract.io.LogReader;
+import contract.json.Header;
+import contract.json.Locator;
+import contract.json.Operation;
+import contract.json.Root;
+import contract.operation.Key;
+import contract.utility.OperationParser;
+
+/**
+ * Command line benchmark of the throughput of parsing a JSON log, comparing the reflective
+ * binding of a plain {@link Gson} followed by {@link OperationParser#unpackOperation(Operation)}
+ * with the typed adapters of {@link GsonContructor}, as used by {@link LogReader}. The log is a
+ * compact mixed trace written to memory. Half of its operations have a source file, and all of
+ * them have positions. Before timing, the operations read both ways are compared field by field.
+ *
+ * <pre>
+ * ParseBenchmark [operations] [runs]
+ * </pre>
+ *
+ * Differences are printed and the exit status is 1 if any were found. The best of {@code runs}
+ * is reported.
+ */
+public class ParseBenchmark {
+
+    private ParseBenchmark () {
+    }
+
+    public static void main (String[] args) throws IOException {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        byte[] log = write(Traces.operations(4, 100, length, 1, true));
+        List<Operation> reflective = readReflective(log);
+        List<Operation> typed = readTyped(log);
+        int mismatches = Math.abs(reflective.size() - typed.size());
+        for (int i = 0; i < Math.min(reflective.size(), typed.size()); i++) {
+            String expected = describe(reflective.get(i));
+            String actual = describe(typed.get(i));
+            if (expected.equals(actual) == false) {
+                if (mismatches < 10) {
+                    System.out.println("operation " + i + ": expected " + expected + ", got " + actual);
+                }
+                mismatches++;
+            }
+        }
+        int count = typed.size();
+        System.out.println(count + " operations, " + (log.length >> 10) + " KiB, " + mismatches + " differ");
+        reflective = null;
+        typed = null;
+
+        System.out.println("parser              ms    ops/s");
+        for (boolean useTyped : new boolean[] { false, true }) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run <= runs; run++) {
+                long start = System.nanoTime();
+                if (useTyped) {
+                    readTyped(log);
+                } else {
+                    readReflective(log);
+                }
+                long time = System.nanoTime() - start;
+                if (run > 0) {
+                    best = Math.min(best, time);
+                }
+            }
+            System.out.printf("%-14s %7.1f %8.0f%n", useTyped ? "typed" : "reflective", best / 1e6,
+                    count / (best / 1e9));
+        }
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write a log without a header holding {@code operations}.
+     */
+    private static byte[] write (List<Operation> operations) throws IOException {
+        TypeAdapter<Operation> adapter = GsonContructor.build().getAdapter(Operation.class);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+        out.beginObject();
+        out.name("body");
+        out.beginArray();
+        for (int i = 0; i < operations.size(); i++) {
+            Operation op = operations.get(i);
+            op.source = i % 2 == 0 ? "Trace.java" : null;
+            op.beginLine = i;
+            op.endLine = i + 1;
+            op.beginColumn = i % 80;
+            op.endColumn = i % 80 + 10;
+            adapter.write(out, op);
+        }
+        out.endArray();
+        out.endObject();
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<Operation> readReflective (byte[] log) {
+        Root root = new Gson().fromJson(new InputStreamReader(new ByteArrayInputStream(log), StandardCharsets.UTF_8),
+                Root.class);
+        List<Operation> operations = new ArrayList<Operation>(root.body.size());
+        for (Operation op : root.body) {
+            Operation unpacked = OperationParser.unpackOperation(op);
+            if (unpacked != null) {
+                operations.add(unpacked);
+            }
+        }
+        return operations;
+    }
+
+    private static List<Operation> readTyped (byte[] log) throws IOException {
+        final List<Operation> operations = new ArrayList<Operation>();
+        try (LogReader reader = new LogReader(new ByteArrayInputStream(log), log.length)) {
+            reader.read(new LogReader.Handler() {
+                @Override public boolean header (Header header) {
+                    return true;
+                }
+
+                @Override public boolean operation (Operation op) {
+                    return operations.add(op);
+                }
+            });
+        }
+        return operations;
+    }
+
+    /**
+     * Returns the class, body and source information of an operation.
+     */
+    static String describe (Operation op) {
+        StringBuilder sb = new StringBuilder(op.getClass().getSimpleName()).append('{');
+        for (Key key : Key.values()) {
+            Object value = op.operationBody.get(key);
+            if (value instanceof Locator) {
+                Locator locator = (Locator) value;
+                sb.append(key).append('=').append(locator.identifier).append(Arrays.toString(locator.index))
+                        .append(' ');
+            } else if (value instanceof double[]) {
+                sb.append(key).append('=').append(Arrays.toString((double[]) value)).append(' ');
+            } else if (value != null) {
+                sb.append(key).append('=').append(value).append(' ');
+            }
+        }
+        return sb.append("} ").append(op.source).append(' ').append(op.beginLine).append(':').append(op.beginColumn)
+                .append('-').append(op.endLine).append(':').append(op.endColumn).toString();
+    }
+}
@@ -0,0 +1,147 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import contract.datastructure.DataStructure;
+import contract.json.Operation;
+import contract.utility.Colors;
+import model.Model;
+import model.Step;
+
+/**
+ * Command line check that seeking gives the same state as replaying. A model is moved to random
+ * steps with {@link Model#goToStep(int)}, {@link Model#stepBackward()} and
+ * {@link Model#stepForward()}, and after every move the {@link DataStructure.State} of each
+ * structure is compared with that of structures to which the same number of operations were
+ * applied from the start, one {@link Operation} at a time. The check is run twice, once seeking
+ * from checkpoints only and once with the seek index enabled, see
+ * {@link Model#setIndexedSeek(boolean)}. Steps taken forward after a move are reverted using the
+ * undo journal.
+ *
+ * <pre>
+ * ReplayCheck [operations] [moves] [seed]
+ * </pre>
+ *
+ * Differences are printed and the exit status is 1 if any were found.
+ */
+public class ReplayCheck {
+
+    /**
+     * The size of the arrays, small enough for the seek index to be used between checkpoints.
+     */
+    private static final int SIZE = 10;
+
+    private ReplayCheck () {
+    }
+
+    public static void main (String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int moves = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        List<Operation> operations = Traces.operations(2, SIZE, length, seed, true);
+        int mismatches = 0;
+        for (boolean indexedSeek : new boolean[] { false, true }) {
+            String path = indexedSeek ? "seek index" : "checkpoints";
+            Model model = new Model(path);
+            model.set(Traces.structures(2, SIZE, true), operations);
+            model.setIndexedSeek(indexedSeek);
+
+            Random random = new Random(seed);
+            int failed = 0;
+            for (int move = 0; move < moves; move++) {
+                int to = random.nextInt(operations.size() + 1);
+                String action = "goToStep(" + to + ")";
+                model.goToStep(to);
+                switch (random.nextInt(3)) {
+                case 1:
+                    // Steps taken forward are journaled and reverted without a seek.
+                    for (int i = random.nextInt(8); i >= 0 && model.getIndex() < operations.size(); i--) {
+                        model.stepForward();
+                    }
+                    for (int i = random.nextInt(12); i >= 0 && model.getIndex() > 0; i--) {
+                        model.stepBackward();
+                    }
+                    action += ", stepForward and stepBackward to " + model.getIndex();
+                    break;
+                case 2:
+                    for (int i = random.nextInt(8); i >= 0 && model.getIndex() < operations.size(); i--) {
+                        model.stepForward();
+                    }
+                    action += ", stepForward to " + model.getIndex();
+                    break;
+                default:
+                    break;
+                }
+
+                String difference = compare(model, replay(operations, model.getIndex()));
+                if (difference != null) {
+                    if (failed < 5) {
+                        System.out.println(path + ": " + action + ": " + difference);
+                    }
+                    failed++;
+                }
+            }
+            System.out.println(path + ": " + failed + " of " + moves + " moves differ from replay");
+            mismatches += failed;
+        }
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    /**
+     * Apply operations from the start to new structures, one {@link Operation} at a time.
+     */
+    private static Map<String, DataStructure> replay (List<Operation> operations, int steps) {
+        Step step = new Step(Traces.structures(2, SIZE, true));
+        step.setJournaling(false);
+        for (int i = 0; i < steps; i++) {
+            step.applyOperation(operations.get(i));
+        }
+        return step.getStructures();
+    }
+
+    /**
+     * Compare the states of the structures of a model with the expected structures.
+     *
+     * @return A description of the first difference, or {@code null} if the states are equal.
+     */
+    private static String compare (Model model, Map<String, DataStructure> expected) {
+        for (Map.Entry<String, DataStructure> entry : new TreeMap<String, DataStructure>(expected).entrySet()) {
+            Map<String, String> actualElements = describe(model.getStructures().get(entry.getKey()).saveState());
+            Map<String, String> expectedElements = describe(entry.getValue().saveState());
+            if (actualElements.equals(expectedElements) == false) {
+                for (Map.Entry<String, String> element : expectedElements.entrySet()) {
+                    String actual = actualElements.get(element.getKey());
+                    if (element.getValue().equals(actual) == false) {
+                        return entry.getKey() + element.getKey() + " is " + actual + ", expected " + element.getValue();
+                    }
+                }
+                return entry.getKey() + " has elements " + actualElements.keySet() + ", expected "
+                        + expectedElements.keySet();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Describe a state by element index, since the order of the elements in a state is that of
+     * the element list of the structure, which may differ between equal structures.
+     */
+    private static Map<String, String> describe (DataStructure.State state) {
+        Map<String, String> elements = new TreeMap<String, String>();
+        elements.put("", "active=" + state.active + " counts=" + Arrays.toString(state.counts));
+        for (int i = 0; i < state.values.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(state.values[i]).append(" inactive=").append(state.inactive[i]);
+            sb.append(" color=").append(Colors.toString(state.colors[i]));
+            sb.append(" counts=").append(Arrays.toString(Arrays.copyOfRange(state.elementCounts,
+                    i * DataStructure.State.COUNTS, (i + 1) * DataStructure.State.COUNTS)));
+            elements.put(Arrays.toString(state.indices[i]), sb.toString());
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,69 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import contract.json.Operation;
+import model.Model;
+
+/**
+ * Command line benchmark of the latency of {@link Model#goToStep(int)} to random steps, seeking
+ * from checkpoints only and with the seek index enabled. The model has visited every step and made
+ * as many seeks before the seeks are timed, so that the checkpoints and the index are built.
+ *
+ * <pre>
+ * SeekBenchmark [operations...]
+ * </pre>
+ */
+public class SeekBenchmark {
+
+    private static final int SEEKS  = 200;
+    private static final int ARRAYS = 2;
+    private static final int SIZE   = 16;
+
+    private SeekBenchmark () {
+    }
+
+    public static void main (String[] args) {
+        int[] lengths = { 100000, 1000000, 2000000 };
+        if (args.length > 0) {
+            lengths = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                lengths[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("operations  interval  path          mean us     p50 us     p99 us     max us");
+        for (int length : lengths) {
+            List<Operation> operations = Traces.operations(ARRAYS, SIZE, length, 1, false);
+            for (boolean indexedSeek : new boolean[] { false, true }) {
+                Model model = new Model("benchmark");
+                model.set(Traces.structures(ARRAYS, SIZE, false), operations);
+                model.setIndexedSeek(indexedSeek);
+                model.goToEnd();
+                // Build the seek index, which is extended to the targets of seeks on demand.
+                Random random = new Random(2);
+                for (int i = 0; i < SEEKS; i++) {
+                    model.goToStep(random.nextInt(operations.size() + 1));
+                }
+
+                long[] times = new long[SEEKS];
+                for (int i = 0; i < SEEKS; i++) {
+                    int to = random.nextInt(operations.size() + 1);
+                    long start = System.nanoTime();
+                    model.goToStep(to);
+                    times[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(times);
+                long total = 0;
+                for (long time : times) {
+                    total += time;
+                }
+                System.out.printf("%10d  %8d  %-11s %10d %10d %10d %10d%n", length,
+                        model.getCheckpoints().getInterval(), indexedSeek ? "seek index" : "checkpoints",
+                        total / SEEKS / 1000, times[SEEKS / 2] / 1000, times[SEEKS * 99 / 100] / 1000,
+                        times[SEEKS - 1] / 1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import contract.io.CommunicatorListener;
+import contract.io.SharedMemoryCommunicator;
+import contract.json.Root;
+import contract.utility.LatencyHistogram;
+
+/**
+ * Command line benchmark of streaming wrappers between a producing and a consuming
+ * {@link SharedMemoryCommunicator} in this process. For every number of operations per wrapper,
+ * the latency from sending a wrapper to it being decoded by the consumer is measured one wrapper
+ * at a time, followed by the throughput of sending wrappers back to back. The time the wrappers
+ * spent in the ring, as recorded by the consumer, is reported as well.
+ *
+ * <pre>
+ * SharedMemoryBenchmark [wrappers] [operations per wrapper...]
+ * </pre>
+ *
+ * Every measurement uses a new ring, created in {@code /dev/shm} if it exists and in the
+ * temporary directory otherwise. All measurements are made twice, the first time to warm up.
+ * Latencies include encoding and decoding. See {@link JGroupsBenchmark} for the same
+ * measurements over JGroups.
+ */
+public class SharedMemoryBenchmark {
+
+    private static final long TIMEOUT_NANOS = 10000000000L;
+
+    private SharedMemoryBenchmark () {
+    }
+
+    public static void main (String[] args) throws IOException {
+        int wrappers = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int[] sizes = { 1, 16, 256 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("ops/wrapper    p50 us    p99 us    max us  ring p50 us  ring p99 us  lost   wrappers/s"
+                + "      ops/s");
+        // The first pass warms up.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int size : sizes) {
+                List<Root> trace = new ArrayList<Root>(wrappers);
+                for (int i = 0; i < wrappers; i++) {
+                    trace.add(JGroupsBenchmark.wrapper(size, i));
+                }
+                String result = measure(trace, size);
+                if (pass > 0) {
+                    System.out.println(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream wrappers through a new ring, first one at a time and then back to back.
+     *
+     * @return A line of results.
+     */
+    private static String measure (List<Root> trace, int size) throws IOException {
+        File shm = new File("/dev/shm");
+        File file = File.createTempFile("ring", ".bin", shm.isDirectory() ? shm : null);
+        file.delete();
+        CommunicatorListener ignore = messageType -> {
+        };
+        SharedMemoryCommunicator consumer = new SharedMemoryCommunicator("consumer", file,
+                SharedMemoryCommunicator.DEFAULT_CAPACITY, ignore, false);
+        SharedMemoryCommunicator producer = new SharedMemoryCommunicator("producer", file,
+                SharedMemoryCommunicator.DEFAULT_CAPACITY, ignore, true);
+        try {
+            LatencyHistogram latency = new LatencyHistogram();
+            int lost = 0;
+            for (Root wrapper : trace) {
+                long time = JGroupsBenchmark.roundTrip(producer, consumer, wrapper, TIMEOUT_NANOS / 10);
+                if (time < 0) {
+                    lost++;
+                } else {
+                    latency.record(time);
+                }
+            }
+            // Recorded by the consumer while the wrappers were sent one at a time.
+            LatencyHistogram ring = consumer.getLatency();
+            long ringMedian = ring.getPercentile(50);
+            long ringTail = ring.getPercentile(99);
+
+            consumer.getAllQueuedMessages(); // Late arrivals.
+            long start = System.nanoTime();
+            producer.sendWrappers(trace);
+            int received = JGroupsBenchmark.receive(consumer, trace.size(), start + TIMEOUT_NANOS);
+            long time = System.nanoTime() - start;
+            lost += trace.size() - received;
+            return String.format("%11d %9.1f %9.1f %9.1f %12.1f %12.1f %5d %12.0f %10.0f", size,
+                    latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3, latency.getMax() / 1e3,
+                    ringMedian / 1e3, ringTail / 1e3, lost, received / (time / 1e9),
+                    (double) received * size / (time / 1e9));
+        } finally {
+            producer.close();
+            consumer.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package benchmark;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import contract.datastructure.Array;
+import contract.datastructure.DataStructure;
+import contract.datastructure.IndependentElement;
+import contract.json.Locator;
+import contract.json.LocatorPool;
+import contract.json.Operation;
+import contract.operation.OP_Read;
+import contract.operation.OP_Swap;
+import contract.operation.OP_ToggleScope;
+import contract.operation.OP_Write;
+
+/**
+ * Synthetic traces used by the benchmarks and checks in this package. A trace consists of a
+ * number of arrays named {@code a0}, {@code a1} and so on, each initialised by a write of all its
+ * values, followed by random operations on them. The operations are created on demand from the
+ * seed and their index, so a trace of millions of operations takes no memory until it is added
+ * to a model.
+ */
+public final class Traces {
+
+    /**
+     * Identifier of the independent element of mixed traces.
+     */
+    public static final String VARIABLE = "v";
+
+    private Traces () {
+    }
+
+    /**
+     * Create the data structures of a trace. New instances are returned by every call, since data
+     * structures hold the state of the model using them.
+     *
+     * @param arrays
+     *            The number of arrays.
+     * @param size
+     *            The size of each array.
+     * @param mixed
+     *            If {@code true}, the independent element {@link #VARIABLE} is included.
+     * @return The data structures of the trace.
+     */
+    public static Map<String, DataStructure> structures (int arrays, int size, boolean mixed) {
+        Map<String, DataStructure> structures = new HashMap<String, DataStructure>();
+        for (int a = 0; a < arrays; a++) {
+            Map<String, Object> attributes = new HashMap<String, Object>();
+            attributes.put("size", new ArrayList<Object>(Arrays.asList((double) size)));
+            structures.put("a" + a, new Array("a" + a, null, null, attributes));
+        }
+        if (mixed) {
+            structures.put(VARIABLE, new IndependentElement(VARIABLE, null, null, new HashMap<String, Object>()));
+        }
+        return structures;
+    }
+
+    /**
+     * Create the operations of a trace. Plain traces only read, write and swap elements within
+     * one array at a time. Mixed traces also toggle the scope of elements, which removes them, and
+     * move values between arrays and the independent element, which forces the structures to be
+     * replayed together.
+     *
+     * @param arrays
+     *            The number of arrays.
+     * @param size
+     *            The size of each array.
+     * @param length
+     *            The number of operations following the initial writes.
+     * @param seed
+     *            The seed of the trace.
+     * @param mixed
+     *            If {@code true}, create a mixed trace.
+     * @return An unmodifiable list of the operations.
+     */
+    public static AbstractList<Operation> operations (int arrays, int size, int length, long seed, boolean mixed) {
+        return new Trace(arrays, size, length, seed, mixed);
+    }
+
+    private static class Trace extends AbstractList<Operation> {
+        private final int     arrays;
+        private final int     size;
+        private final int     length;
+        private final long    seed;
+        private final boolean mixed;
+        private final int     initial;
+
+        private Trace (int arrays, int size, int length, long seed, boolean mixed) {
+            this.arrays = arrays;
+            this.size = size;
+            this.length = length;
+            this.seed = seed;
+            this.mixed = mixed;
+            initial = arrays + (mixed ? 1 : 0);
+        }
+
+        @Override public int size () {
+            return initial + length;
+        }
+
+        @Override public Operation get (int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(index + " / " + size());
+            }
+            if (index < arrays) {
+                double[] values = new double[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = i;
+                }
+                OP_Write write = new OP_Write();
+                write.setTarget(LocatorPool.get("a" + index, null));
+                write.setValue(values);
+                return write;
+            } else if (index < initial) {
+                OP_Write write = new OP_Write();
+                write.setTarget(LocatorPool.get(VARIABLE, null));
+                write.setValue(new double[] { 0 });
+                return write;
+            }
+            long random = mix(seed * 0x9E3779B97F4A7C15L + index);
+            int kind = (int) (random & 0xFF);
+            random >>>= 8;
+            Locator element = element(random);
+            random >>>= 32;
+            double value = (random & 0xFFFF) % 1000;
+            if (mixed && kind < 24) {
+                OP_ToggleScope toggle = new OP_ToggleScope();
+                toggle.setTarget((kind & 1) == 0 ? element : LocatorPool.get(VARIABLE, new int[] { 0 }));
+                return toggle;
+            } else if (mixed && kind < 48) {
+                OP_Write write = new OP_Write();
+                write.setSource((kind & 1) == 0 ? element : LocatorPool.get(VARIABLE, null));
+                write.setTarget((kind & 1) == 0 ? LocatorPool.get(VARIABLE, null) : element);
+                write.setValue(new double[] { value });
+                return write;
+            } else if (mixed && kind < 56) {
+                OP_Swap swap = new OP_Swap();
+                swap.setVar1(LocatorPool.get(VARIABLE, null));
+                swap.setVar2(element);
+                swap.setValues(new double[] { value, value + 1 });
+                return swap;
+            } else if (kind < 136) {
+                OP_Write write = new OP_Write();
+                write.setTarget(element);
+                write.setValue(new double[] { value });
+                return write;
+            } else if (kind < 216) {
+                OP_Read read = new OP_Read();
+                read.setSource(element);
+                read.setValue(new double[] { value });
+                return read;
+            }
+            OP_Swap swap = new OP_Swap();
+            swap.setVar1(element);
+            swap.setVar2(LocatorPool.get(element.identifier, new int[] { (int) ((random >>> 16) % size) }));
+            swap.setValues(new double[] { value, value + 1 });
+            return swap;
+        }
+
+        private Locator element (long random) {
+            int array = (int) ((random & 0xFFFF) % arrays);
+            int index = (int) (((random >>> 16) & 0xFFFF) % size);
+            return LocatorPool.get("a" + array, new int[] { index });
+        }
+    }
+
+    /**
+     * Mixes the bits of a value, from SplitMix64.
+     */
+    private static long mix (long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,7 +1,12 @@
 package contract.datastructure;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import assets.Const;
 import contract.datastructure.RawType.AbstractType;
@@ -9,8 +14,8 @@ import contract.json.Locator;
 import contract.operation.OP_ReadWrite;
 import contract.operation.OP_Swap;
 import contract.operation.OperationType;
+import contract.utility.Colors;
 import contract.utility.DataStructureParser;
-import gui.Main;
 
 /**
  * A representation of the Array data structure, using doubles as values.
@@ -22,12 +27,25 @@ public class Array extends DataStructure {
     /**
      * Version number for this class.
      */
-    private static final long        serialVersionUID = Const.VERSION_NUMBER;
+    private static final long                           serialVersionUID = Const.VERSION_NUMBER;
 
-    private transient int[]          capacity;
-    private transient MinMaxListener mmListener;
-    private transient double         min              = Double.MAX_VALUE;
-    private transient double         max              = Double.MIN_VALUE;
+    /**
+     * The largest number of slots allocated for the dense index table.
+     */
+    private static final int                            MAX_DENSE_SIZE   = 1 << 22;
+
+    private transient int[]                             capacity;
+    private transient MinMaxListener                    mmListener;
+    private transient double                            min              = Double.MAX_VALUE;
+    private transient double                            max              = Double.MIN_VALUE;
+    /**
+     * Elements within {@code capacity}, indexed by row-major linear index. Allocated on first use.
+     */
+    private transient IndexedElement[]                  dense;
+    /**
+     * Elements outside of {@code capacity}, or all elements if the capacity is unknown.
+     */
+    private transient HashMap<IndexKey, IndexedElement> sparse;
 
     /**
      * Construct a new Array with the given parameters.
@@ -77,6 +95,15 @@ public class Array extends DataStructure {
         mmListener = listener;
     }
 
+    /**
+     * Returns the listener for this Array.
+     *
+     * @return The MinMaxListener of this Array. May be null.
+     */
+    public MinMaxListener getListener () {
+        return mmListener;
+    }
+
     /**
      * Returns the declared capacity of this Array.
      *
@@ -99,24 +126,15 @@ public class Array extends DataStructure {
         if (capacity == null) { // Use size of values as a last resort.
             capacity = new int[] { values.length };
         }
-
-        // Initialize specified by the values argument of the init operation.
-        int linearIndex = 0;
-        for (; linearIndex < values.length; linearIndex++) {
-            IndexedElement ae = new IndexedElement(values [linearIndex], getIndexInNDimensions(linearIndex, capacity));
-            ae.count(OperationType.write);
-            putElement(ae);
-        }
-
-        // Initialise elements without given values to 0.
-        int linearTotal = 1;
-        for (int i = 0; i < capacity.length; i++) {
-            linearTotal = linearTotal * capacity [i];
-        }
-
-        for (linearIndex++; linearIndex < linearTotal; linearIndex++) {
-            IndexedElement ae = new IndexedElement(0.0, getIndexInNDimensions(linearIndex, capacity));
-            modifiedElements.add(ae);
+        clearIndex();
+
+        int[][] indices = getInitIndices(values.length);
+        for (int i = 0; i < indices.length; i++) {
+            // Initialise elements without given values to 0.
+            IndexedElement ae = new IndexedElement(i < values.length ? values [i] : 0.0, indices [i]);
+            if (i >= values.length) {
+                modifiedElements.add(ae);
+            }
             ae.count(OperationType.write);
             putElement(ae);
         }
@@ -137,8 +155,43 @@ public class Array extends DataStructure {
         checkMinMaxChanged(initMax);
     }
 
+    /**
+     * Returns the indices of the elements created when this Array is initialised with the given
+     * number of values, in order of creation. The first {@code valueCount} elements are given the
+     * values of the initialisation, and the remaining elements are initialised to 0.
+     *
+     * @param valueCount
+     *            The number of values of the initialisation.
+     * @return The indices of the initialised elements.
+     */
+    public int[][] getInitIndices (int valueCount) {
+        int[] capacity = this.capacity;
+        if (capacity == null) {
+            capacity = getCapacity();
+        }
+        if (capacity == null) {
+            capacity = new int[] { valueCount };
+        }
+
+        int linearTotal = 1;
+        for (int i = 0; i < capacity.length; i++) {
+            linearTotal = linearTotal * capacity [i];
+        }
+
+        ArrayList<int[]> indices = new ArrayList<int[]>(Math.max(valueCount, linearTotal));
+        int linearIndex = 0;
+        for (; linearIndex < valueCount; linearIndex++) {
+            indices.add(getIndexInNDimensions(linearIndex, capacity));
+        }
+        for (linearIndex++; linearIndex < linearTotal; linearIndex++) {
+            indices.add(getIndexInNDimensions(linearIndex, capacity));
+        }
+        return indices.toArray(new int[indices.size()][]);
+    }
+
     @Override public void clear () {
         elements.clear();
+        clearIndex();
         clearElementLists();
         resetMinMax();
         oc.reset();
@@ -148,30 +201,37 @@ public class Array extends DataStructure {
     @Override protected void executeSwap (OP_Swap op) {
         Locator var1 = op.getVar1();
         Locator var2 = op.getVar2();
-        IndexedElement var1Element = this.getElement(var1);
+        executeSwap(var1 != null && var1.identifier.equals(identifier), var1 == null ? null : var1.index,
+                var2 != null && var2.identifier.equals(identifier), var2 == null ? null : var2.index, op.getValue() [0],
+                op.getValue() [1]);
+    }
+
+    @Override protected void executeSwap (boolean ownsVar1, int[] var1, boolean ownsVar2, int[] var2, double value1,
+            double value2) {
+        IndexedElement var1Element = ownsVar1 ? this.getElement(var1) : null;
         if (var1Element != null) {
-            var1Element.setValue(op.getValue() [0]);
+            var1Element.setValue(value1);
             var1Element.count(OperationType.swap);
             modifiedElements.add(var1Element);
             inactiveElements.remove(var1Element);
             oc.count(OperationType.swap);
-            checkMinMaxChanged(op.getValue() [0]);
+            checkMinMaxChanged(value1);
         }
-        IndexedElement var2Element = this.getElement(var2);
+        IndexedElement var2Element = ownsVar2 ? this.getElement(var2) : null;
         if (var2Element != null) {
-            var2Element.setValue(op.getValue() [1]);
+            var2Element.setValue(value2);
             var2Element.count(OperationType.swap);
             modifiedElements.add(var2Element);
             inactiveElements.remove(var2Element);
             oc.count(OperationType.swap);
-            checkMinMaxChanged(op.getValue() [1]);
+            checkMinMaxChanged(value2);
         }
     }
 
     @Override protected void executeRW (OP_ReadWrite op) {
         double[] value = op.getValue();
         if (value == null || value.length < 1) {
-            Main.console.err("Bad value in operation: " + op);
+            // Bad values are reported by the caller.
             return;
         }
 
@@ -180,15 +240,21 @@ public class Array extends DataStructure {
             return;
         }
 
-        oc.count(op.operation); // Update structure count
-
         Locator target = op.getTarget();
         Locator source = op.getSource();
+        executeRW(op.operation, source != null && source.identifier.equals(identifier),
+                source == null ? null : source.index, target != null && target.identifier.equals(identifier),
+                target == null ? null : target.index, value [0]);
+    }
+
+    @Override protected void executeRW (OperationType type, boolean ownsSource, int[] source, boolean ownsTarget,
+            int[] target, double value) {
+        oc.count(type); // Update structure count
 
         /*
          * Write operation targeting this Array.
          */
-        if (target != null && target.identifier.equals(identifier)) {
+        if (ownsTarget) {
             IndexedElement targetElement = this.getElement(target);
 
             if (targetElement != null) {
@@ -196,26 +262,26 @@ public class Array extends DataStructure {
                 modifiedElements.add(targetElement);
                 inactiveElements.remove(targetElement);
 
-                targetElement.setValue(value [0]);
+                targetElement.setValue(value);
                 targetElement.count(OperationType.write);
-                checkMinMaxChanged(op.getValue() [0]);
+                checkMinMaxChanged(value);
             } else {
                 // Create the element
-                IndexedElement newElement = new IndexedElement(value [0],
-                        target.index == null ? new int[] { elements.size() } : target.index);
+                IndexedElement newElement = new IndexedElement(value,
+                        target == null ? new int[] { elements.size() } : target);
                 modifiedElements.add(newElement);
                 putElement(newElement);
 
                 newElement.count(OperationType.write);
                 setRepaintAll(true);
-                checkMinMaxChanged(op.getValue() [0]);
+                checkMinMaxChanged(value);
             }
         }
 
         /*
          * Read operation targeting this Array.
          */
-        if (source != null && source.identifier.equals(identifier)) {
+        if (ownsSource) {
             IndexedElement sourceElement = this.getElement(source);
 
             // Element was found
@@ -223,23 +289,80 @@ public class Array extends DataStructure {
                 modifiedElements.add(sourceElement);
                 inactiveElements.remove(sourceElement);
 
-                sourceElement.setValue(value [0]);
+                sourceElement.setValue(value);
                 sourceElement.count(OperationType.read);
-                checkMinMaxChanged(op.getValue() [0]);
+                checkMinMaxChanged(value);
             } else {
                 // Create the element
-                IndexedElement newElement = new IndexedElement(value [0],
-                        source.index == null ? new int[] { elements.size() } : source.index);
+                IndexedElement newElement = new IndexedElement(value,
+                        source == null ? new int[] { elements.size() } : source);
                 modifiedElements.add(newElement);
                 putElement(newElement);
 
                 newElement.count(OperationType.read);
                 setRepaintAll(true);
-                checkMinMaxChanged(op.getValue() [0]);
+                checkMinMaxChanged(value);
             }
         }
     }
 
+    @Override public State saveState () {
+        int size = elements.size();
+        int[][] indices = new int[size][];
+        double[] values = new double[size];
+        boolean[] inactive = new boolean[size];
+        int[] colors = new int[size];
+        int[] elementCounts = new int[size * State.COUNTS];
+
+        Set<Element> inactiveSet = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+        inactiveSet.addAll(inactiveElements);
+
+        for (int i = 0; i < size; i++) {
+            IndexedElement ae = (IndexedElement) elements.get(i);
+            indices [i] = ae.index;
+            values [i] = ae.getNumValue();
+            inactive [i] = inactiveSet.contains(ae);
+            colors [i] = ae.getColor();
+            System.arraycopy(ae.getCounter().getCounts(), 0, elementCounts, i * State.COUNTS, State.COUNTS);
+        }
+        return new State(indices, values, inactive, active, oc.getCounts(), colors, elementCounts);
+    }
+
+    @Override public void restoreState (State state) {
+        elements.clear();
+        clearIndex();
+        clearElementLists();
+        resetMinMax();
+
+        ArrayList<Element> restored = new ArrayList<Element>(state.values.length);
+        for (int i = 0; i < state.values.length; i++) {
+            IndexedElement ae = new IndexedElement(state.values [i], state.indices [i]);
+            if (state.inactive [i]) {
+                ae.setColor(OperationType.remove.color);
+                inactiveElements.add(ae);
+            } else {
+                ae.setColor(Colors.WHITE);
+                checkMinMaxChanged(state.values [i]);
+            }
+            if (state.colors != null) {
+                ae.setColor(state.colors [i]);
+            }
+            if (state.elementCounts != null) {
+                ae.getCounter().setCounts(Arrays.copyOfRange(state.elementCounts, i * State.COUNTS,
+                        (i + 1) * State.COUNTS));
+            }
+            ae.slot = restored.size();
+            restored.add(ae);
+            adopt(ae);
+            index(ae);
+        }
+        elements.addAll(restored);
+
+        active = state.active;
+        oc.setCounts(state.counts);
+        setRepaintAll(true);
+    }
+
     /**
      * Given a linear index, returns the index in N dimensions (dimeionSizes.length).
      *
@@ -266,9 +389,9 @@ public class Array extends DataStructure {
                 if (otherDim == currDim) {
                     continue; // Don't subtract self.
                 }
-                index [currDim] = index [currDim] - index [otherDim] * higherDimSizesProduct(otherDim);
+                index [currDim] = index [currDim] - index [otherDim] * higherDimSizesProduct(otherDim, dimensionSizes);
             }
-            index [currDim] = index [currDim] / higherDimSizesProduct(currDim);
+            index [currDim] = index [currDim] / higherDimSizesProduct(currDim, dimensionSizes);
         }
         return index;
     }
@@ -280,12 +403,14 @@ public class Array extends DataStructure {
      *
      * @param dim
      *            The current dimension.
+     * @param dimensionSizes
+     *            Sizes of the dimensions.
      * @return The product of all lower dimension sizes
      */
-    private int higherDimSizesProduct (int dim) {
+    private int higherDimSizesProduct (int dim, int[] dimensionSizes) {
         int product = 1;
-        for (int i = dim + 1; i < capacity.length; i++) {
-            product = product * capacity [i];
+        for (int i = dim + 1; i < dimensionSizes.length; i++) {
+            product = product * dimensionSizes [i];
         }
         return product;
     }
@@ -312,14 +437,15 @@ public class Array extends DataStructure {
      *            The index from which to get an element.
      * @return The element at the given index if the index was valid, null otherwise.
      */
-    public IndexedElement getElement (int[] index) {
-        for (Element e : elements) {
-            IndexedElement ae = (IndexedElement) e;
-            if (Arrays.equals(index, ae.index)) {
-                return ae; // Found the element with the same index.
-            }
+    @Override public IndexedElement getElement (int[] index) {
+        if (index == null) {
+            return null;
         }
-        return null; // Could not find an element with the same index.
+        int linearIndex = getLinearIndex(index);
+        if (linearIndex >= 0) {
+            return dense == null ? null : dense [linearIndex];
+        }
+        return sparse == null ? null : sparse.get(new IndexKey(index));
     }
 
     /**
@@ -337,15 +463,133 @@ public class Array extends DataStructure {
             if (newElement.getNumValue() == old.getNumValue()) {
                 return null;
             }
-            int replacedElementIndex = elements.indexOf(old);
-            elements.remove(old);
-            elements.add(replacedElementIndex, newElement);
+            newElement.slot = slotOf(old);
+            elements.set(newElement.slot, newElement);
+        } else {
+            newElement.slot = elements.size();
+            elements.add(newElement);
         }
 
-        elements.add(newElement);
+        adopt(newElement);
+        index(newElement);
         return old;
     }
 
+    // ============================================================= //
+    /*
+     *
+     * Index table
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the position of an element in the element list. The position recorded when the
+     * element was added is used unless the list was changed elsewhere since.
+     *
+     * @param e
+     *            An element of this Array.
+     * @return The position of {@code e} in {@link #elements}.
+     */
+    private int slotOf (IndexedElement e) {
+        if (e.slot >= 0 && e.slot < elements.size() && elements.get(e.slot) == e) {
+            return e.slot;
+        }
+        e.slot = elements.indexOf(e);
+        return e.slot;
+    }
+
+    /**
+     * Returns the row-major linear index of an index within the capacity of this Array.
+     *
+     * @param index
+     *            An index.
+     * @return The linear index, or -1 if the index is outside of the capacity or the dense table
+     *         is not used.
+     */
+    private int getLinearIndex (int[] index) {
+        int[] capacity = this.capacity;
+        if (capacity == null || index.length != capacity.length) {
+            return -1;
+        }
+        long linearIndex = 0;
+        for (int i = 0; i < index.length; i++) {
+            if (index [i] < 0 || index [i] >= capacity [i]) {
+                return -1;
+            }
+            linearIndex = linearIndex * capacity [i] + index [i];
+            if (linearIndex >= MAX_DENSE_SIZE) {
+                return -1;
+            }
+        }
+        return (int) linearIndex;
+    }
+
+    /**
+     * Add an element to the index table, replacing any element with the same index.
+     *
+     * @param e
+     *            The element to add.
+     */
+    private void index (IndexedElement e) {
+        if (e.index == null) {
+            return;
+        }
+        int linearIndex = getLinearIndex(e.index);
+        if (linearIndex >= 0) {
+            if (dense == null) {
+                dense = new IndexedElement[denseSize()];
+            }
+            dense [linearIndex] = e;
+        } else {
+            if (sparse == null) {
+                sparse = new HashMap<IndexKey, IndexedElement>();
+            }
+            sparse.put(new IndexKey(e.index), e);
+        }
+    }
+
+    /**
+     * Remove all elements from the index table.
+     */
+    private void clearIndex () {
+        dense = null;
+        sparse = null;
+    }
+
+    /**
+     * Returns the number of slots required by the dense table, the product of the capacity limited
+     * to {@link #MAX_DENSE_SIZE}.
+     */
+    private int denseSize () {
+        long size = 1;
+        for (int c : capacity) {
+            size = Math.min(size * Math.max(c, 0), MAX_DENSE_SIZE);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Hash key for indices outside the dense table.
+     */
+    private static final class IndexKey {
+        private final int[] index;
+        private final int   hash;
+
+        private IndexKey (int[] index) {
+            this.index = index;
+            hash = Arrays.hashCode(index);
+        }
+
+        @Override public int hashCode () {
+            return hash;
+        }
+
+        @Override public boolean equals (Object obj) {
+            return obj instanceof IndexKey && Arrays.equals(index, ((IndexKey) obj).index);
+        }
+    }
+
     /**
      * An indexed element belonging to an Array.
      *
@@ -354,7 +598,11 @@ public class Array extends DataStructure {
      */
     public static class IndexedElement extends Element {
 
-        private int[] index;
+        private int[]         index;
+        /**
+         * Position of this element in the element list of the Array holding it, or -1.
+         */
+        private transient int slot = -1;
 
         /**
          * Construct a new ArrayElement with the given value and index.
@@ -369,10 +617,9 @@ public class Array extends DataStructure {
             setIndex(index);
         }
 
-        private final int primes[] = { 607, 613, 617, 619, 631, 641, 643, 647, 653, 659, 661, 673, 677, 683, 691, 701,
-                709, 719, 727, 733 };
+        private static final int primes[] = { 607, 613, 617, 619, 631, 641, 643, 647, 653, 659, 661, 673, 677, 683,
+                691, 701, 709, 719, 727, 733 };
 
-        // TODO
         @Override public int hashCode () {
             if (index == null) {
                 return -1;
@@ -380,7 +627,7 @@ public class Array extends DataStructure {
 
             int indexHash = 0;
             for (int i = 0; i < index.length; i++) {
-                indexHash = index [i] * primes [i];
+                indexHash = indexHash * 31 + index [i] * primes [i % primes.length];
             }
             return indexHash;
         }
@@ -1,5 +1,7 @@
 package contract.datastructure;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import assets.Const;
@@ -11,13 +13,9 @@ import contract.operation.OP_ReadWrite;
 import contract.operation.OP_Swap;
 import contract.operation.OP_ToggleScope;
 import contract.operation.OperationType;
+import contract.utility.Colors;
 import contract.utility.OperationCounter;
 import contract.utility.OperationCounter.OperationCounterHaver;
-import gui.Main;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.scene.paint.Color;
-import javafx.scene.paint.Paint;
 
 /**
  * A data structure for use in visualisation.
@@ -38,43 +36,47 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
     /**
      * Version number for this class.
      */
-    private static final long                         serialVersionUID     = Const.VERSION_NUMBER;
+    private static final long                  serialVersionUID     = Const.VERSION_NUMBER;
     /**
      * The elements held by this DataStructure.
      */
-    protected transient final ObservableList<Element> elements             = FXCollections.observableArrayList();
+    protected transient final List<Element>    elements             = new ArrayList<Element>();
     /**
      * Elements which have been modified and should be drawn with their preferred colour.
      */
-    protected transient final ObservableList<Element> modifiedElements     = FXCollections.observableArrayList();
+    protected transient final List<Element>    modifiedElements     = new ArrayList<Element>();
     /**
      * Elements which are to be reset after being drawn with their preferred colour.
      */
-    protected transient final ObservableList<Element> resetElements        = FXCollections.observableArrayList();
+    protected transient final List<Element>    resetElements        = new ArrayList<Element>();
     /**
      * Elements which should not be drawn or should be masked.
      */
-    protected transient final ObservableList<Element> inactiveElements     = FXCollections.observableArrayList();
+    protected transient final List<Element>    inactiveElements     = new ArrayList<Element>();
+    /**
+     * Elements with changes which have not been published to their listeners.
+     */
+    private transient final List<Element>      changedElements      = new ArrayList<Element>();
     /**
      * If false, this entire DataStructure is considered inactive (as opposed to just a single
      * element).
      */
-    private transient boolean                         active               = true;
+    protected transient boolean                active               = true;
     /**
      * Counter for operations performed on the structure.
      */
-    protected transient final OperationCounter        oc                   = new OperationCounter();
+    protected transient final OperationCounter oc                   = new OperationCounter();
 
     /**
      * Indicates that major changes have occurred, justifying a re-initialisation.
      */
-    protected transient boolean                       repaintAll           = false;
+    protected transient boolean                repaintAll           = false;
 
     /**
      * Indicates that this structure's {@link #applyOperation(Operation)} method has been called.
      * This variable is never reset.
      */
-    protected transient boolean                       applyOperationCalled = false;
+    protected transient boolean                applyOperationCalled = false;
 
     // ============================================================= //
     /*
@@ -119,6 +121,25 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      */
     protected abstract void executeSwap (OP_Swap op);
 
+    /**
+     * Execute a swap operation given by its locators and values.
+     *
+     * @param ownsVar1
+     *            {@code true} if var1 refers to this structure.
+     * @param var1
+     *            The index of var1. May be null.
+     * @param ownsVar2
+     *            {@code true} if var2 refers to this structure.
+     * @param var2
+     *            The index of var2. May be null.
+     * @param value1
+     *            The new value of var1.
+     * @param value2
+     *            The new value of var2.
+     */
+    protected abstract void executeSwap (boolean ownsVar1, int[] var1, boolean ownsVar2, int[] var2, double value1,
+            double value2);
+
     /**
      * Execute a read/write operation.
      *
@@ -127,6 +148,25 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      */
     protected abstract void executeRW (OP_ReadWrite op);
 
+    /**
+     * Execute a read/write operation with a single value, given by its locators and value.
+     *
+     * @param type
+     *            Either {@link OperationType#read} or {@link OperationType#write}.
+     * @param ownsSource
+     *            {@code true} if the source refers to this structure.
+     * @param source
+     *            The index of the source. May be null.
+     * @param ownsTarget
+     *            {@code true} if the target refers to this structure.
+     * @param target
+     *            The index of the target. May be null.
+     * @param value
+     *            The value.
+     */
+    protected abstract void executeRW (OperationType type, boolean ownsSource, int[] source, boolean ownsTarget,
+            int[] target, double value);
+
     /**
      * Returns an element based on a Locator.
      *
@@ -136,6 +176,15 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      */
     public abstract Element getElement (Locator locator);
 
+    /**
+     * Returns the element at an index of this structure.
+     *
+     * @param index
+     *            The index of the element. May be null.
+     * @return An element if it could be found, null otherwise.
+     */
+    public abstract Element getElement (int[] index);
+
     /**
      * Resolves the VisualType for this DataStructure. Will check {@code visual} ,
      * {@code abstractType}, and {@code rawType}, in that order. This method never may not null.
@@ -147,6 +196,23 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      */
     public abstract VisualType resolveVisual ();
 
+    /**
+     * Capture the current values of this DataStructure, such that they may be restored at a later
+     * time using {@link #restoreState(State)}.
+     *
+     * @return A State for this DataStructure.
+     */
+    public abstract State saveState ();
+
+    /**
+     * Restore values previously captured by {@link #saveState()}. Any current elements will be
+     * discarded.
+     *
+     * @param state
+     *            The State to restore.
+     */
+    public abstract void restoreState (State state);
+
     // ============================================================= //
     /*
      *
@@ -181,7 +247,51 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
             toggleScope((OP_ToggleScope) op);
             return;
         default:
-            Main.console.err("OperationType \"" + op.operation + "\" unknown.");
+            // Unknown types are reported by the caller.
+            break;
+        }
+        setActive(true);
+    }
+
+    /**
+     * Apply an operation given by its type, locators and values, such as held by a
+     * {@link model.OperationStore}, without creating the operation. The first locator is the
+     * source of read and write operations and var1 of swap operations. The second locator is the
+     * target of read, write and remove operations and var2 of swap operations. The result is the
+     * same as for {@link #applyOperation(Operation)}, but only read and write operations with a
+     * single value, swap operations and remove operations are supported.
+     *
+     * @param type
+     *            The type of the operation, other than {@link OperationType#message}.
+     * @param ownsFirst
+     *            {@code true} if the first locator refers to this structure.
+     * @param first
+     *            The index of the first locator. May be null.
+     * @param ownsSecond
+     *            {@code true} if the second locator refers to this structure.
+     * @param second
+     *            The index of the second locator. May be null.
+     * @param value1
+     *            The first value. Ignored by remove operations.
+     * @param value2
+     *            The second value. Only used by swap operations.
+     */
+    public void applyOperation (OperationType type, boolean ownsFirst, int[] first, boolean ownsSecond, int[] second,
+            double value1, double value2) {
+        this.applyOperationCalled = true;
+
+        switch (type) {
+        case read:
+        case write:
+            executeRW(type, ownsFirst, first, ownsSecond, second, value1);
+            break;
+        case swap:
+            executeSwap(ownsFirst, first, ownsSecond, second, value1, value2);
+            break;
+        case remove:
+            toggleScope(ownsSecond, second);
+            return;
+        default:
             break;
         }
         setActive(true);
@@ -191,11 +301,12 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      * Indicate to the DataStructure that the lists returned by {@code getModifiedElements()}
      * <b>and</b> {@code getResetElements} have been drawn.
      *
-     * @param paint
-     *            The color to use for this element after reset. Null defaults to white.
+     * @param color
+     *            The colour to use for this element after reset, as an RGBA value.
+     *            {@link Colors#NONE} defaults to white.
      */
-    public void elementsDrawn (Paint paint) {
-        paint = paint == null ? Color.WHITE : paint;
+    public void elementsDrawn (int color) {
+        color = color == Colors.NONE ? Colors.WHITE : color;
 
         // Do not reset elements which were modified again.
         resetElements.removeAll(modifiedElements);
@@ -203,13 +314,46 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
         resetElements.removeAll(inactiveElements);
 
         for (Element e : resetElements) {
-            e.setColor(paint);
+            e.setColor(color);
         }
 
-        resetElements.setAll(modifiedElements);
+        resetElements.clear();
+        resetElements.addAll(modifiedElements);
         modifiedElements.clear();
     }
 
+    /**
+     * Make this structure the owner of an element, collecting its changes. Should be called for
+     * every element added to {@link #elements}.
+     *
+     * @param e
+     *            The element to adopt.
+     */
+    protected void adopt (Element e) {
+        e.owner = this;
+    }
+
+    /**
+     * Called by an owned element the first time it changes after its changes were published.
+     *
+     * @param e
+     *            The element which changed.
+     */
+    void elementChanged (Element e) {
+        changedElements.add(e);
+    }
+
+    /**
+     * Notify element listeners of all changes since the last call. Values and colours changed
+     * several times are only published once. Should be called once per frame by the renderer.
+     */
+    public void publishChanges () {
+        for (int i = 0; i < changedElements.size(); i++) {
+            changedElements.get(i).publishChanges();
+        }
+        changedElements.clear();
+    }
+
     /**
      * Mark an element as inactive. If this method is called with an active element as target, the
      * element will be reactivated. If the target of the Remove operation has an identifier
@@ -221,11 +365,26 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      */
     protected void toggleScope (OP_ToggleScope op) {
         Locator target = op.getTarget();
+        toggleScope(target.identifier.equals(identifier), target.index);
+    }
+
+    /**
+     * Mark an element as inactive, or reactivate it, as done by {@link #toggleScope(OP_ToggleScope)}.
+     *
+     * @param owned
+     *            {@code true} if the target refers to this structure.
+     * @param index
+     *            The index of the target. The entire structure is toggled if null.
+     */
+    protected void toggleScope (boolean owned, int[] index) {
+        if (owned == false) {
+            return;
+        }
 
         /*
          * Entire structure
          */
-        if (target.identifier.equals(identifier) && target.index == null) {
+        if (index == null) {
             toggleActive();
             return;
         }
@@ -233,7 +392,7 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
         /*
          * Single element
          */
-        Element e = getElement(target);
+        Element e = getElement(index);
         if (e != null) {
             if (inactiveElements.remove(e)) {
                 resetElements.add(e); // Reactive element
@@ -257,7 +416,7 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      *
      * @return The list of elements held by this DataStructure.
      */
-    public ObservableList<Element> getElements () {
+    public List<Element> getElements () {
         return elements;
     }
 
@@ -269,7 +428,7 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      *
      * @return A list of elements which have been modified.
      */
-    public ObservableList<Element> getModifiedElements () {
+    public List<Element> getModifiedElements () {
         return modifiedElements;
     }
 
@@ -280,7 +439,7 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      *
      * @return A list of elements whose colour should be reset.
      */
-    public ObservableList<Element> getResetElements () {
+    public List<Element> getResetElements () {
         return resetElements;
     }
 
@@ -289,7 +448,7 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      *
      * @return The list of inactive elements.
      */
-    public ObservableList<Element> getInactiveElements () {
+    public List<Element> getInactiveElements () {
         return inactiveElements;
     }
 
@@ -440,4 +599,94 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
 
     private transient VisualListener visualListener;
 
+    /**
+     * The values held by a DataStructure at a given point in time. Created by
+     * {@link DataStructure#saveState()}.
+     *
+     * @author Richard Sundqvist
+     *
+     */
+    public static final class State {
+        /**
+         * The index of each element. May contain {@code null}.
+         */
+        public final int[][]   indices;
+        /**
+         * The numeric value of each element.
+         */
+        public final double[]  values;
+        /**
+         * Indicates whether an element was inactive.
+         */
+        public final boolean[] inactive;
+        /**
+         * The active status of the structure.
+         */
+        public final boolean   active;
+        /**
+         * Operation counts for the structure, as returned by {@link OperationCounter#getCounts()}.
+         */
+        public final int[]     counts;
+        /**
+         * The colour of each element, as an RGBA value. May be null, in which case elements are
+         * given the default colour.
+         */
+        public final int[]     colors;
+        /**
+         * Operation counts for each element, {@link OperationCounter#getCounts()} of the element
+         * at {@code i} starting at {@code i * COUNTS}. May be null, in which case element counts
+         * are zero.
+         */
+        public final int[]     elementCounts;
+        /**
+         * The number of counts per element in {@link #elementCounts}.
+         */
+        public static final int COUNTS = 5;
+
+        /**
+         * Create a new State.
+         *
+         * @param indices
+         *            The index of each element.
+         * @param values
+         *            The numeric value of each element.
+         * @param inactive
+         *            Inactive status of each element.
+         * @param active
+         *            The active status of the structure.
+         * @param counts
+         *            Operation counts for the structure.
+         * @param colors
+         *            The colour of each element. May be null.
+         * @param elementCounts
+         *            Operation counts for each element. May be null.
+         */
+        public State (int[][] indices, double[] values, boolean[] inactive, boolean active, int[] counts,
+                int[] colors, int[] elementCounts) {
+            this.indices = indices;
+            this.values = values;
+            this.inactive = inactive;
+            this.active = active;
+            this.counts = counts;
+            this.colors = colors;
+            this.elementCounts = elementCounts;
+        }
+
+        /**
+         * Returns a rough estimate of the memory used by this State, in bytes.
+         *
+         * @return The approximate size of this State.
+         */
+        public long getSize () {
+            // Object headers and array headers are estimated at 16 bytes each.
+            long size = 80 + 16 * 6 + values.length * (8 + 1 + 4);
+            size += colors == null ? 0 : colors.length * 4;
+            size += elementCounts == null ? 0 : elementCounts.length * 4;
+            for (int[] index : indices) {
+                size += index == null ? 0 : 16 + index.length * 4;
+            }
+            return size;
+        }
+    }
+
 }
@@ -1,14 +1,9 @@
 package contract.datastructure;
 
-import contract.json.Operation;
 import contract.operation.OperationType;
+import contract.utility.Colors;
 import contract.utility.OperationCounter;
 import contract.utility.OperationCounter.OperationCounterHaver;
-import javafx.beans.property.SimpleDoubleProperty;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.scene.paint.Color;
-import javafx.scene.paint.Paint;
 
 /**
  * An element in a data structure.
@@ -18,23 +13,26 @@ import javafx.scene.paint.Paint;
  */
 public abstract class Element implements OperationCounterHaver {
 
+    private static final int                 VALUE_CHANGED = 1;
+    private static final int                 COLOR_CHANGED = 2;
+
     /**
-     * String property for this element. Will be updated when the string <b>or</b> double value is
-     * changed.
+     * Counter for operations performed on the element.
      */
-    public final SimpleStringProperty        stringProperty = new SimpleStringProperty();
+    protected final OperationCounter         oc             = new OperationCounter();
     /**
-     * Double property for this element. Updated whenever the value is changed.
+     * Listener notified when the value or colour of this element changes.
      */
-    public final SimpleDoubleProperty        numProperty    = new SimpleDoubleProperty();
+    private ElementListener                  listener;
     /**
-     * Fill property for this element. Updated when the {@link #count(Operation)} method is called.
+     * The structure which collects the changes of this element. Changes are published to the
+     * listener immediately if there is no owner.
      */
-    public final SimpleObjectProperty<Paint> fillProperty   = new SimpleObjectProperty<Paint>();
+    transient DataStructure                  owner;
     /**
-     * Counter for operations performed on the element.
+     * Changes not yet published to the listener.
      */
-    protected final OperationCounter         oc             = new OperationCounter();
+    private int                              changes;
 
     /*
      * Value and fill
@@ -56,9 +54,13 @@ public abstract class Element implements OperationCounterHaver {
      */
     private String                           stringValue    = null;
     /**
-     * The paint for this element.
+     * If {@code true}, the string value was set last and should be displayed.
+     */
+    private boolean                          showString     = false;
+    /**
+     * The colour of this element, as an RGBA value. See {@link Colors}.
      */
-    private Paint                            paint          = null;
+    private int                              color          = Colors.NONE;
 
     /**
      * Constructs a new Element.
@@ -88,6 +90,16 @@ public abstract class Element implements OperationCounterHaver {
         return stringValue;
     }
 
+    /**
+     * Returns the value to display for this Element. This is the string value if it was set last,
+     * the numeric value otherwise.
+     *
+     * @return The value to display.
+     */
+    public String getDisplayValue () {
+        return showString ? stringValue : " " + numValue + " ";
+    }
+
     /**
      * Set the numeric value held by this Element.
      *
@@ -97,15 +109,10 @@ public abstract class Element implements OperationCounterHaver {
     public final void setValue (double newValue) {
         prevNumValue = numValue;
 
-        if (numValue != newValue || newValue == Double.NaN) {
+        if (numValue != newValue) {
             numValue = newValue;
-            numProperty.set(newValue);
-
-            if (newValue != Double.NaN) {
-                stringProperty.setValue(" " + numValue + " ");
-            } else {
-                fillProperty.set(Color.BLACK);
-            }
+            showString = false;
+            changed(VALUE_CHANGED);
         }
     }
 
@@ -114,19 +121,20 @@ public abstract class Element implements OperationCounterHaver {
      *
      */
     public final void setValue (String newValue) {
-        if (stringValue.equals(newValue) == false) {
+        if (stringValue == null ? newValue != null : stringValue.equals(newValue) == false) {
             stringValue = newValue;
-            stringProperty.setValue(stringValue);
+            showString = true;
+            changed(VALUE_CHANGED);
         }
     }
 
     /**
-     * Returns the paint with which to draw this Element.
+     * Returns the colour with which to draw this Element.
      *
-     * @return The paint with which to draw this Element.
+     * @return The colour of this Element, as an RGBA value.
      */
-    public final Paint getPaint () {
-        return paint;
+    public final int getColor () {
+        return color;
     }
 
     /**
@@ -144,14 +152,16 @@ public abstract class Element implements OperationCounterHaver {
     }
 
     /**
-     * Set the Paint for this element.
+     * Set the colour of this element.
      *
      * @param c
-     *            The paint to use
+     *            The colour to use, as an RGBA value.
      */
-    public final void setColor (Paint c) {
-        paint = c;
-        fillProperty.setValue(paint);
+    public final void setColor (int c) {
+        if (color != c) {
+            color = c;
+            changed(COLOR_CHANGED);
+        }
     }
 
     /**
@@ -185,4 +195,84 @@ public abstract class Element implements OperationCounterHaver {
     @Override public OperationCounter getCounter () {
         return oc;
     }
+
+    /**
+     * Record a change. The change is published by the owner when
+     * {@link DataStructure#publishChanges()} is called.
+     *
+     * @param change
+     *            {@link #VALUE_CHANGED} or {@link #COLOR_CHANGED}.
+     */
+    private void changed (int change) {
+        if (listener == null) {
+            return;
+        }
+        if (owner == null) {
+            changes |= change;
+            publishChanges();
+            return;
+        }
+        if (changes == 0) {
+            owner.elementChanged(this);
+        }
+        changes |= change;
+    }
+
+    /**
+     * Notify the listener of all changes since the last call.
+     */
+    void publishChanges () {
+        int published = changes;
+        changes = 0;
+        if (listener != null) {
+            if ((published & VALUE_CHANGED) != 0) {
+                listener.valueChanged(this);
+            }
+            if ((published & COLOR_CHANGED) != 0) {
+                listener.colorChanged(this);
+            }
+        }
+    }
+
+    /**
+     * Set the listener for this element. Only one listener is supported. Changes are collected by
+     * the structure owning this element and published once per call to
+     * {@link DataStructure#publishChanges()}.
+     *
+     * @param listener
+     *            An ElementListener. May be null.
+     */
+    public void setListener (ElementListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the listener for this element.
+     *
+     * @return The listener for this element. May be null.
+     */
+    public ElementListener getListener () {
+        return listener;
+    }
+
+    /**
+     * Interface for listening to changes in an element.
+     */
+    public interface ElementListener {
+        /**
+         * Called when the numeric or display value of an element changes.
+         *
+         * @param element
+         *            The element which changed.
+         */
+        public void valueChanged (Element element);
+
+        /**
+         * Called when the colour of an element changes.
+         *
+         * @param element
+         *            The element which changed.
+         */
+        public void colorChanged (Element element);
+    }
 }
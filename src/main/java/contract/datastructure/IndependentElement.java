@@ -48,6 +48,7 @@ public class IndependentElement extends Array {
     public void setElement (Element newElement) {
         elements.clear();
         elements.add(newElement);
+        adopt(newElement);
     }
 
     /**
@@ -60,6 +61,7 @@ public class IndependentElement extends Array {
         Element init = new Array.IndexedElement(value, new int[] { 0 });
         elements.clear();
         elements.add(init);
+        adopt(init);
     }
 
     /**
@@ -76,6 +78,7 @@ public class IndependentElement extends Array {
 
     @Override public void clear () {
         elements.clear();
+        clearElementLists();
         oc.reset();
         setRepaintAll(true);
     }
@@ -85,15 +88,27 @@ public class IndependentElement extends Array {
         setRepaintAll(true);
     }
 
+    @Override public void applyOperation (OperationType type, boolean ownsFirst, int[] first, boolean ownsSecond,
+            int[] second, double value1, double value2) {
+        super.applyOperation(type, ownsFirst, first, ownsSecond, second, value1, value2);
+        setRepaintAll(true);
+    }
+
     @Override protected void executeSwap (OP_Swap op) {
+        executeSwap(op.getVar1().identifier.equals(identifier), op.getVar1().index,
+                op.getVar2().identifier.equals(identifier), op.getVar2().index, op.getValue() [0], op.getValue() [1]);
+    }
+
+    @Override protected void executeSwap (boolean ownsVar1, int[] var1, boolean ownsVar2, int[] var2, double value1,
+            double value2) {
         Element e = elements.get(0);
-        if (op.getVar1().identifier.equals(identifier)) {
-            e.setValue(op.getValue() [0]);
+        if (ownsVar1) {
+            e.setValue(value1);
             e.count(OperationType.swap);
             oc.count(OperationType.swap);
             return;
-        } else if (op.getVar2().identifier.equals(identifier)) {
-            e.setValue(op.getValue() [1]);
+        } else if (ownsVar2) {
+            e.setValue(value2);
             e.count(OperationType.swap);
             oc.count(OperationType.swap);
             return;
@@ -101,17 +116,26 @@ public class IndependentElement extends Array {
     }
 
     @Override protected void executeRW (OP_ReadWrite op) {
+        Locator source = op.getSource();
+        Locator target = op.getTarget();
+        executeRW(op.operation, source != null && source.identifier.equals(identifier),
+                source == null ? null : source.index, target != null && target.identifier.equals(identifier),
+                target == null ? null : target.index, op.getValue() [0]);
+    }
+
+    @Override protected void executeRW (OperationType type, boolean ownsSource, int[] source, boolean ownsTarget,
+            int[] target, double value) {
         if (elements.isEmpty()) {
-            initElement(op.getValue() [0]);
+            initElement(value);
         }
         Element e = elements.get(0);
-        if (op.getTarget() != null && op.getTarget().identifier.equals(identifier)) {
-            e.setValue(op.getValue() [0]);
+        if (ownsTarget) {
+            e.setValue(value);
             modifiedElements.add(e);
             e.count(OperationType.write);
             oc.count(OperationType.write);
             return;
-        } else if (op.getSource() != null && op.getSource().identifier.equals(identifier)) {
+        } else if (ownsSource) {
             modifiedElements.add(e);
             e.count(OperationType.read);
             oc.count(OperationType.read);
@@ -135,6 +159,10 @@ public class IndependentElement extends Array {
         }
     }
 
+    @Override public IndexedElement getElement (int[] index) {
+        return elements.isEmpty() ? null : (IndexedElement) elements.get(0);
+    }
+
     @Override public String toString () {
         StringBuilder sb = new StringBuilder();
         sb.append("\"" + Tools.stripQualifiers(identifier) + "\": " + rawType);
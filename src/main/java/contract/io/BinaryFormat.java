@@ -0,0 +1,193 @@
+package contract.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Constants and primitive encodings shared by {@link BinaryLogWriter} and
+ * {@link BinaryLogReader}. <br>
+ * <br>
+ * A binary log starts with {@link #MAGIC}, a version byte and the header as length-prefixed
+ * UTF-8 JSON. The body follows as a sequence of blocks, each holding a varint operation count, a
+ * codec byte, the varint raw and stored lengths, and the stored bytes. A block with an operation
+ * count of zero ends the log. Blocks are self-contained: the dictionary of identifiers and the
+ * previous indices used for delta encoding are reset at the start of every block. <br>
+ * <br>
+ * Every operation starts with a varint opcode holding the kind in the low three bits and
+ * {@code FLAG_*} bits above it. Strings are written as dictionary references, where zero is
+ * followed by a new string and {@code n > 0} refers to the {@code n}:th string of the block.
+ */
+final class BinaryFormat {
+
+    /**
+     * The first bytes of every binary log.
+     */
+    static final byte[] MAGIC             = { 'V', 'L', 'O', 'G' };
+    /**
+     * The current version of the format.
+     */
+    static final int    VERSION           = 1;
+
+    static final int    CODEC_NONE        = 0;
+    static final int    CODEC_DEFLATE     = 1;
+
+    static final int    KIND_READ         = 0;
+    static final int    KIND_WRITE        = 1;
+    static final int    KIND_SWAP         = 2;
+    static final int    KIND_REMOVE       = 3;
+    static final int    KIND_MESSAGE      = 4;
+    /**
+     * Operations which cannot be encoded, stored as JSON.
+     */
+    static final int    KIND_JSON         = 5;
+    static final int    KIND_BITS         = 3;
+
+    /**
+     * The source file and position of the operation follow.
+     */
+    static final int    FLAG_SOURCE       = 1 << KIND_BITS;
+    /**
+     * The source, or first variable of a swap, follows.
+     */
+    static final int    FLAG_FIRST        = 2 << KIND_BITS;
+    /**
+     * The target, or second variable of a swap, follows.
+     */
+    static final int    FLAG_SECOND       = 4 << KIND_BITS;
+    /**
+     * The value follows.
+     */
+    static final int    FLAG_VALUE        = 8 << KIND_BITS;
+
+    /**
+     * Upper bound for the length of a block and the header, guarding against corrupt lengths.
+     */
+    static final int    MAX_BLOCK_LENGTH  = 1 << 28;
+
+    private BinaryFormat () {}
+
+    /**
+     * A growable buffer which primitives are written to.
+     */
+    static final class Sink {
+        byte[] data = new byte[1024];
+        int    size;
+
+        void clear () {
+            size = 0;
+        }
+
+        void ensure (int n) {
+            if (size + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+            }
+        }
+
+        void writeByte (int b) {
+            ensure(1);
+            data [size++] = (byte) b;
+        }
+
+        void writeVarint (long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data [size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data [size++] = (byte) value;
+        }
+
+        void writeZigzag (int value) {
+            writeVarint(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        }
+
+        void writeDouble (double value) {
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                data [size++] = (byte) bits;
+                bits >>>= 8;
+            }
+        }
+
+        void writeString (String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+    }
+
+    /**
+     * Reads primitives from a byte array.
+     */
+    static final class Source {
+        byte[] data;
+        int    position;
+        int    limit;
+
+        void reset (byte[] data, int limit) {
+            this.data = data;
+            this.limit = limit;
+            position = 0;
+        }
+
+        boolean hasRemaining () {
+            return position < limit;
+        }
+
+        int readByte () throws IOException {
+            if (position >= limit) {
+                throw new EOFException("Unexpected end of block.");
+            }
+            return data [position++] & 0xFF;
+        }
+
+        long readVarint () throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint.");
+        }
+
+        int readLength () throws IOException {
+            long length = readVarint();
+            if (length > limit - position) {
+                throw new StreamCorruptedException("Length out of bounds: " + length);
+            }
+            return (int) length;
+        }
+
+        int readZigzag () throws IOException {
+            int value = (int) readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double readDouble () throws IOException {
+            if (limit - position < 8) {
+                throw new EOFException("Unexpected end of block.");
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (long) (data [position++] & 0xFF) << (i * 8);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString () throws IOException {
+            int length = readLength();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
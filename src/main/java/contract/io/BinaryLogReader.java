@@ -0,0 +1,251 @@
+package contract.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+import com.google.gson.Gson;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Reads logs written by a {@link BinaryLogWriter}, one block at a time. The operations produced
+ * are the same as those produced by a {@link LogReader} for the equivalent JSON log.
+ */
+public class BinaryLogReader implements Closeable {
+
+    /**
+     * Shared, since building a Gson costs more than reading a small message.
+     */
+    private static final Gson            GSON       = GsonContructor.build();
+    private final DataInputStream        in;
+    private final long                   length;
+    private final BlockDecoder           decoder    = new BlockDecoder(GSON.getAdapter(Operation.class));
+    private Inflater                     inflater;
+    private byte[]                       raw        = new byte[0];
+    private byte[]                       stored     = new byte[0];
+    private long                         bytesRead;
+    private LogReader.ProgressListener   progressListener;
+    private int                          operationCount;
+
+    /**
+     * Create a new BinaryLogReader for a file.
+     *
+     * @param file
+     *            The file to read.
+     * @throws FileNotFoundException
+     *             If {@code file} could not be opened.
+     */
+    public BinaryLogReader (File file) throws FileNotFoundException {
+        this(new FileInputStream(file), file.length());
+    }
+
+    /**
+     * Create a new BinaryLogReader for a stream.
+     *
+     * @param stream
+     *            The stream to read.
+     * @param length
+     *            The length of the stream in bytes, or -1 if unknown. Used for progress reports.
+     */
+    public BinaryLogReader (InputStream stream, long length) {
+        // Streams of small messages do not need a full buffer.
+        int bufferSize = length > 0 && length < 1 << 16 ? (int) length : 1 << 16;
+        in = new DataInputStream(new BufferedInputStream(stream, bufferSize));
+        this.length = length;
+    }
+
+    /**
+     * Returns {@code true} if {@code file} starts with the magic number of binary logs.
+     *
+     * @param file
+     *            The file to check.
+     * @return {@code true} if {@code file} is a binary log.
+     */
+    public static boolean isBinaryLog (File file) {
+        byte[] magic = new byte[BinaryFormat.MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(magic);
+        } catch (IOException e) {
+            return false;
+        }
+        return Arrays.equals(magic, BinaryFormat.MAGIC);
+    }
+
+    /**
+     * Set the listener to notify of progress while reading. The listener is notified after every
+     * block in which the number of operations read passes a multiple of
+     * {@link LogReader#PROGRESS_INTERVAL}.
+     *
+     * @param listener
+     *            A ProgressListener. May be null.
+     */
+    public void setProgressListener (LogReader.ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Read the log, handing the header and each operation to {@code handler} in order.
+     *
+     * @param handler
+     *            The handler to receive the header and operations.
+     * @return {@code false} if reading was aborted by the handler, {@code true} otherwise.
+     * @throws IOException
+     *             If the log could not be read, is truncated or malformed.
+     */
+    public boolean read (LogReader.Handler handler) throws IOException {
+        Header header = readHeader();
+        if (header != null && handler.header(header) == false) {
+            return false;
+        }
+
+        int count;
+        while ((count = readBlock()) > 0) {
+            int before = operationCount;
+            for (int i = 0; i < count; i++) {
+                Operation op = decoder.read();
+                operationCount++;
+                if (op != null && handler.operation(op) == false) {
+                    return false;
+                }
+            }
+            if (decoder.hasRemaining()) {
+                throw new StreamCorruptedException("Block has trailing bytes.");
+            }
+            if (before / LogReader.PROGRESS_INTERVAL != operationCount / LogReader.PROGRESS_INTERVAL) {
+                reportProgress();
+            }
+        }
+        reportProgress();
+        return true;
+    }
+
+    /**
+     * Returns the number of operations read so far, including those of unknown types.
+     *
+     * @return The number of operations read.
+     */
+    public int getOperationCount () {
+        return operationCount;
+    }
+
+    @Override public void close () throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        in.close();
+    }
+
+    private void reportProgress () {
+        if (progressListener != null) {
+            progressListener.progress(bytesRead, length, operationCount);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Framing
+     *
+     */
+    // ============================================================= //
+
+    private Header readHeader () throws IOException {
+        byte[] magic = new byte[BinaryFormat.MAGIC.length];
+        in.readFully(magic);
+        if (Arrays.equals(magic, BinaryFormat.MAGIC) == false) {
+            throw new StreamCorruptedException("Not a binary log.");
+        }
+        int version = in.readUnsignedByte();
+        if (version != BinaryFormat.VERSION) {
+            throw new StreamCorruptedException("Unsupported binary log version: " + version);
+        }
+        bytesRead = magic.length + 1;
+
+        int headerLength = readFrameLength();
+        if (headerLength == 0) {
+            return null;
+        }
+        byte[] json = new byte[headerLength];
+        in.readFully(json);
+        bytesRead += headerLength;
+        return GSON.fromJson(new String(json, StandardCharsets.UTF_8), Header.class);
+    }
+
+    /**
+     * Read the next block and hand it to the decoder.
+     *
+     * @return The number of operations in the block, or 0 at the end of the log.
+     */
+    private int readBlock () throws IOException {
+        int count = readFrameLength();
+        if (count == 0) {
+            return 0;
+        }
+        int codec = in.readUnsignedByte();
+        bytesRead++;
+        int rawLength = readFrameLength();
+        int storedLength = readFrameLength();
+
+        if (raw.length < rawLength) {
+            raw = new byte[rawLength];
+        }
+        switch (codec) {
+        case BinaryFormat.CODEC_NONE:
+            if (storedLength != rawLength) {
+                throw new StreamCorruptedException("Stored length differs from raw length.");
+            }
+            in.readFully(raw, 0, rawLength);
+            break;
+        case BinaryFormat.CODEC_DEFLATE:
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            in.readFully(stored, 0, storedLength);
+            if (inflater == null) {
+                inflater = new Inflater();
+            }
+            BlockDecoder.inflate(inflater, stored, storedLength, raw, rawLength);
+            break;
+        default:
+            throw new StreamCorruptedException("Unknown codec: " + codec);
+        }
+        bytesRead += storedLength;
+
+        decoder.reset(raw, rawLength);
+        return count;
+    }
+
+    /**
+     * Read a varint from the underlying stream.
+     */
+    private int readFrameLength () throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of log.");
+            }
+            bytesRead++;
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                if (value > BinaryFormat.MAX_BLOCK_LENGTH) {
+                    throw new StreamCorruptedException("Length out of bounds: " + value);
+                }
+                return (int) value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed length.");
+    }
+}
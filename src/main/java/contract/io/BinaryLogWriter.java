@@ -0,0 +1,361 @@
+package contract.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+import contract.json.Header;
+import contract.json.Locator;
+import contract.json.Operation;
+import contract.operation.Key;
+
+/**
+ * Writes logs in the compact binary format described by {@link BinaryFormat}. Operations are
+ * buffered and written in blocks of at most {@link #BLOCK_OPERATIONS} operations, optionally
+ * compressed using deflate. Reading a binary log using a {@link BinaryLogReader} produces the same
+ * operations as reading the JSON log printed by {@link LogStreamManager}.
+ */
+public class BinaryLogWriter implements Closeable {
+
+    /**
+     * The file extension of binary logs, without the leading dot.
+     */
+    public static final String           EXTENSION        = "vlog";
+    /**
+     * The maximum number of operations in a block.
+     */
+    public static final int              BLOCK_OPERATIONS = 4096;
+    /**
+     * Blocks are written once their encoded size exceeds this many bytes.
+     */
+    public static final int              BLOCK_BYTES      = 1 << 18;
+
+    /**
+     * Shared, since building a Gson costs more than writing a small message.
+     */
+    private static final Gson            GSON             = GsonContructor.build();
+    private final TypeAdapter<Operation> operations       = GSON.getAdapter(Operation.class);
+    private final OutputStream           out;
+    private final BinaryFormat.Sink      block            = new BinaryFormat.Sink();
+    private final BinaryFormat.Sink      frame            = new BinaryFormat.Sink();
+    private final Deflater               deflater;
+    private byte[]                       compressed       = new byte[0];
+    private int                          blockOperations;
+    /**
+     * Dictionary of the current block.
+     */
+    private final Map<String, Integer>   strings          = new HashMap<String, Integer>();
+    /**
+     * The previous index written for the first and second locator of the current block.
+     */
+    private int[]                        firstIndex       = new int[0];
+    private int[]                        secondIndex      = new int[0];
+    private boolean                      closed;
+
+    /**
+     * Create a new BinaryLogWriter for a file.
+     *
+     * @param file
+     *            The file to write.
+     * @param header
+     *            The header of the log. May be null.
+     * @param compress
+     *            If {@code true}, blocks are compressed.
+     * @throws IOException
+     *             If the file could not be opened or written.
+     */
+    public BinaryLogWriter (File file, Header header, boolean compress) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), header, compress);
+    }
+
+    /**
+     * Create a new BinaryLogWriter. The magic number, version and header are written immediately.
+     *
+     * @param out
+     *            The stream to write to.
+     * @param header
+     *            The header of the log. May be null.
+     * @param compress
+     *            If {@code true}, blocks are compressed.
+     * @throws IOException
+     *             If writing to {@code out} fails.
+     */
+    public BinaryLogWriter (OutputStream out, Header header, boolean compress) throws IOException {
+        this.out = out;
+        deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+        out.write(BinaryFormat.MAGIC);
+        out.write(BinaryFormat.VERSION);
+        byte[] json = header == null ? new byte[0] : GSON.toJson(header).getBytes(StandardCharsets.UTF_8);
+        frame.clear();
+        frame.writeVarint(json.length);
+        out.write(frame.data, 0, frame.size);
+        out.write(json);
+    }
+
+    /**
+     * Write an operation. Operations which cannot be encoded in binary form are stored as JSON.
+     * Operations without a type are skipped, since they are skipped when logs are read.
+     *
+     * @param op
+     *            The operation to write. {@code null} is ignored.
+     * @throws IOException
+     *             If writing fails.
+     */
+    public void write (Operation op) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed.");
+        }
+        if (op == null || op.operation == null) {
+            return;
+        }
+        encode(op);
+        if (++blockOperations == BLOCK_OPERATIONS || block.size >= BLOCK_BYTES) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Write all buffered operations as a block and flush the underlying stream.
+     *
+     * @throws IOException
+     *             If writing fails.
+     */
+    public void flush () throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Write all buffered operations, end the log and close the underlying stream.
+     */
+    @Override public void close () throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeBlock();
+            out.write(0);
+            out.flush();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Encoding
+     *
+     */
+    // ============================================================= //
+
+    private void encode (Operation op) {
+        int kind = kindOf(op);
+        if (kind == BinaryFormat.KIND_JSON) {
+            block.writeVarint(BinaryFormat.KIND_JSON);
+            block.writeString(operations.toJson(op));
+            return;
+        }
+
+        Locator first = null;
+        Locator second = null;
+        switch (kind) {
+        case BinaryFormat.KIND_READ:
+        case BinaryFormat.KIND_WRITE:
+            first = (Locator) op.operationBody.get(Key.source);
+            second = (Locator) op.operationBody.get(Key.target);
+            break;
+        case BinaryFormat.KIND_SWAP:
+            first = (Locator) op.operationBody.get(Key.var1);
+            second = (Locator) op.operationBody.get(Key.var2);
+            break;
+        case BinaryFormat.KIND_REMOVE:
+            second = (Locator) op.operationBody.get(Key.target);
+            break;
+        }
+        Object value = op.operationBody.get(Key.value);
+
+        int opcode = kind;
+        opcode |= op.source != null ? BinaryFormat.FLAG_SOURCE : 0;
+        opcode |= first != null && first.identifier != null ? BinaryFormat.FLAG_FIRST : 0;
+        opcode |= second != null && second.identifier != null ? BinaryFormat.FLAG_SECOND : 0;
+        opcode |= value != null ? BinaryFormat.FLAG_VALUE : 0;
+        block.writeVarint(opcode);
+
+        if ((opcode & BinaryFormat.FLAG_SOURCE) != 0) {
+            writeDictionary(op.source);
+            block.writeZigzag(op.beginLine);
+            block.writeZigzag(op.endLine);
+            block.writeZigzag(op.beginColumn);
+            block.writeZigzag(op.endColumn);
+        }
+        if ((opcode & BinaryFormat.FLAG_FIRST) != 0) {
+            firstIndex = writeLocator(first, firstIndex);
+        }
+        if ((opcode & BinaryFormat.FLAG_SECOND) != 0) {
+            secondIndex = writeLocator(second, secondIndex);
+        }
+        if ((opcode & BinaryFormat.FLAG_VALUE) != 0) {
+            if (kind == BinaryFormat.KIND_MESSAGE) {
+                block.writeString((String) value);
+            } else {
+                double[] values = (double[]) value;
+                block.writeVarint(values.length);
+                for (double d : values) {
+                    block.writeDouble(d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the kind of an operation, or {@link BinaryFormat#KIND_JSON} if its body holds
+     * values which cannot be encoded.
+     */
+    private static int kindOf (Operation op) {
+        if (op.operationBody == null) {
+            return BinaryFormat.KIND_JSON;
+        }
+        int kind;
+        switch (op.operation) {
+        case read:
+            kind = BinaryFormat.KIND_READ;
+            break;
+        case write:
+            kind = BinaryFormat.KIND_WRITE;
+            break;
+        case swap:
+            kind = BinaryFormat.KIND_SWAP;
+            break;
+        case remove:
+            kind = BinaryFormat.KIND_REMOVE;
+            break;
+        case message:
+            kind = BinaryFormat.KIND_MESSAGE;
+            break;
+        default:
+            return BinaryFormat.KIND_JSON;
+        }
+        for (Map.Entry<Key, Object> e : op.operationBody.entrySet()) {
+            Object value = e.getValue();
+            if (value != null && encodable(kind, e.getKey(), value) == false) {
+                return BinaryFormat.KIND_JSON;
+            }
+        }
+        return kind;
+    }
+
+    private static boolean encodable (int kind, Key key, Object value) {
+        switch (key) {
+        case source:
+        case target:
+            return value instanceof Locator && (kind == BinaryFormat.KIND_READ || kind == BinaryFormat.KIND_WRITE
+                    || (kind == BinaryFormat.KIND_REMOVE && key == Key.target));
+        case var1:
+        case var2:
+            return value instanceof Locator && kind == BinaryFormat.KIND_SWAP;
+        case value:
+            return kind == BinaryFormat.KIND_MESSAGE ? value instanceof String
+                    : value instanceof double[] && kind != BinaryFormat.KIND_REMOVE;
+        default:
+            return false;
+        }
+    }
+
+    private void writeDictionary (String string) {
+        Integer id = strings.get(string);
+        if (id == null) {
+            strings.put(string, strings.size() + 1);
+            block.writeVarint(0);
+            block.writeString(string);
+        } else {
+            block.writeVarint(id);
+        }
+    }
+
+    /**
+     * Write a locator, delta encoding its index against {@code previous}.
+     *
+     * @return The index to use as {@code previous} for the next locator in the same position.
+     */
+    private int[] writeLocator (Locator locator, int[] previous) {
+        writeDictionary(locator.identifier);
+        int[] index = locator.index;
+        if (index == null) {
+            block.writeVarint(0);
+            return previous;
+        }
+        block.writeVarint(index.length + 1);
+        for (int i = 0; i < index.length; i++) {
+            block.writeZigzag(index [i] - (i < previous.length ? previous [i] : 0));
+        }
+        return index.length < previous.length ? mergeIndex(index, previous) : index;
+    }
+
+    /**
+     * Returns {@code previous} with its first components replaced by {@code index}.
+     */
+    private static int[] mergeIndex (int[] index, int[] previous) {
+        int[] merged = Arrays.copyOf(previous, previous.length);
+        System.arraycopy(index, 0, merged, 0, index.length);
+        return merged;
+    }
+
+    private void writeBlock () throws IOException {
+        if (blockOperations == 0) {
+            return;
+        }
+
+        int codec = BinaryFormat.CODEC_NONE;
+        byte[] stored = block.data;
+        int storedLength = block.size;
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(block.data, 0, block.size);
+            deflater.finish();
+            if (compressed.length < block.size) {
+                compressed = new byte[block.size];
+            }
+            int length = 0;
+            while (deflater.finished() == false && length < block.size) {
+                length += deflater.deflate(compressed, length, block.size - length);
+            }
+            // Keep incompressible blocks as they are.
+            if (deflater.finished() && length < block.size) {
+                codec = BinaryFormat.CODEC_DEFLATE;
+                stored = compressed;
+                storedLength = length;
+            }
+        }
+
+        frame.clear();
+        frame.writeVarint(blockOperations);
+        frame.writeByte(codec);
+        frame.writeVarint(block.size);
+        frame.writeVarint(storedLength);
+        out.write(frame.data, 0, frame.size);
+        out.write(stored, 0, storedLength);
+
+        block.clear();
+        blockOperations = 0;
+        strings.clear();
+        firstIndex = new int[0];
+        secondIndex = new int[0];
+    }
+}
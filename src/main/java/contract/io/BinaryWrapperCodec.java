@@ -0,0 +1,112 @@
+package contract.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import contract.json.Header;
+import contract.json.Operation;
+import contract.json.Root;
+
+/**
+ * Encodes wrappers sent by a {@link JGroupCommunicator} in binary mode. A frame holds
+ * {@link #MAGIC}, the id of the sender as four bytes, big-endian, and the wrapper as an
+ * uncompressed binary log, see {@link BinaryFormat}. The magic number cannot begin a message
+ * serialized by JGroups, so both kinds of messages can be told apart on the same channel.
+ */
+final class BinaryWrapperCodec {
+
+    /**
+     * The first bytes of every frame.
+     */
+    static final byte[] MAGIC         = { 'V', 'W', 'R', 'P' };
+    /**
+     * The length of the magic number and sender id.
+     */
+    static final int    PREFIX_LENGTH = MAGIC.length + 4;
+
+    private BinaryWrapperCodec () {}
+
+    /**
+     * Encode a wrapper.
+     *
+     * @param wrapper
+     *            The wrapper to encode.
+     * @param senderId
+     *            The id of the sender.
+     * @return A frame holding the wrapper.
+     * @throws IOException
+     *             If the wrapper could not be encoded.
+     */
+    static byte[] encode (Root wrapper, int senderId) throws IOException {
+        int expected = wrapper.body == null ? 64 : 64 + wrapper.body.size() * 24;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(expected);
+        out.write(MAGIC);
+        out.write(senderId >>> 24);
+        out.write(senderId >>> 16);
+        out.write(senderId >>> 8);
+        out.write(senderId);
+        try (BinaryLogWriter writer = new BinaryLogWriter(out, wrapper.header, false)) {
+            if (wrapper.body != null) {
+                for (Operation op : wrapper.body) {
+                    writer.write(op);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns {@code true} if {@code buffer} holds a frame.
+     */
+    static boolean isFrame (byte[] buffer, int offset, int length) {
+        if (buffer == null || length < PREFIX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer [offset + i] != MAGIC [i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of the sender of a frame.
+     */
+    static int getSenderId (byte[] buffer, int offset) {
+        int i = offset + MAGIC.length;
+        return (buffer [i] & 0xFF) << 24 | (buffer [i + 1] & 0xFF) << 16 | (buffer [i + 2] & 0xFF) << 8
+                | buffer [i + 3] & 0xFF;
+    }
+
+    /**
+     * Decode the wrapper of a frame. The body of the wrapper is {@code null} if it holds no
+     * operations.
+     *
+     * @throws IOException
+     *             If the frame is malformed.
+     */
+    static Root decode (byte[] buffer, int offset, int length) throws IOException {
+        Header[] header = new Header[1];
+        List<Operation> body = new ArrayList<Operation>();
+        ByteArrayInputStream in = new ByteArrayInputStream(buffer, offset + PREFIX_LENGTH, length - PREFIX_LENGTH);
+        try (BinaryLogReader reader = new BinaryLogReader(in, length - PREFIX_LENGTH)) {
+            reader.read(new LogReader.Handler() {
+
+                @Override public boolean header (Header h) {
+                    header [0] = h;
+                    return true;
+                }
+
+                @Override public boolean operation (Operation op) {
+                    body.add(op);
+                    return true;
+                }
+            });
+        }
+        return new Root(header [0], body.isEmpty() ? null : body);
+    }
+}
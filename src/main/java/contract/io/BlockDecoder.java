@@ -0,0 +1,227 @@
+package contract.io;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.gson.TypeAdapter;
+
+import contract.json.Locator;
+import contract.json.LocatorPool;
+import contract.json.Operation;
+import contract.operation.OperationType;
+
+/**
+ * Decodes the operations of a single block of a binary log. Blocks are self-contained, so a
+ * decoder may be reset to any block of the log.
+ */
+final class BlockDecoder {
+
+    private final TypeAdapter<Operation> operations;
+    private final BinaryFormat.Source    source   = new BinaryFormat.Source();
+    /**
+     * Dictionary of the current block.
+     */
+    private final ArrayList<String>      strings  = new ArrayList<String>();
+    /**
+     * The previous index read for the first and second locator of the current block.
+     */
+    private final int[][]                previous = new int[2][];
+
+    /**
+     * Create a new BlockDecoder.
+     *
+     * @param operations
+     *            The adapter used for operations stored as JSON.
+     */
+    BlockDecoder (TypeAdapter<Operation> operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Start decoding a block.
+     *
+     * @param raw
+     *            The uncompressed block.
+     * @param length
+     *            The length of the block.
+     */
+    void reset (byte[] raw, int length) {
+        source.reset(raw, length);
+        strings.clear();
+        previous [0] = new int[0];
+        previous [1] = new int[0];
+    }
+
+    /**
+     * Returns {@code true} if there are bytes left in the block.
+     *
+     * @return {@code true} if the block has not been fully decoded.
+     */
+    boolean hasRemaining () {
+        return source.hasRemaining();
+    }
+
+    /**
+     * Inflate a deflate compressed block.
+     *
+     * @param inflater
+     *            The inflater to use. It is reset before use.
+     * @param stored
+     *            The compressed block.
+     * @param storedLength
+     *            The length of the compressed block.
+     * @param raw
+     *            The buffer to inflate into.
+     * @param rawLength
+     *            The expected length of the inflated block.
+     * @throws IOException
+     *             If the block could not be inflated to exactly {@code rawLength} bytes.
+     */
+    static void inflate (Inflater inflater, byte[] stored, int storedLength, byte[] raw, int rawLength)
+            throws IOException {
+        inflater.reset();
+        inflater.setInput(stored, 0, storedLength);
+        try {
+            int length = 0;
+            while (length < rawLength && inflater.finished() == false) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength || inflater.finished() == false) {
+                throw new StreamCorruptedException("Block could not be inflated.");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the next operation of the block.
+     *
+     * @return The operation read, or {@code null} if it is of an unknown type.
+     * @throws IOException
+     *             If the block is malformed.
+     */
+    Operation read () throws IOException {
+        int opcode = (int) source.readVarint();
+        int kind = opcode & ((1 << BinaryFormat.KIND_BITS) - 1);
+        if (kind == BinaryFormat.KIND_JSON) {
+            return operations.fromJson(source.readString());
+        }
+
+        OperationType type;
+        switch (kind) {
+        case BinaryFormat.KIND_READ:
+            type = OperationType.read;
+            break;
+        case BinaryFormat.KIND_WRITE:
+            type = OperationType.write;
+            break;
+        case BinaryFormat.KIND_SWAP:
+            type = OperationType.swap;
+            break;
+        case BinaryFormat.KIND_REMOVE:
+            type = OperationType.remove;
+            break;
+        case BinaryFormat.KIND_MESSAGE:
+            type = OperationType.message;
+            break;
+        default:
+            throw new StreamCorruptedException("Unknown operation kind: " + kind);
+        }
+
+        String sourceName = null;
+        int beginLine = 0;
+        int endLine = 0;
+        int beginColumn = 0;
+        int endColumn = 0;
+        if ((opcode & BinaryFormat.FLAG_SOURCE) != 0) {
+            sourceName = readDictionary();
+            beginLine = source.readZigzag();
+            endLine = source.readZigzag();
+            beginColumn = source.readZigzag();
+            endColumn = source.readZigzag();
+        }
+        Locator first = null;
+        Locator second = null;
+        if ((opcode & BinaryFormat.FLAG_FIRST) != 0) {
+            first = readLocator(0);
+        }
+        if ((opcode & BinaryFormat.FLAG_SECOND) != 0) {
+            second = readLocator(1);
+        }
+        Object value = null;
+        if ((opcode & BinaryFormat.FLAG_VALUE) != 0) {
+            if (kind == BinaryFormat.KIND_MESSAGE) {
+                value = source.readString();
+            } else {
+                double[] values = new double[source.readLength()];
+                for (int i = 0; i < values.length; i++) {
+                    values [i] = source.readDouble();
+                }
+                value = values;
+            }
+        }
+
+        Operation op;
+        if (kind == BinaryFormat.KIND_SWAP) {
+            op = GsonContructor.newOperation(type, null, null, first, second, value);
+        } else {
+            op = GsonContructor.newOperation(type, second, first, null, null, value);
+        }
+        if (sourceName != null) {
+            op.source = sourceName;
+            op.beginLine = beginLine;
+            op.endLine = endLine;
+            op.beginColumn = beginColumn;
+            op.endColumn = endColumn;
+        }
+        return op;
+    }
+
+    private String readDictionary () throws IOException {
+        long id = source.readVarint();
+        if (id == 0) {
+            String string = source.readString();
+            strings.add(string);
+            return string;
+        } else if (id > strings.size()) {
+            throw new StreamCorruptedException("Unknown dictionary entry: " + id);
+        }
+        return strings.get((int) id - 1);
+    }
+
+    /**
+     * Read a locator, decoding its index against the previous index in the same position.
+     */
+    private Locator readLocator (int position) throws IOException {
+        String identifier = readDictionary();
+        // Zero for no index, otherwise the length of the index plus one.
+        long length = source.readVarint();
+        if (length == 0) {
+            return LocatorPool.get(identifier, null);
+        } else if (length - 1 > source.limit - source.position) {
+            throw new StreamCorruptedException("Index length out of bounds: " + (length - 1));
+        }
+        int[] last = previous [position];
+        int[] index = new int[(int) length - 1];
+        for (int i = 0; i < index.length; i++) {
+            index [i] = source.readZigzag() + (i < last.length ? last [i] : 0);
+        }
+        if (index.length < last.length) {
+            last = Arrays.copyOf(last, last.length);
+            System.arraycopy(index, 0, last, 0, index.length);
+            previous [position] = last;
+        } else {
+            previous [position] = index;
+        }
+        return LocatorPool.get(identifier, index);
+    }
+}
@@ -1,11 +1,35 @@
 package contract.io;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import contract.json.Locator;
+import contract.json.LocatorPool;
+import contract.json.Operation;
+import contract.operation.Key;
+import contract.operation.OP_Message;
+import contract.operation.OP_Read;
+import contract.operation.OP_ReadWrite;
+import contract.operation.OP_Swap;
+import contract.operation.OP_ToggleScope;
+import contract.operation.OP_Write;
+import contract.operation.OperationType;
 
 public abstract class GsonContructor {
 
-    private static final GsonBuilder gsonBuilder = new GsonBuilder();
+    /**
+     * Adapters for operations and locators.
+     */
+    private static final TypeAdapterFactory OPERATION_ADAPTERS = new OperationAdapterFactory();
 
     /**
      * Returns a Gson instance with all the required bells and whistles attached.
@@ -17,13 +41,18 @@ public abstract class GsonContructor {
     }
 
     /**
-     * Returns a Gson instance with all the required bells and whistles attached.
+     * Returns a Gson instance with all the required bells and whistles attached. Operations are
+     * read directly into {@link OP_Read}, {@link OP_Write}, {@link OP_Swap},
+     * {@link OP_ToggleScope} and {@link OP_Message} instances holding primitive arrays, and
+     * written without intermediate maps.
      *
      * @param prettyPrinting
      *            Set to True to enable human-readable output.
      * @return A Gson instance that works properly.
      */
     public static Gson getGson (boolean prettyPrinting) {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapterFactory(OPERATION_ADAPTERS);
         // gsonBuilder.registerTypeAdapter(AnnotatedVariable.class, new
         // AnnotatedVariableAdapter());
         if (prettyPrinting) {
@@ -32,6 +61,348 @@ public abstract class GsonContructor {
         return gsonBuilder.create();
     }
 
+    /**
+     * Creates the adapters for {@link Operation} and its subclasses, and for {@link Locator}.
+     */
+    private static final class OperationAdapterFactory implements TypeAdapterFactory {
+
+        @SuppressWarnings("unchecked") @Override public <T> TypeAdapter<T> create (Gson gson, TypeToken<T> type) {
+            Class<? super T> raw = type.getRawType();
+            if (raw == Locator.class) {
+                return (TypeAdapter<T>) new LocatorAdapter();
+            } else if (Operation.class.isAssignableFrom(raw)) {
+                return (TypeAdapter<T>) new OperationAdapter(gson);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads and writes operations. Values and indices are read into primitive arrays, flattening
+     * nested arrays. Operations of unknown types are read as {@code null}.
+     */
+    private static final class OperationAdapter extends TypeAdapter<Operation> {
+        private final Gson           gson;
+        private final LocatorAdapter locators = new LocatorAdapter();
+
+        private OperationAdapter (Gson gson) {
+            this.gson = gson;
+        }
+
+        @Override public void write (JsonWriter out, Operation op) throws IOException {
+            if (op == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (op.operation != null) {
+                out.name("operation").value(op.operation.name());
+            }
+            if (op.operationBody != null) {
+                out.name("operationBody");
+                out.beginObject();
+                for (Key key : Key.values()) {
+                    Object value = op.operationBody.get(key);
+                    if (value != null) {
+                        out.name(key.name());
+                        writeValue(out, value);
+                    }
+                }
+                out.endObject();
+            }
+            if (op.source != null) {
+                out.name("source").value(op.source);
+            }
+            out.name("beginLine").value(op.beginLine);
+            out.name("endLine").value(op.endLine);
+            out.name("beginColumn").value(op.beginColumn);
+            out.name("endColumn").value(op.endColumn);
+            out.endObject();
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" }) private void writeValue (JsonWriter out, Object value)
+                throws IOException {
+            if (value instanceof Locator) {
+                locators.write(out, (Locator) value);
+            } else if (value instanceof double[]) {
+                out.beginArray();
+                for (double d : (double[]) value) {
+                    out.value(d);
+                }
+                out.endArray();
+            } else if (value instanceof String) {
+                out.value((String) value);
+            } else {
+                ((TypeAdapter) gson.getAdapter(value.getClass())).write(out, value);
+            }
+        }
+
+        @Override public Operation read (JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            OperationType type = null;
+            Locator target = null;
+            Locator source = null;
+            Locator var1 = null;
+            Locator var2 = null;
+            Object value = null;
+            String sourceName = null;
+            int beginLine = 0;
+            int endLine = 0;
+            int beginColumn = 0;
+            int endColumn = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                case "operation":
+                    type = readType(in);
+                    break;
+                case "operationBody":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        break;
+                    }
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                        case "target":
+                            target = locators.read(in);
+                            break;
+                        case "source":
+                            source = locators.read(in);
+                            break;
+                        case "var1":
+                            var1 = locators.read(in);
+                            break;
+                        case "var2":
+                            var2 = locators.read(in);
+                            break;
+                        case "value":
+                            value = readValue(in);
+                            break;
+                        default:
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    break;
+                case "source":
+                    sourceName = readString(in);
+                    break;
+                case "beginLine":
+                    beginLine = in.nextInt();
+                    break;
+                case "endLine":
+                    endLine = in.nextInt();
+                    break;
+                case "beginColumn":
+                    beginColumn = in.nextInt();
+                    break;
+                case "endColumn":
+                    endColumn = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            Operation op = newOperation(type, target, source, var1, var2, value);
+            if (op != null) {
+                op.source = sourceName;
+                op.beginLine = beginLine;
+                op.endLine = endLine;
+                op.beginColumn = beginColumn;
+                op.endColumn = endColumn;
+            }
+            return op;
+        }
+
+        /**
+         * Read an operation type.
+         *
+         * @return The type, or {@code null} if unknown.
+         */
+        private static OperationType readType (JsonReader in) throws IOException {
+            String name = readString(in);
+            if (name != null) {
+                for (OperationType type : OperationType.values()) {
+                    if (type.name().equals(name)) {
+                        return type;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Read the value of an operation.
+         *
+         * @return A {@code double[]}, a {@code String} or {@code null}.
+         */
+        private static Object readValue (JsonReader in) throws IOException {
+            switch (in.peek()) {
+            case STRING:
+                return in.nextString();
+            case NUMBER:
+            case BEGIN_ARRAY:
+                return readNumbers(in);
+            default:
+                in.skipValue();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads and writes locators. Locators without an identifier are read as {@code null}.
+     */
+    private static final class LocatorAdapter extends TypeAdapter<Locator> {
+
+        @Override public void write (JsonWriter out, Locator locator) throws IOException {
+            if (locator == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("identifier").value(locator.identifier);
+            if (locator.index != null) {
+                out.name("index");
+                out.beginArray();
+                for (int i : locator.index) {
+                    out.value(i);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override public Locator read (JsonReader in) throws IOException {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                in.skipValue();
+                return null;
+            }
+            String identifier = null;
+            int[] index = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                case "identifier":
+                    identifier = readString(in);
+                    break;
+                case "index":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        break;
+                    }
+                    double[] numbers = readNumbers(in);
+                    index = new int[numbers.length];
+                    for (int i = 0; i < numbers.length; i++) {
+                        index [i] = (int) numbers [i];
+                    }
+                    break;
+                default:
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return identifier == null ? null : LocatorPool.get(identifier, index);
+        }
+    }
+
+    /**
+     * Create an operation the way it is read from a log. Locators and values which do not apply
+     * to {@code type} are ignored.
+     *
+     * @param type
+     *            The type of the operation. May be null.
+     * @param target
+     *            The target of read, write and remove operations.
+     * @param source
+     *            The source of read and write operations.
+     * @param var1
+     *            The first variable of swap operations.
+     * @param var2
+     *            The second variable of swap operations.
+     * @param value
+     *            A {@code double[]}, or a {@code String} for message operations.
+     * @return A new operation, or {@code null} if the type is unknown.
+     */
+    static Operation newOperation (OperationType type, Locator target, Locator source, Locator var1, Locator var2,
+            Object value) {
+        if (type == null) {
+            return null;
+        }
+        double[] values = value instanceof double[] ? (double[]) value : null;
+        switch (type) {
+        case read:
+        case write:
+            OP_ReadWrite rw = type == OperationType.read ? new OP_Read() : new OP_Write();
+            rw.setSource(source);
+            rw.setTarget(target);
+            rw.setValue(values);
+            return rw;
+        case swap:
+            OP_Swap swap = new OP_Swap();
+            swap.setVar1(var1);
+            swap.setVar2(var2);
+            swap.setValues(values);
+            return swap;
+        case remove:
+            OP_ToggleScope remove = new OP_ToggleScope();
+            remove.setTarget(target);
+            return remove;
+        case message:
+            OP_Message message = new OP_Message();
+            message.setMessage(value instanceof String ? (String) value : null);
+            return message;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Read a number or a possibly nested array of numbers. Nested arrays are flattened.
+     */
+    private static double[] readNumbers (JsonReader in) throws IOException {
+        double[] numbers = new double[4];
+        int n = 0;
+        int depth = 0;
+        do {
+            switch (in.peek()) {
+            case BEGIN_ARRAY:
+                in.beginArray();
+                depth++;
+                break;
+            case END_ARRAY:
+                in.endArray();
+                depth--;
+                break;
+            case NUMBER:
+                if (n == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, n * 2);
+                }
+                numbers [n++] = in.nextDouble();
+                break;
+            default:
+                in.skipValue();
+            }
+        } while (depth > 0);
+        return n == numbers.length ? numbers : Arrays.copyOf(numbers, n);
+    }
+
+    private static String readString (JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
     // private static class AnnotatedVariableAdapter extends
     // TypeAdapter<AnnotatedVariable> {
     //
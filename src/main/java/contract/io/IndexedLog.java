@@ -0,0 +1,159 @@
+package contract.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Random access to the operations of a JSON log with a {@link LogIndex}, without reading the
+ * log into memory. Accessing an operation reads and parses the single chunk of the log holding
+ * it. The last {@link #CACHED_CHUNKS} chunks parsed are kept, so consecutive accesses rarely
+ * parse a chunk more than once. <br>
+ * <br>
+ * Operations returned by {@link #get(int)} are shared between calls and must not be modified.
+ */
+public class IndexedLog extends AbstractList<Operation> implements RandomAccess {
+
+    /**
+     * The number of parsed chunks kept in memory.
+     */
+    public static final int              CACHED_CHUNKS = 8;
+
+    private final File                   file;
+    private final LogIndex               index;
+    private final Header                 header;
+    private final TypeAdapter<Operation> operations;
+    private final int                    size;
+    private long                         chunksRead;
+    private final ChunkCache             cache         = new ChunkCache();
+
+    /**
+     * Create a new IndexedLog.
+     *
+     * @param index
+     *            The index of the log, as returned by {@link LogIndex#load(File)}.
+     */
+    public IndexedLog (LogIndex index) {
+        this.index = index;
+        file = index.getLog();
+        Gson gson = GsonContructor.build();
+        operations = gson.getAdapter(Operation.class);
+        header = index.getHeader(gson);
+        size = index.getOperationCount();
+    }
+
+    /**
+     * Returns the operation at the given index, reading its chunk if it is not cached.
+     *
+     * @param i
+     *            The index of the operation.
+     * @return The operation at {@code i}.
+     * @throws IllegalStateException
+     *             If the chunk holding the operation could not be read, or does not match the
+     *             index.
+     */
+    @Override public synchronized Operation get (int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        int chunk = index.findChunk(i);
+        List<Operation> ops = cache.get(chunk);
+        if (ops == null) {
+            try {
+                ops = read(chunk);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read chunk " + chunk + " of " + file, e);
+            }
+            cache.put(chunk, ops);
+        }
+        return ops.get(i - index.getFirstOperation(chunk));
+    }
+
+    @Override public int size () {
+        return size;
+    }
+
+    /**
+     * Returns the header of the log.
+     *
+     * @return The header, or {@code null} if the log has none.
+     */
+    public Header getHeader () {
+        return header;
+    }
+
+    /**
+     * Returns the index of the log.
+     *
+     * @return The LogIndex of this log.
+     */
+    public LogIndex getIndex () {
+        return index;
+    }
+
+    /**
+     * Returns the number of chunks read since the log was opened.
+     *
+     * @return The number of chunks read.
+     */
+    public synchronized long getChunksRead () {
+        return chunksRead;
+    }
+
+    /**
+     * Read and parse a chunk of the log.
+     */
+    private List<Operation> read (int chunk) throws IOException {
+        long start = index.getChunkStart(chunk);
+        int length = (int) (index.getChunkEnd(chunk) - start);
+        ByteBuffer json = ByteBuffer.allocate(length + 2);
+        json.put((byte) '[');
+        json.limit(length + 1);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (json.position() <= length) {
+                if (channel.read(json, start + json.position() - 1) < 0) {
+                    throw new EOFException("Unexpected end of log.");
+                }
+            }
+        }
+        json.limit(length + 2);
+        json.put((byte) ']');
+
+        List<Operation> ops = ParallelLogReader.parse(operations, json.array(), json.position());
+        if (ops.size() != index.getFirstOperation(chunk + 1) - index.getFirstOperation(chunk)) {
+            throw new StreamCorruptedException("Log does not match its index: " + file);
+        }
+        chunksRead++;
+        return ops;
+    }
+
+    /**
+     * The chunks parsed last, evicting the least recently used chunk.
+     */
+    private static final class ChunkCache extends LinkedHashMap<Integer, List<Operation>> {
+        private static final long serialVersionUID = 1L;
+
+        private ChunkCache () {
+            super(16, 0.75f, true);
+        }
+
+        @Override protected boolean removeEldestEntry (Map.Entry<Integer, List<Operation>> eldest) {
+            return size() > CACHED_CHUNKS;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package contract.io;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import org.jgroups.JChannel;
 import org.jgroups.Message;
@@ -16,7 +20,9 @@ import contract.json.Root;
 import gui.Main;
 
 /**
- * Interprocess communication implementation using the JGroups library.
+ * Interprocess communication implementation using the JGroups library. Messages are queued by the
+ * JGroups receiver threads and decoded on a thread of their own, which notifies the listener
+ * once for every run of wrappers decoded.
  *
  * @author Richard Sundqvist
  *
@@ -31,6 +37,10 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      * Send messages in JSON mode (Wrapper serialised as JSON String).
      */
     public static final short              SENDER_MODE_JSON   = 1;
+    /**
+     * Send messages in binary mode (Wrapper encoded by {@link BinaryWrapperCodec}).
+     */
+    public static final short              SENDER_MODE_BINARY = 2;
     /**
      * If true, most incoming messages will be ignored. The messageReceived() method of the listener
      * will be called only if the listener has requested a head count of group members. Useful when
@@ -41,7 +51,16 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
     private final int                      senderId;
     private short                          senderMode;
     private String                         channel;
-    private final List<Root>               incomingQueue;
+    /**
+     * Messages received by JGroups threads, waiting to be decoded.
+     */
+    private final Queue<Message>           receivedQueue;
+    /**
+     * Decoded wrappers, waiting to be consumed by the listener.
+     */
+    private final Queue<Root>              incomingQueue;
+    private final Thread                   decoder;
+    private volatile boolean               closed;
     private final CommunicatorListener     listener;
     private final Gson                     gson;
     private JChannel                       jChannel;
@@ -97,9 +116,13 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         this.listener = listener;
         this.suppressIncoming = suppressIncoming;
         setNativeSenderMode();
-        gson = new Gson();
-        incomingQueue = new ArrayList<Root>();
+        gson = GsonContructor.build();
+        receivedQueue = new ConcurrentLinkedQueue<Message>();
+        incomingQueue = new ConcurrentLinkedQueue<Root>();
         allTransmitters = new HashMap<Integer, String>();
+        decoder = new Thread(this::decode, "JGroupCommunicator decoder: " + senderId);
+        decoder.setDaemon(true);
+        decoder.start();
         try {
             jChannel = new JChannel("udp.xml");
             jChannel.connect(this.channel);
@@ -155,6 +178,15 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         senderMode = SENDER_MODE_JSON;
     }
 
+    /**
+     * Set the sender mode of this JGroupCommunicator to Binary (Wrapper encoded as a binary log).
+     * Much faster and more compact than the other modes, but only understood by receivers of
+     * this version or later.
+     */
+    public void setBinarySenderMode () {
+        senderMode = SENDER_MODE_BINARY;
+    }
+
     /**
      * Returns the sender mode of this JGroupCommunicator.
      *
@@ -164,15 +196,66 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         return senderMode;
     }
 
+    /**
+     * Queue a message for the decoder thread. Called by JGroups threads, which are thus never
+     * held up by decoding or by the listener.
+     */
     @Override public void receive (Message incoming) {
+        receivedQueue.offer(incoming);
+        LockSupport.unpark(decoder);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Decoder thread
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Decode received messages until closed. The listener is notified once for every run of
+     * wrappers decoded, rather than once per message.
+     */
+    private void decode () {
+        while (closed == false) {
+            boolean wrappers = false;
+            Message incoming;
+            while ((incoming = receivedQueue.poll()) != null) {
+                try {
+                    wrappers |= decode(incoming);
+                } catch (RuntimeException e) {
+                    // Keep decoding the messages which follow.
+                    Main.console.err("Message could not be received: " + e);
+                }
+            }
+            if (wrappers) {
+                listener.messageReceived(CommunicatorMessage.WRAPPER);
+            }
+            if (receivedQueue.isEmpty()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Decode a message, queuing wrappers and handling member information.
+     *
+     * @return {@code true} if a wrapper was queued.
+     */
+    private boolean decode (Message incoming) {
+        byte[] buffer = incoming.getRawBuffer();
+        if (BinaryWrapperCodec.isFrame(buffer, incoming.getOffset(), incoming.getLength())) {
+            return decodeBinary(buffer, incoming.getOffset(), incoming.getLength());
+        }
         Object messageObject = incoming.getObject();
         if (messageObject instanceof CommunicatorMessage == false) {
             Main.console.err("Invalid message type: " + messageObject);
-            return;
+            return false;
         }
         CommunicatorMessage message = (CommunicatorMessage) messageObject;
         if (message.senderId == senderId) {
-            return; // Don't process our own messages.
+            return false; // Don't process our own messages.
         }
         if (allTransmitters.keySet().contains(new Integer(message.senderId)) == false) {
             requestMemberInfo(CommunicatorMessage.FIRST_CONTACT);
@@ -180,24 +263,45 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         switch (message.messageType) {
         case CommunicatorMessage.WRAPPER:
             if (suppressIncoming) {
-                return;
+                return false;
             }
-            addAndFireEvent((Root) message.payload);
-            break;
+            incomingQueue.offer((Root) message.payload);
+            return true;
         case CommunicatorMessage.JSON:
             if (suppressIncoming) {
-                return;
+                return false;
             }
             try {
-                addAndFireEvent(gson.fromJson((String) message.payload, Root.class));
+                incomingQueue.offer(gson.fromJson((String) message.payload, Root.class));
+                return true;
             } catch (Exception e) {
                 Main.console.err("JSON String malformed: " + message.payload);
             }
-            break;
+            return false;
         default:
             handleInformationExchange((String) message.payload, message.messageType, message.senderId);
-            break;
+            return false;
+        }
+    }
+
+    private boolean decodeBinary (byte[] buffer, int offset, int length) {
+        int messageSenderId = BinaryWrapperCodec.getSenderId(buffer, offset);
+        if (messageSenderId == senderId) {
+            return false; // Don't process our own messages.
         }
+        if (allTransmitters.keySet().contains(messageSenderId) == false) {
+            requestMemberInfo(CommunicatorMessage.FIRST_CONTACT);
+        }
+        if (suppressIncoming) {
+            return false;
+        }
+        try {
+            incomingQueue.offer(BinaryWrapperCodec.decode(buffer, offset, length));
+            return true;
+        } catch (IOException e) {
+            Main.console.err("Binary message malformed: " + e.getMessage());
+        }
+        return false;
     }
 
     private void handleInformationExchange (String member_string, short messageType, int senderId) {
@@ -292,7 +396,7 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      * @return The first received Wrapper in queue.
      */
     @Override public Root popQueuedMessage () {
-        return incomingQueue.remove(0);
+        return incomingQueue.poll();
     }
 
     /**
@@ -302,9 +406,9 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      */
     @Override public List<Root> getAllQueuedMessages () {
         ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
-        if (incomingQueue.isEmpty() == false) {
-            allQueuedMessages.addAll(incomingQueue);
-            incomingQueue.clear();
+        Root wrapper;
+        while ((wrapper = incomingQueue.poll()) != null) {
+            allQueuedMessages.add(wrapper);
         }
         return allQueuedMessages;
     }
@@ -321,6 +425,13 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
             outMessage.setObject(new CommunicatorMessage(outgoing, senderId, CommunicatorMessage.WRAPPER));
         } else if (senderMode == SENDER_MODE_JSON) {
             outMessage.setObject(new CommunicatorMessage(gson.toJson(outgoing), senderId, CommunicatorMessage.JSON));
+        } else if (senderMode == SENDER_MODE_BINARY) {
+            try {
+                outMessage.setBuffer(BinaryWrapperCodec.encode(outgoing, senderId));
+            } catch (IOException e) {
+                Main.console.err("Message could not be encoded: " + e);
+                return false;
+            }
         } else {
             Main.console.err("Message could not be sent: Sender mode invalid.");
             return false;
@@ -368,17 +479,8 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      */
     @Override public void close () {
         jChannel.close();
-    }
-
-    /**
-     * Add a wrapper to the incoming queue and signal listener.
-     *
-     * @param w
-     *            The wrapper to add the the incoming queue.
-     */
-    private void addAndFireEvent (Root w) {
-        incomingQueue.add(w);
-        listener.messageReceived(CommunicatorMessage.WRAPPER);
+        closed = true;
+        LockSupport.unpark(decoder);
     }
 
     public Collection<String> allKnownEntities () {
@@ -0,0 +1,213 @@
+package contract.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Scans UTF-8 encoded JSON byte by byte, without decoding values. Used to find the structure of
+ * logs quickly, see {@link ParallelLogReader} and {@link LogSummary}. The buffer and its bounds
+ * are exposed so that callers may scan it in tight loops.
+ */
+final class JsonScanner {
+
+    final InputStream in;
+    final byte[]      buffer = new byte[1 << 16];
+    /**
+     * The next byte of the buffer to scan, and the end of the bytes read into the buffer.
+     */
+    int               position;
+    int               limit;
+    long              bytesRead;
+
+    /**
+     * Create a new JsonScanner.
+     *
+     * @param in
+     *            The stream to scan.
+     */
+    JsonScanner (InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read more bytes into the buffer, replacing its content.
+     *
+     * @return {@code false} at the end of the stream.
+     */
+    boolean fill () throws IOException {
+        int n = in.read(buffer);
+        if (n <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        bytesRead += n;
+        return true;
+    }
+
+    /**
+     * Discard the buffer after the stream has been repositioned.
+     *
+     * @param offset
+     *            The new position of the stream.
+     */
+    void reset (long offset) {
+        bytesRead = offset;
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * Returns the offset in the stream of the next byte to scan.
+     */
+    long offset () {
+        return bytesRead - limit + position;
+    }
+
+    int peek () throws IOException {
+        if (position == limit && fill() == false) {
+            return -1;
+        }
+        return buffer [position] & 0xFF;
+    }
+
+    int next () throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            position++;
+        }
+        return c;
+    }
+
+    /**
+     * Returns the next byte which is not whitespace, without consuming it.
+     */
+    int peekToken () throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            position++;
+        }
+        return c;
+    }
+
+    int nextToken () throws IOException {
+        int c = peekToken();
+        if (c < 0) {
+            throw new EOFException("Unexpected end of log.");
+        }
+        position++;
+        return c;
+    }
+
+    /**
+     * Read a name or string following its opening quote. Escapes are kept as they are.
+     */
+    String readName () throws IOException {
+        BinaryFormat.Sink name = new BinaryFormat.Sink();
+        boolean escaped = false;
+        int c;
+        while ((c = next()) != '"' || escaped) {
+            if (c < 0) {
+                throw new EOFException("Unexpected end of log.");
+            }
+            escaped = escaped == false && c == '\\';
+            name.writeByte(c);
+        }
+        return new String(name.data, 0, name.size, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Consume a value, copying its bytes to {@code sink} if it is not null. Objects, arrays and
+     * strings are scanned a buffer at a time.
+     */
+    void skipValue (BinaryFormat.Sink sink) throws IOException {
+        int c = peekToken();
+        if (c == ',' || c == '}' || c == ']' || c == ':') {
+            throw new MalformedJsonException("Expected a value at byte " + offset());
+        } else if (c != '{' && c != '[' && c != '"') {
+            skipLiteral(sink);
+            return;
+        }
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        while (true) {
+            if (position == limit && fill() == false) {
+                throw new EOFException("Unexpected end of log.");
+            }
+            int start = position;
+            for (int i = position; i < limit; i++) {
+                byte b = buffer [i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                        if (depth == 0) {
+                            copy(sink, start, i + 1);
+                            position = i + 1;
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (--depth == 0) {
+                        copy(sink, start, i + 1);
+                        position = i + 1;
+                        return;
+                    }
+                    break;
+                }
+            }
+            copy(sink, start, limit);
+            position = limit;
+        }
+    }
+
+    /**
+     * Consume a literal such as a number or {@code null}.
+     */
+    private void skipLiteral (BinaryFormat.Sink sink) throws IOException {
+        do {
+            int c = next();
+            if (sink != null) {
+                sink.writeByte(c);
+            }
+        } while (isEndOfLiteral() == false);
+    }
+
+    /**
+     * Copy bytes of the buffer to {@code sink} if it is not null.
+     */
+    private void copy (BinaryFormat.Sink sink, int from, int to) {
+        if (sink != null && to > from) {
+            sink.ensure(to - from);
+            System.arraycopy(buffer, from, sink.data, sink.size, to - from);
+            sink.size += to - from;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the next byte ends a literal such as a number or {@code null}.
+     */
+    private boolean isEndOfLiteral () throws IOException {
+        int c = peek();
+        return c < 0 || c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+}
@@ -0,0 +1,124 @@
+package contract.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.gson.Gson;
+
+import contract.io.Communicator.CommunicatorMessage;
+import contract.json.Root;
+
+/**
+ * Communicator connecting members of the same virtual machine, mainly for tests. Wrappers are
+ * handed to the other members of the channel as they are, on the sending thread, so they must
+ * not be modified after being sent.
+ */
+public class LocalCommunicator implements Communicator {
+
+    /**
+     * The members of each channel.
+     */
+    private static final Map<String, List<LocalCommunicator>> CHANNELS = new ConcurrentHashMap<>();
+
+    private final String                                      channel;
+    private final CommunicatorListener                        listener;
+    private final boolean                                     suppressIncoming;
+    private final Queue<Root>                                 incomingQueue;
+    private final Gson                                        gson;
+
+    /**
+     * Create a new LocalCommunicator and join the given channel.
+     *
+     * @param channel
+     *            The channel to join.
+     * @param listener
+     *            The listener for this LocalCommunicator.
+     * @param suppressIncoming
+     *            If {@code true}, incoming wrappers will be ignored.
+     */
+    public LocalCommunicator (String channel, CommunicatorListener listener, boolean suppressIncoming) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null.");
+        }
+        this.channel = channel;
+        this.listener = listener;
+        this.suppressIncoming = suppressIncoming;
+        incomingQueue = new ConcurrentLinkedQueue<Root>();
+        gson = GsonContructor.build();
+        CHANNELS.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<LocalCommunicator>()).add(this);
+    }
+
+    /**
+     * Returns the name of the channel this LocalCommunicator is connected to.
+     *
+     * @return The name of the channel this LocalCommunicator is connected to.
+     */
+    public String getChannel () {
+        return channel;
+    }
+
+    @Override public Root popQueuedMessage () {
+        return incomingQueue.poll();
+    }
+
+    @Override public List<Root> getAllQueuedMessages () {
+        ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
+        Root wrapper;
+        while ((wrapper = incomingQueue.poll()) != null) {
+            allQueuedMessages.add(wrapper);
+        }
+        return allQueuedMessages;
+    }
+
+    /**
+     * Hand the given Wrapper to the other members of the channel.
+     *
+     * @param outgoing
+     *            The Wrapper to send. Must not be modified afterwards.
+     * @return {@code true}.
+     */
+    @Override public boolean sendWrapper (Root outgoing) {
+        List<LocalCommunicator> members = CHANNELS.getOrDefault(channel, Collections.emptyList());
+        for (LocalCommunicator member : members) {
+            if (member != this) {
+                member.deliver(outgoing);
+            }
+        }
+        return true;
+    }
+
+    @Override public boolean sendWrappers (List<Root> outgoing) {
+        for (Root w : outgoing) {
+            sendWrapper(w);
+        }
+        return true;
+    }
+
+    @Override public boolean sendString (String JSONString) {
+        return sendWrapper(gson.fromJson(JSONString, Root.class));
+    }
+
+    /**
+     * Leave the channel.
+     */
+    @Override public void close () {
+        List<LocalCommunicator> members = CHANNELS.get(channel);
+        if (members != null) {
+            members.remove(this);
+        }
+    }
+
+    private void deliver (Root wrapper) {
+        if (suppressIncoming) {
+            return;
+        }
+        incomingQueue.offer(wrapper);
+        listener.messageReceived(CommunicatorMessage.WRAPPER);
+    }
+}
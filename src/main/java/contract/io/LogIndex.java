@@ -0,0 +1,480 @@
+package contract.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.google.gson.Gson;
+
+import contract.json.Header;
+import contract.json.Locator;
+import contract.json.Operation;
+import contract.operation.OP_ReadWrite;
+import contract.operation.OP_Swap;
+import contract.utility.OperationCounter;
+
+/**
+ * A sidecar index of a JSON log, stored next to the log in a file named by appending
+ * {@code .}{@link #EXTENSION} to the name of the log. The index holds the header of the log, the
+ * byte ranges of the chunks the body was cut into by a {@link ParallelLogReader}, the number of
+ * operations of every type performed on each structure, the range of values read or written,
+ * and a CRC-32 of the log. <br>
+ * <br>
+ * An index is built while the log is read, see {@link LogStreamManager#setIndexing(boolean)}.
+ * When the log is opened again, the structures and counts are available without reading it,
+ * and {@link IndexedLog} reads operations one chunk at a time as they are accessed. An index is
+ * only used if the length, modification time and checksum of the log are unchanged.
+ */
+public class LogIndex {
+
+    /**
+     * The extension appended to the name of a log to name its index.
+     */
+    public static final String            EXTENSION  = "idx";
+    /**
+     * Logs shorter than this are read quickly enough that they are not indexed.
+     */
+    public static final long              MIN_LENGTH = 1 << 24;
+    /**
+     * The version of the index format.
+     */
+    public static final int               VERSION    = 1;
+    private static final byte[]           MAGIC      = { 'V', 'I', 'D', 'X' };
+
+    private final File                    log;
+    private final long                    length;
+    private final long                    lastModified;
+    private long                          checksum;
+    private String                        header;
+    /*
+     * Chunk index. firsts has one extra entry holding the number of operations.
+     */
+    private int                           chunkCount;
+    private long[]                        starts     = new long[64];
+    private long[]                        ends       = new long[64];
+    private int[]                         firsts     = new int[65];
+    private final Map<String, Statistics> statistics = new LinkedHashMap<String, Statistics>();
+    private final Set<String>             touched    = new HashSet<String>();
+
+    /**
+     * Create an empty index of {@code log}, recording its current length and modification time.
+     */
+    LogIndex (File log) {
+        this.log = log;
+        length = log.length();
+        lastModified = log.lastModified();
+    }
+
+    /**
+     * Returns {@code true} if {@code log} is large enough to be worth indexing.
+     *
+     * @param log
+     *            The log to check.
+     * @return {@code true} if the log should be indexed.
+     */
+    public static boolean isWorthwhile (File log) {
+        return log.length() >= MIN_LENGTH;
+    }
+
+    /**
+     * Returns the index file of a log.
+     *
+     * @param log
+     *            A log file.
+     * @return The file holding the index of {@code log}, which may not exist.
+     */
+    public static File getIndexFile (File log) {
+        return new File(log.getParentFile(), log.getName() + "." + EXTENSION);
+    }
+
+    /**
+     * Load the index of a log, if it has an index matching its current content.
+     *
+     * @param log
+     *            The log whose index to load.
+     * @return The index of {@code log}, or {@code null} if there is no index, if it is malformed,
+     *         or if the log has changed since it was indexed.
+     * @throws IOException
+     *             If the index or the log could not be read.
+     */
+    public static LogIndex load (File log) throws IOException {
+        File file = getIndexFile(log);
+        if (file.isFile() == false) {
+            return null;
+        }
+        LogIndex index = new LogIndex(log);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (index.read(in) == false) {
+                return null;
+            }
+        } catch (EOFException | StreamCorruptedException e) {
+            return null;
+        }
+        return index.checksum == checksum(log) ? index : null;
+    }
+
+    /**
+     * Returns {@code true} if the header of {@code in} matches this log, reading the rest of
+     * the index if it does.
+     */
+    private boolean read (DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (Arrays.equals(magic, MAGIC) == false || in.readUnsignedByte() != VERSION) {
+            throw new StreamCorruptedException("Not a log index.");
+        }
+        if (in.readLong() != length || in.readLong() != lastModified) {
+            return false;
+        }
+        checksum = in.readLong();
+        int headerLength = in.readInt();
+        if (headerLength >= 0) {
+            byte[] json = new byte[headerLength];
+            in.readFully(json);
+            header = new String(json, StandardCharsets.UTF_8);
+        }
+
+        int chunks = in.readInt();
+        if (chunks < 0) {
+            throw new StreamCorruptedException("Malformed log index.");
+        }
+        for (int i = 0; i < chunks; i++) {
+            long start = in.readLong();
+            long end = in.readLong();
+            int operations = in.readInt();
+            if (start < 0 || end < start || end > length || operations < 0) {
+                throw new StreamCorruptedException("Malformed log index.");
+            }
+            addChunk(start, end, operations);
+        }
+
+        int structures = in.readInt();
+        for (int i = 0; i < structures; i++) {
+            Statistics s = new Statistics();
+            String identifier = in.readUTF();
+            int[] counts = new int[s.counter.getCounts().length];
+            for (int j = 0; j < counts.length; j++) {
+                counts [j] = in.readInt();
+            }
+            s.counter.setCounts(counts);
+            s.min = in.readDouble();
+            s.max = in.readDouble();
+            statistics.put(identifier, s);
+        }
+        return true;
+    }
+
+    /**
+     * Write this index next to the log. Nothing is written if the log has changed since it was
+     * opened.
+     *
+     * @return {@code true} if the index was written.
+     * @throws IOException
+     *             If the index could not be written.
+     */
+    public boolean save () throws IOException {
+        long sum = checksum(log);
+        if (log.length() != length || log.lastModified() != lastModified) {
+            return false;
+        }
+        checksum = sum;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(getIndexFile(log))))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.writeLong(checksum);
+            if (header == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] json = header.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(json.length);
+                out.write(json);
+            }
+
+            out.writeInt(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                out.writeLong(starts [i]);
+                out.writeLong(ends [i]);
+                out.writeInt(firsts [i + 1] - firsts [i]);
+            }
+
+            out.writeInt(statistics.size());
+            for (Map.Entry<String, Statistics> e : statistics.entrySet()) {
+                out.writeUTF(e.getKey());
+                for (int count : e.getValue().counter.getCounts()) {
+                    out.writeInt(count);
+                }
+                out.writeDouble(e.getValue().min);
+                out.writeDouble(e.getValue().max);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the CRC-32 of a file.
+     */
+    private static long checksum (File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Indexing
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Record the header of the log.
+     */
+    void setHeader (Gson gson, Header header) {
+        this.header = header == null ? null : gson.toJson(header, Header.class);
+    }
+
+    /**
+     * Record a chunk of the body. Chunks must be added in order.
+     */
+    void addChunk (long start, long end, int operations) {
+        if (chunkCount + 1 == starts.length) {
+            int n = starts.length * 2;
+            starts = Arrays.copyOf(starts, n);
+            ends = Arrays.copyOf(ends, n);
+            firsts = Arrays.copyOf(firsts, n + 1);
+        }
+        starts [chunkCount] = start;
+        ends [chunkCount] = end;
+        firsts [chunkCount + 1] = firsts [chunkCount] + operations;
+        chunkCount++;
+    }
+
+    /**
+     * Count an operation of the log towards the statistics of the structures it refers to.
+     */
+    void count (Operation op) {
+        double[] values = null;
+        touched.clear();
+        if (op instanceof OP_ReadWrite) {
+            OP_ReadWrite rw = (OP_ReadWrite) op;
+            touch(rw.getTarget());
+            touch(rw.getSource());
+            values = rw.getValue();
+        } else if (op instanceof OP_Swap) {
+            OP_Swap swap = (OP_Swap) op;
+            touch(swap.getVar1());
+            touch(swap.getVar2());
+            values = swap.getValue();
+        }
+        for (String identifier : touched) {
+            Statistics s = statistics.get(identifier);
+            if (s == null) {
+                s = new Statistics();
+                statistics.put(identifier, s);
+            }
+            s.counter.count(op.operation);
+            if (values != null) {
+                for (double v : values) {
+                    s.include(v);
+                }
+            }
+        }
+    }
+
+    private void touch (Locator locator) {
+        if (locator != null && locator.identifier != null) {
+            touched.add(locator.identifier);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the indexed log.
+     *
+     * @return The log file.
+     */
+    public File getLog () {
+        return log;
+    }
+
+    /**
+     * Returns the CRC-32 of the log when it was indexed.
+     *
+     * @return The checksum of the log.
+     */
+    public long getChecksum () {
+        return checksum;
+    }
+
+    /**
+     * Parse and return the header of the log.
+     *
+     * @param gson
+     *            The Gson instance to parse the header with, such as {@link GsonContructor#build()}.
+     * @return The header, or {@code null} if the log has none.
+     */
+    public Header getHeader (Gson gson) {
+        return header == null ? null : gson.fromJson(header, Header.class);
+    }
+
+    /**
+     * Returns the number of operations in the log.
+     *
+     * @return The number of operations.
+     */
+    public int getOperationCount () {
+        return firsts [chunkCount];
+    }
+
+    /**
+     * Returns the number of chunks in the index.
+     *
+     * @return The number of chunks.
+     */
+    public int getChunkCount () {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the offset of the first byte of a chunk.
+     *
+     * @param chunk
+     *            A chunk number.
+     * @return The offset of the chunk in the log.
+     */
+    public long getChunkStart (int chunk) {
+        return starts [chunk];
+    }
+
+    /**
+     * Returns the offset following the last byte of a chunk.
+     *
+     * @param chunk
+     *            A chunk number.
+     * @return The offset of the end of the chunk in the log.
+     */
+    public long getChunkEnd (int chunk) {
+        return ends [chunk];
+    }
+
+    /**
+     * Returns the index of the first operation of a chunk.
+     *
+     * @param chunk
+     *            A chunk number, at most {@link #getChunkCount()}.
+     * @return The index of the first operation of {@code chunk}, or the number of operations if
+     *         {@code chunk == getChunkCount()}.
+     */
+    public int getFirstOperation (int chunk) {
+        return firsts [chunk];
+    }
+
+    /**
+     * Returns the chunk holding the operation at the given index.
+     *
+     * @param index
+     *            The index of an operation.
+     * @return The number of the chunk holding the operation.
+     */
+    public int findChunk (int index) {
+        // Chunks may be empty, so search for the last chunk starting at or before index.
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firsts [mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the statistics of every structure referred to by the operations of the log.
+     *
+     * @return A map of structure identifiers and their statistics.
+     */
+    public Map<String, Statistics> getStatistics () {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * The operations performed on a structure, and the values read from or written to it.
+     */
+    public static final class Statistics {
+        private final OperationCounter counter = new OperationCounter();
+        private double                 min     = Double.NaN;
+        private double                 max     = Double.NaN;
+
+        private void include (double v) {
+            if (Double.isNaN(min) || v < min) {
+                min = v;
+            }
+            if (Double.isNaN(max) || v > max) {
+                max = v;
+            }
+        }
+
+        /**
+         * Returns the number of operations of every type performed on the structure.
+         *
+         * @return The operation counts of the structure.
+         */
+        public OperationCounter getCounter () {
+            return counter;
+        }
+
+        /**
+         * Returns the smallest value read from or written to the structure.
+         *
+         * @return The smallest value, or {@code NaN} if there was none.
+         */
+        public double getMin () {
+            return min;
+        }
+
+        /**
+         * Returns the largest value read from or written to the structure.
+         *
+         * @return The largest value, or {@code NaN} if there was none.
+         */
+        public double getMax () {
+            return max;
+        }
+    }
+}
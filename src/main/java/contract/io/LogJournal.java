@@ -0,0 +1,444 @@
+package contract.io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * An append-only JSON log. Unlike a regular log, which is a single JSON object, a journal holds
+ * one record per line: a first line identifying the journal, header records of the form
+ * <code>{"header":{...}}</code>, and operations serialized by the operation adapter of
+ * {@link GsonContructor}. A header record is written only when it declares structures or sources
+ * which have not been declared before, so adding operations costs the same however long the journal is. <br>
+ * <br>
+ * Records are written on a background thread and flushed periodically, see
+ * {@link #setFlushInterval(long)}. If the program stops while writing, at most the records queued
+ * since the last flush are lost, and the last line may be incomplete. Such a line is ignored by
+ * {@link #read(File, LogReader.Handler)}, and cut off when the journal is opened again, after
+ * which new records are appended to those already in the file. <br>
+ * <br>
+ * I/O errors are raised by the next call to {@link #write(Operation)}, or by {@link #close()}.
+ * Once an error has occurred, nothing more is written.
+ */
+public class LogJournal implements Closeable {
+
+    /**
+     * The file extension of journals, without the leading dot.
+     */
+    public static final String             EXTENSION   = "journal";
+    /**
+     * The version of the journal format.
+     */
+    public static final int                VERSION     = 1;
+
+    private static final String            FIRST_LINE  = "{\"journal\":" + VERSION + "}";
+    private static final String            HEADER_NAME = "{\"header\":";
+
+    private final Gson                     gson        = GsonContructor.build();
+    private final TypeAdapter<Operation>   operations  = gson.getAdapter(Operation.class);
+    private final File                     file;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?>             flushTask;
+    private CompletableFuture<Void>        finished;
+    private volatile IOException           error;
+    private volatile boolean               closed;
+    private volatile int                   operationCount;
+    /**
+     * The structures and sources declared so far. Accessed by the calling thread only.
+     */
+    private final Set<String>              variables   = new HashSet<String>();
+    private final Set<String>              sources     = new HashSet<String>();
+    private boolean                        declared;
+    /*
+     * Owned by the writer thread.
+     */
+    private final Writer                   writer;
+    private final JsonWriter               out;
+
+    /**
+     * Open a journal for appending, creating it if it does not exist. An incomplete last line,
+     * left by a write which did not finish, is removed.
+     *
+     * @param file
+     *            The journal to open.
+     * @throws IOException
+     *             If the file could not be opened, or exists but is not a journal.
+     */
+    public LogJournal (File file) throws IOException {
+        this.file = file;
+        boolean empty = recover(file);
+        writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file, true),
+                LogWriter.BUFFER_SIZE), StandardCharsets.UTF_8);
+        out = gson.newJsonWriter(writer);
+        // Records are separate top-level values.
+        out.setLenient(true);
+        if (empty) {
+            writer.write(FIRST_LINE);
+            writer.write('\n');
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LogJournal: " + file.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns {@code true} if {@code file} starts like a journal.
+     *
+     * @param file
+     *            The file to check.
+     * @return {@code true} if the file is a journal.
+     */
+    public static boolean isJournal (File file) {
+        byte[] first = FIRST_LINE.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[first.length];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.readFully(bytes);
+        } catch (IOException e) {
+            return false;
+        }
+        return new String(bytes, StandardCharsets.UTF_8).equals(FIRST_LINE);
+    }
+
+    /**
+     * Read a journal, handing every header record and operation to {@code handler} in the order
+     * they were written. An incomplete last line is ignored.
+     *
+     * @param file
+     *            The journal to read.
+     * @param handler
+     *            The handler to receive the headers and operations.
+     * @return {@code false} if reading was aborted by the handler, {@code true} otherwise.
+     * @throws IOException
+     *             If the journal could not be read or is malformed.
+     */
+    public static boolean read (File file, LogReader.Handler handler) throws IOException {
+        Gson gson = GsonContructor.build();
+        TypeAdapter<Operation> operations = gson.getAdapter(Operation.class);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8), LogWriter.BUFFER_SIZE)) {
+            if (FIRST_LINE.equals(in.readLine()) == false) {
+                throw new MalformedJsonException("Not a journal: " + file);
+            }
+            int number = 1;
+            String line = in.readLine();
+            while (line != null) {
+                String next = in.readLine();
+                number++;
+                try {
+                    if (line.startsWith(HEADER_NAME)) {
+                        Header header = gson.fromJson(line.substring(HEADER_NAME.length(), line.length() - 1),
+                                Header.class);
+                        if (handler.header(header) == false) {
+                            return false;
+                        }
+                    } else if (line.isEmpty() == false) {
+                        Operation op = operations.fromJson(line);
+                        if (op != null && handler.operation(op) == false) {
+                            return false;
+                        }
+                    }
+                } catch (JsonParseException | IOException e) {
+                    if (next != null) {
+                        throw new MalformedJsonException("Malformed record on line " + number + " of " + file, e);
+                    }
+                    // The last line was not completely written.
+                }
+                line = next;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove an incomplete last line from an existing journal.
+     *
+     * @return {@code true} if the journal is empty or did not exist.
+     */
+    private static boolean recover (File file) throws IOException {
+        if (file.exists() == false || file.length() == 0) {
+            return true;
+        } else if (isJournal(file) == false) {
+            throw new IOException("Not a journal: " + file);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] buffer = new byte[1 << 12];
+            long end = raf.length();
+            while (end > 0) {
+                int n = (int) Math.min(buffer.length, end);
+                raf.seek(end - n);
+                raf.readFully(buffer, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    if (buffer [i] == '\n') {
+                        raf.setLength(end - n + i + 1);
+                        return false;
+                    }
+                }
+                end -= n;
+            }
+            // Not even the first line is complete.
+            raf.setLength(0);
+            return true;
+        }
+    }
+
+    /**
+     * Set the interval at which records are flushed to the file.
+     *
+     * @param millis
+     *            The interval in milliseconds, or 0 to flush only when the journal is closed or
+     *            {@link #flush()} is called.
+     */
+    public synchronized void setFlushInterval (long millis) {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (millis > 0 && closed == false) {
+            flushTask = executor.scheduleWithFixedDelay( () -> run(out::flush), millis, millis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queue a header record, if {@code header} declares structures or sources which this journal
+     * has not declared since it was opened.
+     *
+     * @param header
+     *            The header. {@code null} is ignored. Must not be modified afterwards.
+     * @throws IOException
+     *             If the journal is closed or a previous write failed.
+     */
+    public void declare (Header header) throws IOException {
+        if (header == null) {
+            return;
+        }
+        boolean added = declared == false;
+        if (header.annotatedVariables != null) {
+            added |= variables.addAll(header.annotatedVariables.keySet());
+        }
+        if (header.sources != null) {
+            added |= sources.addAll(header.sources.keySet());
+        }
+        declared = true;
+        if (added) {
+            submit( () -> {
+                out.beginObject();
+                out.name("header");
+                gson.toJson(header, Header.class, out);
+                out.endObject();
+                writer.write('\n');
+            });
+        }
+    }
+
+    /**
+     * Queue an operation for writing.
+     *
+     * @param op
+     *            The operation to write. {@code null} is ignored.
+     * @throws IOException
+     *             If the journal is closed or a previous write failed.
+     */
+    public void write (Operation op) throws IOException {
+        if (op != null) {
+            submit( () -> writeOperation(op));
+        }
+    }
+
+    /**
+     * Queue a list of operations for writing. The list is read on the writer thread and must not
+     * be modified until it has been written, which is the case once the future returned by
+     * {@link #flush()} has completed.
+     *
+     * @param ops
+     *            The operations to write.
+     * @throws IOException
+     *             If the journal is closed or a previous write failed.
+     */
+    public void write (List<Operation> ops) throws IOException {
+        submit( () -> {
+            for (Operation op : ops) {
+                if (op != null) {
+                    writeOperation(op);
+                }
+            }
+        });
+    }
+
+    /**
+     * Flush everything queued so far to the file.
+     *
+     * @return A future completing once the queued records have been flushed, or exceptionally
+     *         with the first I/O error.
+     */
+    public synchronized CompletableFuture<Void> flush () {
+        if (closed) {
+            return finished;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        executor.execute( () -> complete(future, out::flush));
+        return future;
+    }
+
+    /**
+     * Close the file once everything queued so far has been written, without waiting for it.
+     * Calls after the first return the same future.
+     *
+     * @return A future completing once the file has been closed, or exceptionally with the first
+     *         I/O error.
+     */
+    public synchronized CompletableFuture<Void> finish () {
+        if (closed) {
+            return finished;
+        }
+        closed = true;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        finished = new CompletableFuture<Void>();
+        executor.execute( () -> complete(finished, writer::close));
+        executor.shutdown();
+        return finished;
+    }
+
+    /**
+     * Write everything queued and close the file, waiting for it to complete.
+     *
+     * @throws IOException
+     *             If writing failed, or the calling thread was interrupted while waiting.
+     */
+    @Override public void close () throws IOException {
+        try {
+            finish().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing journal: " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the file of this journal.
+     *
+     * @return The journal file.
+     */
+    public File getFile () {
+        return file;
+    }
+
+    /**
+     * Returns the number of operations written since the journal was opened.
+     *
+     * @return The number of operations written.
+     */
+    public int getOperationCount () {
+        return operationCount;
+    }
+
+    /**
+     * Returns the error which stopped this journal.
+     *
+     * @return The first I/O error, or {@code null} if there was none.
+     */
+    public IOException getError () {
+        return error;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Writer thread
+     *
+     */
+    // ============================================================= //
+
+    private void submit (Task task) throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (closed) {
+            throw new IOException("Journal is closed.");
+        }
+        executor.execute( () -> run(task));
+    }
+
+    private void complete (CompletableFuture<Void> future, Task task) {
+        run(task);
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private void run (Task task) {
+        if (error != null) {
+            return;
+        }
+        try {
+            task.run();
+        } catch (IOException e) {
+            error = e;
+        } catch (JsonIOException e) {
+            error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+        } catch (RuntimeException e) {
+            // Such as a list of operations modified while it was written.
+            error = new IOException("Failed to write journal: " + file, e);
+        }
+        if (error != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Already failed.
+            }
+        }
+    }
+
+    private void writeOperation (Operation op) throws IOException {
+        operations.write(out, op);
+        writer.write('\n');
+        operationCount++;
+    }
+
+    /**
+     * An action performed on the writer thread.
+     */
+    private interface Task {
+        void run () throws IOException;
+    }
+}
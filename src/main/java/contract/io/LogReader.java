@@ -0,0 +1,231 @@
+package contract.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Reads JSON log files token by token. The header is handed to a {@link Handler} as soon as it
+ * has been parsed, after which the operations of the body are parsed one at a time by the
+ * operation adapter of {@link GsonContructor} and handed over. The body is never held in memory,
+ * so the memory used by the reader does not depend on the length of the log. <br>
+ * <br>
+ * The result is the same as binding the file to a {@link contract.json.Root} and unpacking each
+ * operation using {@link contract.utility.OperationParser#unpackOperation(Operation)}. Operations
+ * of unknown types are skipped.
+ */
+public class LogReader implements Closeable {
+
+    /**
+     * Number of operations between two progress reports.
+     */
+    public static final int              PROGRESS_INTERVAL = 10000;
+
+    private final Gson                   gson              = GsonContructor.build();
+    private final TypeAdapter<Operation> operations        = gson.getAdapter(Operation.class);
+    private final CountingStream         counter;
+    private final JsonReader             in;
+    private final long                   length;
+    private ProgressListener             progressListener;
+    private int                          operationCount;
+
+    /**
+     * Create a new LogReader for a file.
+     *
+     * @param file
+     *            The file to read.
+     * @throws FileNotFoundException
+     *             If {@code file} could not be opened.
+     */
+    public LogReader (File file) throws FileNotFoundException {
+        this(new FileInputStream(file), file.length());
+    }
+
+    /**
+     * Create a new LogReader for a stream of UTF-8 encoded JSON.
+     *
+     * @param stream
+     *            The stream to read.
+     * @param length
+     *            The length of the stream in bytes, or -1 if unknown. Used for progress reports.
+     */
+    public LogReader (InputStream stream, long length) {
+        counter = new CountingStream(stream);
+        in = new JsonReader(new InputStreamReader(counter, StandardCharsets.UTF_8));
+        this.length = length;
+    }
+
+    /**
+     * Set the listener to notify of progress while reading.
+     *
+     * @param listener
+     *            A ProgressListener. May be null.
+     */
+    public void setProgressListener (ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Read the log, handing the header and each operation to {@code handler} in the order they
+     * appear in the file. Logs written by {@link LogStreamManager} place the header first.
+     *
+     * @param handler
+     *            The handler to receive the header and operations.
+     * @return {@code false} if reading was aborted by the handler, {@code true} otherwise.
+     * @throws IOException
+     *             If the log could not be read or is malformed.
+     */
+    public boolean read (Handler handler) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "header":
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (handler.header(gson.fromJson(in, Header.class)) == false) {
+                    return false;
+                }
+                break;
+            case "body":
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (readBody(handler) == false) {
+                    return false;
+                }
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        reportProgress();
+        return true;
+    }
+
+    /**
+     * Returns the number of operations read so far.
+     *
+     * @return The number of operations read.
+     */
+    public int getOperationCount () {
+        return operationCount;
+    }
+
+    @Override public void close () throws IOException {
+        in.close();
+    }
+
+    private boolean readBody (Handler handler) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            Operation op = operations.read(in);
+            if (op == null) {
+                continue;
+            }
+            if (handler.operation(op) == false) {
+                return false;
+            }
+            if (++operationCount % PROGRESS_INTERVAL == 0) {
+                reportProgress();
+            }
+        }
+        in.endArray();
+        return true;
+    }
+
+    private void reportProgress () {
+        if (progressListener != null) {
+            progressListener.progress(counter.count, length, operationCount);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingStream extends FilterInputStream {
+        private volatile long count;
+
+        private CountingStream (InputStream in) {
+            super(in);
+        }
+
+        @Override public int read () throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override public int read (byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override public long skip (long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Receives the contents of a log.
+     */
+    public interface Handler {
+
+        /**
+         * Called when the header has been read.
+         *
+         * @param header
+         *            The header of the log.
+         * @return {@code false} to stop reading.
+         */
+        boolean header (Header header);
+
+        /**
+         * Called for every operation read.
+         *
+         * @param op
+         *            The operation.
+         * @return {@code false} to stop reading.
+         */
+        boolean operation (Operation op);
+    }
+
+    /**
+     * Interface for listening to the progress of a LogReader.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called every {@link LogReader#PROGRESS_INTERVAL} operations, and when reading has
+         * finished.
+         *
+         * @param bytesRead
+         *            The number of bytes read so far.
+         * @param length
+         *            The length of the log in bytes, or -1 if unknown.
+         * @param operations
+         *            The number of operations read so far.
+         */
+        void progress (long bytesRead, long length, int operations);
+    }
+}
@@ -1,10 +1,13 @@
 package contract.io;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StreamCorruptedException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -13,12 +16,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 
 import assets.Const;
 import contract.datastructure.DataStructure;
@@ -48,10 +51,15 @@ public class LogStreamManager implements CommunicatorListener {
     private final Communicator         communicator;
     private CommunicatorListener       listener;
     // Wrapper fields
-    private Root                       wrapper;
     private Map<String, DataStructure> dataStructures;
     private List<Operation>            operations;
     private Map<String, List<String>>  sources;
+    private boolean                    indexing;
+    // Capture of streamed data
+    private LogWriter                  capture;
+    private Header                     captureHeader;
+    private LogJournal                 journal;
+    private volatile OperationBatcher  batcher;
 
     /**
      * Creates a new LogStreamManager. <br>
@@ -66,7 +74,8 @@ public class LogStreamManager implements CommunicatorListener {
     }
 
     /**
-     * Creates a new LogStreamManager. <br>
+     * Creates a new LogStreamManager, streaming over the configured transport, see
+     * {@link Transport#getConfigured()}. <br>
      * <b>LogStreamManager will not unwrap streamed messages if the listener is null.</b>
      *
      * @param suppressIncoming
@@ -76,7 +85,26 @@ public class LogStreamManager implements CommunicatorListener {
      *            "JavaAnnotationProcessor".
      */
     public LogStreamManager (String agentDescriptor, boolean suppressIncoming) {
-        communicator = new JGroupCommunicator("LogStreamManager/" + agentDescriptor, this, suppressIncoming);
+        this(agentDescriptor, suppressIncoming, Transport.getConfigured(), Transport.getConfiguredAddress());
+    }
+
+    /**
+     * Creates a new LogStreamManager. <br>
+     * <b>LogStreamManager will not unwrap streamed messages if the listener is null.</b>
+     *
+     * @param agentDescriptor
+     *            The name of the agent using this LogStreamManager, such as
+     *            "JavaAnnotationProcessor".
+     * @param suppressIncoming
+     *            If {@code true}, most incoming messages will be ignored.
+     * @param transport
+     *            The transport to stream over.
+     * @param address
+     *            The address to stream on, or {@code null} for the default address of the
+     *            transport.
+     */
+    public LogStreamManager (String agentDescriptor, boolean suppressIncoming, Transport transport, String address) {
+        communicator = transport.open("LogStreamManager/" + agentDescriptor, address, this, suppressIncoming);
         dataStructures = new HashMap<String, DataStructure>();
         operations = new ArrayList<Operation>();
         sources = null;
@@ -102,7 +130,9 @@ public class LogStreamManager implements CommunicatorListener {
     }
 
     /**
-     * Returns the list of operations used by this LogStreamManager.
+     * Returns the list of operations used by this LogStreamManager. Streamed operations are
+     * added to it by the receiving thread, so it must be accessed while holding the lock of this
+     * LogStreamManager when streaming.
      *
      * @return The list of operations used by this LogStreamManager.
      */
@@ -171,8 +201,170 @@ public class LogStreamManager implements CommunicatorListener {
      *             When Gson fails to read {@code logFile}.
      */
     public boolean readLog (File logFile) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
-        wrapper = gson.fromJson(new JsonReader(new FileReader(logFile)), Root.class);
-        return unwrap(wrapper);
+        return readLog(logFile, null);
+    }
+
+    /**
+     * Read, unwrap and store data from a JSON or binary log file. JSON files are read token by
+     * token using a {@link LogReader}, or in parallel chunks using a {@link ParallelLogReader} if
+     * they are large, and binary logs written by {@link #printBinaryLog(File)} block by block
+     * using a {@link BinaryLogReader}. Operations are added to the operation list
+     * as they are parsed. Memory use is thus bounded by the operation list rather than by the size
+     * of the file. If indexing is enabled, large JSON logs are read in chunks and a
+     * {@link LogIndex} is written next to them, see {@link #setIndexing(boolean)}. Journals written
+     * by {@link #startJournal(File, long)} are read record by record, see {@link LogJournal}.
+     *
+     * @param logFile
+     *            The file to read.
+     * @param progressListener
+     *            Listener to notify of progress. May be null.
+     * @return {@code true} if the log was successfully read. {@code false} otherwise.
+     * @throws FileNotFoundException
+     *             If {@code logFile} could not be opened.
+     * @throws JsonSyntaxException
+     *             If the file could not be parsed.
+     * @throws JsonIOException
+     *             When reading {@code logFile} fails.
+     */
+    public boolean readLog (File logFile, LogReader.ProgressListener progressListener)
+            throws JsonIOException, JsonSyntaxException, FileNotFoundException {
+        boolean binary = BinaryLogReader.isBinaryLog(logFile);
+        boolean journal = binary == false && LogJournal.isJournal(logFile);
+        LogIndex index = indexing && binary == false && journal == false && LogIndex.isWorthwhile(logFile)
+                ? new LogIndex(logFile) : null;
+        LogReader.Handler handler = new LogReader.Handler() {
+            @Override public boolean header (Header header) {
+                if (index != null) {
+                    index.setHeader(gson, header);
+                }
+                return unwrapHeader(header);
+            }
+
+            @Override public boolean operation (Operation op) {
+                operations.add(op);
+                if (index != null) {
+                    index.count(op);
+                }
+                return true;
+            }
+        };
+
+        Closeable reader = null;
+        try {
+            if (binary) {
+                BinaryLogReader binaryReader = new BinaryLogReader(logFile);
+                reader = binaryReader;
+                binaryReader.setProgressListener(progressListener);
+                return binaryReader.read(handler);
+            } else if (journal) {
+                return LogJournal.read(logFile, handler);
+            } else if (index != null || ParallelLogReader.isWorthwhile(logFile)) {
+                ParallelLogReader parallelReader = new ParallelLogReader(logFile);
+                reader = parallelReader;
+                parallelReader.setProgressListener(progressListener);
+                if (index != null) {
+                    parallelReader.setChunkListener(index::addChunk);
+                }
+                if (parallelReader.read(handler) == false) {
+                    return false;
+                }
+                if (index != null) {
+                    saveIndex(index);
+                }
+                return true;
+            } else {
+                LogReader jsonReader = new LogReader(logFile);
+                reader = jsonReader;
+                jsonReader.setProgressListener(progressListener);
+                return jsonReader.read(handler);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (MalformedJsonException | StreamCorruptedException | EOFException | IllegalStateException
+                | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Already read.
+                }
+            }
+        }
+    }
+
+    /**
+     * Write an index, ignoring failures since the log has been read.
+     */
+    private static void saveIndex (LogIndex index) {
+        try {
+            index.save();
+        } catch (IOException e) {
+            // The log is indexed again the next time it is read.
+        }
+    }
+
+    /**
+     * Open a JSON log using its {@link LogIndex}, without reading it. The header of the log is
+     * unwrapped, while operations are read as they are accessed through the returned list.
+     *
+     * @param logFile
+     *            The log to open.
+     * @return The operations of the log, or {@code null} if the log has no index matching its
+     *         current content, or if the header could not be unwrapped.
+     * @throws IOException
+     *             If the index or log could not be read.
+     */
+    public IndexedLog openIndexedLog (File logFile) throws IOException {
+        LogIndex index = LogIndex.load(logFile);
+        if (index == null) {
+            return null;
+        }
+        IndexedLog log = new IndexedLog(index);
+        if (log.getHeader() != null && unwrapHeader(log.getHeader()) == false) {
+            return null;
+        }
+        return log;
+    }
+
+    /**
+     * Summarize a JSON or binary log without reading its operations into this LogStreamManager.
+     * Neither the header nor the operations are unwrapped, see {@link LogSummary}.
+     *
+     * @param logFile
+     *            The log to summarize.
+     * @param headerOnly
+     *            If {@code true}, only the header is read.
+     * @return A summary of the log.
+     * @throws IOException
+     *             If the log could not be read, is truncated or malformed.
+     */
+    public LogSummary summarizeLog (File logFile, boolean headerOnly) throws IOException {
+        return LogSummary.read(logFile, headerOnly);
+    }
+
+    /**
+     * Enable or disable indexing of large JSON logs. When enabled, {@link #readLog(File)} writes
+     * a {@link LogIndex} next to every JSON log of at least {@link LogIndex#MIN_LENGTH} bytes,
+     * which {@link #openIndexedLog(File)} uses to open the log again without reading it.
+     *
+     * @param indexing
+     *            {@code true} to write indexes.
+     */
+    public void setIndexing (boolean indexing) {
+        this.indexing = indexing;
+    }
+
+    /**
+     * Returns {@code true} if large JSON logs are indexed when read.
+     *
+     * @return {@code true} if indexing is enabled.
+     */
+    public boolean isIndexing () {
+        return indexing;
     }
 
     /**
@@ -230,6 +422,238 @@ public class LogStreamManager implements CommunicatorListener {
         printLog(targetPath, new Root(header, operations), autoName);
     }
 
+    /**
+     * Print the operations and header information currently held by this LogStreamManager on a
+     * background thread, returning immediately. Operations are serialized one at a time by a
+     * {@link LogWriter}, so the log is never held in memory as a string. Set the public variable
+     * {@code PRETTY_PRINTING} to true to enable human-readable output. <br>
+     * <br>
+     * <b>The operation list is read while printing, and must not be modified until the returned
+     * future has completed.</b>
+     *
+     * @param target
+     *            The location and file name of the file to print.
+     * @return A future completing once the log has been written, or exceptionally if printing
+     *         fails.
+     * @throws IOException
+     *             If the file could not be created.
+     */
+    public CompletableFuture<Void> printLogAsync (File target) throws IOException {
+        HashMap<String, AnnotatedVariable> annotatedVariables = new HashMap<String, AnnotatedVariable>();
+        annotatedVariables.putAll(dataStructures);
+        Header header = new Header(Header.VERSION_UNKNOWN, annotatedVariables, sources);
+        LogWriter writer = new LogWriter(target, header, PRETTY_PRINTING);
+        writer.write(operations);
+        return writer.finish();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Capture
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Start writing all streamed data received by this LogStreamManager to a JSON log, as it is
+     * unwrapped. The log is written on a background thread by a {@link LogWriter}, so receiving is
+     * not slowed down by the file system. When a streamed header declares new variables, a new
+     * part of the log is started so that every part declares the structures it uses. Any capture
+     * already in progress is stopped first.
+     *
+     * @param target
+     *            The file to write. Later parts are named as described by {@link LogWriter}.
+     * @param rotationSize
+     *            The approximate maximum size of a part in bytes, or 0 to write a single file.
+     * @param flushInterval
+     *            The interval between flushes in milliseconds, or 0 to flush only on stop.
+     * @throws IOException
+     *             If the file could not be created, or the previous capture failed.
+     */
+    public void startCapture (File target, long rotationSize, long flushInterval) throws IOException {
+        stopCapture();
+        captureHeader = new Header(Header.VERSION_UNKNOWN, new HashMap<String, AnnotatedVariable>(), null);
+        capture = new LogWriter(target, null, PRETTY_PRINTING);
+        capture.setRotationSize(rotationSize);
+        capture.setFlushInterval(flushInterval);
+    }
+
+    /**
+     * Stop the current capture, waiting for everything received so far to be written.
+     *
+     * @throws IOException
+     *             If writing the capture failed.
+     */
+    public void stopCapture () throws IOException {
+        LogWriter writer = capture;
+        capture = null;
+        captureHeader = null;
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the writer of the current capture.
+     *
+     * @return The LogWriter of the capture in progress, or {@code null} if not capturing.
+     */
+    public LogWriter getCapture () {
+        return capture;
+    }
+
+    /**
+     * Hand a streamed wrapper to the capture. {@code from} is the index of the first operation
+     * unpacked from the wrapper.
+     */
+    private void capture (Root wrapper, int from) {
+        try {
+            Map<String, AnnotatedVariable> known = captureHeader.annotatedVariables;
+            if (wrapper.header != null && wrapper.header.annotatedVariables != null
+                    && known.keySet().containsAll(wrapper.header.annotatedVariables.keySet()) == false) {
+                // The header is serialized on the writer thread, so it is replaced rather than modified.
+                known = new HashMap<String, AnnotatedVariable>(known);
+                known.putAll(wrapper.header.annotatedVariables);
+                captureHeader = new Header(Header.VERSION_UNKNOWN, known, null);
+                capture.setHeader(captureHeader);
+            }
+            if (from < operations.size()) {
+                // Copied, since the operations are cleared once they have been consumed.
+                capture.write(new ArrayList<Operation>(operations.subList(from, operations.size())));
+            }
+        } catch (IOException e) {
+            // Reported by getCapture().getError().
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Journal
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Save the data held by this LogStreamManager to a {@link LogJournal}, and keep appending
+     * streamed data to it as it is unwrapped. If {@code target} is already a journal, the data is
+     * appended to it. Otherwise the header and operations are written once, and later saves only
+     * need to call {@link LogJournal#flush()}. Any journal already open is closed first. <br>
+     * <br>
+     * <b>The operation list is read while writing, and must not be modified until the future
+     * returned by {@code flush()} has completed.</b>
+     *
+     * @param target
+     *            The journal to write.
+     * @param flushInterval
+     *            The interval between flushes in milliseconds, or 0 to flush only on stop.
+     * @return The journal.
+     * @throws IOException
+     *             If the journal could not be opened, or the previous journal failed.
+     */
+    public LogJournal startJournal (File target, long flushInterval) throws IOException {
+        stopJournal();
+        HashMap<String, AnnotatedVariable> annotatedVariables = new HashMap<String, AnnotatedVariable>();
+        annotatedVariables.putAll(dataStructures);
+        LogJournal newJournal = new LogJournal(target);
+        newJournal.setFlushInterval(flushInterval);
+        newJournal.declare(new Header(Header.VERSION_UNKNOWN, annotatedVariables, sources));
+        newJournal.write(operations);
+        journal = newJournal;
+        return newJournal;
+    }
+
+    /**
+     * Close the current journal, waiting for everything received so far to be written.
+     *
+     * @throws IOException
+     *             If writing the journal failed.
+     */
+    public void stopJournal () throws IOException {
+        LogJournal current = journal;
+        journal = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Returns the current journal.
+     *
+     * @return The journal streamed data is appended to, or {@code null} if there is none.
+     */
+    public LogJournal getJournal () {
+        return journal;
+    }
+
+    /**
+     * Append a streamed wrapper to the journal. {@code from} is the index of the first operation
+     * unpacked from the wrapper.
+     */
+    private void journal (Root wrapper, int from) {
+        try {
+            journal.declare(wrapper.header);
+            if (from < operations.size()) {
+                // Copied, since the operations are cleared once they have been consumed.
+                journal.write(new ArrayList<Operation>(operations.subList(from, operations.size())));
+            }
+        } catch (IOException e) {
+            // Reported by getJournal().getError().
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Batching
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Start coalescing streamed operations into batches, see {@link OperationBatcher}. While
+     * batching, every wrapper streamed by this LogStreamManager is sent by the batcher, in order,
+     * and the {@code stream} methods return {@code true} once the data has been queued. Producers
+     * should slow down when {@link OperationBatcher#isSaturated()} returns {@code true}. Any
+     * batcher already in use is flushed and closed first.
+     *
+     * @param maxOperations
+     *            The maximum number of operations in a batch.
+     * @param lingerMillis
+     *            The time in milliseconds an operation may wait for its batch to fill up.
+     * @param capacity
+     *            The number of operations waiting to be sent above which the batcher is
+     *            saturated.
+     * @return The new batcher.
+     */
+    public OperationBatcher startBatching (int maxOperations, long lingerMillis, int capacity) {
+        OperationBatcher newBatcher = new OperationBatcher(communicator, maxOperations, lingerMillis, capacity);
+        stopBatching();
+        batcher = newBatcher;
+        return newBatcher;
+    }
+
+    /**
+     * Stop batching, waiting for everything streamed so far to be sent.
+     */
+    public void stopBatching () {
+        OperationBatcher current = batcher;
+        batcher = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Returns the batcher used to send streamed data.
+     *
+     * @return The current OperationBatcher, or {@code null} if not batching.
+     */
+    public OperationBatcher getBatcher () {
+        return batcher;
+    }
+
     /**
      * Stream the data held by this LogStreamManager using the current Communicator.
      *
@@ -266,17 +690,29 @@ public class LogStreamManager implements CommunicatorListener {
      * @return True if successful, false otherwise.
      */
     public boolean stream (Root wrapper) {
+        OperationBatcher current = batcher;
+        if (current != null) {
+            current.add(wrapper);
+            return true;
+        }
         return communicator.sendWrapper(wrapper);
     }
 
     /**
-     * Stream the given Wrapper using the Communicator carried by this LogStreamManager.
+     * Stream the given Operation using the Communicator carried by this LogStreamManager. Each
+     * operation is sent in a message of its own, unless batching has been started using
+     * {@link #startBatching(int, long, int)}.
      *
      * @param operation
      *            The Operation to stream.
      * @return True if successful, false otherwise.
      */
     public boolean stream (Operation operation) {
+        OperationBatcher current = batcher;
+        if (current != null) {
+            current.add(operation);
+            return true;
+        }
         ArrayList<Operation> operations = new ArrayList<Operation>();
         operations.add(operation);
         return this.stream(new Root(null, operations));
@@ -303,6 +739,11 @@ public class LogStreamManager implements CommunicatorListener {
      * @return True if successful, false otherwise.
      */
     public boolean streamOperations (List<Operation> operations) {
+        OperationBatcher current = batcher;
+        if (current != null) {
+            current.add(operations);
+            return true;
+        }
         return this.stream(new Root(null, operations));
     }
 
@@ -376,16 +817,39 @@ public class LogStreamManager implements CommunicatorListener {
      *            if {@code true}, a name will be automatically generated.
      */
     public void printLog (String targetPath, Root wrapper, boolean autoName) throws FileNotFoundException {
-        Gson GSON;
         DateFormat dateFormat = new SimpleDateFormat("yy-MM-dd_HHmmss");
         Calendar cal = Calendar.getInstance();
         String fileName = autoName ? File.separator + dateFormat.format(cal.getTime()) + ".json" : "";
-        if (PRETTY_PRINTING) {
-            GSON = new GsonBuilder().setPrettyPrinting().create();
-        } else {
-            GSON = gson;
+        // Serialize one operation at a time rather than building the whole log as a string.
+        try (LogWriter writer = new LogWriter(new File(targetPath + fileName), wrapper.header, PRETTY_PRINTING)) {
+            if (wrapper.body != null) {
+                writer.write(wrapper.body);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Print the operations and header information currently held by this LogStreamManager in the
+     * compact binary format. Binary logs are read back by {@link #readLog(File)}.
+     *
+     * @param target
+     *            The location and file name of the file to print.
+     * @throws IOException
+     *             If the file could not be written.
+     */
+    public void printBinaryLog (File target) throws IOException {
+        HashMap<String, AnnotatedVariable> annotatedVariables = new HashMap<String, AnnotatedVariable>();
+        annotatedVariables.putAll(dataStructures);
+        Header header = new Header(Header.VERSION_UNKNOWN, annotatedVariables, sources);
+        try (BinaryLogWriter writer = new BinaryLogWriter(target, header, true)) {
+            for (Operation op : operations) {
+                writer.write(op);
+            }
         }
-        printString(targetPath + fileName, GSON.toJson(wrapper));
     }
 
     private void printString (String completePath, String str) throws FileNotFoundException {
@@ -403,23 +867,38 @@ public class LogStreamManager implements CommunicatorListener {
      * @return True if the wrapper was successfully unwrapped. False otherwise.
      */
     public boolean unwrap (Root wrapper) {
-        if (wrapper.header != null) {
-            if (wrapper.header.annotatedVariables != null) {
-                for (AnnotatedVariable av : wrapper.header.annotatedVariables.values()) {
-                    DataStructure ds = DataStructureParser.unpackAnnotatedVariable(av);
-                    if (ds == null) {
-                        return false;
-                    }
-                    dataStructures.put(av.identifier, ds);
-                }
-            }
-            sources = wrapper.header.sources;
+        if (wrapper.header != null && unwrapHeader(wrapper.header) == false) {
+            return false;
         }
         if (wrapper.body != null) {
             for (Operation op : wrapper.body) {
-                operations.add(OperationParser.unpackOperation(op));
+                Operation unpacked = OperationParser.unpackOperation(op);
+                if (unpacked != null) {
+                    operations.add(unpacked);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unwrap a header, adding its variables to the known structures.
+     *
+     * @param header
+     *            The header to unwrap.
+     * @return True if the header was successfully unwrapped. False otherwise.
+     */
+    private boolean unwrapHeader (Header header) {
+        if (header.annotatedVariables != null) {
+            for (AnnotatedVariable av : header.annotatedVariables.values()) {
+                DataStructure ds = DataStructureParser.unpackAnnotatedVariable(av);
+                if (ds == null) {
+                    return false;
+                }
+                dataStructures.put(av.identifier, ds);
             }
         }
+        sources = header.sources;
         return true;
     }
 
@@ -435,6 +914,12 @@ public class LogStreamManager implements CommunicatorListener {
         return this.unwrap(w);
     }
 
+    /**
+     * Unwrap the wrappers queued by the Communicator into the data held by this
+     * LogStreamManager. Called by the receiving thread of the Communicator, while holding the lock
+     * of this LogStreamManager. Other threads must hold the lock while taking streamed data from
+     * it, see {@link #getOperations()}.
+     */
     @Override public void messageReceived (short messageType) {
         if (listener == null) {
             return;
@@ -442,12 +927,23 @@ public class LogStreamManager implements CommunicatorListener {
         // Handle Wrapper messagess
         if (messageType == CommunicatorMessage.WRAPPER) {
             List<Root> wrappers = communicator.getAllQueuedMessages();
-            for (Root w : wrappers) {
-                if (this.unwrap(w) == false) {
-                    return;
+            boolean received = false;
+            synchronized (this) {
+                for (Root w : wrappers) {
+                    int from = operations.size();
+                    if (this.unwrap(w) == false) {
+                        continue; // Skip the bad wrapper, keep the rest of the run.
+                    }
+                    received = true;
+                    if (capture != null) {
+                        capture(w, from);
+                    }
+                    if (journal != null) {
+                        journal(w, from);
+                    }
                 }
             }
-            if (listener != null) {
+            if (received && listener != null) {
                 listener.messageReceived(CommunicatorMessage.WRAPPER);
             }
             // Handle Member info messages.
@@ -491,7 +987,21 @@ public class LogStreamManager implements CommunicatorListener {
         listener = newListener;
     }
 
+    /**
+     * Stop capturing and close the communicator.
+     */
     public void close () {
+        stopBatching();
+        try {
+            stopCapture();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        try {
+            stopJournal();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
         communicator.close();
     }
 }
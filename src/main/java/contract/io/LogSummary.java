@@ -0,0 +1,302 @@
+package contract.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
+
+import contract.json.AnnotatedVariable;
+import contract.json.Header;
+import contract.json.Operation;
+import contract.operation.OperationType;
+import contract.utility.OperationCounter;
+
+/**
+ * A summary of a log: its header and the number of operations of each type, read without
+ * creating any operations. The body of JSON logs is skimmed by a {@link JsonScanner}, looking
+ * only at the type of each operation, while binary logs are decoded one block at a time and
+ * journals one record at a time, without keeping the operations. Use {@link #read(File, boolean)} to summarize a log.
+ */
+public class LogSummary {
+
+    private final File             file;
+    private final boolean          binary;
+    private Header                 header;
+    private final OperationCounter counter        = new OperationCounter();
+    private int                    operationCount = -1;
+    private long                   elapsed;
+
+    private LogSummary (File file, boolean binary) {
+        this.file = file;
+        this.binary = binary;
+    }
+
+    /**
+     * Summarize a log.
+     *
+     * @param file
+     *            A JSON or binary log.
+     * @param headerOnly
+     *            If {@code true}, stop reading once the header has been read. The operations are
+     *            then not counted.
+     * @return A summary of the log.
+     * @throws IOException
+     *             If the log could not be read, is truncated or malformed.
+     */
+    public static LogSummary read (File file, boolean headerOnly) throws IOException {
+        long start = System.nanoTime();
+        LogSummary summary = new LogSummary(file, BinaryLogReader.isBinaryLog(file));
+        if (summary.binary) {
+            summary.readBinary(headerOnly);
+        } else if (LogJournal.isJournal(file)) {
+            summary.readJournal(headerOnly);
+        } else {
+            try (InputStream in = new FileInputStream(file)) {
+                summary.readJson(new JsonScanner(in), headerOnly);
+            }
+        }
+        summary.elapsed = System.nanoTime() - start;
+        return summary;
+    }
+
+    private void readBinary (final boolean headerOnly) throws IOException {
+        try (BinaryLogReader reader = new BinaryLogReader(file)) {
+            boolean completed = reader.read(new LogReader.Handler() {
+
+                @Override public boolean header (Header h) {
+                    header = h;
+                    return headerOnly == false;
+                }
+
+                @Override public boolean operation (Operation op) {
+                    if (op.operation != null) {
+                        counter.count(op.operation);
+                    }
+                    return true;
+                }
+            });
+            if (completed) {
+                operationCount = reader.getOperationCount();
+            }
+        }
+    }
+
+    /**
+     * Read a journal, merging its header records into a single header.
+     */
+    private void readJournal (final boolean headerOnly) throws IOException {
+        int[] count = new int[1];
+        boolean completed = LogJournal.read(file, new LogReader.Handler() {
+
+            @Override public boolean header (Header h) {
+                header = header == null ? h : merge(header, h);
+                return headerOnly == false;
+            }
+
+            @Override public boolean operation (Operation op) {
+                if (op.operation != null) {
+                    counter.count(op.operation);
+                }
+                count [0]++;
+                return true;
+            }
+        });
+        if (completed) {
+            operationCount = count [0];
+        }
+    }
+
+    private static Header merge (Header a, Header b) {
+        Map<String, AnnotatedVariable> annotatedVariables = new HashMap<String, AnnotatedVariable>();
+        Map<String, List<String>> sources = new HashMap<String, List<String>>();
+        for (Header h : new Header[] { a, b }) {
+            if (h.annotatedVariables != null) {
+                annotatedVariables.putAll(h.annotatedVariables);
+            }
+            if (h.sources != null) {
+                sources.putAll(h.sources);
+            }
+        }
+        return new Header(b.version, annotatedVariables, sources);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Scanning
+     *
+     */
+    // ============================================================= //
+
+    private void readJson (JsonScanner scanner, boolean headerOnly) throws IOException {
+        if (scanner.nextToken() != '{') {
+            throw new MalformedJsonException("Expected a JSON object.");
+        }
+        int c;
+        while ((c = scanner.nextToken()) != '}') {
+            if (c == ',') {
+                continue;
+            }
+            String name = readName(scanner, c);
+            if (name.equals("header") && scanner.peekToken() == '{') {
+                BinaryFormat.Sink json = new BinaryFormat.Sink();
+                scanner.skipValue(json);
+                try {
+                    header = GsonContructor.build().fromJson(new InputStreamReader(
+                            new ByteArrayInputStream(json.data, 0, json.size), StandardCharsets.UTF_8), Header.class);
+                } catch (JsonParseException e) {
+                    throw new MalformedJsonException("Malformed header: " + e.getMessage());
+                }
+                if (headerOnly) {
+                    return;
+                }
+            } else if (name.equals("body") && headerOnly == false && scanner.peekToken() == '[') {
+                scanner.next();
+                readBody(scanner);
+            } else {
+                scanner.skipValue(null);
+            }
+        }
+    }
+
+    /**
+     * Count the operations of the body following its opening bracket. Values which are not
+     * objects are skipped.
+     */
+    private void readBody (JsonScanner scanner) throws IOException {
+        operationCount = 0;
+        int c;
+        while ((c = scanner.peekToken()) != ']') {
+            if (c < 0) {
+                throw new EOFException("Unexpected end of log.");
+            } else if (c == ',') {
+                scanner.next();
+            } else if (c == '{') {
+                scanner.next();
+                readOperation(scanner);
+                operationCount++;
+            } else {
+                scanner.skipValue(null);
+            }
+        }
+        scanner.next();
+    }
+
+    /**
+     * Count an operation following its opening brace, skipping everything but its type.
+     */
+    private void readOperation (JsonScanner scanner) throws IOException {
+        int c;
+        while ((c = scanner.nextToken()) != '}') {
+            if (c == ',') {
+                continue;
+            }
+            String name = readName(scanner, c);
+            if (name.equals("operation") && scanner.peekToken() == '"') {
+                scanner.next();
+                OperationType type = getType(scanner.readName());
+                if (type != null) {
+                    counter.count(type);
+                }
+            } else {
+                scanner.skipValue(null);
+            }
+        }
+    }
+
+    /**
+     * Read a name and the colon following it, given the first token of the name.
+     */
+    private static String readName (JsonScanner scanner, int c) throws IOException {
+        if (c != '"') {
+            throw new MalformedJsonException("Expected a name at byte " + scanner.offset());
+        }
+        String name = scanner.readName();
+        if (scanner.nextToken() != ':') {
+            throw new MalformedJsonException("Expected ':' at byte " + scanner.offset());
+        }
+        return name;
+    }
+
+    private static OperationType getType (String name) {
+        for (OperationType type : OperationType.values()) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the summarized log.
+     *
+     * @return The log file.
+     */
+    public File getFile () {
+        return file;
+    }
+
+    /**
+     * Returns {@code true} if the log is a binary log.
+     *
+     * @return {@code true} for binary logs, {@code false} for JSON logs.
+     */
+    public boolean isBinary () {
+        return binary;
+    }
+
+    /**
+     * Returns the header of the log.
+     *
+     * @return The header, or {@code null} if the log has none.
+     */
+    public Header getHeader () {
+        return header;
+    }
+
+    /**
+     * Returns the number of operations of each type in the log. Empty if only the header was
+     * read.
+     *
+     * @return The operation counts of the log.
+     */
+    public OperationCounter getCounter () {
+        return counter;
+    }
+
+    /**
+     * Returns the number of operations in the log, including those of unknown types.
+     *
+     * @return The number of operations, or -1 if the operations were not read.
+     */
+    public int getOperationCount () {
+        return operationCount;
+    }
+
+    /**
+     * Returns the time taken to summarize the log.
+     *
+     * @return The time taken in nanoseconds.
+     */
+    public long getElapsed () {
+        return elapsed;
+    }
+}
@@ -0,0 +1,396 @@
+package contract.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Writes JSON logs incrementally on a background thread. Operations are serialized one at a time
+ * by the operation adapter of {@link GsonContructor} into a buffered stream, so the log is never
+ * held in memory as a string, and the calling thread only hands operations over. The output is
+ * identical to serializing a {@link contract.json.Root} using {@link GsonContructor#getGson(boolean)},
+ * and is read back by a {@link LogReader}. <br>
+ * <br>
+ * Buffered output can be flushed periodically using {@link #setFlushInterval(long)}, and the log
+ * can be split into parts of bounded size using {@link #setRotationSize(long)}. Every part is a
+ * complete log starting with the current header. Parts after the first are named by appending
+ * {@code -1}, {@code -2} and so on to the name of the file, before the extension. <br>
+ * <br>
+ * I/O errors are raised by the next call to {@link #write(Operation)}, or by {@link #close()}.
+ * Once an error has occurred, nothing more is written.
+ */
+public class LogWriter implements Closeable {
+
+    /**
+     * The number of bytes buffered before the stream is written to the file.
+     */
+    public static final int                BUFFER_SIZE = 1 << 16;
+
+    private final Gson                     gson;
+    private final TypeAdapter<Operation>   operations;
+    private final File                     file;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?>             flushTask;
+    private CompletableFuture<Void>        finished;
+    private volatile long                  rotationSize;
+    private volatile IOException           error;
+    private volatile boolean               closed;
+    private volatile int                   operationCount;
+    private final List<File>               files       = new ArrayList<File>();
+    /*
+     * Owned by the writer thread once the first part has been started.
+     */
+    private Header                         header;
+    private CountingStream                 counter;
+    private JsonWriter                     out;
+    private int                            part;
+
+    /**
+     * Create a new LogWriter. The file is created and the header written immediately.
+     *
+     * @param file
+     *            The file to write.
+     * @param header
+     *            The header of the log. May be null.
+     * @param prettyPrinting
+     *            Set to {@code true} to enable human-readable output.
+     * @throws FileNotFoundException
+     *             If {@code file} could not be created.
+     * @throws IOException
+     *             If the header could not be written.
+     */
+    public LogWriter (File file, Header header, boolean prettyPrinting) throws IOException {
+        this.file = file;
+        this.header = header;
+        gson = GsonContructor.getGson(prettyPrinting);
+        operations = gson.getAdapter(Operation.class);
+        begin(file);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LogWriter: " + file.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Set the size after which a new part is started. The size of a part may exceed
+     * {@code bytes} by the size of one operation and the encoder buffer.
+     *
+     * @param bytes
+     *            The approximate maximum size of a part in bytes, or 0 to write a single file.
+     */
+    public void setRotationSize (long bytes) {
+        rotationSize = bytes;
+    }
+
+    /**
+     * Set the interval at which buffered output is flushed to the file.
+     *
+     * @param millis
+     *            The interval in milliseconds, or 0 to flush only when the writer is closed or
+     *            {@link #flush()} is called.
+     */
+    public synchronized void setFlushInterval (long millis) {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (millis > 0 && closed == false) {
+            flushTask = executor.scheduleWithFixedDelay( () -> run(this::flushPart), millis, millis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Set the header of the log and start a new part beginning with it. Used when the structures
+     * of later operations are not declared by the current header.
+     *
+     * @param header
+     *            The new header. May be null.
+     * @throws IOException
+     *             If the writer is closed or a previous write failed.
+     */
+    public void setHeader (Header header) throws IOException {
+        submit( () -> {
+            this.header = header;
+            rotate();
+        });
+    }
+
+    /**
+     * Queue an operation for writing.
+     *
+     * @param op
+     *            The operation to write. {@code null} is ignored.
+     * @throws IOException
+     *             If the writer is closed or a previous write failed.
+     */
+    public void write (Operation op) throws IOException {
+        if (op != null) {
+            submit( () -> writeOperation(op));
+        }
+    }
+
+    /**
+     * Queue a list of operations for writing. The list is read on the writer thread and must not
+     * be modified until it has been written, which is the case once the future returned by
+     * {@link #flush()} has completed.
+     *
+     * @param ops
+     *            The operations to write.
+     * @throws IOException
+     *             If the writer is closed or a previous write failed.
+     */
+    public void write (List<Operation> ops) throws IOException {
+        submit( () -> {
+            for (Operation op : ops) {
+                if (op != null) {
+                    writeOperation(op);
+                }
+            }
+        });
+    }
+
+    /**
+     * Flush everything queued so far to the file.
+     *
+     * @return A future completing once the queued operations have been flushed, or exceptionally
+     *         with the first I/O error.
+     */
+    public synchronized CompletableFuture<Void> flush () {
+        if (closed) {
+            return finished;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        executor.execute( () -> complete(future, this::flushPart));
+        return future;
+    }
+
+    /**
+     * End the log and close the file once everything queued so far has been written, without
+     * waiting for it. Calls after the first return the same future.
+     *
+     * @return A future completing once the file has been closed, or exceptionally with the first
+     *         I/O error.
+     */
+    public synchronized CompletableFuture<Void> finish () {
+        if (closed) {
+            return finished;
+        }
+        closed = true;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        finished = new CompletableFuture<Void>();
+        executor.execute( () -> complete(finished, this::end));
+        executor.shutdown();
+        return finished;
+    }
+
+    /**
+     * Write everything queued, end the log and close the file, waiting for it to complete.
+     *
+     * @throws IOException
+     *             If writing failed, or the calling thread was interrupted while waiting.
+     */
+    @Override public void close () throws IOException {
+        try {
+            finish().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing log: " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the files written so far, in order.
+     *
+     * @return A list of the parts of the log.
+     */
+    public List<File> getFiles () {
+        synchronized (files) {
+            return new ArrayList<File>(files);
+        }
+    }
+
+    /**
+     * Returns the number of operations written so far.
+     *
+     * @return The number of operations written.
+     */
+    public int getOperationCount () {
+        return operationCount;
+    }
+
+    /**
+     * Returns the error which stopped this writer.
+     *
+     * @return The first I/O error, or {@code null} if there was none.
+     */
+    public IOException getError () {
+        return error;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Writer thread
+     *
+     */
+    // ============================================================= //
+
+    private void submit (Task task) throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (closed) {
+            throw new IOException("Writer is closed.");
+        }
+        executor.execute( () -> run(task));
+    }
+
+    private void complete (CompletableFuture<Void> future, Task task) {
+        run(task);
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private void run (Task task) {
+        if (error != null) {
+            return;
+        }
+        try {
+            task.run();
+        } catch (IOException e) {
+            error = e;
+        } catch (JsonIOException e) {
+            error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+        } catch (RuntimeException e) {
+            // Such as a list of operations modified while it was written.
+            error = new IOException("Failed to write log: " + file, e);
+        }
+        if (error != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Already failed.
+            }
+        }
+    }
+
+    private void writeOperation (Operation op) throws IOException {
+        operations.write(out, op);
+        operationCount++;
+        long limit = rotationSize;
+        if (limit > 0 && counter.count >= limit) {
+            rotate();
+        }
+    }
+
+    private void flushPart () throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Create a part and write the header.
+     */
+    private void begin (File target) throws IOException {
+        counter = new CountingStream(new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE));
+        out = gson.newJsonWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8));
+        synchronized (files) {
+            files.add(target);
+        }
+        out.beginObject();
+        if (header != null) {
+            out.name("header");
+            gson.toJson(header, Header.class, out);
+        }
+        out.name("body");
+        out.beginArray();
+    }
+
+    /**
+     * End the body and close the current part.
+     */
+    private void end () throws IOException {
+        out.endArray();
+        out.endObject();
+        out.close();
+    }
+
+    private void rotate () throws IOException {
+        end();
+        begin(partFile(++part));
+    }
+
+    /**
+     * Returns the file of the given part.
+     */
+    private File partFile (int n) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String suffix = "-" + n;
+        name = dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+        return new File(file.getParentFile(), name);
+    }
+
+    /**
+     * An action performed on the writer thread.
+     */
+    private interface Task {
+        void run () throws IOException;
+    }
+
+    /**
+     * Counts the bytes written to a stream.
+     */
+    private static final class CountingStream extends FilterOutputStream {
+        private long count;
+
+        private CountingStream (OutputStream out) {
+            super(out);
+        }
+
+        @Override public void write (int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override public void write (byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
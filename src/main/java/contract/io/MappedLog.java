@@ -0,0 +1,367 @@
+package contract.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.zip.Inflater;
+
+import com.google.gson.Gson;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Random access to the operations of a binary log written by a {@link BinaryLogWriter}, without
+ * reading the log into memory. The file is mapped using {@link FileChannel#map}, and only the
+ * frames of the blocks are read when the log is opened, building an index of the first operation
+ * of every block. Accessing an operation decodes the single block holding it. The last
+ * {@link #CACHED_BLOCKS} blocks decoded are kept, so consecutive accesses rarely decode a block
+ * more than once. <br>
+ * <br>
+ * Logs which are still being written, or which were not closed properly, are read up to the last
+ * complete block. Operations returned by {@link #get(int)} are shared between calls and must not
+ * be modified.
+ */
+public class MappedLog extends AbstractList<Operation> implements RandomAccess {
+
+    /**
+     * The number of decoded blocks kept in memory.
+     */
+    public static final int          CACHED_BLOCKS = 8;
+    /**
+     * The file is mapped in segments of {@code 1 << SEGMENT_BITS} bytes.
+     */
+    private static final int         SEGMENT_BITS  = 30;
+    private static final long        SEGMENT_MASK  = (1L << SEGMENT_BITS) - 1;
+
+    private final File               file;
+    private final MappedByteBuffer[] segments;
+    private final long               length;
+    private final Header             header;
+    /*
+     * Block index. starts has one extra entry holding the number of operations.
+     */
+    private int                      blockCount;
+    private int[]                    starts        = new int[64];
+    private long[]                   offsets       = new long[64];
+    private int[]                    rawLengths    = new int[64];
+    private int[]                    storedLengths = new int[64];
+    private byte[]                   codecs        = new byte[64];
+    private int                      size;
+
+    private final BlockDecoder       decoder;
+    private final Inflater           inflater      = new Inflater();
+    private byte[]                   raw           = new byte[0];
+    private byte[]                   stored        = new byte[0];
+    private long                     blocksDecoded;
+    private final BlockCache         cache         = new BlockCache();
+
+    /**
+     * Map a binary log and index its blocks.
+     *
+     * @param file
+     *            The binary log to map.
+     * @throws IOException
+     *             If the file could not be mapped, is not a binary log, or holds more than
+     *             {@link Integer#MAX_VALUE} operations.
+     */
+    public MappedLog (File file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            length = channel.size();
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i << SEGMENT_BITS;
+                segments [i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(length - position, 1L << SEGMENT_BITS));
+            }
+        }
+
+        Gson gson = GsonContructor.build();
+        decoder = new BlockDecoder(gson.getAdapter(Operation.class));
+
+        byte[] magic = new byte[BinaryFormat.MAGIC.length];
+        if (length < magic.length + 1) {
+            throw new EOFException("Not a binary log: " + file);
+        }
+        copy(0, magic, magic.length);
+        if (Arrays.equals(magic, BinaryFormat.MAGIC) == false) {
+            throw new StreamCorruptedException("Not a binary log: " + file);
+        }
+        int version = byteAt(magic.length);
+        if (version != BinaryFormat.VERSION) {
+            throw new StreamCorruptedException("Unsupported binary log version: " + version);
+        }
+
+        long[] position = { magic.length + 1 };
+        int headerLength = readFrameLength(position);
+        if (headerLength > 0) {
+            byte[] json = new byte[headerLength];
+            copy(position [0], json, headerLength);
+            position [0] += headerLength;
+            header = gson.fromJson(new String(json, StandardCharsets.UTF_8), Header.class);
+        } else {
+            header = null;
+        }
+        index(position [0]);
+    }
+
+    /**
+     * Read the frames of the blocks, stopping at the end marker or at the last complete block.
+     */
+    private void index (long position) throws IOException {
+        long[] p = { position };
+        try {
+            indexBlocks(p);
+        } catch (EOFException e) {
+            // Truncated frame, keep the complete blocks.
+        }
+        starts [blockCount] = size;
+    }
+
+    private void indexBlocks (long[] p) throws IOException {
+        while (p [0] < length) {
+            int count = readFrameLength(p);
+            if (count == 0 || p [0] >= length) {
+                break;
+            }
+            byte codec = (byte) byteAt(p [0]++);
+            int rawLength = readFrameLength(p);
+            int storedLength = readFrameLength(p);
+            if (p [0] + storedLength > length) {
+                break;
+            }
+            if ((long) size + count > Integer.MAX_VALUE) {
+                throw new IOException("Too many operations: " + file);
+            }
+
+            if (blockCount + 1 == starts.length) {
+                int n = starts.length * 2;
+                starts = Arrays.copyOf(starts, n);
+                offsets = Arrays.copyOf(offsets, n);
+                rawLengths = Arrays.copyOf(rawLengths, n);
+                storedLengths = Arrays.copyOf(storedLengths, n);
+                codecs = Arrays.copyOf(codecs, n);
+            }
+            starts [blockCount] = size;
+            offsets [blockCount] = p [0];
+            rawLengths [blockCount] = rawLength;
+            storedLengths [blockCount] = storedLength;
+            codecs [blockCount] = codec;
+            blockCount++;
+            size += count;
+            p [0] += storedLength;
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * List
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the operation at the given index, decoding its block if it is not cached.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return The operation at {@code index}.
+     * @throws IllegalStateException
+     *             If the block holding the operation is corrupt.
+     */
+    @Override public synchronized Operation get (int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int block = findBlock(index);
+        Operation[] ops = cache.get(block);
+        if (ops == null) {
+            try {
+                ops = decode(block);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read block " + block + " of " + file, e);
+            }
+            cache.put(block, ops);
+        }
+        return ops [index - starts [block]];
+    }
+
+    @Override public int size () {
+        return size;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Blocks
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the header of the log.
+     *
+     * @return The header, or {@code null} if the log has none.
+     */
+    public Header getHeader () {
+        return header;
+    }
+
+    /**
+     * Returns the mapped file.
+     *
+     * @return The file of this log.
+     */
+    public File getFile () {
+        return file;
+    }
+
+    /**
+     * Returns the number of blocks in the log.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlockCount () {
+        return blockCount;
+    }
+
+    /**
+     * Returns the index of the first operation of a block.
+     *
+     * @param block
+     *            A block number, at most {@link #getBlockCount()}.
+     * @return The index of the first operation of {@code block}, or the number of operations if
+     *         {@code block == getBlockCount()}.
+     */
+    public int getBlockStart (int block) {
+        return starts [block];
+    }
+
+    /**
+     * Returns the block holding the operation at the given index.
+     *
+     * @param index
+     *            The index of an operation.
+     * @return The number of the block holding the operation.
+     */
+    public int findBlock (int index) {
+        int block = Arrays.binarySearch(starts, 0, blockCount, index);
+        // Blocks are never empty, so the insertion point is after the block holding index.
+        return block >= 0 ? block : -block - 2;
+    }
+
+    /**
+     * Returns the number of blocks decoded since the log was opened.
+     *
+     * @return The number of blocks decoded.
+     */
+    public synchronized long getBlocksDecoded () {
+        return blocksDecoded;
+    }
+
+    private Operation[] decode (int block) throws IOException {
+        int rawLength = rawLengths [block];
+        int storedLength = storedLengths [block];
+        if (raw.length < rawLength) {
+            raw = new byte[rawLength];
+        }
+        switch (codecs [block]) {
+        case BinaryFormat.CODEC_NONE:
+            copy(offsets [block], raw, rawLength);
+            break;
+        case BinaryFormat.CODEC_DEFLATE:
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            copy(offsets [block], stored, storedLength);
+            BlockDecoder.inflate(inflater, stored, storedLength, raw, rawLength);
+            break;
+        default:
+            throw new StreamCorruptedException("Unknown codec: " + codecs [block]);
+        }
+
+        decoder.reset(raw, rawLength);
+        Operation[] ops = new Operation[starts [block + 1] - starts [block]];
+        for (int i = 0; i < ops.length; i++) {
+            ops [i] = decoder.read();
+        }
+        blocksDecoded++;
+        return ops;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Mapped access
+     *
+     */
+    // ============================================================= //
+
+    private int byteAt (long position) {
+        return segments [(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK)) & 0xFF;
+    }
+
+    /**
+     * Copy bytes from the file, which may span two segments.
+     */
+    private void copy (long position, byte[] destination, int count) {
+        int copied = 0;
+        while (copied < count) {
+            ByteBuffer segment = segments [(int) (position >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) (position & SEGMENT_MASK));
+            int n = Math.min(count - copied, segment.remaining());
+            segment.get(destination, copied, n);
+            copied += n;
+            position += n;
+        }
+    }
+
+    /**
+     * Read a varint at {@code position [0]}, advancing the position.
+     */
+    private int readFrameLength (long[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position [0] >= length) {
+                throw new EOFException("Unexpected end of log.");
+            }
+            int b = byteAt(position [0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                if (value > BinaryFormat.MAX_BLOCK_LENGTH) {
+                    throw new StreamCorruptedException("Length out of bounds: " + value);
+                }
+                return (int) value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed length.");
+    }
+
+    /**
+     * The blocks decoded last, evicting the least recently used block.
+     */
+    private static final class BlockCache extends LinkedHashMap<Integer, Operation[]> {
+        private static final long serialVersionUID = 1L;
+
+        private BlockCache () {
+            super(16, 0.75f, true);
+        }
+
+        @Override protected boolean removeEldestEntry (Map.Entry<Integer, Operation[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package contract.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single-producer, single-consumer queue of byte records in a memory-mapped file, shared by
+ * two processes on the same host. Neither side makes system calls while the queue is neither
+ * full nor empty. <br>
+ * <br>
+ * The file begins with a header holding the capacity and two sequence counters on cache lines
+ * of their own: the tail, advanced by the producer when a record has been written, and the head,
+ * advanced by the consumer when a record has been read. A third cache line holds the
+ * {@link System#nanoTime()} at which the consumer last polled, or 0 if there is no consumer,
+ * which tells the producer whether a consumer is alive. Records follow the header, each as its
+ * length, the {@link System#nanoTime()} at which it was written, and its bytes, padded to eight
+ * bytes. A record which would straddle the end of the ring is preceded by a padding record.
+ * <br>
+ * <br>
+ * The counters are accessed with acquire and release semantics through a {@code VarHandle} on
+ * Java 9 or later, looked up reflectively so that the rest of the program runs on Java 8. On Java
+ * 8, they are accessed inside {@code synchronized} blocks instead, which act as full fences. <br>
+ * <br>
+ * There may be at most one producer and one consumer at a time, which is enforced by file locks.
+ */
+final class MappedRing {
+
+    /**
+     * "VRNG".
+     */
+    private static final int          MAGIC           = 0x56524E47;
+    private static final int          VERSION         = 2;
+    private static final int          MAGIC_OFFSET    = 0;
+    private static final int          VERSION_OFFSET  = 4;
+    private static final int          CAPACITY_OFFSET = 8;
+    private static final int          TAIL_OFFSET     = 64;
+    private static final int          HEAD_OFFSET     = 128;
+    private static final int          CONSUMER_OFFSET = 192;
+    // Regions locked by the file locks, not by the mapping.
+    private static final long         INIT_LOCK       = 256;
+    private static final long         PRODUCER_LOCK   = 257;
+    private static final long         CONSUMER_LOCK   = 258;
+    private static final int          HEADER_SIZE     = 4096;
+    /**
+     * The size of the length and timestamp of a record.
+     */
+    static final int                  RECORD_HEADER   = 16;
+    private static final int          PADDING         = -1;
+    /**
+     * The time after which a consumer which has not polled is considered gone.
+     */
+    private static final long         LIVENESS_NANOS  = TimeUnit.SECONDS.toNanos(1);
+
+    private static final MethodHandle GET_ACQUIRE;
+    private static final MethodHandle SET_RELEASE;
+    private static final Object       FENCE           = new Object();
+
+    static {
+        MethodHandle getAcquire = null;
+        MethodHandle setRelease = null;
+        try {
+            Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+            Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Object handle = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class)
+                    .invoke(null, long[].class, ByteOrder.nativeOrder());
+            Method toMethodHandle = varHandle.getMethod("toMethodHandle", accessMode);
+            for (Object mode : accessMode.getEnumConstants()) {
+                if (mode.toString().equals("GET_ACQUIRE")) {
+                    getAcquire = (MethodHandle) toMethodHandle.invoke(handle, mode);
+                } else if (mode.toString().equals("SET_RELEASE")) {
+                    setRelease = (MethodHandle) toMethodHandle.invoke(handle, mode);
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            // Java 8.
+            getAcquire = null;
+            setRelease = null;
+        }
+        GET_ACQUIRE = getAcquire;
+        SET_RELEASE = setRelease;
+    }
+
+    private final File                file;
+    private final FileChannel         channel;
+    private final ByteBuffer          header;
+    private final ByteBuffer          data;
+    private final int                 capacity;
+    private final int                 mask;
+    private FileLock                  lock;
+    // Producer state
+    private long                      tail;
+    private long                      cachedHead;
+    // Consumer state
+    private long                      head;
+
+    /**
+     * Map a ring, creating the file if it does not exist.
+     *
+     * @param file
+     *            The file holding the ring.
+     * @param capacity
+     *            The size of the ring in bytes, a power of two. Ignored if the file holds a ring
+     *            already.
+     * @throws IOException
+     *             If the file could not be mapped, or does not hold a ring.
+     */
+    MappedRing (File file, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1 || capacity < 4096) {
+            throw new IllegalArgumentException("Capacity must be a power of two, at least 4096: " + capacity);
+        }
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            int mapped;
+            FileLock init = channel.lock(INIT_LOCK, 1, false);
+            try {
+                mapped = initialize(capacity);
+            } finally {
+                init.release();
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + mapped);
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.limit(HEADER_SIZE);
+            header = buffer.slice().order(ByteOrder.nativeOrder());
+            buffer.limit(HEADER_SIZE + mapped).position(HEADER_SIZE);
+            data = buffer.slice().order(ByteOrder.nativeOrder());
+            this.capacity = mapped;
+            mask = mapped - 1;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the header unless the file holds a ring already. Called holding the init lock.
+     *
+     * @return The capacity of the ring.
+     */
+    private int initialize (int capacity) throws IOException {
+        ByteBuffer existing = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+        channel.read(existing, 0);
+        existing.flip();
+        if (existing.remaining() == 16 && existing.getInt(MAGIC_OFFSET) == MAGIC) {
+            if (existing.getInt(VERSION_OFFSET) != VERSION) {
+                throw new StreamCorruptedException("Unsupported ring version: " + existing.getInt(VERSION_OFFSET));
+            }
+            return (int) existing.getLong(CAPACITY_OFFSET);
+        }
+        if (existing.remaining() > 0) {
+            throw new StreamCorruptedException("Not a ring: " + file);
+        }
+        ByteBuffer created = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        created.putInt(MAGIC_OFFSET, MAGIC);
+        created.putInt(VERSION_OFFSET, VERSION);
+        created.putLong(CAPACITY_OFFSET, capacity);
+        channel.write(created, 0);
+        channel.write(ByteBuffer.allocate(1), HEADER_SIZE + capacity - 1);
+        return capacity;
+    }
+
+    /**
+     * Returns the file holding the ring.
+     */
+    File getFile () {
+        return file;
+    }
+
+    /**
+     * Returns the capacity of the ring in bytes.
+     */
+    int getCapacity () {
+        return capacity;
+    }
+
+    /**
+     * Returns the largest record which fits in the ring.
+     */
+    int getMaxRecord () {
+        return capacity / 2 - RECORD_HEADER;
+    }
+
+    /**
+     * Become the producer of the ring.
+     *
+     * @return {@code false} if there is a producer already.
+     */
+    boolean attachProducer () throws IOException {
+        if (tryLock(PRODUCER_LOCK) == false) {
+            return false;
+        }
+        tail = getAcquire(TAIL_OFFSET);
+        cachedHead = getAcquire(HEAD_OFFSET);
+        return true;
+    }
+
+    /**
+     * Become the consumer of the ring. Records written before are skipped.
+     *
+     * @return {@code false} if there is a consumer already.
+     */
+    boolean attachConsumer () throws IOException {
+        if (tryLock(CONSUMER_LOCK) == false) {
+            return false;
+        }
+        head = getAcquire(TAIL_OFFSET);
+        setRelease(HEAD_OFFSET, head);
+        setRelease(CONSUMER_OFFSET, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if a consumer is attached and has polled the ring within the last
+     * second. Reads the header only, so that it never interferes with a consumer attaching.
+     */
+    boolean hasConsumer () {
+        long polled = getAcquire(CONSUMER_OFFSET);
+        return polled != 0 && System.nanoTime() - polled < LIVENESS_NANOS;
+    }
+
+    private boolean tryLock (long position) throws IOException {
+        if (lock != null) {
+            return lock.position() == position;
+        }
+        try {
+            lock = channel.tryLock(position, 1, false);
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        return lock != null;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Producer
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Append a record, unless there is not room for it. May only be called by the producer.
+     *
+     * @param record
+     *            The bytes of the record.
+     * @param offset
+     *            The offset of the record in {@code record}.
+     * @param length
+     *            The length of the record, at most {@link #getMaxRecord()}.
+     * @return {@code false} if the ring is full.
+     */
+    boolean offer (byte[] record, int offset, int length) {
+        int size = align(RECORD_HEADER + length);
+        int position = (int) (tail & mask);
+        int padding = capacity - position < size ? capacity - position : 0;
+        if (tail + padding + size - cachedHead > capacity) {
+            cachedHead = getAcquire(HEAD_OFFSET);
+            if (tail + padding + size - cachedHead > capacity) {
+                return false;
+            }
+        }
+        if (padding > 0) {
+            data.putInt(position, PADDING);
+            position = 0;
+        }
+        data.putInt(position, length);
+        data.putLong(position + 8, System.nanoTime());
+        ByteBuffer view = data.duplicate();
+        view.position(position + RECORD_HEADER);
+        view.put(record, offset, length);
+        tail += padding + size;
+        setRelease(TAIL_OFFSET, tail);
+        return true;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Consumer
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Receives records read from the ring.
+     */
+    interface RecordHandler {
+
+        /**
+         * Called for each record. The record must be copied before returning.
+         *
+         * @param buffer
+         *            The ring. The record lies between its position and limit.
+         * @param timestamp
+         *            The {@link System#nanoTime()} at which the record was written.
+         */
+        void record (ByteBuffer buffer, long timestamp);
+    }
+
+    /**
+     * Read the records written so far. May only be called by the consumer.
+     *
+     * @param handler
+     *            Receives the records.
+     * @param maxRecords
+     *            The maximum number of records to read.
+     * @return The number of records read.
+     */
+    int poll (RecordHandler handler, int maxRecords) {
+        setRelease(CONSUMER_OFFSET, System.nanoTime());
+        long available = getAcquire(TAIL_OFFSET);
+        int records = 0;
+        ByteBuffer view = data.duplicate();
+        while (head < available && records < maxRecords) {
+            int position = (int) (head & mask);
+            int length = data.getInt(position);
+            if (length == PADDING) {
+                head += capacity - position;
+                setRelease(HEAD_OFFSET, head);
+                continue;
+            }
+            view.limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER);
+            handler.record(view, data.getLong(position + 8));
+            view.clear();
+            head += align(RECORD_HEADER + length);
+            setRelease(HEAD_OFFSET, head);
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Release the lock held and close the file.
+     */
+    void close () throws IOException {
+        if (lock != null) {
+            if (lock.position() == CONSUMER_LOCK) {
+                setRelease(CONSUMER_OFFSET, 0);
+            }
+            lock.release();
+            lock = null;
+        }
+        channel.close();
+    }
+
+    private static int align (int size) {
+        return size + 7 & ~7;
+    }
+
+    private long getAcquire (int offset) {
+        if (GET_ACQUIRE == null) {
+            synchronized (FENCE) {
+                return header.getLong(offset);
+            }
+        }
+        try {
+            return (long) GET_ACQUIRE.invokeExact(header, offset);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void setRelease (int offset, long value) {
+        if (SET_RELEASE == null) {
+            synchronized (FENCE) {
+                header.putLong(offset, value);
+            }
+            return;
+        }
+        try {
+            SET_RELEASE.invokeExact(header, offset, value);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package contract.io;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import contract.json.Operation;
+import contract.json.Root;
+
+/**
+ * Coalesces streamed operations into batches, so that a program streaming one operation at a
+ * time sends one message per batch rather than one per operation. A batch is sent once it holds
+ * {@code maxOperations} operations, or {@code lingerMillis} milliseconds after its first
+ * operation was added, whichever comes first. Batches and other wrappers are sent in the order
+ * they were added by a single background thread, so the calling thread never waits for the
+ * network. <br>
+ * <br>
+ * Operations are never dropped. Instead, {@link #add(Operation)} returns {@code false} once
+ * {@code capacity} operations are waiting to be sent, signalling the producer to slow down, for
+ * example by calling {@link #awaitCapacity(long)}. Everything added is sent by {@link #flush()}
+ * and {@link #close()}, and when the virtual machine shuts down.
+ */
+public class OperationBatcher implements Closeable {
+
+    /**
+     * The default maximum number of operations in a batch.
+     */
+    public static final int                DEFAULT_MAX_OPERATIONS = 1000;
+    /**
+     * The default time in milliseconds an operation may wait for its batch to fill up.
+     */
+    public static final long               DEFAULT_LINGER_MILLIS  = 5;
+    /**
+     * The default number of operations waiting to be sent above which the batcher is saturated.
+     */
+    public static final int                DEFAULT_CAPACITY       = 1 << 16;
+
+    private final Communicator             communicator;
+    private final int                      maxOperations;
+    private final long                     lingerMillis;
+    private final int                      capacity;
+    private final ScheduledExecutorService executor;
+    private final Thread                   shutdownHook;
+    /*
+     * Guarded by this.
+     */
+    private List<Operation>                batch;
+    private ScheduledFuture<?>             lingerTask;
+    private int                            pending;
+    private long                           sentOperations;
+    private long                           sentMessages;
+    private long                           failedMessages;
+    private boolean                        closed;
+
+    /**
+     * Create a new OperationBatcher.
+     *
+     * @param communicator
+     *            The Communicator used to send batches.
+     * @param maxOperations
+     *            The maximum number of operations in a batch.
+     * @param lingerMillis
+     *            The time in milliseconds an operation may wait for its batch to fill up, or 0 to
+     *            send every operation as soon as the sender thread is free. Operations added
+     *            while it is busy are still coalesced.
+     * @param capacity
+     *            The number of operations waiting to be sent above which {@link #add(Operation)}
+     *            returns {@code false}.
+     */
+    public OperationBatcher (Communicator communicator, int maxOperations, long lingerMillis, int capacity) {
+        if (maxOperations < 1 || lingerMillis < 0 || capacity < 1) {
+            throw new IllegalArgumentException("maxOperations < 1 || lingerMillis < 0 || capacity < 1");
+        }
+        this.communicator = communicator;
+        this.maxOperations = maxOperations;
+        this.lingerMillis = lingerMillis;
+        this.capacity = capacity;
+        batch = new ArrayList<Operation>(maxOperations);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OperationBatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        shutdownHook = new Thread(this::flush, "OperationBatcher shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Queue an operation for sending. The operation must not be modified afterwards.
+     *
+     * @param op
+     *            The operation to send. {@code null} is ignored.
+     * @return {@code false} if at least {@code capacity} operations are waiting to be sent, in
+     *         which case the caller should slow down. The operation is queued regardless.
+     * @throws IllegalStateException
+     *             If the batcher is closed.
+     */
+    public synchronized boolean add (Operation op) {
+        checkOpen();
+        if (op != null) {
+            batch.add(op);
+            pending++;
+            if (batch.size() >= maxOperations || lingerMillis == 0) {
+                submitBatch();
+            } else if (batch.size() == 1) {
+                lingerTask = executor.schedule(this::lingerExpired, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return pending < capacity;
+    }
+
+    /**
+     * Queue a list of operations for sending. The operations must not be modified afterwards.
+     *
+     * @param ops
+     *            The operations to send.
+     * @return {@code false} if at least {@code capacity} operations are waiting to be sent, in
+     *         which case the caller should slow down. The operations are queued regardless.
+     * @throws IllegalStateException
+     *             If the batcher is closed.
+     */
+    public synchronized boolean add (List<Operation> ops) {
+        boolean belowCapacity = true;
+        for (Operation op : ops) {
+            belowCapacity = add(op);
+        }
+        return belowCapacity;
+    }
+
+    /**
+     * Queue a wrapper for sending as it is, after the operations added before it. Used for
+     * headers, which must reach receivers before the operations using them.
+     *
+     * @param wrapper
+     *            The wrapper to send. Must not be modified afterwards.
+     * @return {@code false} if at least {@code capacity} operations are waiting to be sent.
+     * @throws IllegalStateException
+     *             If the batcher is closed.
+     */
+    public synchronized boolean add (Root wrapper) {
+        checkOpen();
+        submitBatch();
+        int count = wrapper.body == null ? 0 : wrapper.body.size();
+        pending += count;
+        executor.execute( () -> send(wrapper, count));
+        return pending < capacity;
+    }
+
+    /**
+     * Wait until fewer than half of {@code capacity} operations are waiting to be sent.
+     *
+     * @param timeoutMillis
+     *            The maximum time to wait in milliseconds.
+     * @return {@code true} if the batcher is no longer saturated, {@code false} if the timeout
+     *         expired.
+     * @throws InterruptedException
+     *             If the calling thread was interrupted while waiting.
+     */
+    public synchronized boolean awaitCapacity (long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (pending >= capacity / 2) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Send the current batch, and wait until everything added so far has been sent.
+     *
+     * @return {@code false} if the calling thread was interrupted while waiting.
+     */
+    public synchronized boolean flush () {
+        if (batch.isEmpty() == false) {
+            submitBatch();
+        }
+        while (pending > 0 && executor.isTerminated() == false) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Send everything added so far and stop the sender thread. Operations may not be added
+     * afterwards.
+     */
+    @Override public void close () {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+        }
+        executor.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down.
+        }
+    }
+
+    /**
+     * Returns {@code true} if at least {@code capacity} operations are waiting to be sent.
+     *
+     * @return {@code true} if the producer should slow down.
+     */
+    public synchronized boolean isSaturated () {
+        return pending >= capacity;
+    }
+
+    /**
+     * Returns the number of operations added but not yet sent.
+     *
+     * @return The number of operations waiting to be sent.
+     */
+    public synchronized int getPendingCount () {
+        return pending;
+    }
+
+    /**
+     * Returns the number of operations sent, including those of failed messages.
+     *
+     * @return The number of operations sent.
+     */
+    public synchronized long getSentOperations () {
+        return sentOperations;
+    }
+
+    /**
+     * Returns the number of messages sent.
+     *
+     * @return The number of messages sent, including failed ones.
+     */
+    public synchronized long getSentMessages () {
+        return sentMessages;
+    }
+
+    /**
+     * Returns the number of messages the Communicator failed to send.
+     *
+     * @return The number of failed messages.
+     */
+    public synchronized long getFailedMessages () {
+        return failedMessages;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Sender thread
+     *
+     */
+    // ============================================================= //
+
+    private void checkOpen () {
+        if (closed) {
+            throw new IllegalStateException("Batcher is closed.");
+        }
+    }
+
+    /**
+     * Hand the current batch to the sender thread. Called holding the lock.
+     */
+    private void submitBatch () {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Operation> full = batch;
+        batch = new ArrayList<Operation>(maxOperations);
+        executor.execute( () -> send(new Root(null, full), full.size()));
+    }
+
+    private synchronized void lingerExpired () {
+        lingerTask = null;
+        submitBatch();
+    }
+
+    private void send (Root wrapper, int count) {
+        boolean sent;
+        try {
+            sent = communicator.sendWrapper(wrapper);
+        } catch (RuntimeException e) {
+            sent = false;
+        }
+        synchronized (this) {
+            pending -= count;
+            sentOperations += count;
+            sentMessages++;
+            if (sent == false) {
+                failedMessages++;
+            }
+            notifyAll();
+        }
+    }
+}
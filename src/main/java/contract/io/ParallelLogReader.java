@@ -0,0 +1,586 @@
+package contract.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import contract.json.Header;
+import contract.json.Operation;
+
+/**
+ * Reads JSON logs using several threads. The body is cut into chunks of about
+ * {@link #CHUNK_BYTES} bytes at the commas separating operations. The chunks are parsed
+ * concurrently on a {@link ForkJoinPool} by the operation adapter of {@link GsonContructor}, and
+ * the operations are handed to the {@link LogReader.Handler} in order on the calling thread. At
+ * most two chunks per thread of the pool are held at once, so memory use does not depend on the
+ * length of the log. The result is the same as that of a {@link LogReader}. <br>
+ * <br>
+ * Finding the boundaries between operations exactly requires scanning every byte on the calling
+ * thread, which limits the speedup to the rate of the scan. When reading a file whose body is
+ * its last member, as in logs written by {@link LogStreamManager}, chunks are instead cut
+ * speculatively at the first <code>},{</code> after {@code CHUNK_BYTES} bytes. A cut inside a
+ * string or a nested value always leaves the chunk before it malformed, so when a chunk fails to
+ * parse, the body is scanned exactly from the start of that chunk onwards.
+ */
+public class ParallelLogReader implements Closeable {
+
+    /**
+     * The approximate size of the chunks parsed by the pool.
+     */
+    public static final int              CHUNK_BYTES = 1 << 18;
+    /**
+     * Logs shorter than this are not worth splitting. See {@link #isWorthwhile(File)}.
+     */
+    public static final long             MIN_LENGTH  = 1 << 24;
+
+    private final Gson                   gson        = GsonContructor.build();
+    private final TypeAdapter<Operation> operations  = gson.getAdapter(Operation.class);
+    /**
+     * The channel of the file, used to scan exactly after a failed speculative chunk. Null when
+     * reading other streams.
+     */
+    private final FileChannel            channel;
+    private final long                   length;
+    private final ForkJoinPool           pool;
+    private final int                    maxPending;
+    private LogReader.ProgressListener   progressListener;
+    private ChunkListener                chunkListener;
+    private int                          operationCount;
+    private final JsonScanner            scanner;
+    /*
+     * Chunk state.
+     */
+    private BinaryFormat.Sink            chunk;
+    private long                         chunkStart;
+    private boolean                      speculative;
+    private final ArrayDeque<Chunk>      pending     = new ArrayDeque<Chunk>();
+    /**
+     * The start of the speculative chunk which failed to parse, or -1.
+     */
+    private long                         failedAt    = -1;
+
+    /**
+     * Create a new ParallelLogReader for a file, using the common pool.
+     *
+     * @param file
+     *            The file to read.
+     * @throws FileNotFoundException
+     *             If {@code file} could not be opened.
+     */
+    public ParallelLogReader (File file) throws FileNotFoundException {
+        this(new FileInputStream(file), file.length(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new ParallelLogReader for a stream of UTF-8 encoded JSON. Chunks are cut
+     * speculatively only if {@code stream} is a {@link FileInputStream}.
+     *
+     * @param stream
+     *            The stream to read.
+     * @param length
+     *            The length of the stream in bytes, or -1 if unknown. Used for progress reports.
+     * @param pool
+     *            The pool used to parse chunks.
+     */
+    public ParallelLogReader (InputStream stream, long length, ForkJoinPool pool) {
+        scanner = new JsonScanner(stream);
+        channel = stream instanceof FileInputStream ? ((FileInputStream) stream).getChannel() : null;
+        this.length = length;
+        this.pool = pool;
+        maxPending = pool.getParallelism() * 2;
+    }
+
+    /**
+     * Returns {@code true} if reading {@code file} using a ParallelLogReader is likely to be
+     * faster than using a {@link LogReader}, that is if the file is large and the common pool has
+     * more than one thread.
+     *
+     * @param file
+     *            The file to check.
+     * @return {@code true} if the file should be read in parallel.
+     */
+    public static boolean isWorthwhile (File file) {
+        return ForkJoinPool.getCommonPoolParallelism() > 1 && file.length() >= MIN_LENGTH;
+    }
+
+    /**
+     * Set the listener to notify of progress while reading. The listener is notified after every
+     * chunk in which the number of operations read passes a multiple of
+     * {@link LogReader#PROGRESS_INTERVAL}.
+     *
+     * @param listener
+     *            A ProgressListener. May be null.
+     */
+    public void setProgressListener (LogReader.ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Set the listener to notify of every chunk delivered. Used to index the operations of the
+     * log, see {@link LogIndex}.
+     *
+     * @param listener
+     *            A ChunkListener. May be null.
+     */
+    public void setChunkListener (ChunkListener listener) {
+        chunkListener = listener;
+    }
+
+    /**
+     * Read the log, handing the header and each operation to {@code handler} in the order they
+     * appear in the file.
+     *
+     * @param handler
+     *            The handler to receive the header and operations.
+     * @return {@code false} if reading was aborted by the handler, {@code true} otherwise.
+     * @throws IOException
+     *             If the log could not be read or is malformed.
+     */
+    public boolean read (LogReader.Handler handler) throws IOException {
+        try {
+            if (readRoot(handler) == false) {
+                return false;
+            }
+        } finally {
+            cancelPending();
+        }
+        reportProgress();
+        return true;
+    }
+
+    /**
+     * Returns the number of operations read so far.
+     *
+     * @return The number of operations read.
+     */
+    public int getOperationCount () {
+        return operationCount;
+    }
+
+    @Override public void close () throws IOException {
+        scanner.in.close();
+    }
+
+    private void reportProgress () {
+        if (progressListener != null) {
+            progressListener.progress(scanner.offset(), length, operationCount);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Scanning
+     *
+     */
+    // ============================================================= //
+
+    private boolean readRoot (LogReader.Handler handler) throws IOException {
+        if (scanner.nextToken() != '{') {
+            throw new MalformedJsonException("Expected a JSON object.");
+        }
+        int c;
+        while ((c = scanner.nextToken()) != '}') {
+            if (c == ',') {
+                continue;
+            } else if (c != '"') {
+                throw new MalformedJsonException("Expected a name at byte " + scanner.offset());
+            }
+            String name = scanner.readName();
+            if (scanner.nextToken() != ':') {
+                throw new MalformedJsonException("Expected ':' at byte " + scanner.offset());
+            }
+            if (name.equals("body") && scanner.peekToken() == '[') {
+                scanner.next();
+                long bodyEnd = findBodyEnd();
+                if (bodyEnd < 0) {
+                    speculative = false;
+                    if (readBody(handler) == false || deliverAll(handler) == false) {
+                        return false;
+                    }
+                } else {
+                    speculative = true;
+                    if (readBody(handler, bodyEnd) == false) {
+                        return false;
+                    }
+                }
+            } else if (name.equals("header") && scanner.peekToken() == '{') {
+                BinaryFormat.Sink json = new BinaryFormat.Sink();
+                scanner.skipValue(json);
+                Header header = gson.fromJson(new InputStreamReader(
+                        new ByteArrayInputStream(json.data, 0, json.size), StandardCharsets.UTF_8), Header.class);
+                if (handler.header(header) == false) {
+                    return false;
+                }
+            } else {
+                scanner.skipValue(null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scan the body following its opening bracket exactly, cutting it into chunks at the commas
+     * separating operations. Returns once the closing bracket has been consumed.
+     */
+    private boolean readBody (LogReader.Handler handler) throws IOException {
+        newChunk();
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        while (true) {
+            if (scanner.position == scanner.limit && scanner.fill() == false) {
+                throw new EOFException("Unexpected end of log.");
+            }
+            int start = scanner.position;
+            for (int i = scanner.position; i < scanner.limit; i++) {
+                byte b = scanner.buffer [i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+                switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        write(start, i);
+                        scanner.position = i + 1;
+                        submitChunk(scanner.offset() - 1);
+                        return true;
+                    }
+                    depth--;
+                    break;
+                case ',':
+                    if (depth == 0 && chunk.size + i - start >= CHUNK_BYTES) {
+                        write(start, i);
+                        scanner.position = i + 1;
+                        submitChunk(scanner.offset() - 1);
+                        if (deliverCompleted(handler) == false) {
+                            return false;
+                        }
+                        newChunk();
+                        start = scanner.position;
+                    }
+                    break;
+                }
+            }
+            write(start, scanner.limit);
+            scanner.position = scanner.limit;
+        }
+    }
+
+    /**
+     * Cut the body following its opening bracket into chunks speculatively, falling back to
+     * {@link #readBody(LogReader.Handler)} from the start of the first chunk which fails to
+     * parse. Returns once every chunk of the body has been delivered.
+     *
+     * @param bodyEnd
+     *            The offset of the closing bracket of the body.
+     */
+    private boolean readBody (LogReader.Handler handler, long bodyEnd) throws IOException {
+        while (scanner.offset() < bodyEnd) {
+            newChunk();
+            // Copy the bulk of the chunk.
+            while (chunk.size < CHUNK_BYTES && scanner.offset() < bodyEnd) {
+                if (scanner.position == scanner.limit && scanner.fill() == false) {
+                    throw new EOFException("Unexpected end of log.");
+                }
+                int n = (int) Math.min(Math.min(scanner.limit - scanner.position, CHUNK_BYTES - chunk.size),
+                        bodyEnd - scanner.offset());
+                write(scanner.position, scanner.position + n);
+                scanner.position += n;
+            }
+            // Cut at the next comma between two objects.
+            int last = 0;
+            long end = bodyEnd;
+            while (scanner.offset() < bodyEnd) {
+                int c = scanner.next();
+                if (c < 0) {
+                    throw new EOFException("Unexpected end of log.");
+                }
+                int mark = chunk.size;
+                chunk.writeByte(c);
+                if (c == ',' && last == '}') {
+                    long comma = scanner.offset() - 1;
+                    if (nextObjectStarts(bodyEnd)) {
+                        chunk.size = mark;
+                        end = comma;
+                        break;
+                    }
+                }
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    last = c;
+                }
+            }
+            submitChunk(end);
+            if (deliverCompleted(handler) == false) {
+                return false;
+            }
+            if (failedAt >= 0) {
+                return resume(handler);
+            }
+        }
+        scanner.next(); // The closing bracket.
+        if (deliverAll(handler) == false) {
+            return false;
+        }
+        return failedAt < 0 || resume(handler);
+    }
+
+    /**
+     * Returns {@code true} if the next byte which is not whitespace opens an object. The
+     * whitespace is copied to the current chunk, following the comma before it.
+     */
+    private boolean nextObjectStarts (long bodyEnd) throws IOException {
+        int c;
+        while (scanner.offset() < bodyEnd && ((c = scanner.peek()) == ' ' || c == '\n' || c == '\r' || c == '\t')) {
+            chunk.writeByte(c);
+            scanner.position++;
+        }
+        return scanner.offset() < bodyEnd && scanner.peek() == '{';
+    }
+
+    /**
+     * Discard the chunks following the one which failed, and scan the rest of the body exactly
+     * from its start.
+     */
+    private boolean resume (LogReader.Handler handler) throws IOException {
+        cancelPending();
+        channel.position(failedAt);
+        scanner.reset(failedAt);
+        failedAt = -1;
+        speculative = false;
+        return readBody(handler) && deliverAll(handler);
+    }
+
+    /**
+     * Returns the offset of the closing bracket of the body if the body is the last member of the
+     * root object and chunks can be cut speculatively, or -1.
+     */
+    private long findBodyEnd () throws IOException {
+        if (channel == null) {
+            return -1;
+        }
+        long size = channel.size();
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, 256));
+        long start = size - tail.capacity();
+        while (tail.hasRemaining() && channel.read(tail, start + tail.position()) > 0) {
+            // Read the whole tail.
+        }
+        byte[] bytes = tail.array();
+        boolean closed = false;
+        for (int i = tail.position() - 1; i >= 0; i--) {
+            byte b = bytes [i];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                continue;
+            } else if (b == '}' && closed == false) {
+                closed = true;
+            } else if (b == ']' && closed && start + i >= scanner.offset()) {
+                return start + i;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Chunks
+     *
+     */
+    // ============================================================= //
+
+    private void newChunk () {
+        chunk = new BinaryFormat.Sink();
+        chunk.ensure(CHUNK_BYTES + scanner.buffer.length);
+        chunk.writeByte('[');
+        chunkStart = scanner.offset();
+    }
+
+    /**
+     * Copy bytes of the buffer to the current chunk.
+     */
+    private void write (int from, int to) {
+        if (to > from) {
+            chunk.ensure(to - from);
+            System.arraycopy(scanner.buffer, from, chunk.data, chunk.size, to - from);
+            chunk.size += to - from;
+        }
+    }
+
+    /**
+     * Submit the current chunk for parsing.
+     *
+     * @param end
+     *            The offset of the comma or bracket following the chunk.
+     */
+    private void submitChunk (long end) {
+        chunk.writeByte(']');
+        BinaryFormat.Sink json = chunk;
+        chunk = null;
+        ForkJoinTask<List<Operation>> task = pool.submit( () -> parse(operations, json.data, json.size));
+        pending.add(new Chunk(chunkStart, end, speculative, task));
+    }
+
+    /**
+     * Parse a chunk holding an array of operations. Called by the pool, and by {@link IndexedLog}.
+     */
+    static List<Operation> parse (TypeAdapter<Operation> operations, byte[] json, int length) throws IOException {
+        ArrayList<Operation> ops = new ArrayList<Operation>();
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(json, 0, length),
+                StandardCharsets.UTF_8));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Operation op = operations.read(reader);
+            if (op != null) {
+                ops.add(op);
+            }
+        }
+        reader.endArray();
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new MalformedJsonException("Unexpected data after operations.");
+        }
+        return ops;
+    }
+
+    /**
+     * Deliver the oldest chunks until at most two chunks per thread are pending.
+     */
+    private boolean deliverCompleted (LogReader.Handler handler) throws IOException {
+        while (pending.size() > maxPending && failedAt < 0) {
+            if (deliver(handler) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean deliverAll (LogReader.Handler handler) throws IOException {
+        while (pending.isEmpty() == false && failedAt < 0) {
+            if (deliver(handler) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the oldest chunk and hand its operations to the handler. If a speculative chunk
+     * fails to parse, its start is stored in {@link #failedAt} instead.
+     */
+    private boolean deliver (LogReader.Handler handler) throws IOException {
+        Chunk next = pending.poll();
+        List<Operation> ops;
+        try {
+            ops = next.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading log.");
+        } catch (ExecutionException e) {
+            if (next.speculative) {
+                failedAt = next.start;
+                return true;
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        int before = operationCount;
+        for (Operation op : ops) {
+            if (handler.operation(op) == false) {
+                return false;
+            }
+            operationCount++;
+        }
+        if (chunkListener != null) {
+            chunkListener.chunkRead(next.start, next.end, ops.size());
+        }
+        if (before / LogReader.PROGRESS_INTERVAL != operationCount / LogReader.PROGRESS_INTERVAL) {
+            reportProgress();
+        }
+        return true;
+    }
+
+    private void cancelPending () {
+        for (Chunk c : pending) {
+            c.task.cancel(false);
+        }
+        pending.clear();
+    }
+
+    /**
+     * A chunk being parsed.
+     */
+    private static final class Chunk {
+        private final long                          start;
+        private final long                          end;
+        private final boolean                       speculative;
+        private final ForkJoinTask<List<Operation>> task;
+
+        private Chunk (long start, long end, boolean speculative, ForkJoinTask<List<Operation>> task) {
+            this.start = start;
+            this.end = end;
+            this.speculative = speculative;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Interface for classes which record where the operations of a log are stored.
+     */
+    public interface ChunkListener {
+
+        /**
+         * Called once the operations of a chunk have been handed to the handler. Chunks are
+         * reported in order, and the operations of a chunk are exactly those of the JSON array
+         * formed by the bytes from {@code start} to {@code end}, enclosed in brackets.
+         *
+         * @param start
+         *            The offset of the first byte of the chunk.
+         * @param end
+         *            The offset following the last byte of the chunk.
+         * @param operations
+         *            The number of operations in the chunk.
+         */
+        void chunkRead (long start, long end, int operations);
+    }
+}
@@ -0,0 +1,336 @@
+package contract.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+
+import contract.io.Communicator.CommunicatorMessage;
+import contract.json.Root;
+import contract.utility.LatencyHistogram;
+import gui.Main;
+
+/**
+ * Communicator streaming from one process to another on the same host through a memory-mapped
+ * ring buffer, see {@link MappedRing}, bypassing the network stack. A SharedMemoryCommunicator
+ * which suppresses incoming wrappers is the producer of the ring, and one which does not is its
+ * consumer. Each ring has at most one of each; a second producer cannot send, and a second
+ * consumer receives nothing until the first has closed. <br>
+ * <br>
+ * Wrappers are written as {@link BinaryWrapperCodec} frames. The consumer polls the ring on a
+ * thread of its own, spinning briefly and then backing off to parking while the ring is empty,
+ * and notifies the listener once for every run of wrappers decoded. The time each wrapper spent
+ * in the ring is recorded in a {@link LatencyHistogram}. <br>
+ * <br>
+ * When the ring is full, the producer waits for the consumer to catch up, unless there is no
+ * consumer, in which case the wrapper is dropped.
+ */
+public class SharedMemoryCommunicator implements Communicator {
+
+    /**
+     * The default size of the ring in bytes.
+     */
+    public static final int            DEFAULT_CAPACITY = 1 << 24;
+    /**
+     * The time in milliseconds the producer waits for room in a full ring.
+     */
+    private static final long          FULL_MILLIS      = 1000;
+    private static final long          RETRY_MILLIS     = 1000;
+    private static final int           BATCH_RECORDS    = 64;
+    private static final int           SPINS            = 1000;
+    private static final long          MAX_PARK_NANOS   = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String               hierarchy;
+    private final int                  senderId;
+    private final MappedRing           ring;
+    private final boolean              producer;
+    private final CommunicatorListener listener;
+    private final Gson                 gson;
+    private final Queue<Root>          incomingQueue;
+    private final LatencyHistogram     latency;
+    private final Thread               consumerThread;
+    private volatile boolean           closed;
+    private volatile boolean           attached;
+    /*
+     * Guarded by this.
+     */
+    private long                       droppedWrappers;
+
+    /**
+     * Map the ring in the given file, creating it if it does not exist.
+     *
+     * @param hierarchy
+     *            The user hierarchy for this SharedMemoryCommunicator.
+     * @param file
+     *            The file holding the ring, preferably on a memory file system such as
+     *            {@code /dev/shm}.
+     * @param capacity
+     *            The size of the ring in bytes, a power of two. Ignored if the file holds a ring
+     *            already.
+     * @param listener
+     *            The listener for this SharedMemoryCommunicator.
+     * @param suppressIncoming
+     *            If {@code true}, this SharedMemoryCommunicator is the producer of the ring.
+     *            Otherwise it is the consumer.
+     * @throws UncheckedIOException
+     *             If the ring could not be mapped.
+     */
+    public SharedMemoryCommunicator (String hierarchy, File file, int capacity, CommunicatorListener listener,
+            boolean suppressIncoming) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null.");
+        }
+        senderId = (int) (Math.random() * Integer.MAX_VALUE);
+        this.hierarchy = "SharedMemoryCommunicator[" + hierarchy + "], id = " + senderId;
+        this.listener = listener;
+        producer = suppressIncoming;
+        gson = GsonContructor.build();
+        incomingQueue = new ConcurrentLinkedQueue<Root>();
+        latency = new LatencyHistogram();
+        try {
+            ring = new MappedRing(file, capacity);
+            attached = producer ? ring.attachProducer() : ring.attachConsumer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (producer) {
+            consumerThread = null;
+        } else {
+            consumerThread = new Thread(this::consume, "SharedMemoryCommunicator consumer: " + senderId);
+            consumerThread.setDaemon(true);
+            consumerThread.start();
+        }
+    }
+
+    /**
+     * Returns the file holding the ring.
+     *
+     * @return The file holding the ring.
+     */
+    public File getFile () {
+        return ring.getFile();
+    }
+
+    /**
+     * Returns {@code true} if this SharedMemoryCommunicator is the producer of the ring.
+     *
+     * @return {@code true} if wrappers may be sent.
+     */
+    public boolean isProducer () {
+        return producer;
+    }
+
+    /**
+     * Returns {@code true} if this SharedMemoryCommunicator holds its role in the ring, which it
+     * does not while another producer or consumer does.
+     *
+     * @return {@code true} if attached to the ring.
+     */
+    public boolean isAttached () {
+        return attached;
+    }
+
+    /**
+     * Returns the time wrappers spent in the ring, from being written by the producer to being
+     * read by the consumer. Only recorded by the consumer.
+     *
+     * @return The latency histogram of this SharedMemoryCommunicator.
+     */
+    public LatencyHistogram getLatency () {
+        return latency;
+    }
+
+    /**
+     * Returns the number of wrappers dropped because the ring was full.
+     *
+     * @return The number of dropped wrappers.
+     */
+    public synchronized long getDroppedWrappers () {
+        return droppedWrappers;
+    }
+
+    /**
+     * Returns the user hierarchy for this SharedMemoryCommunicator.
+     *
+     * @return The user hierarchy for this SharedMemoryCommunicator.
+     */
+    public String getHierarchy () {
+        return hierarchy;
+    }
+
+    @Override public Root popQueuedMessage () {
+        return incomingQueue.poll();
+    }
+
+    @Override public List<Root> getAllQueuedMessages () {
+        ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
+        Root wrapper;
+        while ((wrapper = incomingQueue.poll()) != null) {
+            allQueuedMessages.add(wrapper);
+        }
+        return allQueuedMessages;
+    }
+
+    /**
+     * Write the given Wrapper to the ring. Waits while the ring is full and a consumer is
+     * attached.
+     *
+     * @param outgoing
+     *            The Wrapper to send.
+     * @return {@code false} if this SharedMemoryCommunicator is not the producer of the ring, or
+     *         if the wrapper was dropped.
+     */
+    @Override public synchronized boolean sendWrapper (Root outgoing) {
+        if (producer == false || closed || attach() == false) {
+            return false;
+        }
+        byte[] frame;
+        try {
+            frame = BinaryWrapperCodec.encode(outgoing, senderId);
+        } catch (IOException e) {
+            Main.console.err("Message could not be encoded: " + e);
+            return false;
+        }
+        if (frame.length > ring.getMaxRecord()) {
+            Main.console.err("Message could not be sent: " + frame.length + " bytes do not fit in "
+                    + ring.getFile());
+            return false;
+        }
+        long deadline = 0;
+        for (int attempt = 0; ring.offer(frame, 0, frame.length) == false; attempt++) {
+            if (deadline == 0) {
+                if (ring.hasConsumer() == false) {
+                    droppedWrappers++;
+                    return false;
+                }
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FULL_MILLIS);
+            } else if (System.nanoTime() > deadline) {
+                droppedWrappers++;
+                return false;
+            }
+            backOff(attempt);
+        }
+        return true;
+    }
+
+    @Override public boolean sendWrappers (List<Root> outgoing) {
+        boolean allSuccessful = true;
+        for (Root w : outgoing) {
+            allSuccessful = allSuccessful && sendWrapper(w);
+        }
+        return allSuccessful;
+    }
+
+    @Override public boolean sendString (String JSONString) {
+        try {
+            return sendWrapper(gson.fromJson(JSONString, Root.class));
+        } catch (Exception e) {
+            Main.console.err("JSON String malformed: " + JSONString);
+            return false;
+        }
+    }
+
+    /**
+     * Stop consuming, and unmap the ring.
+     */
+    @Override public void close () {
+        closed = true;
+        if (consumerThread != null && Thread.currentThread() != consumerThread) {
+            LockSupport.unpark(consumerThread);
+            try {
+                consumerThread.join(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                ring.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+            attached = false;
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Consumer thread
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Try to take the role of this SharedMemoryCommunicator in the ring.
+     */
+    private synchronized boolean attach () {
+        if (attached == false && closed == false) {
+            try {
+                attached = producer ? ring.attachProducer() : ring.attachConsumer();
+            } catch (IOException e) {
+                attached = false;
+            }
+        }
+        return attached;
+    }
+
+    private void consume () {
+        int idle = 0;
+        MappedRing.RecordHandler handler = this::decode;
+        while (closed == false) {
+            if (attached == false && attach() == false) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+                continue;
+            }
+            // Bounded, so that the listener consumes wrappers about as fast as they are decoded.
+            if (ring.poll(handler, BATCH_RECORDS) > 0) {
+                idle = 0;
+                listener.messageReceived(CommunicatorMessage.WRAPPER);
+            } else {
+                backOff(idle++);
+            }
+        }
+    }
+
+    private byte[] scratch = new byte[1 << 16];
+
+    private void decode (ByteBuffer record, long timestamp) {
+        latency.record(System.nanoTime() - timestamp);
+        int length = record.remaining();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        record.get(scratch, 0, length);
+        if (BinaryWrapperCodec.isFrame(scratch, 0, length) == false) {
+            Main.console.err("Invalid message received by " + hierarchy);
+            return;
+        }
+        try {
+            incomingQueue.offer(BinaryWrapperCodec.decode(scratch, 0, length));
+        } catch (IOException e) {
+            Main.console.err("Binary message malformed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Spin, then yield, then park for increasing periods.
+     */
+    private static void backOff (int attempt) {
+        if (attempt < SPINS) {
+            return;
+        } else if (attempt < 2 * SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(attempt - 2 * SPINS, 10)));
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package contract.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.gson.Gson;
+
+import contract.io.Communicator.CommunicatorMessage;
+import contract.json.Root;
+import gui.Main;
+
+/**
+ * Communicator streaming over TCP or Unix domain sockets, for hosts where the multicast used by
+ * {@link JGroupCommunicator} is unavailable. The first SocketCommunicator to bind the address
+ * becomes the hub, and those created later connect to it. The hub relays the wrappers it receives
+ * to its other connections, so that every member receives the wrappers of every other member as
+ * on a JGroups channel. Members which lose the hub compete for the address again. <br>
+ * <br>
+ * All sockets are non-blocking and served by a single selector thread, which also decodes
+ * received wrappers and notifies the listener once for every run of wrappers decoded. Wrappers
+ * are sent as their length followed by a {@link BinaryWrapperCodec} frame.
+ */
+public class SocketCommunicator implements Communicator {
+
+    /**
+     * The time in milliseconds between attempts to reach the address.
+     */
+    private static final long                RETRY_MILLIS  = 1000;
+    /**
+     * The time in milliseconds {@link #close()} waits for queued wrappers to be written.
+     */
+    private static final long                CLOSE_MILLIS  = 5000;
+    private static final int                 BUFFER_SIZE   = 1 << 16;
+    private static final int                 MAX_FRAME     = 1 << 30;
+
+    private final String                     hierarchy;
+    private final int                        senderId;
+    private final SocketAddress              address;
+    private final boolean                    unix;
+    private final CommunicatorListener       listener;
+    private final boolean                    suppressIncoming;
+    private final Gson                       gson;
+    private final Queue<Root>                incomingQueue;
+    private final List<Connection>           connections;
+    private final Selector                   selector;
+    private final Thread                     selectorThread;
+    private volatile boolean                 connected;
+    private volatile boolean                 closed;
+    /*
+     * Used by the selector thread only, once started.
+     */
+    private ServerSocketChannel              server;
+    private long                             nextAttempt;
+
+    /**
+     * Create a new SocketCommunicator with a random sender id. If the address can be neither bound
+     * nor connected to, the SocketCommunicator keeps trying in the background.
+     *
+     * @param hierarchy
+     *            The user hierarchy for this SocketCommunicator.
+     * @param address
+     *            An {@code InetSocketAddress}, or a {@code UnixDomainSocketAddress}, see
+     *            {@link #unixAddress(String)}.
+     * @param listener
+     *            The listener for this SocketCommunicator.
+     * @param suppressIncoming
+     *            If {@code true}, incoming wrappers will be ignored.
+     */
+    public SocketCommunicator (String hierarchy, SocketAddress address, CommunicatorListener listener,
+            boolean suppressIncoming) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null.");
+        }
+        senderId = (int) (Math.random() * Integer.MAX_VALUE);
+        this.hierarchy = "SocketCommunicator[" + hierarchy + "], id = " + senderId;
+        this.address = address;
+        unix = address instanceof InetSocketAddress == false;
+        this.listener = listener;
+        this.suppressIncoming = suppressIncoming;
+        gson = GsonContructor.build();
+        incomingQueue = new ConcurrentLinkedQueue<Root>();
+        connections = new CopyOnWriteArrayList<Connection>();
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (establish() == false) {
+            nextAttempt = System.currentTimeMillis() + RETRY_MILLIS;
+        }
+        selectorThread = new Thread(this::select, "SocketCommunicator selector: " + senderId);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Returns the address of this SocketCommunicator.
+     *
+     * @return The address of this SocketCommunicator.
+     */
+    public SocketAddress getAddress () {
+        return address;
+    }
+
+    /**
+     * Returns {@code true} if this SocketCommunicator is the hub, or connected to it.
+     *
+     * @return {@code true} if wrappers can be sent.
+     */
+    public boolean isConnected () {
+        return connected;
+    }
+
+    /**
+     * Returns the user hierarchy for this SocketCommunicator.
+     *
+     * @return The user hierarchy for this SocketCommunicator.
+     */
+    public String getHierarchy () {
+        return hierarchy;
+    }
+
+    /**
+     * Create the address of a Unix domain socket. Requires Java 16 or later, and is looked up
+     * reflectively so that the rest of the program runs on Java 8.
+     *
+     * @param path
+     *            The path of the socket file.
+     * @return A {@code UnixDomainSocketAddress}.
+     * @throws UnsupportedOperationException
+     *             If Unix domain sockets are not supported.
+     */
+    public static SocketAddress unixAddress (String path) {
+        try {
+            Class<?> type = Class.forName("java.net.UnixDomainSocketAddress");
+            return (SocketAddress) type.getMethod("of", String.class).invoke(null, path);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later.", e);
+        }
+    }
+
+    @Override public Root popQueuedMessage () {
+        return incomingQueue.poll();
+    }
+
+    @Override public List<Root> getAllQueuedMessages () {
+        ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
+        Root wrapper;
+        while ((wrapper = incomingQueue.poll()) != null) {
+            allQueuedMessages.add(wrapper);
+        }
+        return allQueuedMessages;
+    }
+
+    /**
+     * Queue the given Wrapper for sending to everyone connected to the address. Returns without
+     * waiting for the wrapper to be written.
+     *
+     * @param outgoing
+     *            The Wrapper to send.
+     * @return {@code false} if the wrapper could not be encoded, or if this SocketCommunicator is
+     *         neither the hub nor connected to it.
+     */
+    @Override public boolean sendWrapper (Root outgoing) {
+        if (connected == false || closed) {
+            return false;
+        }
+        byte[] frame;
+        try {
+            frame = BinaryWrapperCodec.encode(outgoing, senderId);
+        } catch (IOException e) {
+            Main.console.err("Message could not be encoded: " + e);
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + frame.length);
+        buffer.putInt(frame.length).put(frame).flip();
+        for (Connection connection : connections) {
+            connection.outgoing.offer(buffer.duplicate());
+        }
+        selector.wakeup();
+        return true;
+    }
+
+    @Override public boolean sendWrappers (List<Root> outgoing) {
+        boolean allSuccessful = true;
+        for (Root w : outgoing) {
+            allSuccessful = allSuccessful && sendWrapper(w);
+        }
+        return allSuccessful;
+    }
+
+    @Override public boolean sendString (String JSONString) {
+        try {
+            return sendWrapper(gson.fromJson(JSONString, Root.class));
+        } catch (Exception e) {
+            Main.console.err("JSON String malformed: " + JSONString);
+            return false;
+        }
+    }
+
+    /**
+     * Write the wrappers queued so far, waiting at most a few seconds, and close all sockets.
+     */
+    @Override public void close () {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() != selectorThread) {
+            try {
+                selectorThread.join(CLOSE_MILLIS + RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Selector thread
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * A socket, along with the data waiting to be written to it and the data read from it.
+     */
+    private static class Connection {
+
+        private final SocketChannel     channel;
+        private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+        private ByteBuffer              in       = ByteBuffer.allocate(BUFFER_SIZE);
+        private SelectionKey            key;
+
+        private Connection (SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private void select () {
+        while (closed == false) {
+            try {
+                if (connected == false && System.currentTimeMillis() >= nextAttempt && establish() == false) {
+                    nextAttempt = System.currentTimeMillis() + RETRY_MILLIS;
+                }
+                selector.select(connected ? 0 : RETRY_MILLIS);
+                boolean wrappers = false;
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else if (key.isValid() && key.isReadable()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            wrappers |= read(connection);
+                        } catch (IOException e) {
+                            drop(connection);
+                        }
+                    }
+                }
+                write();
+                if (wrappers) {
+                    listener.messageReceived(CommunicatorMessage.WRAPPER);
+                }
+            } catch (IOException | RuntimeException e) {
+                Main.console.err(hierarchy + ": " + e);
+            }
+        }
+        shutdown();
+    }
+
+    /**
+     * Bind the address, or connect to the hub if it is bound already.
+     *
+     * @return {@code true} if the address was bound or connected to.
+     */
+    private boolean establish () {
+        try {
+            if (bind()) {
+                return true;
+            }
+            try {
+                connect();
+            } catch (ConnectException e) {
+                if (unix == false) {
+                    throw e;
+                }
+                // Left behind by a hub which did not close, as nothing is listening.
+                Files.deleteIfExists(getPath());
+                return bind();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return {@code false} if the address is in use.
+     */
+    private boolean bind () throws IOException {
+        ServerSocketChannel newServer = unix ? (ServerSocketChannel) openUnix(ServerSocketChannel.class)
+                : ServerSocketChannel.open();
+        try {
+            newServer.bind(address);
+        } catch (BindException e) {
+            newServer.close();
+            return false;
+        }
+        newServer.configureBlocking(false);
+        newServer.register(selector, SelectionKey.OP_ACCEPT);
+        server = newServer;
+        connected = true;
+        return true;
+    }
+
+    private void connect () throws IOException {
+        // Fast on a local address, so the connect is blocking.
+        SocketChannel channel = unix ? (SocketChannel) openUnix(SocketChannel.class) : SocketChannel.open();
+        try {
+            channel.connect(address);
+            register(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        connected = true;
+    }
+
+    private void accept () throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            register(channel);
+        }
+    }
+
+    private void register (SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        if (unix == false) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+    }
+
+    /**
+     * Read from a connection, relaying and decoding every complete frame.
+     *
+     * @return {@code true} if a wrapper was queued.
+     */
+    private boolean read (Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        if (connection.channel.read(in) < 0) {
+            throw new EOFException();
+        }
+        in.flip();
+        boolean wrappers = false;
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < BinaryWrapperCodec.PREFIX_LENGTH || length > MAX_FRAME) {
+                throw new StreamCorruptedException("Invalid frame length: " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            if (server != null && connections.size() > 1) {
+                relay(connection, in.array(), in.position(), 4 + length);
+            }
+            wrappers |= decode(in.array(), in.position() + 4, length);
+            in.position(in.position() + 4 + length);
+        }
+        if (in.remaining() >= 4 && in.capacity() < 4 + in.getInt(in.position())) {
+            // Grow to fit the next frame.
+            ByteBuffer larger = ByteBuffer.allocate(4 + in.getInt(in.position()));
+            larger.put(in);
+            connection.in = larger;
+        } else {
+            in.compact();
+        }
+        return wrappers;
+    }
+
+    /**
+     * Queue a frame received by the hub for the other connections.
+     */
+    private void relay (Connection from, byte[] buffer, int offset, int length) {
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(buffer, offset, length).flip();
+        for (Connection connection : connections) {
+            if (connection != from) {
+                connection.outgoing.offer(copy.duplicate());
+            }
+        }
+    }
+
+    /**
+     * Decode a frame.
+     *
+     * @return {@code true} if a wrapper was queued.
+     */
+    private boolean decode (byte[] buffer, int offset, int length) {
+        if (BinaryWrapperCodec.isFrame(buffer, offset, length) == false) {
+            Main.console.err("Invalid message received by " + hierarchy);
+            return false;
+        }
+        if (suppressIncoming || BinaryWrapperCodec.getSenderId(buffer, offset) == senderId) {
+            return false;
+        }
+        try {
+            incomingQueue.offer(BinaryWrapperCodec.decode(buffer, offset, length));
+            return true;
+        } catch (IOException e) {
+            Main.console.err("Binary message malformed: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Write queued data to every connection, until its socket is full.
+     */
+    private void write () {
+        for (Connection connection : connections) {
+            try {
+                ByteBuffer head;
+                while ((head = connection.outgoing.peek()) != null) {
+                    connection.channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    connection.outgoing.poll();
+                }
+                int ops = head == null ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                if (connection.key.interestOps() != ops) {
+                    connection.key.interestOps(ops);
+                }
+            } catch (IOException e) {
+                drop(connection);
+            }
+        }
+    }
+
+    private void drop (Connection connection) {
+        connections.remove(connection);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Closed anyway.
+        }
+        if (server == null && connections.isEmpty()) {
+            // Lost the hub. Take its place, or connect to whoever did.
+            connected = false;
+            nextAttempt = 0;
+        }
+    }
+
+    /**
+     * Write what is left to write, then close all sockets.
+     */
+    private void shutdown () {
+        long deadline = System.currentTimeMillis() + CLOSE_MILLIS;
+        try {
+            while (hasOutgoing() && System.currentTimeMillis() < deadline) {
+                write();
+                if (hasOutgoing()) {
+                    selector.select(100);
+                    selector.selectedKeys().clear();
+                }
+            }
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        for (Connection connection : connections) {
+            drop(connection);
+        }
+        try {
+            if (server != null) {
+                server.close();
+                if (unix) {
+                    Files.deleteIfExists(getPath());
+                }
+            }
+            selector.close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        connected = false;
+    }
+
+    private boolean hasOutgoing () {
+        for (Connection connection : connections) {
+            if (connection.outgoing.isEmpty() == false) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path getPath () throws IOException {
+        try {
+            return (Path) address.getClass().getMethod("getPath").invoke(address);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Open a Unix domain socket channel of the given type, using the {@code open(ProtocolFamily)}
+     * method added in Java 15.
+     */
+    private static Object openUnix (Class<?> type) throws IOException {
+        try {
+            ProtocolFamily family = StandardProtocolFamily.valueOf("UNIX");
+            return type.getMethod("open", ProtocolFamily.class).invoke(null, family);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later.", e);
+        }
+    }
+}
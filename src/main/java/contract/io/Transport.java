@@ -0,0 +1,191 @@
+package contract.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+
+import assets.Const;
+
+/**
+ * The transports a {@link LogStreamManager} may stream over. The transport is selected by the
+ * {@code transport} property of {@link Const#PROPERTIES_FILE_NAME}, and its address by the
+ * {@code transportAddress} property. System properties of the same names take precedence, so
+ * that a tracer may be pointed at another transport from the command line.
+ */
+public enum Transport {
+    /**
+     * UDP multicast, see {@link JGroupCommunicator}. The address is the name of the channel.
+     */
+    jgroups {
+
+        @Override public Communicator open (String hierarchy, String address, CommunicatorListener listener,
+                boolean suppressIncoming) {
+            String channel = address == null || address.isEmpty() ? Const.DEFAULT_CHANNEL : address;
+            return new JGroupCommunicator(hierarchy, (int) (Math.random() * Integer.MAX_VALUE), channel, listener,
+                    suppressIncoming);
+        }
+    },
+    /**
+     * TCP sockets, see {@link SocketCommunicator}. The address is on the form {@code host:port}, or
+     * just {@code port} for the loopback interface.
+     */
+    tcp {
+
+        @Override public Communicator open (String hierarchy, String address, CommunicatorListener listener,
+                boolean suppressIncoming) {
+            String host = "127.0.0.1";
+            int port = DEFAULT_PORT;
+            if (address != null && address.isEmpty() == false) {
+                int colon = address.lastIndexOf(':');
+                if (colon >= 0) {
+                    host = address.substring(0, colon);
+                }
+                port = Integer.parseInt(address.substring(colon + 1));
+            }
+            return new SocketCommunicator(hierarchy, new InetSocketAddress(host, port), listener, suppressIncoming);
+        }
+    },
+    /**
+     * Unix domain sockets, see {@link SocketCommunicator}. Requires Java 16 or later. The address is
+     * the path of the socket file.
+     */
+    unix {
+
+        @Override public Communicator open (String hierarchy, String address, CommunicatorListener listener,
+                boolean suppressIncoming) {
+            String path = address == null || address.isEmpty()
+                    ? new File(System.getProperty("java.io.tmpdir"), Const.DEFAULT_CHANNEL + ".sock").getPath()
+                    : address;
+            return new SocketCommunicator(hierarchy, SocketCommunicator.unixAddress(path), listener,
+                    suppressIncoming);
+        }
+    },
+    /**
+     * A memory-mapped ring buffer shared by two processes on the same host, see
+     * {@link SharedMemoryCommunicator}. The address is the path of the ring file, by default in
+     * {@code /dev/shm} where available.
+     */
+    shm {
+
+        @Override public Communicator open (String hierarchy, String address, CommunicatorListener listener,
+                boolean suppressIncoming) {
+            File file;
+            if (address == null || address.isEmpty()) {
+                File shm = new File("/dev/shm");
+                File directory = shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+                file = new File(directory, Const.DEFAULT_CHANNEL + ".ring");
+            } else {
+                file = new File(address);
+            }
+            return new SharedMemoryCommunicator(hierarchy, file, SharedMemoryCommunicator.DEFAULT_CAPACITY, listener,
+                    suppressIncoming);
+        }
+    },
+    /**
+     * Members of the same virtual machine, see {@link LocalCommunicator}. The address is the name
+     * of the channel.
+     */
+    local {
+
+        @Override public Communicator open (String hierarchy, String address, CommunicatorListener listener,
+                boolean suppressIncoming) {
+            String channel = address == null || address.isEmpty() ? Const.DEFAULT_CHANNEL : address;
+            return new LocalCommunicator(channel, listener, suppressIncoming);
+        }
+    };
+
+    /**
+     * The property selecting the transport.
+     */
+    public static final String PROPERTY         = "transport";
+    /**
+     * The property holding the address of the transport. Empty for the default address.
+     */
+    public static final String ADDRESS_PROPERTY = "transportAddress";
+    /**
+     * The default port of the {@link #tcp} transport.
+     */
+    public static final int    DEFAULT_PORT     = 48620;
+
+    /**
+     * Open a Communicator using this transport.
+     *
+     * @param hierarchy
+     *            The user hierarchy of the Communicator.
+     * @param address
+     *            The address to communicate on, or {@code null} for the default address.
+     * @param listener
+     *            The listener for the Communicator.
+     * @param suppressIncoming
+     *            If {@code true}, incoming wrappers will be ignored.
+     * @return A new Communicator.
+     */
+    public abstract Communicator open (String hierarchy, String address, CommunicatorListener listener,
+            boolean suppressIncoming);
+
+    /**
+     * Parse the name of a transport.
+     *
+     * @param name
+     *            The name to parse.
+     * @return The corresponding Transport, if applicable. Null otherwise.
+     */
+    public static Transport fromString (String name) {
+        for (Transport transport : Transport.values()) {
+            if (transport.name().equalsIgnoreCase(name.trim())) {
+                return transport;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the configured transport, or {@link #jgroups} if none is configured.
+     *
+     * @return The configured transport.
+     * @throws IllegalArgumentException
+     *             If the configured transport is unknown.
+     */
+    public static Transport getConfigured () {
+        String name = getProperty(PROPERTY);
+        if (name == null || name.trim().isEmpty()) {
+            return jgroups;
+        }
+        Transport transport = fromString(name);
+        if (transport == null) {
+            throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+        return transport;
+    }
+
+    /**
+     * Returns the configured address, or {@code null} if none is configured.
+     *
+     * @return The configured address.
+     */
+    public static String getConfiguredAddress () {
+        String address = getProperty(ADDRESS_PROPERTY);
+        return address == null || address.trim().isEmpty() ? null : address.trim();
+    }
+
+    private static String getProperty (String key) {
+        String value = System.getProperty(key);
+        if (value != null) {
+            return value;
+        }
+        InputStream inputStream = Transport.class.getClassLoader().getResourceAsStream(Const.PROPERTIES_FILE_NAME);
+        if (inputStream == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(inputStream);
+            inputStream.close();
+        } catch (IOException e) {
+            return null;
+        }
+        return properties.getProperty(key);
+    }
+}
@@ -14,16 +14,20 @@ public class Locator implements Serializable {
     /**
      * Version number for this class.
      */
-    private static final long serialVersionUID = Const.VERSION_NUMBER;
+    private static final long   serialVersionUID = Const.VERSION_NUMBER;
     /**
      * The identifier for this Locator. Will generally match one of the identifiers used as keys in
      * the {@code annotatedVariables} HashMap of the variables declared in the header.
      */
-    public final String       identifier;
+    public final String         identifier;
     /**
      * The index from which the fetch a value in the variable identified by {@code identifier}.
      */
-    public final int[]        index;
+    public final int[]          index;
+    /**
+     * The id of the identifier in the {@link LocatorPool}, or 0 if it is not interned.
+     */
+    private final transient int id;
 
     /**
      * Create a new Locator with a given identifier and index.
@@ -35,8 +39,33 @@ public class Locator implements Serializable {
      *            {@code identifier}.
      */
     public Locator (String identifier, int[] index) {
+        this(identifier, index, 0);
+    }
+
+    /**
+     * Create a Locator with an interned identifier. Used by {@link LocatorPool}.
+     */
+    Locator (String identifier, int[] index, int id) {
         this.identifier = identifier;
         this.index = index;
+        this.id = id;
+    }
+
+    /**
+     * Returns the id of the identifier of this Locator, if it was created by the
+     * {@link LocatorPool}.
+     *
+     * @return The id of {@code identifier}, or 0 if it is not interned.
+     */
+    public int getId () {
+        return id;
+    }
+
+    /**
+     * Replace deserialized Locators with pooled ones, restoring the id.
+     */
+    private Object readResolve () {
+        return identifier == null ? this : LocatorPool.get(identifier, index);
     }
 
     @Override public String toString () {
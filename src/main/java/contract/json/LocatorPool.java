@@ -0,0 +1,175 @@
+package contract.json;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical {@link Locator} instances shared by all parsed operations. Traces refer to a few
+ * identifiers and a bounded set of indices many times over, so rather than holding a copy of the
+ * identifier, index and Locator per operation, parsers ask the pool for a Locator. <br>
+ * <br>
+ * Identifiers are interned to small positive ids, returned by {@link Locator#getId()}, which
+ * allow structures to be looked up in an array rather than a map. Locators with no index, a
+ * non-negative one-dimensional index, or a two-dimensional index with both coordinates less than
+ * {@code 1 << 16} are shared. Once {@link #MAX_IDENTIFIERS} identifiers or {@link #MAX_LOCATORS}
+ * Locators are held, new ones are created as usual, with id 0 if the identifier is unknown. <br>
+ * <br>
+ * Entries are kept until {@link #clear()} is called, which the model does when it is wiped. Ids
+ * are not stable across a clear: a Locator created before may have the id of another identifier
+ * afterwards, so users of {@link Locator#getId()} must check the identifier as well. <br>
+ * <br>
+ * The pool is safe for use by several threads, such as those of a
+ * {@link contract.io.ParallelLogReader}. Locators are immutable and must not be modified.
+ */
+public final class LocatorPool {
+
+    /**
+     * The maximum number of identifiers interned.
+     */
+    public static final int                   MAX_IDENTIFIERS = 1 << 12;
+    /**
+     * The maximum number of Locators shared.
+     */
+    public static final int                   MAX_LOCATORS    = 1 << 20;
+
+    /**
+     * The current contents of the pool. Replaced as a whole when cleared, so that a thread which
+     * read it before sees consistent ids.
+     */
+    private static volatile Table             table           = new Table();
+
+    private LocatorPool () {
+    }
+
+    private static final class Table {
+        final Map<String, Integer> ids         = new ConcurrentHashMap<String, Integer>();
+        /**
+         * Interned identifiers by id. Replaced when an identifier is added. Id 0 is not used.
+         */
+        volatile String[]          identifiers = new String[1];
+        final Map<Long, Locator>   locators    = new ConcurrentHashMap<Long, Locator>();
+    }
+
+    /**
+     * Drop all interned identifiers and shared Locators. Locators handed out before remain
+     * valid, but their ids may be reused for other identifiers.
+     */
+    public static void clear () {
+        table = new Table();
+    }
+
+    /**
+     * Returns a Locator for the given identifier and index, shared if possible.
+     *
+     * @param identifier
+     *            The identifier of the Locator. Not null.
+     * @param index
+     *            The index of the Locator. May be null. Must not be modified afterwards.
+     * @return A Locator equal to {@code new Locator(identifier, index)}.
+     */
+    public static Locator get (String identifier, int[] index) {
+        Table t = table;
+        int id = intern(t, identifier);
+        if (id == 0) {
+            return new Locator(identifier, index);
+        }
+        String interned = t.identifiers [id];
+        long key = key(id, index);
+        if (key < 0) {
+            return new Locator(interned, index, id);
+        }
+        Locator locator = t.locators.get(key);
+        if (locator == null) {
+            locator = new Locator(interned, index == null ? null : Arrays.copyOf(index, index.length), id);
+            if (t.locators.size() < MAX_LOCATORS) {
+                Locator previous = t.locators.putIfAbsent(key, locator);
+                if (previous != null) {
+                    locator = previous;
+                }
+            }
+        }
+        return locator;
+    }
+
+    /**
+     * Returns the id of an identifier, interning it if it is new.
+     *
+     * @param identifier
+     *            An identifier. Not null.
+     * @return The id of {@code identifier}, or 0 if the pool is full.
+     */
+    public static int intern (String identifier) {
+        return intern(table, identifier);
+    }
+
+    private static int intern (Table t, String identifier) {
+        Integer id = t.ids.get(identifier);
+        return id != null ? id : add(t, identifier);
+    }
+
+    private static int add (Table t, String identifier) {
+        synchronized (t) {
+            Integer id = t.ids.get(identifier);
+            if (id != null) {
+                return id;
+            }
+            String[] current = t.identifiers;
+            if (current.length > MAX_IDENTIFIERS) {
+                return 0;
+            }
+            String[] next = Arrays.copyOf(current, current.length + 1);
+            next [current.length] = identifier;
+            // Published before the id, so that every id handed out can be resolved.
+            t.identifiers = next;
+            t.ids.put(identifier, current.length);
+            return current.length;
+        }
+    }
+
+    /**
+     * Returns the identifier with the given id.
+     *
+     * @param id
+     *            An id returned by {@link #intern(String)}.
+     * @return The identifier, or {@code null} if {@code id} is unknown.
+     */
+    public static String getIdentifier (int id) {
+        String[] current = table.identifiers;
+        return id > 0 && id < current.length ? current [id] : null;
+    }
+
+    /**
+     * Returns the number of identifiers interned. Ids are always less than or equal to this
+     * number.
+     *
+     * @return The number of interned identifiers.
+     */
+    public static int getIdentifierCount () {
+        return table.identifiers.length - 1;
+    }
+
+    /**
+     * Returns the number of Locators shared.
+     *
+     * @return The number of Locators in the pool.
+     */
+    public static int getLocatorCount () {
+        return table.locators.size();
+    }
+
+    /**
+     * Pack an identifier id and index into a key, or return -1 if the index cannot be packed.
+     */
+    private static long key (int id, int[] index) {
+        long key = (long) id << 40;
+        if (index == null) {
+            return key;
+        } else if (index.length == 1 && index [0] >= 0) {
+            return key | 1L << 32 | index [0];
+        } else if (index.length == 2 && (index [0] | index [1]) >>> 16 == 0) {
+            return key | 2L << 32 | (long) index [0] << 16 | index [1];
+        }
+        return -1;
+    }
+}
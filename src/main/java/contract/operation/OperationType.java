@@ -1,28 +1,31 @@
 package contract.operation;
 
-import javafx.scene.paint.Color;
+import contract.utility.Colors;
 
 /**
  * The name of the operation.
  */
 public enum OperationType {
-    read(Color.GREEN), write(Color.RED), message(Color.AQUA), // Standard
-    remove(null), // Atomic, non-standard
-    swap(true, Color.CORNFLOWERBLUE); // Non-atomic
+    read(Colors.GREEN), write(Colors.RED), message(Colors.AQUA), // Standard
+    remove(Colors.NONE), // Atomic, non-standard
+    swap(true, Colors.CORNFLOWER_BLUE); // Non-atomic
 
     /**
      * True for operations which implement the Consolidable interface.
      */
     public final boolean consolidable;
 
-    public final Color   color;
+    /**
+     * The colour of elements after this operation, as an RGBA value. See {@link Colors}.
+     */
+    public final int     color;
 
-    OperationType (boolean consolidable, Color color) {
+    OperationType (boolean consolidable, int color) {
         this.consolidable = consolidable;
         this.color = color;
     }
 
-    OperationType (Color color) {
+    OperationType (int color) {
         this(false, color);
     }
 }
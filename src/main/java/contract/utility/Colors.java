@@ -0,0 +1,50 @@
+package contract.utility;
+
+/**
+ * Colours used by the model, as 32-bit RGBA values with red in the highest byte and alpha in the
+ * lowest. The model does not depend on a GUI toolkit; renderers convert these values to the
+ * paints of their toolkit.
+ */
+public final class Colors {
+
+    /**
+     * No colour. Fully transparent, so that nothing is drawn.
+     */
+    public static final int NONE            = 0x00000000;
+    public static final int WHITE           = 0xFFFFFFFF;
+    public static final int GREEN           = 0x008000FF;
+    public static final int RED             = 0xFF0000FF;
+    public static final int AQUA            = 0x00FFFFFF;
+    public static final int CORNFLOWER_BLUE = 0x6495EDFF;
+
+    private Colors () {
+    }
+
+    /**
+     * Returns an RGBA value.
+     *
+     * @param red
+     *            Red component, between 0 and 255.
+     * @param green
+     *            Green component, between 0 and 255.
+     * @param blue
+     *            Blue component, between 0 and 255.
+     * @param alpha
+     *            Alpha component, between 0 and 255.
+     * @return The colour as an RGBA value.
+     */
+    public static int rgba (int red, int green, int blue, int alpha) {
+        return (red & 0xFF) << 24 | (green & 0xFF) << 16 | (blue & 0xFF) << 8 | alpha & 0xFF;
+    }
+
+    /**
+     * Returns a colour in the form {@code #rrggbbaa}.
+     *
+     * @param rgba
+     *            An RGBA value.
+     * @return The colour as a string.
+     */
+    public static String toString (int rgba) {
+        return String.format("#%08x", rgba);
+    }
+}
@@ -8,7 +8,6 @@ import contract.datastructure.IndependentElement;
 import contract.datastructure.RawType;
 import contract.json.AnnotatedVariable;
 import contract.operation.Key;
-import gui.Main;
 
 /**
  * Contains methods to parse data structures. Cannot be instantiated.
@@ -18,9 +17,21 @@ import gui.Main;
  */
 public abstract class DataStructureParser {
 
+    private static volatile ParseListener listener;
+
     private DataStructureParser () {
     };
 
+    /**
+     * Set the listener notified of errors while parsing. Shared by all threads.
+     *
+     * @param newListener
+     *            A ParseListener. May be null.
+     */
+    public static void setListener (ParseListener newListener) {
+        listener = newListener;
+    }
+
     public static DataStructure unpackAnnotatedVariable (AnnotatedVariable av) {
         switch (av.rawType) {
         case array:
@@ -30,8 +41,11 @@ public abstract class DataStructureParser {
         case tree:
             return null; // TODO: Add parsing of trees.
         default:
-            Main.console.err("Unknown Data Structure raw type: \"" + av.rawType + "\"");
-            Main.console.err("Permitted raw types: " + Arrays.toString(RawType.values()));
+            ParseListener current = listener;
+            if (current != null) {
+                current.error("Unknown Data Structure raw type: \"" + av.rawType + "\"");
+                current.error("Permitted raw types: " + Arrays.toString(RawType.values()));
+            }
             break;
         }
         return null;
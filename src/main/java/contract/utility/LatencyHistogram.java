@@ -0,0 +1,125 @@
+package contract.utility;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds. Values are counted in buckets which are a power of two
+ * wide, split into eight, so that percentiles are accurate to within 12.5%. Recording takes a few
+ * nanoseconds and allocates nothing. <br>
+ * <br>
+ * Values must be recorded by a single thread, but the histogram may be read by any thread.
+ */
+public class LatencyHistogram {
+
+    private static final int     SUB_BUCKETS = 8;
+    private static final int     BUCKETS     = 61 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts     = new AtomicLongArray(BUCKETS);
+    private volatile long        count;
+    private volatile long        sum;
+    private volatile long        max;
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos
+     *            The latency in nanoseconds. Negative values are counted as 0.
+     */
+    public void record (long nanos) {
+        long value = Math.max(0, nanos);
+        int index = index(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+        count++;
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return The number of recorded latencies.
+     */
+    public long getCount () {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     *
+     * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean () {
+        long n = count;
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    /**
+     * Returns the highest recorded latency.
+     *
+     * @return The highest latency in nanoseconds.
+     */
+    public long getMax () {
+        return max;
+    }
+
+    /**
+     * Returns the latency which {@code percentile} percent of the recorded latencies do not
+     * exceed.
+     *
+     * @param percentile
+     *            The percentile, between 0 and 100.
+     * @return The latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile (double percentile) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank && i + 1 < BUCKETS) {
+                return Math.min(lowerBound(i + 1) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Forget all recorded latencies. Must be called by the recording thread.
+     */
+    public void reset () {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    @Override public String toString () {
+        return "count = " + count + ", mean = " + (long) getMean() + " ns, p50 = " + getPercentile(50)
+                + " ns, p99 = " + getPercentile(99) + " ns, p99.9 = " + getPercentile(99.9) + " ns, max = " + max
+                + " ns";
+    }
+
+    private static int index (long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> exponent - 3) & SUB_BUCKETS - 1;
+        return Math.min((exponent - 2) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    private static long lowerBound (int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + 2;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << exponent - 3;
+    }
+}
@@ -1,8 +1,6 @@
 package contract.utility;
 
 import contract.operation.OperationType;
-import gui.Main;
-import javafx.beans.property.SimpleIntegerProperty;
 
 /**
  * A class which counts performed operations.
@@ -12,54 +10,11 @@ import javafx.beans.property.SimpleIntegerProperty;
  */
 public class OperationCounter {
 
-    private final SimpleIntegerProperty read    = new SimpleIntegerProperty(0);
-    private final SimpleIntegerProperty write   = new SimpleIntegerProperty(0);
-    private final SimpleIntegerProperty swap    = new SimpleIntegerProperty(0);
-    private final SimpleIntegerProperty remove  = new SimpleIntegerProperty(0);
-    private final SimpleIntegerProperty message = new SimpleIntegerProperty(0);
-
-    /**
-     * @return The reads property.
-     */
-    public SimpleIntegerProperty readsProperty () {
-        return read;
-    }
-
-    /**
-     * Returns the the Writes property.
-     *
-     * @return the Writes property.
-     */
-    public SimpleIntegerProperty writesProperty () {
-        return write;
-    }
-
-    /**
-     * Returns the the Swaps property.
-     *
-     * @return the Swaps property.
-     */
-    public SimpleIntegerProperty swapsProperty () {
-        return swap;
-    }
-
-    /**
-     * Returns the the Removes property.
-     *
-     * @return the Removes property.
-     */
-    public SimpleIntegerProperty removesProperty () {
-        return remove;
-    }
-
-    /**
-     * Returns the Messages property.
-     *
-     * @return the Messages property.
-     */
-    public SimpleIntegerProperty messagesProperty () {
-        return message;
-    }
+    private int read    = 0;
+    private int write   = 0;
+    private int swap    = 0;
+    private int remove  = 0;
+    private int message = 0;
 
     /**
      * Count an operation. Calls {@code countOperation(OperationType type)}.
@@ -80,19 +35,53 @@ public class OperationCounter {
     public void countOperation (OperationType type) {
         switch (type) {
         case message:
-            message.setValue(message.getValue() + 1);
+            message++;
+            break;
+        case read:
+            read++;
+            break;
+        case remove:
+            remove++;
+            break;
+        case swap:
+            swap++;
+            break;
+        case write:
+            write++;
+            break;
+        default:
+            break;
+
+        }
+    }
+
+    /**
+     * Adjust the count of an operation type. Used when reverting operations.
+     *
+     * @param type
+     *            The type to adjust.
+     * @param delta
+     *            The amount to add to the count. May be negative.
+     */
+    public void countOperation (OperationType type, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        switch (type) {
+        case message:
+            message += delta;
             break;
         case read:
-            read.setValue(read.getValue() + 1);
+            read += delta;
             break;
         case remove:
-            remove.setValue(remove.getValue() + 1);
+            remove += delta;
             break;
         case swap:
-            swap.setValue(swap.getValue() + 1);
+            swap += delta;
             break;
         case write:
-            write.setValue(write.getValue() + 1);
+            write += delta;
             break;
         default:
             break;
@@ -106,7 +95,7 @@ public class OperationCounter {
      * @return The number of Read operations.
      */
     public int getReads () {
-        return read.get();
+        return read;
     }
 
     /**
@@ -115,7 +104,7 @@ public class OperationCounter {
      * @return The number of Writes operations.
      */
     public int getWrites () {
-        return write.get();
+        return write;
     }
 
     /**
@@ -124,7 +113,7 @@ public class OperationCounter {
      * @return The number of Swap operations.
      */
     public int getSwap () {
-        return swap.get();
+        return swap;
     }
 
     /**
@@ -133,7 +122,7 @@ public class OperationCounter {
      * @return The number of Remove operations.
      */
     public int getRemove () {
-        return remove.get();
+        return remove;
     }
 
     /**
@@ -142,29 +131,50 @@ public class OperationCounter {
      * @return The number of Message operations.
      */
     public int getMessage () {
-        return message.get();
+        return message;
+    }
+
+    /**
+     * Returns the current counts, in the order read, write, swap, remove and message.
+     *
+     * @return The current counts.
+     */
+    public int[] getCounts () {
+        return new int[] { read, write, swap, remove, message };
+    }
+
+    /**
+     * Set the counts, in the order returned by {@link #getCounts()}.
+     *
+     * @param counts
+     *            The new counts.
+     */
+    public void setCounts (int[] counts) {
+        read = counts [0];
+        write = counts [1];
+        swap = counts [2];
+        remove = counts [3];
+        message = counts [4];
     }
 
     /**
      * Reset the counter.
      */
     public void reset () {
-        read.set(0);
-        write.set(0);
-        swap.set(0);
-        remove.set(0);
-        message.set(0);
+        read = 0;
+        write = 0;
+        swap = 0;
+        remove = 0;
+        message = 0;
     }
 
     /**
-     * Print the recorded statistics using the {@link #GUIConsole}.
+     * Returns the recorded statistics, one count per line.
+     *
+     * @return The recorded statistics.
      */
-    public void printStats () {
-        Main.console.info("Read: " + read.intValue());
-        Main.console.info("Write: " + write.intValue());
-        Main.console.info("Swap: " + swap.intValue());
-        // Main.console.info("Remove: " + remove.intValue());
-        // Main.console.info("Message: " + message.intValue());
+    public String getStats () {
+        return "Read: " + read + "\nWrite: " + write + "\nSwap: " + swap;
     }
 
     /**
@@ -180,15 +190,5 @@ public class OperationCounter {
          * @return An OperationCounter
          */
         public OperationCounter getCounter ();
-
-        /**
-         * Print stats for a OperationCounterHaver using the {@link #printStats()} method.
-         *
-         * @param och
-         *            The OperationCounterHaver whose counter should be used.
-         */
-        public static void printStats (OperationCounterHaver och) {
-            och.getCounter().printStats();
-        }
     }
 }
@@ -6,6 +6,7 @@ import java.util.List;
 import com.google.gson.internal.LinkedTreeMap;
 
 import contract.json.Locator;
+import contract.json.LocatorPool;
 import contract.json.Operation;
 import contract.operation.Key;
 import contract.operation.OP_Message;
@@ -15,7 +16,6 @@ import contract.operation.OP_Swap;
 import contract.operation.OP_ToggleScope;
 import contract.operation.OP_Write;
 import contract.operation.OperationType;
-import gui.Main;
 
 /**
  * Contains methods to parse operations. Cannot be instantiated.
@@ -25,10 +25,29 @@ import gui.Main;
  */
 public abstract class OperationParser {
 
+    private static volatile ParseListener listener;
+
     private OperationParser () {
     };
 
+    /**
+     * Set the listener notified of errors while parsing. Shared by all threads.
+     *
+     * @param newListener
+     *            A ParseListener. May be null.
+     */
+    public static void setListener (ParseListener newListener) {
+        listener = newListener;
+    }
+
     public static Operation unpackOperation (Operation op) {
+        if (op == null) {
+            // Unknown operation type, skipped by GsonContructor.
+            return null;
+        } else if (op.getClass() != Operation.class) {
+            // Already unpacked, for example by GsonContructor.
+            return op;
+        }
         switch (op.operation) {
         case read:
         case write:
@@ -40,7 +59,10 @@ public abstract class OperationParser {
         case remove:
             return parseRemove(op);
         default:
-            Main.console.info("Unknown operation type: " + op.operation);
+            ParseListener current = listener;
+            if (current != null) {
+                current.info("Unknown operation type: " + op.operation);
+            }
             break;
         }
         return null;
@@ -76,7 +98,7 @@ public abstract class OperationParser {
                 i++;
             }
         }
-        return new Locator((String) identifier, index);
+        return LocatorPool.get((String) identifier, index);
     }
 
     public static OP_ReadWrite parseReadWrite (Operation op) {
@@ -86,7 +108,10 @@ public abstract class OperationParser {
         } else if (op.operation == OperationType.read) {
             op_rw = new OP_Read();
         } else {
-            Main.console.err("Operation must be \"read\" or \"write\". Got: " + op.operation);
+            ParseListener current = listener;
+            if (current != null) {
+                current.error("Operation must be \"read\" or \"write\". Got: " + op.operation);
+            }
             return null;
         }
         op_rw.setSource(unpackArrayVariable(op.operationBody.get(Key.source)));
@@ -104,9 +129,6 @@ public abstract class OperationParser {
     }
 
     private static void copySourceInfo (Operation from, Operation to) {
-        if (from.source == null) {
-            return;
-        }
         to.source = from.source;
         to.beginLine = from.beginLine;
         to.endLine = from.endLine;
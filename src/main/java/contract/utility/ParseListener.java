@@ -0,0 +1,29 @@
+package contract.utility;
+
+/**
+ * Interface for receiving the messages and errors produced while parsing or loading a log. Set
+ * with {@link OperationParser#setListener(ParseListener)},
+ * {@link DataStructureParser#setListener(ParseListener)} and
+ * {@link model.Loader#setListener(ParseListener)}. Nothing is reported if no listener is set.
+ * <br>
+ * <br>
+ * The parsers may be called by several threads, so listeners set on them must be thread safe.
+ */
+public interface ParseListener {
+
+    /**
+     * Called with information about the data parsed, such as parts of it being ignored.
+     *
+     * @param info
+     *            The information.
+     */
+    public void info (String info);
+
+    /**
+     * Called when part of the data cannot be parsed.
+     *
+     * @param error
+     *            A description of the error.
+     */
+    public void error (String error);
+}
@@ -10,9 +10,17 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
@@ -24,9 +32,23 @@ import assets.Tools;
 import assets.example.Examples;
 import assets.example.Examples.Algorithm;
 import contract.datastructure.DataStructure;
+import contract.io.BinaryLogReader;
+import contract.io.BinaryLogWriter;
 import contract.io.CommunicatorListener;
+import contract.io.IndexedLog;
 import contract.io.JGroupCommunicator;
+import contract.io.LogIndex;
+import contract.io.LogJournal;
 import contract.io.LogStreamManager;
+import contract.io.LogWriter;
+import contract.io.MappedLog;
+import contract.io.Transport;
+import contract.json.Operation;
+import contract.json.Root;
+import contract.utility.DataStructureParser;
+import contract.utility.OperationCounter;
+import contract.utility.OperationParser;
+import contract.utility.ParseListener;
 import gui.dialog.ExamplesDialog;
 import gui.dialog.VisualDialog;
 import gui.panel.OperationPanel;
@@ -68,6 +90,9 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 import model.Model;
 import model.Loader;
+import model.OperationStore;
+import model.Retention;
+import model.Step;
 import multiset.MultisetController;
 import render.Visualization;
 
@@ -84,6 +109,11 @@ public class Controller implements CommunicatorListener {
      */
     // ============================================================= //
 
+    /**
+     * Binary logs holding more operations than this are paged in from disk rather than read.
+     */
+    private static final int       PAGED_OPERATIONS              = 1 << 20;
+
     private final Visualization    vis;
     private final Stage            window;
     private final LogStreamManager lsm;
@@ -94,6 +124,11 @@ public class Controller implements CommunicatorListener {
     // Stream behaviour
     private boolean                streamAlwaysShowLastOperation = true;
     private boolean                streamStartAutoplay           = false;
+    private final AtomicBoolean    streamScheduled               = new AtomicBoolean();
+    // Saving
+    private CompletableFuture<?>   saving;
+    private final Deque<Runnable>  afterSaving                   = new ArrayDeque<Runnable>();
+    private boolean                runningAfterSave              = false;
     // Autoplay
     private boolean                isPlaying                     = false;
     private int                    stepDelaySpeedupFactor        = 1;
@@ -125,11 +160,42 @@ public class Controller implements CommunicatorListener {
         vis.setAnimationTime(stepDelay);
         this.window = window;
         model = Model.instance();
+        model.setStepListener(new Step.StepListener() {
+            @Override public void message (String message) {
+                Main.console.info("MESSAGE: " + message);
+            }
+
+            @Override public void error (String error) {
+                Main.console.err(error);
+            }
+        });
+        ParseListener parseListener = new ParseListener() {
+            @Override public void info (String info) {
+                Main.console.info(info);
+            }
+
+            @Override public void error (String error) {
+                Main.console.err(error);
+            }
+        };
+        OperationParser.setListener(parseListener);
+        DataStructureParser.setListener(parseListener);
         modelImporter = new Loader(model);
+        modelImporter.setListener(new ParseListener() {
+            @Override public void info (String info) {
+                Main.console.force(info);
+            }
+
+            @Override public void error (String error) {
+                Main.console.err(error);
+            }
+        });
         this.lsm = lsm;
         this.lsm.PRETTY_PRINTING = true;
         this.lsm.setListener(this);
-        connectedView = new ConnectedView(window, (JGroupCommunicator) lsm.getCommunicator());
+        // Entities are only listed by JGroups.
+        connectedView = lsm.getCommunicator() instanceof JGroupCommunicator
+                ? new ConnectedView(window, (JGroupCommunicator) lsm.getCommunicator()) : null;
         this.sourcePanel = sourceViewer;
         operationPanel = new OperationPanel(this);
         initSettingsPane();
@@ -198,6 +264,54 @@ public class Controller implements CommunicatorListener {
         stepDelayBase = Long.parseLong(properties.getProperty("playbackStepDelay"));
         stepDelay = stepDelayBase; // Speedup factor is 1 at startup.
         streamAlwaysShowLastOperation = Boolean.parseBoolean(properties.getProperty("autoPlayOnIncomingStream"));
+        // Bound memory for endless streams. 0 = unlimited.
+        int retainOperations = Integer.parseInt(properties.getProperty("streamRetainOperations", "0"));
+        long retainSeconds = Long.parseLong(properties.getProperty("streamRetainSeconds", "0"));
+        model.setRetention(new Retention(retainOperations, retainSeconds * 1000));
+        // Persist streamed data continuously. An empty directory disables capture.
+        String directory = properties.getProperty("streamCaptureDirectory", "");
+        long rotateMB = Long.parseLong(properties.getProperty("streamCaptureRotateMB", "64"));
+        long flushSeconds = Long.parseLong(properties.getProperty("streamCaptureFlushSeconds", "1"));
+        setCapture(directory, rotateMB, flushSeconds);
+        // Write indexes next to large JSON logs, so that they open instantly the next time.
+        lsm.setIndexing(Boolean.parseBoolean(properties.getProperty("logIndexing", "true")));
+        // Read by the LogStreamManager at startup. Kept here so that saving does not lose them.
+        transport = properties.getProperty(Transport.PROPERTY, Transport.jgroups.name());
+        transportAddress = properties.getProperty(Transport.ADDRESS_PROPERTY, "");
+    }
+
+    private String transport        = Transport.jgroups.name();
+    private String transportAddress = "";
+
+    private String captureDirectory    = "";
+    private long   captureRotateMB     = 64;
+    private long   captureFlushSeconds = 1;
+
+    /**
+     * Start or stop writing streamed data to logs in {@code directory}.
+     */
+    private void setCapture (String directory, long rotateMB, long flushSeconds) {
+        boolean capturing = lsm.getCapture() != null;
+        if (directory.equals(captureDirectory) && rotateMB == captureRotateMB && flushSeconds == captureFlushSeconds
+                && capturing != directory.isEmpty()) {
+            // Unchanged. Reloading the settings does not start a new capture.
+            return;
+        }
+        captureDirectory = directory;
+        captureRotateMB = rotateMB;
+        captureFlushSeconds = flushSeconds;
+        try {
+            if (directory.isEmpty()) {
+                lsm.stopCapture();
+                return;
+            }
+            DateFormat dateFormat = new SimpleDateFormat("yy-MM-dd_HHmmss");
+            File target = new File(directory, "stream_" + dateFormat.format(Calendar.getInstance().getTime()) + ".json");
+            lsm.startCapture(target, rotateMB << 20, flushSeconds * 1000);
+            Main.console.info("Capturing streamed data to: " + target);
+        } catch (IOException e) {
+            Main.console.err("Stream capture failed: " + e.getMessage());
+        }
     }
 
     // Save settings
@@ -205,6 +319,15 @@ public class Controller implements CommunicatorListener {
         Properties properties = new Properties();
         properties.setProperty("playbackStepDelay", "" + stepDelayBase);
         properties.setProperty("autoPlayOnIncomingStream", "" + streamAlwaysShowLastOperation);
+        Retention retention = model.getRetention();
+        properties.setProperty("streamRetainOperations", "" + (retention == null ? 0 : retention.getMaxOperations()));
+        properties.setProperty("streamRetainSeconds", "" + (retention == null ? 0 : retention.getMaxAge() / 1000));
+        properties.setProperty("streamCaptureDirectory", captureDirectory);
+        properties.setProperty("streamCaptureRotateMB", "" + captureRotateMB);
+        properties.setProperty("streamCaptureFlushSeconds", "" + captureFlushSeconds);
+        properties.setProperty("logIndexing", "" + lsm.isIndexing());
+        properties.setProperty(Transport.PROPERTY, transport);
+        properties.setProperty(Transport.ADDRESS_PROPERTY, transportAddress);
         try {
             URL url = this.getClass().getClassLoader().getResource(Const.PROPERTIES_FILE_NAME);
             OutputStream outputStream = new FileOutputStream(new File(url.toURI()));
@@ -269,6 +392,17 @@ public class Controller implements CommunicatorListener {
      * Clear everything.
      */
     public void clearButtonClicked () {
+        afterSave( () -> {
+            clearModel();
+            window.setTitle(Const.PROGRAM_NAME);
+        });
+    }
+
+    /**
+     * Clear the model. Must not be called while it is being saved, see {@link #afterSave(Runnable)}.
+     */
+    private void clearModel () {
+        stopJournal();
         visualMenu.getItems().clear();
         visualMenu.setDisable(true);
         model.hardClear();
@@ -276,7 +410,6 @@ public class Controller implements CommunicatorListener {
         sourcePanel.clear();
         operationPanel.clear();
         setButtons();
-        window.setTitle(Const.PROGRAM_NAME);
     }
 
     /**
@@ -392,9 +525,9 @@ public class Controller implements CommunicatorListener {
         InterpreterView interpreterView = new InterpreterView(window);
 
         if (interpreterView.show(model.getOperations())) {
-            model.reset();
+            model.operationsChanged();
             vis.clearAndCreateVisuals();
-            operationPanel.getItems().setAll(model.getOperations());
+            operationPanel.setOperations(model.getOperations());
             updatePanels();
         }
     }
@@ -402,9 +535,10 @@ public class Controller implements CommunicatorListener {
     public void interpretOperationHistory () {
         InterpreterView interpreterView = new InterpreterView(window);
         interpreterView.fast(model.getOperations());
+        model.operationsChanged();
         updatePanels();
         vis.clearAndCreateVisuals();
-        operationPanel.getItems().setAll(lsm.getOperations());
+        operationPanel.setOperations(model.getOperations());
     }
 
     /*
@@ -418,10 +552,7 @@ public class Controller implements CommunicatorListener {
      *            The index to jump to.
      */
     public void goToStep (int index) {
-        if (true) { // TODO
-            System.err.println("goToStep() is buggy and has been disabled.");
-            return;
-        }
+        stopAutoPlay();
         model.goToStep(index);
         vis.init();
         vis.render(model.getLastOp());
@@ -501,6 +632,10 @@ public class Controller implements CommunicatorListener {
     }
 
     public void connectedToChannel () {
+        if (connectedView == null) {
+            Main.console.info("Connected entities are only listed when streaming over JGroups.");
+            return;
+        }
         connectedView.show();
     }
 
@@ -519,7 +654,12 @@ public class Controller implements CommunicatorListener {
         FileChooser fc = new FileChooser();
         fc.setInitialDirectory(new File(System.getProperty("user.home")));
         fc.setTitle("Open Log File");
-        fc.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("JSON-Files", "*.json"),
+        fc.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Log Files", "*.json", "*." + BinaryLogWriter.EXTENSION,
+                        "*." + LogJournal.EXTENSION),
+                new FileChooser.ExtensionFilter("JSON-Files", "*.json"),
+                new FileChooser.ExtensionFilter("Binary Logs", "*." + BinaryLogWriter.EXTENSION),
+                new FileChooser.ExtensionFilter("Journals", "*." + LogJournal.EXTENSION),
                 new FileChooser.ExtensionFilter("All Files", "*.*"));
         File source = fc.showOpenDialog(window);
         if (source != null) {
@@ -535,10 +675,32 @@ public class Controller implements CommunicatorListener {
      *            The file to load.
      */
     public void readLog (File file) {
+        afterSave( () -> readLogNow(file));
+    }
+
+    private void readLogNow (File file) {
+        // The journal would not hold the operations read.
+        stopJournal();
+        if (BinaryLogReader.isBinaryLog(file) ? readPagedLog(file) : readIndexedLog(file)) {
+            return;
+        }
+        if (model.isPaged()) {
+            // Paged operations cannot be merged without reading them.
+            clearModel();
+        }
         lsm.clearData();
+        // Store operations compactly while reading.
+        lsm.setOperations(new OperationStore());
         boolean success = false;
         try {
-            success = lsm.readLog(file);
+            int[] reported = { 0 };
+            success = lsm.readLog(file, (bytesRead, length, operations) -> {
+                int percent = length > 0 ? (int) (bytesRead * 100 / length) : 0;
+                if (percent >= reported [0] + 10) {
+                    reported [0] = percent / 10 * 10;
+                    Main.console.info("Reading log: " + reported [0] + "% (" + operations + " operations)");
+                }
+            });
         } catch (JsonIOException | JsonSyntaxException | FileNotFoundException e) {
             Main.console.err("Failed to read log: " + e.getMessage());
         }
@@ -552,7 +714,90 @@ public class Controller implements CommunicatorListener {
     }
 
     /**
-     * Load the current data from LSM. Does not clear any data.
+     * Page a binary log in from disk, replacing the current model. Only the blocks holding the
+     * operations accessed are read, so logs larger than memory can be shown.
+     *
+     * @param file
+     *            The binary log to load.
+     * @return {@code false} if the log is too small to be paged or could not be mapped, in which
+     *         case it should be read instead.
+     */
+    private boolean readPagedLog (File file) {
+        MappedLog log;
+        try {
+            log = new MappedLog(file);
+        } catch (IOException e) {
+            Main.console.err("Failed to map log: " + e.getMessage());
+            return false;
+        }
+        if (log.size() <= PAGED_OPERATIONS) {
+            return false;
+        }
+
+        lsm.clearData();
+        if (log.getHeader() != null && lsm.unwrap(new Root(log.getHeader(), null)) == false) {
+            Main.console.err("Import failed: " + file);
+            return true;
+        }
+        loadPaged(log);
+        Main.console.info("Paging " + log.size() + " operations in " + log.getBlockCount() + " blocks from: " + file);
+        return true;
+    }
+
+    /**
+     * Open a JSON log using the index written when it was last read, replacing the current model.
+     * Operations are read one chunk at a time as they are accessed.
+     *
+     * @param file
+     *            The JSON log to load.
+     * @return {@code false} if the log has no up to date index, in which case it should be read
+     *         instead.
+     */
+    private boolean readIndexedLog (File file) {
+        lsm.clearData();
+        IndexedLog log;
+        try {
+            log = lsm.openIndexedLog(file);
+        } catch (IOException e) {
+            Main.console.err("Failed to open log index: " + e.getMessage());
+            return false;
+        }
+        if (log == null) {
+            lsm.clearData();
+            return false;
+        }
+        loadPaged(log);
+        Main.console.info("Paging " + log.size() + " operations in " + log.getIndex().getChunkCount()
+                + " chunks from: " + file);
+        for (Map.Entry<String, LogIndex.Statistics> e : log.getIndex().getStatistics().entrySet()) {
+            OperationCounter counter = e.getValue().getCounter();
+            Main.console.info("  " + e.getKey() + ": " + counter.getReads() + " reads, " + counter.getWrites()
+                    + " writes, " + counter.getSwap() + " swaps, values " + e.getValue().getMin() + " to "
+                    + e.getValue().getMax());
+        }
+        return true;
+    }
+
+    /**
+     * Replace the current model with the structures unwrapped by LSM, paging operations in
+     * from {@code ops}. Clears LSM data.
+     */
+    private void loadPaged (List<Operation> ops) {
+        clearModel();
+        model.setPaged(lsm.getDataStructures(), ops);
+        sourcePanel.addSources(lsm.getSources());
+        vis.clearAndCreateVisuals();
+        vis.render(model.getLastOp());
+        operationPanel.setOperations(model.getOperations());
+        loadVisualMenu();
+        updatePanels();
+        setButtons();
+        lsm.clearData();
+    }
+
+    /**
+     * Load the current data from LSM. Does not clear any data. Must not be called while the model
+     * is being saved, see {@link #afterSave(Runnable)}.
      */
     public void loadFromLSM () {
         // Add operations to model and create Render visuals, then draw them.
@@ -567,12 +812,29 @@ public class Controller implements CommunicatorListener {
         vis.render(model.getLastOp());
 
         // Update operation list
-        operationPanel.getItems().addAll(lsm.getOperations());
+        operationPanel.setOperations(model.getOperations());
         loadVisualMenu();
         updatePanels();
         setButtons();
     }
 
+    private void appendToModel (Map<String, DataStructure> structures, List<Operation> operations,
+            Map<String, List<String>> sources) {
+        boolean structuresAdded = modelImporter.appendToLiveModel(structures, operations);
+
+        sourcePanel.addSources(sources);
+        if (structuresAdded) {
+            vis.clearAndCreateVisuals();
+            loadVisualMenu();
+        }
+        vis.render(model.getLastOp());
+
+        // Update operation list
+        operationPanel.setOperations(model.getOperations());
+        updatePanels();
+        setButtons();
+    }
+
     private void loadVisualMenu () {
         if (model.getStructures().isEmpty()) {
             visualMenu.setDisable(true);
@@ -625,23 +887,96 @@ public class Controller implements CommunicatorListener {
      */
     @Override public void messageReceived (short messageType) {
         if (messageType >= 10) {
+            if (connectedView == null) {
+                return;
+            }
             JGroupCommunicator jgc = (JGroupCommunicator) lsm.getCommunicator();
             connectedView.update(jgc.getMemberStrings(), jgc.allKnownEntities());
             return;
         }
-        Platform.runLater( () -> {
-            Controller.this.loadFromLSM();
-            Controller.this.lsm.clearData();
-
-            if (Controller.this.streamAlwaysShowLastOperation) {
-                Controller.this.model.goToEnd();
-                Controller.this.stepForwardButtonClicked();
-            } else if (Controller.this.streamStartAutoplay) {
-                Controller.this.startAutoPlay();
+        // Coalesced, so that the data received between two pulses is appended at once.
+        if (streamScheduled.compareAndSet(false, true)) {
+            Platform.runLater( () -> {
+                streamScheduled.set(false);
+                Controller.this.streamReceived();
+            });
+        }
+    }
+
+    private void streamReceived () {
+        LogWriter capture = lsm.getCapture();
+        if (capture != null && capture.getError() != null) {
+            Main.console.err("Stream capture failed: " + capture.getError().getMessage());
+            try {
+                lsm.stopCapture();
+            } catch (IOException e) {
+                // Already reported.
             }
+        }
+        LogJournal journal = lsm.getJournal();
+        if (journal != null && journal.getError() != null) {
+            Main.console.err("Journal failed: " + journal.getError().getMessage());
+            stopJournal();
+        }
+        if (saving != null && saving.isDone() == false) {
+            // The operations are being saved. Received data is kept by the LSM until done.
+            return;
+        }
+        // Streamed data is added to the LSM by the receiving thread while holding its lock.
+        Map<String, DataStructure> structures;
+        List<Operation> operations;
+        Map<String, List<String>> sources;
+        synchronized (lsm) {
+            structures = lsm.getDataStructures();
+            operations = lsm.getOperations();
+            sources = lsm.getSources();
+            lsm.setDataStructures(new HashMap<String, DataStructure>());
+            lsm.setOperations(new ArrayList<Operation>());
+            lsm.setSources(null);
+        }
+        appendToModel(structures, operations, sources);
 
-            Controller.this.updatePanels();
-        });
+        if (streamAlwaysShowLastOperation) {
+            model.goToEnd();
+            stepForwardButtonClicked();
+        } else if (streamStartAutoplay) {
+            startAutoPlay();
+        }
+
+        updatePanels();
+    }
+
+    /**
+     * Run {@code action} on the FX thread once the log being saved, if any, has been written. The
+     * model is read by the saving thread, so actions which modify it are queued rather than
+     * blocking the UI. Queued actions run in order, and wait for any save started by an earlier
+     * one.
+     *
+     * @param action
+     *            The action to run.
+     */
+    private void afterSave (Runnable action) {
+        afterSaving.add(action);
+        if (runningAfterSave == false) {
+            runAfterSave();
+        }
+    }
+
+    private void runAfterSave () {
+        runningAfterSave = true;
+        try {
+            while (afterSaving.isEmpty() == false) {
+                if (saving != null && saving.isDone() == false) {
+                    // Errors are reported by the callbacks of the save.
+                    saving.whenComplete((result, error) -> Platform.runLater(this::runAfterSave));
+                    return;
+                }
+                saving = null;
+                afterSaving.remove().run();
+            }
+        } finally {
+            runningAfterSave = false;
+        }
     }
 
     public void openDestinationChooser () {
@@ -651,26 +986,129 @@ public class Controller implements CommunicatorListener {
         DateFormat dateFormat = new SimpleDateFormat("yy-MM-dd_HHmmss");
         Calendar cal = Calendar.getInstance();
         fc.setInitialFileName(dateFormat.format(cal.getTime()));
-        fc.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("JSON-Files", "*.json"),
+        FileChooser.ExtensionFilter binary = new FileChooser.ExtensionFilter("Binary Logs",
+                "*." + BinaryLogWriter.EXTENSION);
+        FileChooser.ExtensionFilter journal = new FileChooser.ExtensionFilter("Journals",
+                "*." + LogJournal.EXTENSION);
+        fc.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("JSON-Files", "*.json"), binary, journal,
                 new FileChooser.ExtensionFilter("All Files", "*.*"));
         File target = fc.showSaveDialog(window);
         if (target == null) {
             return;
         }
-        lsm.setOperations(model.getOperations());
-        lsm.setDataStructures(model.getStructures());
-        lsm.setSources(sourcePanel.getSources());
+        boolean asJournal = fc.getSelectedExtensionFilter() == journal
+                || target.getName().endsWith("." + LogJournal.EXTENSION);
+        boolean asBinary = fc.getSelectedExtensionFilter() == binary;
+        afterSave( () -> {
+            if (asJournal) {
+                saveJournal(target);
+            } else {
+                withModelInLSM( () -> printLog(target, asBinary));
+            }
+        });
+    }
+
+    private void printLog (File target, boolean binary) {
         boolean old = lsm.PRETTY_PRINTING;
         lsm.PRETTY_PRINTING = model.getOperations().size() > 100;
         try {
             Main.console.info("Printing log: " + target);
-            lsm.printLog(target);
-        } catch (FileNotFoundException e) {
+            if (binary || target.getName().endsWith("." + BinaryLogWriter.EXTENSION)) {
+                lsm.printBinaryLog(target);
+            } else if (model.isPaged()) {
+                // Paging modifies the store, so it cannot be read by another thread.
+                lsm.printLog(target);
+            } else {
+                // Printed in the background. The model is not modified until done.
+                saving = lsm.printLogAsync(target);
+                saving.whenComplete((result, error) -> Platform.runLater( () -> {
+                    if (error != null) {
+                        Main.console.err("Printing failed: " + error.getMessage());
+                    } else {
+                        Main.console.info("Printed log: " + target);
+                    }
+                    if (lsm.getOperations().isEmpty() == false) {
+                        streamReceived();
+                    }
+                }));
+            }
+        } catch (IOException | JsonIOException e) {
             Main.console.err("Printing failed: " + e.getMessage());
         }
         lsm.PRETTY_PRINTING = old;
     }
 
+    /**
+     * Run {@code save} with the data of the model in the LSM. Data streamed but not yet appended
+     * to the model is set aside and restored afterwards, so that streamed data is kept out of
+     * the model while it is being saved. Holds the lock of the LSM, which the receiving thread
+     * needs to add streamed data.
+     */
+    private void withModelInLSM (Runnable save) {
+        synchronized (lsm) {
+            List<Operation> operations = lsm.getOperations();
+            Map<String, DataStructure> structures = lsm.getDataStructures();
+            Map<String, List<String>> sources = lsm.getSources();
+            lsm.setOperations(model.getOperations());
+            lsm.setDataStructures(model.getStructures());
+            lsm.setSources(sourcePanel.getSources());
+            try {
+                save.run();
+            } finally {
+                lsm.setOperations(operations);
+                lsm.setDataStructures(structures);
+                lsm.setSources(sources);
+            }
+        }
+    }
+
+    /**
+     * Save the model to a journal, which streamed operations are then appended to. Saving to the
+     * current journal again only flushes the operations received since the last save.
+     */
+    private void saveJournal (File target) {
+        LogJournal current = lsm.getJournal();
+        if (current != null && current.getFile().getAbsoluteFile().equals(target.getAbsoluteFile())) {
+            saving = current.flush();
+        } else if (model.isPaged()) {
+            // Paging modifies the store, so it cannot be read by another thread.
+            Main.console.err("A paged log cannot be saved as a journal: " + target);
+            return;
+        } else {
+            withModelInLSM( () -> {
+                try {
+                    Main.console.info("Starting journal: " + target);
+                    saving = lsm.startJournal(target, captureFlushSeconds * 1000).flush();
+                } catch (IOException e) {
+                    Main.console.err("Journal failed: " + e.getMessage());
+                }
+            });
+        }
+        if (saving == null) {
+            return;
+        }
+        LogJournal saved = lsm.getJournal();
+        saving.whenComplete((result, error) -> Platform.runLater( () -> {
+            if (error != null) {
+                Main.console.err("Journal failed: " + error.getMessage());
+            } else {
+                Main.console.info("Saved journal: " + target + " (" + saved.getOperationCount()
+                        + " operations written since it was opened)");
+            }
+            if (lsm.getOperations().isEmpty() == false) {
+                streamReceived();
+            }
+        }));
+    }
+
+    private void stopJournal () {
+        try {
+            lsm.stopJournal();
+        } catch (IOException e) {
+            Main.console.err("Journal failed: " + e.getMessage());
+        }
+    }
+
     public void propertiesFailed (Exception exception) {
         if (exception != null) {
             Main.console.err(exception.getMessage());
@@ -852,10 +1290,12 @@ public class Controller implements CommunicatorListener {
         Main.console.info("Running " + algo.name + " on: " + Arrays.toString(data));
         String json = Examples.getExample(algo, data);
         if (json != null) {
-            lsm.clearData();
-            lsm.unwrap(json);
-            loadFromLSM();
-            lsm.clearData();
+            afterSave( () -> {
+                lsm.clearData();
+                lsm.unwrap(json);
+                loadFromLSM();
+                lsm.clearData();
+            });
         }
     }
 
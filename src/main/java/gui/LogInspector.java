@@ -0,0 +1,110 @@
+package gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+import contract.io.LogStreamManager;
+import contract.io.LogSummary;
+import contract.json.AnnotatedVariable;
+import contract.json.Header;
+import contract.utility.DataStructureParser;
+import contract.utility.OperationCounter;
+import contract.utility.OperationParser;
+import contract.utility.ParseListener;
+
+/**
+ * Command line entry point which prints a summary of logs without starting the GUI. The header
+ * of each log is printed along with the number of operations of each type, which are counted
+ * without being created, see {@link LogStreamManager#summarizeLog(File, boolean)}.
+ *
+ * <pre>
+ * LogInspector [--header] &lt;log&gt;...
+ * </pre>
+ *
+ * With {@code --header}, reading stops after the header, which takes about as long for a huge
+ * log as for a small one.
+ */
+public class LogInspector {
+
+    private LogInspector () {
+    }
+
+    public static void main (String[] args) {
+        ParseListener parseListener = new ParseListener() {
+            @Override public void info (String info) {
+                System.err.println(info);
+            }
+
+            @Override public void error (String error) {
+                System.err.println(error);
+            }
+        };
+        OperationParser.setListener(parseListener);
+        DataStructureParser.setListener(parseListener);
+        boolean headerOnly = false;
+        int failed = 0;
+        int logs = 0;
+        for (String arg : args) {
+            if (arg.equals("--header")) {
+                headerOnly = true;
+                continue;
+            }
+            logs++;
+            try {
+                print(LogSummary.read(new File(arg), headerOnly), System.out);
+            } catch (IOException e) {
+                System.err.println(arg + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        if (logs == 0) {
+            System.err.println("Usage: LogInspector [--header] <log>...");
+            System.exit(2);
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Print a summary in a human readable form.
+     *
+     * @param summary
+     *            The summary to print.
+     * @param out
+     *            The stream to print to.
+     */
+    public static void print (LogSummary summary, PrintStream out) {
+        File file = summary.getFile();
+        out.println(file + " (" + (summary.isBinary() ? "binary" : "JSON") + ", " + file.length() + " bytes)");
+        Header header = summary.getHeader();
+        if (header == null) {
+            out.println("  No header.");
+        } else {
+            out.println("  Version: " + header.version);
+            if (header.annotatedVariables != null) {
+                out.println("  Structures: " + header.annotatedVariables.size());
+                for (AnnotatedVariable av : header.annotatedVariables.values()) {
+                    out.println("    " + av.identifier + ": " + av.rawType
+                            + (av.abstractType == null ? "" : " (" + av.abstractType + ")"));
+                }
+            }
+            if (header.sources != null) {
+                out.println("  Sources: " + header.sources.size());
+                for (Map.Entry<String, List<String>> e : header.sources.entrySet()) {
+                    int lines = e.getValue() == null ? 0 : e.getValue().size();
+                    out.println("    " + e.getKey() + ": " + lines + " lines");
+                }
+            }
+        }
+        if (summary.getOperationCount() >= 0) {
+            OperationCounter counter = summary.getCounter();
+            out.println("  Operations: " + summary.getOperationCount());
+            out.println("    read: " + counter.getReads() + ", write: " + counter.getWrites() + ", swap: "
+                    + counter.getSwap() + ", remove: " + counter.getRemove() + ", message: "
+                    + counter.getMessage());
+        }
+        out.println("  Summarized in " + summary.getElapsed() / 1000000 + " ms");
+    }
+}
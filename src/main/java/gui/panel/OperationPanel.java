@@ -1,6 +1,7 @@
 package gui.panel;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import contract.json.Operation;
@@ -23,7 +24,7 @@ public class OperationPanel extends Pane {
     private final TextField                         currOpTextField;
     private final Label                             totNrOfOpLabel;
     private final ProgressBar                       opProgress;
-    private final ObservableList<Operation>         items;
+    private ObservableList<Operation>               items;
     private final ListView<Operation>               operationHistory;
     private final MultipleSelectionModel<Operation> selectionModel;
     private final FocusModel<Operation>             focusModel;
@@ -94,6 +95,18 @@ public class OperationPanel extends Pane {
         return items;
     }
 
+    /**
+     * Show the given operations. The list is not copied, and operations are only fetched when
+     * their cells become visible. Must be called again after {@code operations} has changed.
+     *
+     * @param operations
+     *            The operations to show.
+     */
+    public void setOperations (List<Operation> operations) {
+        items = FXCollections.observableList(operations);
+        operationHistory.setItems(items);
+    }
+
     /**
      * Returns the index of the selected Operation.
      *
@@ -129,7 +142,8 @@ public class OperationPanel extends Pane {
     }
 
     public void clear () {
-        items.clear();
+        items = FXCollections.observableArrayList();
+        operationHistory.setItems(items);
         totNrOfOpLabel.setText("/ 0");
         currOpTextField.setText("0");
         opProgress.setProgress(-1);
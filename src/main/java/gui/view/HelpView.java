@@ -29,6 +29,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.Window;
 import javafx.util.Duration;
+import render.Paints;
 
 public class HelpView {
 
@@ -88,7 +89,7 @@ public class HelpView {
         for (OperationType ot : OperationType.values()) {
             // Create box
             final Box box = new Box();
-            box.setMaterial(new PhongMaterial(ot.color));
+            box.setMaterial(new PhongMaterial(Paints.toColor(ot.color)));
             box.setWidth(Const.DEFAULT_ELEMENT_WIDTH);
             box.setHeight(Const.DEFAULT_ELEMENT_HEIGHT);
             box.setDepth(Const.DEFAULT_ELEMENT_WIDTH + Const.DEFAULT_ELEMENT_HEIGHT);
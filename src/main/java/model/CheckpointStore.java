@@ -0,0 +1,321 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import contract.datastructure.DataStructure;
+
+/**
+ * Periodic snapshots of the structures held by a {@link Model}. A checkpoint is taken every
+ * {@link #getInterval()} operations, allowing the model to seek to any index by restoring the
+ * nearest preceding checkpoint and replaying at most {@code interval} operations. <br>
+ * <br>
+ * The interval adapts to the length of the trace, and is doubled (dropping every other checkpoint)
+ * whenever the stored checkpoints exceed the memory budget.
+ */
+public class CheckpointStore {
+
+    /**
+     * The smallest permitted interval between checkpoints.
+     */
+    public static final int             MIN_INTERVAL   = 256;
+    /**
+     * Default memory budget, in bytes.
+     */
+    public static final long            DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Checkpoints, sorted by index.
+     */
+    private final ArrayList<Checkpoint> checkpoints;
+    /**
+     * The maximum number of bytes the checkpoints may occupy.
+     */
+    private long                        budget;
+    /**
+     * The number of bytes currently used by the checkpoints.
+     */
+    private long                        size;
+    /**
+     * The number of operations between two checkpoints.
+     */
+    private int                         interval;
+
+    /**
+     * Create a new CheckpointStore using the default budget.
+     */
+    public CheckpointStore () {
+        checkpoints = new ArrayList<Checkpoint>();
+        budget = DEFAULT_BUDGET;
+        interval = MIN_INTERVAL;
+    }
+
+    /**
+     * Adapt the interval to a trace of the given length. The interval is chosen as the square root
+     * of the trace length, balancing the number of checkpoints against the number of operations
+     * which must be replayed for a seek. The interval will never decrease, as checkpoints already
+     * taken remain valid.
+     *
+     * @param traceLength
+     *            The number of operations in the trace.
+     */
+    public void setTraceLength (int traceLength) {
+        int preferred = Math.max(MIN_INTERVAL, (int) Math.ceil(Math.sqrt(traceLength)));
+        if (preferred > interval) {
+            interval = preferred;
+        }
+    }
+
+    /**
+     * Returns {@code true} if a checkpoint should be taken at the given index.
+     *
+     * @param index
+     *            The index of the model.
+     * @return {@code true} if a checkpoint should be taken, {@code false} otherwise.
+     */
+    public boolean isDue (int index) {
+        Checkpoint floor = floor(index);
+        int floorIndex = floor == null ? 0 : floor.index;
+        return index - floorIndex >= interval;
+    }
+
+    /**
+     * Returns the first index after {@code index} at which a checkpoint will be due, provided that
+     * no checkpoints are taken in between.
+     *
+     * @param index
+     *            The index of the model.
+     * @return The next index at which {@link #isDue(int)} returns {@code true}.
+     */
+    public int nextDue (int index) {
+        Checkpoint floor = floor(index);
+        long due = (floor == null ? 0 : floor.index) + (long) interval;
+        int pos = search(index + 1);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        // Later checkpoints reset the distance.
+        while (pos < checkpoints.size() && checkpoints.get(pos).index <= due) {
+            due = checkpoints.get(pos).index + (long) interval;
+            pos++;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(due, index + 1));
+    }
+
+    /**
+     * Take a checkpoint of the given structures.
+     *
+     * @param index
+     *            The index of the model at which the checkpoint is taken.
+     * @param structs
+     *            The structures to capture.
+     */
+    public void put (int index, Map<String, DataStructure> structs) {
+        HashMap<String, DataStructure.State> states = new HashMap<String, DataStructure.State>();
+        long checkpointSize = 0;
+        for (DataStructure struct : structs.values()) {
+            DataStructure.State state = struct.saveState();
+            states.put(struct.identifier, state);
+            checkpointSize += state.getSize();
+        }
+
+        int pos = search(index);
+        if (pos >= 0) {
+            size -= checkpoints.get(pos).size;
+            checkpoints.set(pos, new Checkpoint(index, states, checkpointSize));
+        } else {
+            checkpoints.add(-pos - 1, new Checkpoint(index, states, checkpointSize));
+        }
+        size += checkpointSize;
+
+        while (size > budget && checkpoints.size() > 1) {
+            thin();
+        }
+    }
+
+    /**
+     * Returns the checkpoint with the greatest index less than or equal to {@code index}.
+     *
+     * @param index
+     *            The index to search for.
+     * @return The nearest preceding checkpoint, or {@code null} if there is none.
+     */
+    public Checkpoint floor (int index) {
+        int pos = search(index);
+        if (pos >= 0) {
+            return checkpoints.get(pos);
+        }
+        pos = -pos - 2;
+        return pos < 0 ? null : checkpoints.get(pos);
+    }
+
+    /**
+     * Remove all checkpoints with an index greater than {@code index}. Used when operations after
+     * {@code index} are no longer valid.
+     *
+     * @param index
+     *            The last index to keep.
+     */
+    public void truncate (int index) {
+        for (int i = checkpoints.size() - 1; i >= 0 && checkpoints.get(i).index > index; i--) {
+            size -= checkpoints.remove(i).size;
+        }
+    }
+
+    /**
+     * Account for the removal of the first {@code count} operations. Checkpoints taken before
+     * {@code count} are dropped, and the indices of the remaining checkpoints are reduced by
+     * {@code count}.
+     *
+     * @param count
+     *            The number of operations removed.
+     */
+    public void removeFirst (int count) {
+        ArrayList<Checkpoint> kept = new ArrayList<Checkpoint>();
+        for (Checkpoint cp : checkpoints) {
+            if (cp.index >= count) {
+                kept.add(new Checkpoint(cp.index - count, cp.states, cp.size));
+            } else {
+                size -= cp.size;
+            }
+        }
+        checkpoints.clear();
+        checkpoints.addAll(kept);
+    }
+
+    /**
+     * Remove all checkpoints and restore the minimum interval.
+     */
+    public void clear () {
+        checkpoints.clear();
+        size = 0;
+        interval = MIN_INTERVAL;
+    }
+
+    /**
+     * Returns the number of operations between two checkpoints.
+     *
+     * @return The current interval.
+     */
+    public int getInterval () {
+        return interval;
+    }
+
+    /**
+     * Returns the number of checkpoints held.
+     *
+     * @return The number of checkpoints held.
+     */
+    public int getCount () {
+        return checkpoints.size();
+    }
+
+    /**
+     * Returns the approximate memory used by the checkpoints, in bytes.
+     *
+     * @return The approximate memory used.
+     */
+    public long getSize () {
+        return size;
+    }
+
+    /**
+     * Returns the memory budget, in bytes.
+     *
+     * @return The memory budget.
+     */
+    public long getBudget () {
+        return budget;
+    }
+
+    /**
+     * Set the memory budget. Checkpoints will be dropped immediately if the new budget is
+     * exceeded.
+     *
+     * @param budget
+     *            The new memory budget, in bytes.
+     */
+    public void setBudget (long budget) {
+        this.budget = budget;
+        while (size > budget && checkpoints.size() > 1) {
+            thin();
+        }
+    }
+
+    /**
+     * Double the interval, dropping every other checkpoint.
+     */
+    private void thin () {
+        interval = interval * 2;
+        ArrayList<Checkpoint> kept = new ArrayList<Checkpoint>();
+        int last = 0;
+        for (Checkpoint cp : checkpoints) {
+            if (cp.index - last >= interval) {
+                kept.add(cp);
+                last = cp.index;
+            } else {
+                size -= cp.size;
+            }
+        }
+        if (kept.size() == checkpoints.size()) {
+            // Checkpoints are already sparse; drop every other one.
+            kept.clear();
+            size = 0;
+            for (int i = 1; i < checkpoints.size(); i += 2) {
+                kept.add(checkpoints.get(i));
+                size += checkpoints.get(i).size;
+            }
+        }
+        checkpoints.clear();
+        checkpoints.addAll(kept);
+    }
+
+    /**
+     * Binary search for a checkpoint with the given index.
+     *
+     * @param index
+     *            The index to search for.
+     * @return The position of the checkpoint if found, otherwise {@code (-(insertion point) - 1)}.
+     */
+    private int search (int index) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midIndex = checkpoints.get(mid).index;
+            if (midIndex < index) {
+                low = mid + 1;
+            } else if (midIndex > index) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * The state of all structures at a given index.
+     */
+    public static final class Checkpoint {
+        /**
+         * The index of the model when the checkpoint was taken.
+         */
+        public final int                              index;
+        /**
+         * The state of each structure, keyed by identifier.
+         */
+        public final Map<String, DataStructure.State> states;
+        /**
+         * Approximate size of this checkpoint, in bytes.
+         */
+        private final long                            size;
+
+        private Checkpoint (int index, Map<String, DataStructure.State> states, long size) {
+            this.index = index;
+            this.states = states;
+            this.size = size;
+        }
+    }
+}
@@ -14,7 +14,7 @@ import contract.json.Locator;
 import contract.json.Operation;
 import contract.operation.Key;
 import contract.utility.OpUtils;
-import gui.Main;
+import contract.utility.ParseListener;
 import gui.dialog.CreateStructureDialog;
 import gui.dialog.IdentifierCollisionDialog;
 
@@ -58,6 +58,10 @@ public class Loader {
      * collision.
      */
     private boolean           alwaysKeepOld    = false;
+    /**
+     * Notified of structures ignored while loading. May be null.
+     */
+    private ParseListener     listener;
 
     /**
      * List of used identifiers.
@@ -182,7 +186,7 @@ public class Loader {
         newStructs.putAll(handleUndeclaredNames(newStructs.keySet()));
 
         Map<String, DataStructure> newLiveModelStructures = new HashMap<String, DataStructure>();
-        List<Operation> newLiveModelOperations = new ArrayList<Operation>();
+        List<Operation> newLiveModelOperations = new OperationStore();
 
         newLiveModelStructures.putAll(liveModel.getStructures());
         newLiveModelStructures.putAll(newStructs);
@@ -193,6 +197,54 @@ public class Loader {
         return true;
     }
 
+    /**
+     * Append structures and operations to the live model without resetting it. Only the new
+     * operations are inspected, and only structures with new identifiers are registered. The live
+     * model keeps its current index and state, so the cost is proportional to the size of the new
+     * data rather than to the size of the history. Unlike
+     * {@link #insertIntoLiveModel(Map, List)}, declared structures are kept even if the new
+     * operations do not use them, since streamed operations may arrive in later messages.
+     *
+     * @param newStructs
+     *            The new data structures to append.
+     * @param newOps
+     *            The new operations to append.
+     * @return {@code true} if new structures were registered in the live model.
+     */
+    public boolean appendToLiveModel (Map<String, DataStructure> newStructs, List<Operation> newOps) {
+        Map<String, DataStructure> liveStructs = liveModel.getStructures();
+
+        /*
+         * Handle structure name collision.
+         */
+        Map<String, DataStructure> declared = new HashMap<String, DataStructure>();
+        for (Map.Entry<String, DataStructure> entry : newStructs.entrySet()) {
+            if (liveStructs.get(entry.getKey()) != entry.getValue()) {
+                declared.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (checkNameCollision(declared.keySet(), liveStructs.keySet())) {
+            IdentifierCollisionDialog icd = new IdentifierCollisionDialog(null);
+
+            short icdReturnedRoutine = icd.show(liveStructs.values(), declared.values());
+            boolean abortImport = handleNameCollisionRespone(icdReturnedRoutine);
+
+            if (abortImport) {
+                return false;
+            }
+        }
+
+        /*
+         * Handle used but undeclared structures.
+         */
+        int structCount = liveStructs.size();
+        gatherUsedOperationNames(newOps, declared);
+        declared.putAll(handleUndeclaredNames(declared.keySet()));
+
+        boolean registered = liveModel.append(declared, newOps);
+        return registered || liveStructs.size() != structCount;
+    }
+
     // ============================================================= //
     /*
      *
@@ -236,6 +288,7 @@ public class Loader {
 
     private void gatherUsedOperationNames (List<Operation> ops, Map<String, DataStructure> structs) {
         operationStructNames = new HashSet<String>();
+        Map<String, DataStructure> liveStructs = liveModel.getStructures();
 
         // Gather all operation identifiers.
         for (Operation op : ops) {
@@ -247,7 +300,7 @@ public class Loader {
 
                 Locator source = OpUtils.getLocator(op, Key.source);
                 if (source != null) {
-                    DataStructure sourceStruct = structs.get(source.identifier);
+                    DataStructure sourceStruct = find(source.identifier, structs, liveStructs);
                     if (sourceStruct == null) {
                         operationStructNames.add(source.identifier);
                     }
@@ -255,7 +308,7 @@ public class Loader {
 
                 Locator target = OpUtils.getLocator(op, Key.target);
                 if (target != null) {
-                    DataStructure targetStruct = structs.get(target.identifier);
+                    DataStructure targetStruct = find(target.identifier, structs, liveStructs);
                     if (targetStruct == null) {
                         operationStructNames.add(target.identifier);
                     }
@@ -265,31 +318,39 @@ public class Loader {
                 Locator var1 = OpUtils.getLocator(op, Key.var1);
 
                 if (var1 != null) {
-                    DataStructure var1Struct = structs.get(var1.identifier);
+                    DataStructure var1Struct = find(var1.identifier, structs, liveStructs);
                     if (var1Struct == null) {
                         operationStructNames.add(var1.identifier);
                     }
                 }
 
-                Locator var2 = OpUtils.getLocator(op, Key.target);
+                Locator var2 = OpUtils.getLocator(op, Key.var2);
                 if (var2 != null) {
-                    DataStructure var2Struct = structs.get(var2.identifier);
+                    DataStructure var2Struct = find(var2.identifier, structs, liveStructs);
                     if (var2Struct == null) {
                         operationStructNames.add(var2.identifier);
                     }
                 }
                 break;
             case remove:
-                String identifier = OpUtils.getIdentifier(op);
-                DataStructure targetStruct = structs.get(identifier);
-                if (targetStruct == null) {
-                    operationStructNames.add(identifier);
+                Locator removeTarget = OpUtils.getLocator(op, Key.target);
+                if (removeTarget != null) {
+                    DataStructure removeStruct = find(removeTarget.identifier, structs, liveStructs);
+                    if (removeStruct == null) {
+                        operationStructNames.add(removeTarget.identifier);
+                    }
                 }
                 break;
             }
         }
     }
 
+    private static DataStructure find (String identifier, Map<String, DataStructure> structs,
+            Map<String, DataStructure> liveStructs) {
+        DataStructure struct = structs.get(identifier);
+        return struct == null ? liveStructs.get(identifier) : struct;
+    }
+
     private boolean handleNameCollisionRespone (short foo) {
         boolean abortImport = false;
 
@@ -328,8 +389,8 @@ public class Loader {
             // TODO: Implement removal of unused names prompt.
         }
 
-        if (!removedNames.isEmpty()) {
-            Main.console.force("Ignored unused stuctures: " + removedNames);
+        if (!removedNames.isEmpty() && listener != null) {
+            listener.info("Ignored unused stuctures: " + removedNames);
         }
     }
 
@@ -414,4 +475,14 @@ public class Loader {
     public void setAutoCreateOrphan (boolean autoCreateOrphan) {
         this.autoCreateOrphan = autoCreateOrphan;
     }
+
+    /**
+     * Set the listener notified of structures ignored while loading.
+     * 
+     * @param listener
+     *            A ParseListener. May be null.
+     */
+    public void setListener (ParseListener listener) {
+        this.listener = listener;
+    }
 }
@@ -3,17 +3,25 @@ package model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import assets.Debug;
 import contract.datastructure.DataStructure;
+import contract.datastructure.Element;
+import contract.json.LocatorPool;
 import contract.json.Operation;
 import contract.operation.OperationType;
 
 public class Model {
 
-    private static final Model    INSTANCE = new Model("INSTANCE");
+    private static final Model               INSTANCE      = new Model("INSTANCE");
+    /**
+     * Lists of modified elements are trimmed every {@code TRIM_INTERVAL} steps.
+     */
+    private static final int                 TRIM_INTERVAL = 4096;
 
     /**
      * List of low level operations. <br>
@@ -22,7 +30,7 @@ public class Model {
      * {@link OperationType#write}<br>
      * {@link OperationType#message}<br>
      */
-    private final List<Operation> atomicOperations;
+    private final OperationStore             atomicOperations;
 
     /**
      * List of operations which may include height level, non-atomic operations. <br>
@@ -31,20 +39,53 @@ public class Model {
      * {@link OperationType#write}<br>
      * {@link OperationType#message}<br>
      */
-    private final List<Operation> allOperations;
+    private final List<Operation>            allOperations;
     /**
      * The name of the model.
      */
-    public final String           name;
-    private boolean               inInitialState;
+    public final String                      name;
+    private boolean                          inInitialState;
     /**
      * Used to execute operations.
      */
-    private Step                  step;
+    private Step                             step;
     /**
      * Current operation index.
      */
-    private int                   index;
+    private int                              index;
+    /**
+     * Snapshots of the structures, used for random access.
+     */
+    private final CheckpointStore            checkpoints;
+    /**
+     * Listener for messages and errors produced by the Step.
+     */
+    private Step.StepListener                stepListener;
+    /**
+     * Used by {@link #goToEnd()} to apply independent structures concurrently.
+     */
+    private final ParallelReplay             parallelReplay;
+    /**
+     * Set to {@code false} to always replay operations on the calling thread.
+     */
+    private boolean                          parallel;
+    /**
+     * Used by {@link #goToStep(int)} to reconstruct states without replaying operations.
+     */
+    private final SeekIndex                  seekIndex;
+    /**
+     * Set to {@code false} to always seek using checkpoints.
+     */
+    private boolean                          indexedSeek   = true;
+    /**
+     * Limits the operations held, or {@code null} to retain all operations.
+     */
+    private Retention                        retention;
+    /**
+     * The state of the structures before the first operation held, or {@code null} if no
+     * operations have been removed.
+     */
+    private Map<String, DataStructure.State> baseStates;
 
     /**
      * Returns the Model instance.
@@ -64,9 +105,13 @@ public class Model {
     public Model (String name) {
         this.name = name;
 
-        atomicOperations = new ArrayList<Operation>();
+        atomicOperations = new OperationStore();
         allOperations = new ArrayList<Operation>();
         step = new Step();
+        checkpoints = new CheckpointStore();
+        parallelReplay = new ParallelReplay();
+        seekIndex = new SeekIndex();
+        parallel = ForkJoinPool.getCommonPoolParallelism() > 1;
         index = 0;
         inInitialState = true;
     }
@@ -78,9 +123,17 @@ public class Model {
         this("" + (int) (Math.random() * Integer.MAX_VALUE));
     }
 
+    /**
+     * Move to the first operation held. The structures are cleared, or restored to their state
+     * before the first operation if earlier operations have been removed by the retention policy.
+     */
     public void reset () {
         index = 0;
-        step.reset();
+        if (baseStates == null) {
+            step.reset();
+        } else {
+            step.restore(baseStates);
+        }
     }
 
     /**
@@ -90,6 +143,9 @@ public class Model {
         index = 0;
         step.reset();
         atomicOperations.clear();
+        checkpoints.clear();
+        seekIndex.clear();
+        clearBase();
     }
 
     /**
@@ -98,7 +154,13 @@ public class Model {
     public void hardClear () {
         index = 0;
         step = new Step();
+        step.setListener(stepListener);
         atomicOperations.clear();
+        checkpoints.clear();
+        seekIndex.clear();
+        clearBase();
+        // Nothing parsed before refers to the structures of the next trace.
+        LocatorPool.clear();
         inInitialState = true;
     }
 
@@ -127,28 +189,50 @@ public class Model {
      */
     public boolean stepForward () {
         if (tryStepForward()) {
-            step.applyOperation(atomicOperations.get(index));
+            step.applyOperation(atomicOperations, index);
             if (Debug.OUT) {
                 System.out.print("Model.stepForward(): index = " + index + " -> ");
             }
             index += 1;
+            if (checkpoints.isDue(index)) {
+                checkpoints.put(index, step.getStructures());
+            }
+            if (index % TRIM_INTERVAL == 0) {
+                trimModifiedElements();
+            }
             return true;
         }
         return false;
     }
 
     /**
-     * Step the model backwards. This method will reset the model and call stepForward()
-     * index - 1 times.
+     * Remove duplicates from the lists of modified elements, which are only cleared once drawn and
+     * would otherwise grow with the number of operations applied between two renders.
+     */
+    private void trimModifiedElements () {
+        for (DataStructure struct : step.getStructures().values()) {
+            List<Element> modified = struct.getModifiedElements();
+            if (modified.size() > struct.getElements().size()) {
+                LinkedHashSet<Element> distinct = new LinkedHashSet<Element>(modified);
+                modified.clear();
+                modified.addAll(distinct);
+            }
+        }
+    }
+
+    /**
+     * Step the model backwards. The last operation is reverted using the undo journal if possible.
+     * Otherwise, the model is restored to the nearest checkpoint preceding {@code index - 1} and
+     * stepped forward from there.
      *
      * @return True if the model was successfully moved backward. False otherwise.
      */
     public boolean stepBackward () {
         if (tryStepBackward()) {
-            int oldIndex = index - 1;
-            reset(); // Can't go backwards: Start from the beginning
-            while (index < oldIndex) {
-                stepForward();
+            if (step.revertOperation(atomicOperations, index - 1)) {
+                index -= 1;
+            } else {
+                goToStep(index - 1);
             }
             return true;
         }
@@ -157,7 +241,13 @@ public class Model {
 
     /**
      * Jump to a given step. Will jump to the beginning if {@code toStepNo < 0}, or to the
-     * end if {@code toStepNo > operations.size()}.
+     * end if {@code toStepNo > operations.size()}. At most {@link CheckpointStore#getInterval()}
+     * operations are replayed, unless {@code toStepNo} lies beyond the furthest index visited
+     * so far. <br>
+     * <br>
+     * If the structures are small relative to the number of operations which would be replayed,
+     * the state is instead reconstructed using a {@link SeekIndex}, unless the operations are
+     * paged.
      *
      * @param toStepNo
      *            The step to jump to.
@@ -169,16 +259,35 @@ public class Model {
         } else if (toStepNo >= atomicOperations.size()) {
             toStepNo = atomicOperations.size();
         }
-        // Begin
-        if (toStepNo < index) {
-            reset(); // Can't go backwards: Start from the beginning
-            while (index < toStepNo) {
-                stepForward();
+
+        CheckpointStore.Checkpoint checkpoint = checkpoints.floor(toStepNo);
+        int checkpointIndex = checkpoint == null ? 0 : checkpoint.index;
+        boolean restore = toStepNo < index || index < checkpointIndex;
+
+        int replayed = toStepNo - (restore ? checkpointIndex : index);
+        if (indexedSeek && replayed > SeekIndex.ELEMENT_COST && baseStates == null
+                && atomicOperations.isPaged() == false) {
+            seekIndex.update(step.getStructures(), atomicOperations, toStepNo);
+            if (seekIndex.covers(toStepNo) && seekIndex.getElementCount() * SeekIndex.ELEMENT_COST < replayed) {
+                step.restore(seekIndex.getStates(toStepNo));
+                index = toStepNo;
+                return;
+            }
+        }
+
+        // Restore unless the current state is closer to the target.
+        if (restore) {
+            if (checkpoint == null) {
+                reset();
+            } else {
+                step.restore(checkpoint.states);
+                index = checkpointIndex;
             }
-        } else if (toStepNo > index) {
-            goToEnd();
         }
 
+        while (index < toStepNo) {
+            stepForward();
+        }
     }
 
     /**
@@ -195,9 +304,155 @@ public class Model {
         }
         structs.values().forEach(DataStructure::clear);
         step = new Step(new HashMap<String, DataStructure>(structs));
+        step.setListener(stepListener);
         atomicOperations.clear();
         atomicOperations.addAll(ops);
-        index = 0;
+        clearBase();
+        operationsChanged();
+    }
+
+    /**
+     * Set the structures used by this Model, and page operations in from {@code source} as they
+     * are accessed instead of copying them. At most {@link OperationStore#PAGE_LIMIT} chunks of
+     * operations are held at once, so memory use does not depend on the length of {@code source}.
+     * Operations may still be appended afterwards.
+     *
+     * @param structs
+     *            The DataStructure map to use.
+     * @param source
+     *            The operations to page in, such as a {@link contract.io.MappedLog}. Must not be
+     *            modified while in use.
+     */
+    public void setPaged (Map<String, DataStructure> structs, List<Operation> source) {
+        structs.values().forEach(DataStructure::clear);
+        step = new Step(new HashMap<String, DataStructure>(structs));
+        step.setListener(stepListener);
+        atomicOperations.page(source, OperationStore.PAGE_LIMIT);
+        clearBase();
+        operationsChanged();
+    }
+
+    /**
+     * Append structures and operations without resetting the model. The current index and state
+     * are kept, and only structures with a new identifier are registered. Registered structures
+     * are cleared, and should not be referenced by operations appended earlier. <br>
+     * <br>
+     * Operations which are no longer retained by the {@link Retention} policy are removed
+     * afterwards, which reduces the current index accordingly.
+     *
+     * @param newStructs
+     *            The structures to register. May be null.
+     * @param newOps
+     *            The operations to append. May be null.
+     * @return {@code true} if any structure was registered.
+     */
+    public boolean append (Map<String, DataStructure> newStructs, List<Operation> newOps) {
+        boolean registered = false;
+        if (newStructs != null) {
+            Map<String, DataStructure> structs = step.getStructures();
+            for (Map.Entry<String, DataStructure> entry : newStructs.entrySet()) {
+                if (structs.containsKey(entry.getKey()) == false) {
+                    entry.getValue().clear();
+                    structs.put(entry.getKey(), entry.getValue());
+                    registered = true;
+                }
+            }
+        }
+        if (newOps != null) {
+            atomicOperations.addAll(newOps);
+        }
+        checkpoints.setTraceLength(atomicOperations.size());
+        if (retention != null) {
+            retention.arrived(atomicOperations.size(), System.currentTimeMillis());
+            applyRetention();
+        }
+        return registered;
+    }
+
+    /**
+     * Remove operations which are no longer retained. The state of the structures before the first
+     * remaining operation becomes the base state restored by {@link #reset()}. If the current
+     * index lies before the first remaining operation, the model is moved to it.
+     */
+    private void applyRetention () {
+        int excess = retention.getExcess(atomicOperations.size(), System.currentTimeMillis());
+        if (excess == 0) {
+            return;
+        }
+
+        int removed;
+        Map<String, DataStructure.State> states;
+        CheckpointStore.Checkpoint checkpoint = checkpoints.floor(excess);
+        if (index > excess && checkpoint != null && checkpoint.index > 0) {
+            // Retain a few extra operations rather than capturing the state again.
+            removed = checkpoint.index;
+            states = checkpoint.states;
+        } else {
+            int current = Math.max(index, excess);
+            goToStep(excess);
+            removed = excess;
+            states = new HashMap<String, DataStructure.State>();
+            for (DataStructure struct : step.getStructures().values()) {
+                states.put(struct.identifier, struct.saveState());
+            }
+            goToStep(current);
+        }
+
+        atomicOperations.removeFirst(removed);
+        checkpoints.removeFirst(removed);
+        retention.removed(removed);
+        seekIndex.clear();
+        baseStates = states;
+        index -= removed;
+    }
+
+    /**
+     * Set the retention policy applied whenever operations are appended. The policy takes effect
+     * on the next call to {@link #append(Map, List)}.
+     *
+     * @param retention
+     *            A Retention, or {@code null} to retain all operations.
+     */
+    public void setRetention (Retention retention) {
+        this.retention = retention == null || retention.isUnlimited() ? null : retention;
+    }
+
+    /**
+     * Returns the retention policy applied whenever operations are appended.
+     *
+     * @return The Retention of this Model, or {@code null} if all operations are retained.
+     */
+    public Retention getRetention () {
+        return retention;
+    }
+
+    /**
+     * Returns {@code true} if operations are paged in as they are accessed.
+     *
+     * @return {@code true} if the operations were set using {@link #setPaged(Map, List)}.
+     */
+    public boolean isPaged () {
+        return atomicOperations.isPaged();
+    }
+
+    /**
+     * Returns {@code true} if operations have been removed by the retention policy, in which case
+     * the structures are not empty at index 0.
+     *
+     * @return {@code true} if the first operation held is not the first operation of the trace.
+     */
+    public boolean isTrimmed () {
+        return baseStates != null;
+    }
+
+    /**
+     * Forget the base state and the arrival times of the retention policy.
+     */
+    private void clearBase () {
+        baseStates = null;
+        if (retention != null) {
+            retention.clear();
+        }
     }
 
     /**
@@ -206,7 +461,7 @@ public class Model {
      * @return The most recently executed Operation. May be null.
      */
     public Operation getLastOp () {
-        return step.getLastOp();
+        return index == 0 ? null : atomicOperations.get(index - 1);
     }
 
     /**
@@ -219,13 +474,79 @@ public class Model {
     }
 
     /**
-     * Advance the model to the end.
+     * Advance the model to the end. If parallel replay is enabled and the model holds several
+     * structures, the remaining operations are applied using a {@link ParallelReplay}, one
+     * checkpoint interval at a time. Otherwise, or if the operations are paged, operations are
+     * applied one by one.
      */
     public void goToEnd () {
-        boolean success;
-        do {
-            success = stepForward();
-        } while (success);
+        int end = atomicOperations.size();
+        if (parallel == false || atomicOperations.isPaged() || step.getStructures().size() < 2
+                || end - index < ParallelReplay.MIN_PARTITION * 2) {
+            boolean success;
+            do {
+                success = stepForward();
+            } while (success);
+            return;
+        }
+
+        step.setJournaling(false);
+        try {
+            while (index < end) {
+                int epochEnd = Math.min(end, checkpoints.nextDue(index));
+                parallelReplay.replay(step, atomicOperations, index, epochEnd);
+                index = epochEnd;
+                if (checkpoints.isDue(index)) {
+                    checkpoints.put(index, step.getStructures());
+                }
+            }
+        } finally {
+            step.setJournaling(true);
+        }
+    }
+
+    /**
+     * Enable or disable parallel replay for {@link #goToEnd()}. Enabled by default if the common
+     * pool has more than one thread. With a single thread, partitioning costs more than it saves
+     * (see {@code benchmark.ParallelBenchmark}).
+     *
+     * @param parallel
+     *            {@code true} to enable parallel replay.
+     */
+    public void setParallelReplay (boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Enable or disable seeking using the {@link SeekIndex} in {@link #goToStep(int)}. Enabled by
+     * default. If disabled, seeks restore the nearest checkpoint and replay from there.
+     *
+     * @param indexedSeek
+     *            {@code true} to enable the seek index.
+     */
+    public void setIndexedSeek (boolean indexedSeek) {
+        this.indexedSeek = indexedSeek;
+        if (indexedSeek == false) {
+            seekIndex.clear();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the seek index may be used by {@link #goToStep(int)}.
+     *
+     * @return {@code true} if indexed seeks are enabled.
+     */
+    public boolean isIndexedSeek () {
+        return indexedSeek;
+    }
+
+    /**
+     * Returns {@code true} if parallel replay is enabled.
+     *
+     * @return {@code true} if {@link #goToEnd()} may replay operations concurrently.
+     */
+    public boolean isParallelReplay () {
+        return parallel;
     }
 
     /**
@@ -241,7 +562,8 @@ public class Model {
     }
 
     /**
-     * Returns the Operation list held by this Model.<br>
+     * Returns the Operation list held by this Model. Operations are materialised on access, so
+     * {@code getOperations().get(i)} returns a new object for every call.<br>
      * <br>
      * <b>Should not be used to add or removed operations!</b>
      *
@@ -260,9 +582,44 @@ public class Model {
      *            The new list of operations to use.
      */
     public void setOperations (List<Operation> newOperations) {
-        atomicOperations.clear();
-        atomicOperations.addAll(newOperations);
-        index = 0;
+        if (newOperations != atomicOperations) {
+            atomicOperations.clear();
+            atomicOperations.addAll(newOperations);
+            clearBase();
+        }
+        operationsChanged();
+    }
+
+    /**
+     * Discard checkpoints and reset the index. Must be called whenever the list returned by
+     * {@link #getOperations()} is modified directly. The base state left by the retention policy
+     * is kept.
+     */
+    public void operationsChanged () {
+        checkpoints.clear();
+        seekIndex.clear();
+        checkpoints.setTraceLength(atomicOperations.size());
+        reset();
+    }
+
+    /**
+     * Set the listener to notify of messages and errors produced while applying operations.
+     *
+     * @param listener
+     *            A StepListener. May be null.
+     */
+    public void setStepListener (Step.StepListener listener) {
+        stepListener = listener;
+        step.setListener(listener);
+    }
+
+    /**
+     * Returns the checkpoint store used for random access.
+     *
+     * @return The CheckpointStore used by this Model.
+     */
+    public CheckpointStore getCheckpoints () {
+        return checkpoints;
     }
 
     /**
@@ -0,0 +1,1025 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import contract.json.Locator;
+import contract.json.LocatorPool;
+import contract.json.Operation;
+import contract.operation.Key;
+import contract.operation.OP_Message;
+import contract.operation.OP_Read;
+import contract.operation.OP_Swap;
+import contract.operation.OP_ToggleScope;
+import contract.operation.OP_Write;
+import contract.operation.OperationType;
+
+/**
+ * A list of operations stored in parallel primitive columns rather than as {@link Operation}
+ * objects. Identifiers and source names are interned, single-dimension indices and values are
+ * stored inline and anything larger is placed in a shared pool. Columns grow in fixed-size chunks,
+ * so the store never copies more than one chunk when growing. <br>
+ * <br>
+ * {@link #get(int)} materialises a new operation for every call. {@link #peek(int)} returns a
+ * reused instance and should be preferred when the operation is not retained. Threads which peek
+ * concurrently should use a {@link Reader} each. Operations which
+ * cannot be encoded, such as operations of unknown types, are kept as-is. <br>
+ * <br>
+ * Operations may only be appended. Operations can be removed from the front using
+ * {@link #removeFirst(int)}, which releases chunks once they are empty. <br>
+ * <br>
+ * A store may also be backed by a list too large to hold, such as a {@link contract.io.MappedLog}
+ * (see {@link #page(List, int)}). Chunks are then encoded from the backing list when first
+ * accessed, and the least recently used chunk is released once more than the given number of
+ * chunks are held. Paged stores must only be accessed from one thread.
+ */
+public class OperationStore extends AbstractList<Operation> implements RandomAccess {
+
+    /**
+     * The default maximum number of chunks held by a paged store.
+     */
+    public static final int                   PAGE_LIMIT  = 32;
+
+    private static final int                  CHUNK_BITS  = 14;
+    private static final int                  CHUNK_SIZE  = 1 << CHUNK_BITS;
+    private static final int                  CHUNK_MASK  = CHUNK_SIZE - 1;
+
+    /**
+     * Type code for operations kept as-is.
+     */
+    private static final byte                 OTHER       = -1;
+    /*
+     * Value kinds.
+     */
+    private static final byte                 NO_VALUE    = 0;
+    private static final byte                 SINGLE      = 1;
+    private static final byte                 PAIR        = 2;
+    private static final byte                 POOLED      = 3;
+    /**
+     * Identifier or index reference for absent locators and indices.
+     */
+    private static final int                  NONE        = -1;
+    private static final OperationType[]      TYPES       = OperationType.values();
+
+    /*
+     * Columns. The first locator is the source of read/write operations and var1 of swap
+     * operations. The second locator is the target of read/write/remove operations and var2 of
+     * swap operations.
+     */
+    private byte[][]                          types       = new byte[0][];
+    private byte[][]                          valueKinds  = new byte[0][];
+    private int[][]                           ids1        = new int[0][];
+    private int[][]                           ids2        = new int[0][];
+    private int[][]                           indices1    = new int[0][];
+    private int[][]                           indices2    = new int[0][];
+    private double[][]                        values1     = new double[0][];
+    private double[][]                        values2     = new double[0][];
+    private int[][]                           sources     = new int[0][];
+    private int[][]                           lines       = new int[0][];
+    private int[][]                           columns     = new int[0][];
+
+    /**
+     * Interned identifiers and source names.
+     */
+    private final StringTable                 names       = new StringTable();
+    /**
+     * Interned messages.
+     */
+    private StringTable                       messages    = new StringTable();
+    /**
+     * Operations which could not be encoded, keyed by position.
+     */
+    private final HashMap<Integer, Operation> others      = new HashMap<Integer, Operation>();
+    /**
+     * Indices which are not stored inline, stored as length followed by the index.
+     */
+    private int[]                             indexPool   = new int[64];
+    private int                               indexPoolSize;
+    /**
+     * Values which are not stored inline, stored as length followed by the values.
+     */
+    private double[]                          valuePool   = new double[64];
+    private int                               valuePoolSize;
+    private int                               size;
+    /**
+     * Position of the first operation in the first chunk.
+     */
+    private int                               first;
+    /**
+     * Pool and message table sizes after the last compaction.
+     */
+    private int                               compactedSize;
+    /**
+     * Incremented whenever the store is cleared.
+     */
+    private int                               generation;
+    /**
+     * The list operations are paged in from, or {@code null} if all operations are held.
+     */
+    private List<Operation>                   backing;
+    /**
+     * The index in the backing list of the operation at position 0.
+     */
+    private int                               backingOffset;
+    /**
+     * The maximum number of chunks paged in at once, and the number of chunks paged in.
+     */
+    private int                               maxPaged;
+    private int                               paged;
+    /**
+     * The last access of every chunk of a paged store.
+     */
+    private long[]                            lastUse     = new long[0];
+    private long                              clock;
+
+    /**
+     * Reader used by {@link #peek(int)}.
+     */
+    private final Reader                      reader      = new Reader();
+
+    /**
+     * Create a new, empty OperationStore.
+     */
+    public OperationStore () {
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * List
+     *
+     */
+    // ============================================================= //
+
+    @Override public Operation get (int index) {
+        int p = position(index);
+        byte type = types [p >>> CHUNK_BITS] [p & CHUNK_MASK];
+        if (type == OTHER) {
+            return others.get(p);
+        }
+        switch (TYPES [type]) {
+        case read:
+            return fill(new OP_Read(), index);
+        case write:
+            return fill(new OP_Write(), index);
+        case swap:
+            return fill(new OP_Swap(), index);
+        case remove:
+            return fill(new OP_ToggleScope(), index);
+        default:
+            return fill(new OP_Message(), index);
+        }
+    }
+
+    /**
+     * Returns the operation at the given index. The instance returned is reused by the next call
+     * to this method, and must not be retained or modified.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return The operation at {@code index}.
+     */
+    public Operation peek (int index) {
+        return reader.peek(index);
+    }
+
+    /**
+     * Returns a new reader with its own reused operations. Readers may be used from different
+     * threads, as long as the store is not modified.
+     *
+     * @return A new Reader for this store.
+     */
+    public Reader newReader () {
+        return new Reader();
+    }
+
+    @Override public boolean add (Operation op) {
+        int p = size + first;
+        if ((p & CHUNK_MASK) == 0) {
+            addChunk();
+        } else if (backing != null) {
+            touch(p >>> CHUNK_BITS);
+        }
+        encode(p, op);
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override public void add (int index, Operation op) {
+        if (index != size) {
+            throw new UnsupportedOperationException("Operations may only be appended.");
+        }
+        add(op);
+    }
+
+    @Override public void clear () {
+        types = new byte[0][];
+        valueKinds = new byte[0][];
+        ids1 = new int[0][];
+        ids2 = new int[0][];
+        indices1 = new int[0][];
+        indices2 = new int[0][];
+        values1 = new double[0][];
+        values2 = new double[0][];
+        sources = new int[0][];
+        lines = new int[0][];
+        columns = new int[0][];
+        names.clear();
+        messages.clear();
+        others.clear();
+        indexPool = new int[64];
+        indexPoolSize = 0;
+        valuePool = new double[64];
+        valuePoolSize = 0;
+        size = 0;
+        first = 0;
+        compactedSize = 0;
+        backing = null;
+        backingOffset = 0;
+        paged = 0;
+        lastUse = new long[0];
+        generation++;
+        modCount++;
+    }
+
+    /**
+     * Remove the first {@code count} operations. The indices of the remaining operations are
+     * reduced by {@code count}, while identifier ids stay valid. Chunks which no longer hold any
+     * operations are released, and pooled indices, values and messages are compacted once most of
+     * them belong to removed operations.
+     *
+     * @param count
+     *            The number of operations to remove.
+     */
+    public void removeFirst (int count) {
+        if (count < 0 || count > size) {
+            throw new IndexOutOfBoundsException("Count: " + count + ", Size: " + size);
+        } else if (count == 0) {
+            return;
+        }
+        int end = first + count;
+        others.keySet().removeIf(p -> p < end);
+        first = end;
+        size -= count;
+        modCount++;
+
+        int dropped = first >>> CHUNK_BITS;
+        if (dropped == 0) {
+            return;
+        }
+        for (int chunk = 0; chunk < dropped; chunk++) {
+            if (types [chunk] != null && isEvictable(chunk)) {
+                paged--;
+            }
+        }
+        types = Arrays.copyOfRange(types, dropped, types.length);
+        valueKinds = Arrays.copyOfRange(valueKinds, dropped, valueKinds.length);
+        ids1 = Arrays.copyOfRange(ids1, dropped, ids1.length);
+        ids2 = Arrays.copyOfRange(ids2, dropped, ids2.length);
+        indices1 = Arrays.copyOfRange(indices1, dropped, indices1.length);
+        indices2 = Arrays.copyOfRange(indices2, dropped, indices2.length);
+        values1 = Arrays.copyOfRange(values1, dropped, values1.length);
+        values2 = Arrays.copyOfRange(values2, dropped, values2.length);
+        sources = Arrays.copyOfRange(sources, dropped, sources.length);
+        lines = Arrays.copyOfRange(lines, dropped, lines.length);
+        columns = Arrays.copyOfRange(columns, dropped, columns.length);
+        lastUse = Arrays.copyOfRange(lastUse, dropped, lastUse.length);
+
+        int shift = dropped << CHUNK_BITS;
+        first -= shift;
+        backingOffset += shift;
+        if (others.isEmpty() == false) {
+            HashMap<Integer, Operation> shifted = new HashMap<Integer, Operation>();
+            others.forEach((p, op) -> shifted.put(p - shift, op));
+            others.clear();
+            others.putAll(shifted);
+        }
+        if (indexPoolSize + valuePoolSize + messages.count > 2 * compactedSize + CHUNK_SIZE) {
+            compact();
+        }
+    }
+
+    @Override public int size () {
+        return size;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Paging
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Replace the operations of this store with the operations of {@code source}, without reading
+     * them. Operations are encoded one chunk at a time when first accessed, and at most
+     * {@code maxChunks} chunks are held at once. Operations appended afterwards are held until the
+     * store is cleared.
+     *
+     * @param source
+     *            The list to page operations in from. Must not be modified while paged.
+     * @param maxChunks
+     *            The maximum number of chunks to hold, at least 2.
+     */
+    public void page (List<Operation> source, int maxChunks) {
+        if (maxChunks < 2) {
+            throw new IllegalArgumentException("At least two chunks must be held: " + maxChunks);
+        }
+        clear();
+        backing = source;
+        maxPaged = maxChunks;
+        size = source.size();
+
+        int chunks = (size + CHUNK_MASK) >>> CHUNK_BITS;
+        types = new byte[chunks][];
+        valueKinds = new byte[chunks][];
+        ids1 = new int[chunks][];
+        ids2 = new int[chunks][];
+        indices1 = new int[chunks][];
+        indices2 = new int[chunks][];
+        values1 = new double[chunks][];
+        values2 = new double[chunks][];
+        sources = new int[chunks][];
+        lines = new int[chunks][];
+        columns = new int[chunks][];
+        lastUse = new long[chunks];
+    }
+
+    /**
+     * Returns {@code true} if operations are paged in from a backing list.
+     *
+     * @return {@code true} if this store was paged using {@link #page(List, int)}.
+     */
+    public boolean isPaged () {
+        return backing != null;
+    }
+
+    /**
+     * Returns the number of chunks currently paged in.
+     *
+     * @return The number of chunks held which may be released.
+     */
+    public int getPagedChunks () {
+        return paged;
+    }
+
+    /**
+     * Page in a chunk if it is not held, and mark it as used.
+     */
+    private void touch (int chunk) {
+        if (types [chunk] == null) {
+            pageIn(chunk);
+        }
+        lastUse [chunk] = ++clock;
+    }
+
+    private void pageIn (int chunk) {
+        allocateChunk(chunk);
+        int start = chunk << CHUNK_BITS;
+        int from = Math.max(start, first);
+        int to = (int) Math.min(start + (long) CHUNK_SIZE, Math.min(first + size, backingEnd()));
+        for (int p = from; p < to; p++) {
+            encode(p, backing.get(backingOffset + p));
+        }
+
+        if (isEvictable(chunk) && ++paged > maxPaged) {
+            int lru = -1;
+            for (int c = 0; c < types.length; c++) {
+                if (c != chunk && types [c] != null && isEvictable(c) && (lru < 0 || lastUse [c] < lastUse [lru])) {
+                    lru = c;
+                }
+            }
+            if (lru >= 0) {
+                pageOut(lru);
+            }
+        }
+        if (indexPoolSize + valuePoolSize + messages.count > 2 * compactedSize + CHUNK_SIZE) {
+            compact();
+        }
+    }
+
+    private void pageOut (int chunk) {
+        types [chunk] = null;
+        valueKinds [chunk] = null;
+        ids1 [chunk] = null;
+        ids2 [chunk] = null;
+        indices1 [chunk] = null;
+        indices2 [chunk] = null;
+        values1 [chunk] = null;
+        values2 [chunk] = null;
+        sources [chunk] = null;
+        lines [chunk] = null;
+        columns [chunk] = null;
+        if (others.isEmpty() == false) {
+            others.keySet().removeIf(p -> p >>> CHUNK_BITS == chunk);
+        }
+        paged--;
+    }
+
+    /**
+     * Returns the position after the last operation of the backing list.
+     */
+    private long backingEnd () {
+        return backing == null ? 0 : (long) backing.size() - backingOffset;
+    }
+
+    /**
+     * Returns {@code true} if a chunk lies entirely within the backing list, in which case it may
+     * be released and paged in again. Chunks holding appended operations are always held.
+     */
+    private boolean isEvictable (int chunk) {
+        return ((long) chunk + 1 << CHUNK_BITS) <= backingEnd();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Column access
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the type of the operation at the given index.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return The type of the operation, or {@code null} if it is kept as-is and must be accessed
+     *         using {@link #peek(int)}.
+     */
+    public OperationType getType (int index) {
+        int p = position(index);
+        byte type = types [p >>> CHUNK_BITS] [p & CHUNK_MASK];
+        return type == OTHER ? null : TYPES [type];
+    }
+
+    /**
+     * Returns the interned identifier of the first locator of the operation at the given index.
+     * This is the source of read and write operations, and var1 of swap operations.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return An identifier id, or -1 if there is no first locator.
+     */
+    public int getFirstId (int index) {
+        int p = position(index);
+        return ids1 [p >>> CHUNK_BITS] [p & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the interned identifier of the second locator of the operation at the given index.
+     * This is the target of read, write and remove operations, and var2 of swap operations.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return An identifier id, or -1 if there is no second locator.
+     */
+    public int getSecondId (int index) {
+        int p = position(index);
+        return ids2 [p >>> CHUNK_BITS] [p & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the index of the first locator of the operation at the given index.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return A new array holding the index, or {@code null} if the locator has no index.
+     */
+    public int[] getFirstIndex (int index) {
+        int p = position(index);
+        return decodeIndex(indices1 [p >>> CHUNK_BITS] [p & CHUNK_MASK]);
+    }
+
+    /**
+     * Returns the index of the second locator of the operation at the given index.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return A new array holding the index, or {@code null} if the locator has no index.
+     */
+    public int[] getSecondIndex (int index) {
+        int p = position(index);
+        return decodeIndex(indices2 [p >>> CHUNK_BITS] [p & CHUNK_MASK]);
+    }
+
+    /**
+     * Returns the number of values of the operation at the given index.
+     *
+     * @param index
+     *            The index of the operation.
+     * @return The number of values, or -1 if the operation has no value.
+     */
+    public int getValueCount (int index) {
+        int p = position(index);
+        int chunk = p >>> CHUNK_BITS;
+        int i = p & CHUNK_MASK;
+        switch (valueKinds [chunk] [i]) {
+        case SINGLE:
+            return 1;
+        case PAIR:
+            return 2;
+        case POOLED:
+            return (int) valuePool [(int) values1 [chunk] [i]];
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Returns a value of the operation at the given index.
+     *
+     * @param index
+     *            The index of the operation.
+     * @param n
+     *            The position of the value, less than {@link #getValueCount(int)}.
+     * @return The value at position {@code n}.
+     */
+    public double getValue (int index, int n) {
+        int p = position(index);
+        int chunk = p >>> CHUNK_BITS;
+        int i = p & CHUNK_MASK;
+        if (valueKinds [chunk] [i] == POOLED) {
+            return valuePool [(int) values1 [chunk] [i] + 1 + n];
+        }
+        return n == 0 ? values1 [chunk] [i] : values2 [chunk] [i];
+    }
+
+    /**
+     * Returns the identifier for an identifier id.
+     *
+     * @param id
+     *            An identifier id.
+     * @return The identifier.
+     */
+    public String getName (int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Returns the number of interned identifiers and source names. Identifier ids are always less
+     * than this number.
+     *
+     * @return The number of interned names.
+     */
+    public int getNameCount () {
+        return names.count;
+    }
+
+    /**
+     * Returns a number which changes whenever the store is cleared. Identifier ids are valid
+     * until the generation changes.
+     *
+     * @return The current generation.
+     */
+    public int getGeneration () {
+        return generation;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by this store, excluding operations kept as-is.
+     *
+     * @return The approximate memory used.
+     */
+    public long getMemoryUsage () {
+        long perOperation = 2 + 4 * 4 + 8 * 2 + 4 + 4 * 4;
+        long chunks = 0;
+        for (byte[] chunk : types) {
+            chunks += chunk == null ? 0 : 1;
+        }
+        return chunks * CHUNK_SIZE * perOperation + indexPool.length * 4L + valuePool.length * 8L;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Encoding
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns {@code true} if the operation can be stored in columns without loss.
+     */
+    private static boolean encodable (Operation op) {
+        if (op.operation == null || op.operationBody == null) {
+            return false;
+        }
+        Class<?> expected;
+        switch (op.operation) {
+        case read:
+            expected = OP_Read.class;
+            break;
+        case write:
+            expected = OP_Write.class;
+            break;
+        case swap:
+            expected = OP_Swap.class;
+            break;
+        case remove:
+            expected = OP_ToggleScope.class;
+            break;
+        case message:
+            expected = OP_Message.class;
+            break;
+        default:
+            return false;
+        }
+        if (op.getClass() != expected) {
+            return false;
+        }
+
+        for (Map.Entry<Key, Object> entry : op.operationBody.entrySet()) {
+            Object value = entry.getValue();
+            switch (entry.getKey()) {
+            case source:
+            case target:
+                if (op.operation == OperationType.swap || op.operation == OperationType.message
+                        || op.operation == OperationType.remove && entry.getKey() == Key.source) {
+                    return false;
+                }
+                if (value != null && value instanceof Locator == false) {
+                    return false;
+                }
+                break;
+            case var1:
+            case var2:
+                if (op.operation != OperationType.swap || value != null && value instanceof Locator == false) {
+                    return false;
+                }
+                break;
+            case value:
+                if (op.operation == OperationType.remove) {
+                    return false;
+                } else if (op.operation == OperationType.message) {
+                    if (value != null && value instanceof String == false) {
+                        return false;
+                    }
+                } else if (value != null && value instanceof double[] == false) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode an operation at the given position, which must be in a chunk which is held.
+     */
+    private void encode (int p, Operation op) {
+        int chunk = p >>> CHUNK_BITS;
+        int i = p & CHUNK_MASK;
+
+        byte type = encodable(op) ? (byte) op.operation.ordinal() : OTHER;
+        types [chunk] [i] = type;
+        sources [chunk] [i] = op.source == null ? NONE : names.intern(op.source);
+        lines [chunk] [i * 2] = op.beginLine;
+        lines [chunk] [i * 2 + 1] = op.endLine;
+        columns [chunk] [i * 2] = op.beginColumn;
+        columns [chunk] [i * 2 + 1] = op.endColumn;
+        ids1 [chunk] [i] = NONE;
+        ids2 [chunk] [i] = NONE;
+        valueKinds [chunk] [i] = NO_VALUE;
+
+        if (type == OTHER) {
+            others.put(p, op);
+        } else {
+            switch (op.operation) {
+            case read:
+            case write:
+                putLocator(chunk, i, 1, (Locator) op.operationBody.get(Key.source));
+                putLocator(chunk, i, 2, (Locator) op.operationBody.get(Key.target));
+                putValue(chunk, i, (double[]) op.operationBody.get(Key.value));
+                break;
+            case swap:
+                putLocator(chunk, i, 1, (Locator) op.operationBody.get(Key.var1));
+                putLocator(chunk, i, 2, (Locator) op.operationBody.get(Key.var2));
+                putValue(chunk, i, (double[]) op.operationBody.get(Key.value));
+                break;
+            case remove:
+                putLocator(chunk, i, 2, (Locator) op.operationBody.get(Key.target));
+                break;
+            case message:
+                String message = (String) op.operationBody.get(Key.value);
+                ids1 [chunk] [i] = message == null ? NONE : messages.intern(message);
+                break;
+            }
+        }
+    }
+
+    private void putLocator (int chunk, int i, int slot, Locator locator) {
+        int id = NONE;
+        int index = NONE;
+        if (locator != null) {
+            id = names.intern(locator.identifier);
+            index = encodeIndex(locator.index);
+        }
+        if (slot == 1) {
+            ids1 [chunk] [i] = id;
+            indices1 [chunk] [i] = index;
+        } else {
+            ids2 [chunk] [i] = id;
+            indices2 [chunk] [i] = index;
+        }
+    }
+
+    /**
+     * Non-negative one-dimensional indices are stored inline. Other indices are stored in the pool,
+     * referenced by {@code -2 - offset}.
+     */
+    private int encodeIndex (int[] index) {
+        if (index == null) {
+            return NONE;
+        } else if (index.length == 1 && index [0] >= 0) {
+            return index [0];
+        }
+        if (indexPoolSize + index.length + 1 > indexPool.length) {
+            indexPool = Arrays.copyOf(indexPool, Math.max(indexPool.length * 2, indexPoolSize + index.length + 1));
+        }
+        int offset = indexPoolSize;
+        indexPool [indexPoolSize++] = index.length;
+        System.arraycopy(index, 0, indexPool, indexPoolSize, index.length);
+        indexPoolSize += index.length;
+        return -2 - offset;
+    }
+
+    private int[] decodeIndex (int ref) {
+        if (ref == NONE) {
+            return null;
+        } else if (ref >= 0) {
+            return new int[] { ref };
+        }
+        int offset = -2 - ref;
+        return Arrays.copyOfRange(indexPool, offset + 1, offset + 1 + indexPool [offset]);
+    }
+
+    private void putValue (int chunk, int i, double[] value) {
+        if (value == null) {
+            valueKinds [chunk] [i] = NO_VALUE;
+        } else if (value.length == 1) {
+            valueKinds [chunk] [i] = SINGLE;
+            values1 [chunk] [i] = value [0];
+        } else if (value.length == 2) {
+            valueKinds [chunk] [i] = PAIR;
+            values1 [chunk] [i] = value [0];
+            values2 [chunk] [i] = value [1];
+        } else {
+            if (valuePoolSize + value.length + 1 > valuePool.length) {
+                valuePool = Arrays.copyOf(valuePool, Math.max(valuePool.length * 2, valuePoolSize + value.length + 1));
+            }
+            valueKinds [chunk] [i] = POOLED;
+            values1 [chunk] [i] = valuePoolSize;
+            valuePool [valuePoolSize++] = value.length;
+            System.arraycopy(value, 0, valuePool, valuePoolSize, value.length);
+            valuePoolSize += value.length;
+        }
+    }
+
+    private double[] decodeValue (int chunk, int i) {
+        switch (valueKinds [chunk] [i]) {
+        case SINGLE:
+            return new double[] { values1 [chunk] [i] };
+        case PAIR:
+            return new double[] { values1 [chunk] [i], values2 [chunk] [i] };
+        case POOLED:
+            int offset = (int) values1 [chunk] [i];
+            return Arrays.copyOfRange(valuePool, offset + 1, offset + 1 + (int) valuePool [offset]);
+        default:
+            return null;
+        }
+    }
+
+    private Locator decodeLocator (int id, int index) {
+        return id == NONE ? null : LocatorPool.get(names.get(id), decodeIndex(index));
+    }
+
+    /**
+     * Fill an operation with the data stored at the given index.
+     */
+    private Operation fill (Operation op, int index) {
+        int p = index + first;
+        int chunk = p >>> CHUNK_BITS;
+        int i = p & CHUNK_MASK;
+
+        op.source = sources [chunk] [i] == NONE ? null : names.get(sources [chunk] [i]);
+        op.beginLine = lines [chunk] [i * 2];
+        op.endLine = lines [chunk] [i * 2 + 1];
+        op.beginColumn = columns [chunk] [i * 2];
+        op.endColumn = columns [chunk] [i * 2 + 1];
+
+        op.operationBody.clear();
+        switch (op.operation) {
+        case read:
+        case write:
+            put(op, Key.source, decodeLocator(ids1 [chunk] [i], indices1 [chunk] [i]));
+            put(op, Key.target, decodeLocator(ids2 [chunk] [i], indices2 [chunk] [i]));
+            put(op, Key.value, decodeValue(chunk, i));
+            break;
+        case swap:
+            put(op, Key.var1, decodeLocator(ids1 [chunk] [i], indices1 [chunk] [i]));
+            put(op, Key.var2, decodeLocator(ids2 [chunk] [i], indices2 [chunk] [i]));
+            put(op, Key.value, decodeValue(chunk, i));
+            break;
+        case remove:
+            put(op, Key.target, decodeLocator(ids2 [chunk] [i], indices2 [chunk] [i]));
+            break;
+        case message:
+            put(op, Key.value, ids1 [chunk] [i] == NONE ? null : messages.get(ids1 [chunk] [i]));
+            break;
+        }
+        return op;
+    }
+
+    private static void put (Operation op, Key key, Object value) {
+        if (value != null) {
+            op.operationBody.put(key, value);
+        }
+    }
+
+    /**
+     * Rebuild the pools and the message table, keeping only entries used by the operations held.
+     */
+    private void compact () {
+        int[] oldIndexPool = indexPool;
+        double[] oldValuePool = valuePool;
+        StringTable oldMessages = messages;
+        indexPool = new int[64];
+        indexPoolSize = 0;
+        valuePool = new double[64];
+        valuePoolSize = 0;
+        messages = new StringTable();
+
+        for (int p = first; p < first + size; p++) {
+            int chunk = p >>> CHUNK_BITS;
+            int i = p & CHUNK_MASK;
+            if (types [chunk] == null) {
+                // Not paged in.
+                p |= CHUNK_MASK;
+                continue;
+            }
+            byte type = types [chunk] [i];
+            if (type == OTHER) {
+                continue;
+            }
+            indices1 [chunk] [i] = recodeIndex(oldIndexPool, indices1 [chunk] [i]);
+            indices2 [chunk] [i] = recodeIndex(oldIndexPool, indices2 [chunk] [i]);
+            if (valueKinds [chunk] [i] == POOLED) {
+                int offset = (int) values1 [chunk] [i];
+                putValue(chunk, i, Arrays.copyOfRange(oldValuePool, offset + 1, offset + 1 + (int) oldValuePool [offset]));
+            }
+            if (TYPES [type] == OperationType.message && ids1 [chunk] [i] != NONE) {
+                ids1 [chunk] [i] = messages.intern(oldMessages.get(ids1 [chunk] [i]));
+            }
+        }
+        compactedSize = indexPoolSize + valuePoolSize + messages.count;
+    }
+
+    private int recodeIndex (int[] oldIndexPool, int ref) {
+        if (ref >= NONE) {
+            return ref;
+        }
+        int offset = -2 - ref;
+        return encodeIndex(Arrays.copyOfRange(oldIndexPool, offset + 1, offset + 1 + oldIndexPool [offset]));
+    }
+
+    private void addChunk () {
+        int n = types.length + 1;
+        types = Arrays.copyOf(types, n);
+        valueKinds = Arrays.copyOf(valueKinds, n);
+        ids1 = Arrays.copyOf(ids1, n);
+        ids2 = Arrays.copyOf(ids2, n);
+        indices1 = Arrays.copyOf(indices1, n);
+        indices2 = Arrays.copyOf(indices2, n);
+        values1 = Arrays.copyOf(values1, n);
+        values2 = Arrays.copyOf(values2, n);
+        sources = Arrays.copyOf(sources, n);
+        lines = Arrays.copyOf(lines, n);
+        columns = Arrays.copyOf(columns, n);
+        lastUse = Arrays.copyOf(lastUse, n);
+        allocateChunk(n - 1);
+    }
+
+    private void allocateChunk (int chunk) {
+        types [chunk] = new byte[CHUNK_SIZE];
+        valueKinds [chunk] = new byte[CHUNK_SIZE];
+        ids1 [chunk] = new int[CHUNK_SIZE];
+        ids2 [chunk] = new int[CHUNK_SIZE];
+        indices1 [chunk] = new int[CHUNK_SIZE];
+        indices2 [chunk] = new int[CHUNK_SIZE];
+        values1 [chunk] = new double[CHUNK_SIZE];
+        values2 [chunk] = new double[CHUNK_SIZE];
+        sources [chunk] = new int[CHUNK_SIZE];
+        lines [chunk] = new int[CHUNK_SIZE * 2];
+        columns [chunk] = new int[CHUNK_SIZE * 2];
+    }
+
+    private void checkIndex (int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Returns the position of the operation at the given index, paging its chunk in if needed.
+     */
+    private int position (int index) {
+        checkIndex(index);
+        int p = index + first;
+        if (backing != null) {
+            touch(p >>> CHUNK_BITS);
+        }
+        return p;
+    }
+
+    /**
+     * Peeks operations of the store, reusing one instance per operation type.
+     */
+    public final class Reader {
+        private final OP_Read        read    = new OP_Read();
+        private final OP_Write       write   = new OP_Write();
+        private final OP_Swap        swap    = new OP_Swap();
+        private final OP_ToggleScope remove  = new OP_ToggleScope();
+        private final OP_Message     message = new OP_Message();
+
+        private Reader () {
+        }
+
+        /**
+         * Returns the operation at the given index. The instance returned is reused by the next
+         * call to this method, and must not be retained or modified.
+         *
+         * @param index
+         *            The index of the operation.
+         * @return The operation at {@code index}.
+         */
+        public Operation peek (int index) {
+            int p = position(index);
+            byte type = types [p >>> CHUNK_BITS] [p & CHUNK_MASK];
+            if (type == OTHER) {
+                return others.get(p);
+            }
+            switch (TYPES [type]) {
+            case read:
+                return fill(read, index);
+            case write:
+                return fill(write, index);
+            case swap:
+                return fill(swap, index);
+            case remove:
+                return fill(remove, index);
+            default:
+                return fill(message, index);
+            }
+        }
+
+        /**
+         * Returns the store read by this reader.
+         *
+         * @return The OperationStore of this reader.
+         */
+        public OperationStore getStore () {
+            return OperationStore.this;
+        }
+    }
+
+    /**
+     * A table of interned strings.
+     */
+    private static final class StringTable {
+        private final HashMap<String, Integer> ids     = new HashMap<String, Integer>();
+        private String[]                       strings = new String[16];
+        private int                            count;
+
+        private int intern (String s) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                if (count == strings.length) {
+                    strings = Arrays.copyOf(strings, count * 2);
+                }
+                id = count;
+                strings [count++] = s;
+                ids.put(s, id);
+            }
+            return id;
+        }
+
+        private String get (int id) {
+            return strings [id];
+        }
+
+        private void clear () {
+            ids.clear();
+            strings = new String[16];
+            count = 0;
+        }
+    }
+}
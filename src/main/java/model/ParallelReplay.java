@@ -0,0 +1,331 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import contract.datastructure.Array;
+import contract.datastructure.DataStructure;
+import contract.operation.OperationType;
+
+/**
+ * Replays operations held by an {@link OperationStore} using several threads. Operations which
+ * affect a single structure commute with operations on other structures, so the operation stream
+ * is partitioned by structure and the partitions are applied concurrently on a
+ * {@link ForkJoinPool}. Operations which affect two different structures, such as a read from one
+ * array written to another, act as barriers: all preceding operations are completed before the
+ * barrier is applied on the calling thread. <br>
+ * <br>
+ * Operations applied by a ParallelReplay are not journaled, and messages and errors produced by
+ * the partitions are delivered to the listener of the calling Step once the partitions have
+ * completed. Likewise, the {@link Array.MinMaxListener} of an Array is replaced while its partition
+ * runs, and the changes are delivered on the calling thread afterwards, as the listeners of
+ * renders must not be called by other threads.
+ */
+public class ParallelReplay {
+
+    /**
+     * Partitions smaller than this are applied on the calling thread.
+     */
+    public static final int                         MIN_PARTITION = 64;
+    /**
+     * Slot for operations which do not affect any known structure.
+     */
+    private static final int                        NO_STRUCTURE  = -1;
+    /**
+     * Slot for operations which affect two different structures.
+     */
+    private static final int                        BARRIER       = -2;
+
+    private final ForkJoinPool                      pool;
+    /**
+     * Partitions, one per structure, reused between replays.
+     */
+    private final ArrayList<Partition>              partitions    = new ArrayList<Partition>();
+    /**
+     * Slots indexed by identifier id, for the current store generation. -1 for unknown ids.
+     */
+    private int[]                                   slotOf        = new int[0];
+    private OperationStore                          slotStore;
+    private int                                     slotGeneration;
+    private Map<String, DataStructure>              slotStructs;
+    private int                                     slotStructCount;
+    private final HashMap<DataStructure, Partition> byStructure   = new HashMap<DataStructure, Partition>();
+
+    /**
+     * Create a new ParallelReplay using the common pool.
+     */
+    public ParallelReplay () {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new ParallelReplay.
+     *
+     * @param pool
+     *            The pool used to apply partitions.
+     */
+    public ParallelReplay (ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the pool used to apply partitions.
+     *
+     * @return The ForkJoinPool of this ParallelReplay.
+     */
+    public ForkJoinPool getPool () {
+        return pool;
+    }
+
+    /**
+     * Apply the operations in {@code [from, to)} to the structures of a Step. The structures will
+     * be in the same state as if the operations had been applied one by one using
+     * {@link Step#applyOperation(OperationStore, int)}. The journal of {@code step} is cleared.
+     *
+     * @param step
+     *            The Step holding the structures. Barriers and operations which do not affect any
+     *            structure are applied using this Step.
+     * @param store
+     *            The store holding the operations.
+     * @param from
+     *            The index of the first operation to apply.
+     * @param to
+     *            The index after the last operation to apply.
+     */
+    public void replay (Step step, OperationStore store, int from, int to) {
+        prepare(step.getStructures(), store);
+
+        int segmentStart = from;
+        for (int i = from; i < to; i++) {
+            int slot = slot(store, i);
+            if (slot == BARRIER) {
+                flush(step, store, segmentStart, i);
+                step.applyOperation(store, i);
+                segmentStart = i + 1;
+            } else if (slot != NO_STRUCTURE) {
+                partitions.get(slot).add(i);
+            }
+        }
+        flush(step, store, segmentStart, to);
+        step.getJournal().clear();
+    }
+
+    /**
+     * Apply the operations of a segment without barriers.
+     */
+    private void flush (Step step, OperationStore store, int from, int to) {
+        if (from == to) {
+            return;
+        }
+
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (Partition p : partitions) {
+            if (p.size >= MIN_PARTITION) {
+                p.attach();
+                tasks.add(pool.submit(p));
+            }
+        }
+
+        if (tasks.isEmpty()) {
+            // Not worth forking; apply in order.
+            for (Partition p : partitions) {
+                p.size = 0;
+            }
+            for (int i = from; i < to; i++) {
+                step.applyOperation(store, i);
+            }
+            return;
+        }
+
+        // Small partitions and operations without a structure are applied while waiting.
+        for (Partition p : partitions) {
+            if (p.size > 0 && p.size < MIN_PARTITION) {
+                p.run();
+            }
+        }
+        for (int i = from; i < to; i++) {
+            if (slot(store, i) == NO_STRUCTURE) {
+                step.applyOperation(store, i);
+            }
+        }
+
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            for (Partition p : partitions) {
+                p.detach();
+            }
+        }
+        for (Partition p : partitions) {
+            p.deliver(step.getListener());
+        }
+    }
+
+    /**
+     * Returns the slot of the operation at the given index.
+     */
+    private int slot (OperationStore store, int index) {
+        OperationType type = store.getType(index);
+        if (type == null) {
+            // Not encoded, affected structures unknown.
+            return BARRIER;
+        }
+        switch (type) {
+        case read:
+        case write:
+        case swap:
+            int first = slotOf(store.getFirstId(index));
+            int second = slotOf(store.getSecondId(index));
+            if (first == NO_STRUCTURE || first == second) {
+                return second;
+            }
+            return second == NO_STRUCTURE ? first : BARRIER;
+        case remove:
+            return slotOf(store.getSecondId(index));
+        default:
+            return NO_STRUCTURE;
+        }
+    }
+
+    private int slotOf (int id) {
+        return id < 0 ? NO_STRUCTURE : slotOf [id];
+    }
+
+    /**
+     * Build the slots for the given structures and store.
+     */
+    private void prepare (Map<String, DataStructure> structs, OperationStore store) {
+        if (structs != slotStructs || structs.size() != slotStructCount) {
+            partitions.clear();
+            byStructure.clear();
+            slotStructs = structs;
+            slotStructCount = structs.size();
+            slotStore = null;
+        }
+        for (Partition p : partitions) {
+            p.size = 0;
+            p.store = store;
+        }
+        int names = store.getNameCount();
+        if (store == slotStore && store.getGeneration() == slotGeneration && slotOf.length == names) {
+            return;
+        }
+
+        slotOf = new int[names];
+        for (int id = 0; id < names; id++) {
+            DataStructure struct = structs.get(store.getName(id));
+            if (struct == null) {
+                slotOf [id] = NO_STRUCTURE;
+                continue;
+            }
+            Partition p = byStructure.get(struct);
+            if (p == null) {
+                p = new Partition(new Step(structs), struct, partitions.size());
+                p.store = store;
+                partitions.add(p);
+                byStructure.put(struct, p);
+            }
+            slotOf [id] = p.slot;
+        }
+        slotStore = store;
+        slotGeneration = store.getGeneration();
+    }
+
+    /**
+     * The operations affecting one structure in the current segment.
+     */
+    private static final class Partition implements Runnable, Step.StepListener, Array.MinMaxListener {
+        private final Step                                   step;
+        private final DataStructure                          struct;
+        private final int                                    slot;
+        private int[]                                        indices = new int[256];
+        private int                                          size;
+        private OperationStore                               store;
+        /**
+         * Messages, errors and min/max changes produced while running, delivered in order
+         * afterwards.
+         */
+        private final ArrayList<Consumer<Step.StepListener>> output  = new ArrayList<Consumer<Step.StepListener>>();
+        /**
+         * The listener of the structure while this Partition is attached, or null.
+         */
+        private Array.MinMaxListener                         minMaxListener;
+
+        private Partition (Step step, DataStructure struct, int slot) {
+            this.step = step;
+            this.struct = struct;
+            this.slot = slot;
+            step.setJournaling(false);
+            step.setListener(this);
+        }
+
+        private void add (int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+            }
+            indices [size++] = index;
+        }
+
+        @Override public void run () {
+            for (int i = 0; i < size; i++) {
+                step.applyOperation(store, indices [i]);
+            }
+            size = 0;
+        }
+
+        /**
+         * Collect the min/max changes of the structure until detached.
+         */
+        private void attach () {
+            if (struct instanceof Array && ((Array) struct).getListener() != null) {
+                minMaxListener = ((Array) struct).getListener();
+                ((Array) struct).setListener(this);
+            }
+        }
+
+        private void detach () {
+            if (minMaxListener != null) {
+                ((Array) struct).setListener(minMaxListener);
+                minMaxListener = null;
+            }
+        }
+
+        private void deliver (Step.StepListener listener) {
+            output.forEach(o -> o.accept(listener));
+            output.clear();
+        }
+
+        @Override public void message (String message) {
+            output.add(listener -> {
+                if (listener != null) {
+                    listener.message(message);
+                }
+            });
+        }
+
+        @Override public void error (String error) {
+            output.add(listener -> {
+                if (listener != null) {
+                    listener.error(error);
+                }
+            });
+        }
+
+        @Override public void maxChanged (double newMax) {
+            Array.MinMaxListener target = minMaxListener;
+            output.add(listener -> target.maxChanged(newMax));
+        }
+
+        @Override public void minChanged (double newMin) {
+            Array.MinMaxListener target = minMaxListener;
+            output.add(listener -> target.minChanged(newMin));
+        }
+    }
+}
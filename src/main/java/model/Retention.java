@@ -0,0 +1,139 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A retention policy for the operations held by a {@link Model}, used to bound memory when
+ * visualising endless streams. Operations are retained if they are among the last
+ * {@link #getMaxOperations()} operations, and were appended less than {@link #getMaxAge()}
+ * milliseconds ago. Older operations are removed by the model, which keeps the state of the
+ * structures before the first retained operation in their place. <br>
+ * <br>
+ * A limit of zero or less disables the corresponding rule. The arrival time of operations is
+ * recorded per call to {@link Model#append(java.util.Map, java.util.List)}.
+ */
+public class Retention {
+
+    /**
+     * Operations are not removed until at least this many may be removed.
+     */
+    public static final int MIN_REMOVAL = CheckpointStore.MIN_INTERVAL;
+
+    private final int       maxOperations;
+    private final long      maxAge;
+    /**
+     * Arrival times, and the number of operations held after each arrival, oldest first.
+     */
+    private long[]          times       = new long[16];
+    private int[]           ends        = new int[16];
+    private int             arrivals;
+
+    /**
+     * Create a new Retention.
+     *
+     * @param maxOperations
+     *            The number of operations to retain. Zero or less for no limit.
+     * @param maxAge
+     *            The number of milliseconds to retain operations for. Zero or less for no limit.
+     */
+    public Retention (int maxOperations, long maxAge) {
+        this.maxOperations = maxOperations;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the number of operations to retain.
+     *
+     * @return The maximum number of operations, or zero or less if unlimited.
+     */
+    public int getMaxOperations () {
+        return maxOperations;
+    }
+
+    /**
+     * Returns the number of milliseconds to retain operations for.
+     *
+     * @return The maximum age of operations, or zero or less if unlimited.
+     */
+    public long getMaxAge () {
+        return maxAge;
+    }
+
+    /**
+     * Returns {@code true} if this policy never removes operations.
+     *
+     * @return {@code true} if neither limit is set.
+     */
+    public boolean isUnlimited () {
+        return maxOperations <= 0 && maxAge <= 0;
+    }
+
+    /**
+     * Record the arrival of operations.
+     *
+     * @param end
+     *            The number of operations held after the arrival.
+     * @param time
+     *            The time of arrival, in milliseconds.
+     */
+    public void arrived (int end, long time) {
+        if (maxAge <= 0) {
+            return;
+        }
+        if (arrivals > 0 && ends [arrivals - 1] == end) {
+            return;
+        }
+        if (arrivals == times.length) {
+            times = Arrays.copyOf(times, arrivals * 2);
+            ends = Arrays.copyOf(ends, arrivals * 2);
+        }
+        times [arrivals] = time;
+        ends [arrivals] = end;
+        arrivals++;
+    }
+
+    /**
+     * Returns the number of operations which should be removed from the front.
+     *
+     * @param size
+     *            The number of operations held.
+     * @param now
+     *            The current time, in milliseconds.
+     * @return The number of operations no longer retained, or 0 if fewer than
+     *         {@link #MIN_REMOVAL} operations may be removed.
+     */
+    public int getExcess (int size, long now) {
+        int excess = maxOperations > 0 ? size - maxOperations : 0;
+        if (maxAge > 0) {
+            for (int i = 0; i < arrivals && now - times [i] >= maxAge; i++) {
+                excess = Math.max(excess, ends [i]);
+            }
+        }
+        return excess < MIN_REMOVAL ? 0 : Math.min(excess, size);
+    }
+
+    /**
+     * Account for the removal of operations from the front.
+     *
+     * @param count
+     *            The number of operations removed.
+     */
+    public void removed (int count) {
+        int kept = 0;
+        for (int i = 0; i < arrivals; i++) {
+            if (ends [i] > count) {
+                times [kept] = times [i];
+                ends [kept] = ends [i] - count;
+                kept++;
+            }
+        }
+        arrivals = kept;
+    }
+
+    /**
+     * Forget all arrivals.
+     */
+    public void clear () {
+        arrivals = 0;
+    }
+}
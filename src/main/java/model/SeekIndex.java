@@ -0,0 +1,583 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import contract.datastructure.Array;
+import contract.datastructure.DataStructure;
+import contract.datastructure.IndependentElement;
+import contract.operation.OperationType;
+import contract.utility.Colors;
+
+/**
+ * An index from operation number to the state of each element, allowing the state of the
+ * structures after any number of operations to be reconstructed without replaying operations. For
+ * each element, the index holds the sorted numbers of the operations which changed its value, of
+ * the operations which changed its inactive status and of the operations counted by it, by type.
+ * The state after {@code n} operations, including the operation counts and colour of each element,
+ * is found using a few binary searches per element. <br>
+ * <br>
+ * The index is built incrementally from the columns of an {@link OperationStore}. Only
+ * {@link Array} and {@link IndependentElement} structures whose elements are not created or
+ * re-initialised after their first initialisation are supported. Indexing stops at the first
+ * operation which is not supported, see {@link #getLimit()}.
+ */
+public class SeekIndex {
+
+    /**
+     * Approximate cost of reconstructing one element, relative to replaying one operation.
+     */
+    public static final int            ELEMENT_COST = 4;
+
+    /*
+     * Sentinels for identifiers of structures which are unknown or cannot be indexed.
+     */
+    private static final Struct        UNKNOWN      = new Struct(null);
+    private static final Struct        UNSUPPORTED  = new Struct(null);
+    /*
+     * Sources of element values, stored in the lowest two bits of value entries.
+     */
+    private static final int           FIRST_VALUE  = 0;
+    private static final int           SECOND_VALUE = 1;
+    /**
+     * The value was cleared when the element was deactivated.
+     */
+    private static final int           CLEARED      = 2;
+    /*
+     * Operation types counted by elements, in the order of OperationCounter.getCounts().
+     */
+    private static final OperationType[] COUNTED    = { OperationType.read, OperationType.write, OperationType.swap,
+            OperationType.remove };
+    private static final int           READ         = 0;
+    private static final int           WRITE        = 1;
+    private static final int           SWAP         = 2;
+    private static final int           REMOVE       = 3;
+    /**
+     * The order in which the element counts of a single operation are made. An Array counts the
+     * target of a read or write before the source.
+     */
+    private static final int[]         COUNT_ORDER  = { WRITE, READ, SWAP, REMOVE };
+
+    private final ArrayList<Struct>    tracked      = new ArrayList<Struct>();
+    /**
+     * Tracked structures indexed by identifier id.
+     */
+    private Struct[]                   byId         = new Struct[0];
+    private Map<String, DataStructure> structs;
+    private int                        structCount;
+    private OperationStore             store;
+    private int                        generation;
+    /**
+     * The number of operations indexed.
+     */
+    private int                        built;
+    /**
+     * Index of the first operation which could not be indexed, or -1.
+     */
+    private int                        limit        = -1;
+
+    /**
+     * Remove all information from the index.
+     */
+    public void clear () {
+        tracked.clear();
+        byId = new Struct[0];
+        structs = null;
+        store = null;
+        built = 0;
+        limit = -1;
+    }
+
+    /**
+     * Index the operations in {@code store} up to {@code to}. The index is cleared if the store or
+     * structures differ from those of the last update, if structures have been added, or if the
+     * store has been cleared.
+     *
+     * @param structs
+     *            The structures the operations are applied to.
+     * @param store
+     *            The store holding the operations.
+     * @param to
+     *            The number of operations to index.
+     */
+    public void update (Map<String, DataStructure> structs, OperationStore store, int to) {
+        if (structs != this.structs || structs.size() != structCount || store != this.store
+                || store.getGeneration() != generation || store.size() < built) {
+            clear();
+            this.structs = structs;
+            structCount = structs.size();
+            this.store = store;
+            generation = store.getGeneration();
+        }
+        to = Math.min(to, store.size());
+        while (built < to && limit < 0) {
+            if (index(built) == false) {
+                limit = built;
+                return;
+            }
+            built++;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the state after {@code n} operations can be reconstructed.
+     *
+     * @param n
+     *            A number of operations.
+     * @return {@code true} if {@link #getStates(int)} may be called for {@code n}.
+     */
+    public boolean covers (int n) {
+        return n >= 0 && n <= built;
+    }
+
+    /**
+     * Returns the number of elements which must be reconstructed by {@link #getStates(int)}.
+     *
+     * @return The number of elements indexed.
+     */
+    public int getElementCount () {
+        int count = 0;
+        for (Struct struct : tracked) {
+            count += struct.indices == null ? 0 : struct.indices.length;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the first operation which could not be indexed.
+     *
+     * @return The index of the first unsupported operation, or -1 if all operations indexed so
+     *         far are supported.
+     */
+    public int getLimit () {
+        return limit;
+    }
+
+    /**
+     * Reconstruct the state of the structures after {@code n} operations have been applied.
+     * Structures which had not been initialised are not included.
+     *
+     * @param n
+     *            A number of operations, for which {@link #covers(int)} returns {@code true}.
+     * @return The states of the structures, keyed by identifier.
+     */
+    public Map<String, DataStructure.State> getStates (int n) {
+        if (covers(n) == false) {
+            throw new IllegalArgumentException("Operation " + n + " is not indexed.");
+        }
+        HashMap<String, DataStructure.State> states = new HashMap<String, DataStructure.State>();
+        for (Struct struct : tracked) {
+            if (struct.created >= 0 && struct.created < n) {
+                states.put(struct.struct.identifier, struct.getState(store, n));
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by this index.
+     *
+     * @return The approximate memory used.
+     */
+    public long getMemoryUsage () {
+        long size = byId.length * 4L;
+        for (Struct struct : tracked) {
+            size += struct.getMemoryUsage();
+        }
+        return size;
+    }
+
+    /**
+     * Index a single operation, mirroring {@link Step#applyOperation(OperationStore, int)}.
+     *
+     * @return {@code false} if the operation is not supported.
+     */
+    private boolean index (int op) {
+        OperationType type = store.getType(op);
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+        case read:
+        case write:
+        case swap:
+            Struct first = struct(store.getFirstId(op));
+            Struct second = struct(store.getSecondId(op));
+            if (first == UNSUPPORTED || second == UNSUPPORTED) {
+                return false;
+            }
+            return (first == UNKNOWN || first.apply(store, op, type))
+                    && (second == UNKNOWN || second.apply(store, op, type));
+        case remove:
+            Struct target = struct(store.getSecondId(op));
+            if (target == UNSUPPORTED) {
+                return false;
+            }
+            return target == UNKNOWN || target.toggle(store, op);
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns the tracked structure for an identifier id.
+     */
+    private Struct struct (int id) {
+        if (id < 0) {
+            return UNKNOWN;
+        }
+        if (id >= byId.length) {
+            byId = Arrays.copyOf(byId, Math.max(id + 1, store.getNameCount()));
+        }
+        if (byId [id] == null) {
+            DataStructure struct = structs.get(store.getName(id));
+            if (struct == null) {
+                byId [id] = UNKNOWN;
+            } else if (struct.getClass() == Array.class || struct.getClass() == IndependentElement.class) {
+                for (Struct s : tracked) {
+                    if (s.struct == struct) {
+                        byId [id] = s;
+                    }
+                }
+                if (byId [id] == null) {
+                    byId [id] = new Struct(struct);
+                    tracked.add(byId [id]);
+                }
+            } else {
+                byId [id] = UNSUPPORTED;
+            }
+        }
+        return byId [id];
+    }
+
+    /**
+     * The index of a single structure. The methods mirror the behaviour of {@link Array} and
+     * {@link IndependentElement}.
+     */
+    private static final class Struct {
+        private final DataStructure              struct;
+        private final boolean                    independent;
+        /**
+         * Operation which created the elements, or -1.
+         */
+        private int                              created   = -1;
+        /**
+         * Number of values of the initialisation.
+         */
+        private int                              valueCount;
+        private int[][]                          indices;
+        private ElementIndex[]                   elements;
+        private final HashMap<IndexKey, Integer> positions = new HashMap<IndexKey, Integer>();
+        /*
+         * Operations counted by the structure, once for every count.
+         */
+        private final VarLongList                reads     = new VarLongList();
+        private final VarLongList                writes    = new VarLongList();
+        private final VarLongList                swaps     = new VarLongList();
+
+        private Struct (DataStructure struct) {
+            this.struct = struct;
+            independent = struct instanceof IndependentElement;
+        }
+
+        /**
+         * Apply a read, write or swap operation.
+         *
+         * @return {@code false} if the operation is not supported.
+         */
+        private boolean apply (OperationStore store, int op, OperationType type) {
+            int valueCount = store.getValueCount(op);
+            int first = store.getFirstId(op);
+            int second = store.getSecondId(op);
+
+            if (independent) {
+                if (type == OperationType.swap) {
+                    if (created < 0 || first < 0 || valueCount < 2) {
+                        return false;
+                    }
+                    setValue(0, op, owns(store, first) ? FIRST_VALUE : SECOND_VALUE, false);
+                    element(0).count(SWAP, op);
+                    swaps.add(op);
+                    return true;
+                }
+                if (valueCount < 1) {
+                    return false;
+                }
+                if (created < 0) {
+                    create(op, new int[][] { { 0 } }, 1);
+                    setValue(0, op, FIRST_VALUE, false);
+                }
+                if (owns(store, second)) {
+                    setValue(0, op, FIRST_VALUE, false);
+                    element(0).count(WRITE, op);
+                    writes.add(op);
+                } else if (owns(store, first)) {
+                    element(0).count(READ, op);
+                    reads.add(op);
+                }
+                return true;
+            }
+
+            if (type == OperationType.swap) {
+                if (valueCount < 2) {
+                    return false;
+                }
+                int pos1 = owns(store, first) ? position(store.getFirstIndex(op)) : -1;
+                if (pos1 >= 0) {
+                    setValue(pos1, op, FIRST_VALUE, true);
+                    element(pos1).count(SWAP, op);
+                    swaps.add(op);
+                }
+                int pos2 = owns(store, second) ? position(store.getSecondIndex(op)) : -1;
+                if (pos2 >= 0) {
+                    setValue(pos2, op, SECOND_VALUE, true);
+                    element(pos2).count(SWAP, op);
+                    swaps.add(op);
+                }
+                return true;
+            }
+
+            if (valueCount < 1) {
+                // Ignored by the Array.
+                return true;
+            } else if (valueCount > 1) {
+                if (created >= 0) {
+                    // The same operation may be applied twice.
+                    return created == op;
+                }
+                int[][] indices = ((Array) struct).getInitIndices(valueCount);
+                return create(op, indices, valueCount);
+            }
+
+            (type == OperationType.read ? reads : writes).add(op);
+            if (owns(store, second)) {
+                int pos = position(store.getSecondIndex(op));
+                if (pos < 0) {
+                    // The element would be created.
+                    return false;
+                }
+                setValue(pos, op, FIRST_VALUE, true);
+                element(pos).count(WRITE, op);
+            }
+            if (owns(store, first)) {
+                int pos = position(store.getFirstIndex(op));
+                if (pos < 0) {
+                    return false;
+                }
+                setValue(pos, op, FIRST_VALUE, true);
+                element(pos).count(READ, op);
+            }
+            return true;
+        }
+
+        /**
+         * Apply a remove operation.
+         *
+         * @return {@code false} if the operation is not supported.
+         */
+        private boolean toggle (OperationStore store, int op) {
+            int[] index = store.getSecondIndex(op);
+            if (index == null) {
+                // The entire structure is toggled.
+                return false;
+            }
+            int pos = independent ? (created < 0 ? -1 : 0) : position(index);
+            if (pos >= 0) {
+                ElementIndex e = element(pos);
+                e.inactive = !e.inactive;
+                e.transition(op);
+                if (e.inactive) {
+                    setValue(pos, op, CLEARED, false);
+                    e.count(REMOVE, op);
+                }
+            }
+            return true;
+        }
+
+        private boolean create (int op, int[][] indices, int valueCount) {
+            for (int i = 0; i < indices.length; i++) {
+                if (positions.put(new IndexKey(indices [i]), i) != null) {
+                    // Elements would be replaced.
+                    positions.clear();
+                    return false;
+                }
+            }
+            created = op;
+            this.valueCount = valueCount;
+            this.indices = indices;
+            elements = new ElementIndex[indices.length];
+            return true;
+        }
+
+        private void setValue (int pos, int op, int slot, boolean reactivates) {
+            ElementIndex e = element(pos);
+            long entry = (long) op << 2 | slot;
+            if (e.values.size() > 0 && e.values.get(e.values.size() - 1) >>> 2 == op) {
+                e.values.setLast(entry);
+            } else {
+                e.values.add(entry);
+            }
+            if (reactivates && e.inactive) {
+                e.inactive = false;
+                e.transition(op);
+            }
+        }
+
+        private ElementIndex element (int pos) {
+            if (elements [pos] == null) {
+                elements [pos] = new ElementIndex();
+            }
+            return elements [pos];
+        }
+
+        private int position (int[] index) {
+            if (index == null) {
+                return -1;
+            }
+            Integer pos = positions.get(new IndexKey(index));
+            return pos == null ? -1 : pos;
+        }
+
+        private boolean owns (OperationStore store, int id) {
+            return id >= 0 && struct.identifier.equals(store.getName(id));
+        }
+
+        private DataStructure.State getState (OperationStore store, int n) {
+            long bound = (long) n << 2;
+            int[][] stateIndices = new int[indices.length][];
+            double[] values = new double[indices.length];
+            boolean[] inactive = new boolean[indices.length];
+            int[] colors = new int[indices.length];
+            int[] elementCounts = new int[indices.length * DataStructure.State.COUNTS];
+
+            for (int i = 0; i < indices.length; i++) {
+                stateIndices [i] = indices [i].clone();
+                values [i] = i < valueCount ? store.getValue(created, i) : 0.0;
+                // Elements of an Array count the write which initialised them.
+                int last = independent ? -1 : created;
+                int lastType = independent ? -1 : WRITE;
+                if (independent == false) {
+                    elementCounts [i * DataStructure.State.COUNTS + WRITE] = 1;
+                }
+                ElementIndex e = elements [i];
+                if (e == null) {
+                    colors [i] = lastType < 0 ? Colors.NONE : COUNTED [lastType].color;
+                    continue;
+                }
+                for (int type : COUNT_ORDER) {
+                    VarLongList counted = e.counts [type];
+                    int count = counted == null ? 0 : counted.countBelow(n);
+                    if (count > 0) {
+                        elementCounts [i * DataStructure.State.COUNTS + type] += count;
+                        int op = (int) counted.get(count - 1);
+                        if (op >= last) {
+                            last = op;
+                            lastType = type;
+                        }
+                    }
+                }
+                colors [i] = lastType < 0 ? Colors.NONE : COUNTED [lastType].color;
+                int count = e.values.countBelow(bound);
+                if (count > 0) {
+                    long entry = e.values.get(count - 1);
+                    int slot = (int) (entry & 3);
+                    values [i] = slot == CLEARED ? Double.NaN : store.getValue((int) (entry >>> 2), slot);
+                }
+                if (e.transitions != null) {
+                    count = e.transitions.countBelow((long) n << 1);
+                    inactive [i] = count > 0 && (e.transitions.get(count - 1) & 1) != 0;
+                }
+            }
+
+            // Structures do not count removes or messages themselves, only their elements do.
+            int[] counts = { reads.countBelow(n), writes.countBelow(n), swaps.countBelow(n), 0, 0 };
+            return new DataStructure.State(stateIndices, values, inactive, true, counts, colors, elementCounts);
+        }
+
+        private long getMemoryUsage () {
+            long size = reads.getMemoryUsage() + writes.getMemoryUsage() + swaps.getMemoryUsage();
+            if (indices != null) {
+                size += indices.length * (16 + 32 + 48L);
+                for (ElementIndex e : elements) {
+                    size += e == null ? 0 : e.getMemoryUsage();
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The value and inactive status changes of a single element.
+     */
+    private static final class ElementIndex {
+        /**
+         * Operations which set the value, shifted left by two. The lowest bits hold the source of
+         * the value.
+         */
+        private final VarLongList values = new VarLongList();
+        /**
+         * Operations which changed the inactive status, shifted left by one. The lowest bit holds
+         * the status after the operation. Null until the element is first deactivated.
+         */
+        private VarLongList       transitions;
+        /**
+         * Operations counted by the element, once for every count, by the index of the type in
+         * {@link #COUNTED}. Null until the first count of the type.
+         */
+        private final VarLongList[] counts = new VarLongList[COUNTED.length];
+        /**
+         * The status after the last operation indexed.
+         */
+        private boolean           inactive;
+
+        private void count (int type, int op) {
+            if (counts [type] == null) {
+                counts [type] = new VarLongList();
+            }
+            counts [type].add(op);
+        }
+
+        private void transition (int op) {
+            if (transitions == null) {
+                transitions = new VarLongList();
+            }
+            long entry = (long) op << 1 | (inactive ? 1 : 0);
+            if (transitions.size() > 0 && transitions.get(transitions.size() - 1) >>> 1 == op) {
+                transitions.setLast(entry);
+            } else {
+                transitions.add(entry);
+            }
+        }
+
+        private long getMemoryUsage () {
+            long size = 32 + values.getMemoryUsage() + (transitions == null ? 0 : transitions.getMemoryUsage());
+            for (VarLongList counted : counts) {
+                size += counted == null ? 0 : counted.getMemoryUsage();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Key for element indices.
+     */
+    private static final class IndexKey {
+        private final int[] index;
+        private final int   hash;
+
+        private IndexKey (int[] index) {
+            this.index = index;
+            hash = Arrays.hashCode(index);
+        }
+
+        @Override public int hashCode () {
+            return hash;
+        }
+
+        @Override public boolean equals (Object o) {
+            return o instanceof IndexKey && Arrays.equals(index, ((IndexKey) o).index);
+        }
+    }
+}
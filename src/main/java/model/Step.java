@@ -1,97 +1,745 @@
 package model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import assets.Debug;
 import contract.datastructure.DataStructure;
+import contract.datastructure.Element;
 import contract.json.Locator;
+import contract.json.LocatorPool;
 import contract.json.Operation;
 import contract.operation.Key;
 import contract.operation.OP_Message;
+import contract.operation.OP_ReadWrite;
+import contract.operation.OP_Swap;
+import contract.operation.OperationType;
 import contract.utility.OpUtils;
-import gui.Main;
+import contract.utility.OperationCounter;
 
 public class Step  {
+    private static final Element[]           NONE          = new Element[0];
     private final Map<String, DataStructure> structs;
-    private Operation                        lastOp;
+    /**
+     * Listener notified of messages and errors. May be null.
+     */
+    private StepListener                     listener;
+    /**
+     * Records the information needed to revert applied operations.
+     */
+    private final UndoJournal                journal;
+    /**
+     * Set to {@code false} when the operation being applied cannot be reverted.
+     */
+    private boolean                          reversible;
+    /**
+     * Structures the operation being reverted was applied to, in order of application.
+     */
+    private final ArrayList<DataStructure>   applied       = new ArrayList<DataStructure>();
+    /*
+     * State of the structure and elements before an operation was applied. Reused to avoid
+     * allocation; an operation affects at most two elements of a structure.
+     */
+    private final int[]                      structCounts  = new int[4];
+    private final int[][]                    elementCounts = new int[2][4];
+    private final long[]                     records       = new long[2];
+    private final int[]                      colorCodes    = new int[2];
+    private final boolean[]                  inactive      = new boolean[2];
+    /*
+     * Structures indexed by the identifier ids of an OperationStore. Unknown identifiers are
+     * mapped to UNKNOWN.
+     */
+    private static final Object              UNKNOWN       = new Object();
+    private Object[]                         byId          = new Object[0];
+    private OperationStore                   byIdStore;
+    private int                              byIdGeneration;
+    private int                              byIdStructCount;
+    /*
+     * Structures indexed by the identifier ids of the LocatorPool, mapped the same way, and the
+     * identifiers they were mapped for. Ids are reused when the pool is cleared.
+     */
+    private Object[]                         byPoolId      = new Object[0];
+    private String[]                         byPoolIdName  = new String[0];
+    private int                              byPoolIdStructCount;
+    /**
+     * Reader for the store last applied from, so that Steps may share a store across threads.
+     */
+    private OperationStore.Reader            reader;
+    /**
+     * Set to {@code false} to apply operations without recording them in the journal.
+     */
+    private boolean                          journaling    = true;
 
     public Step () {
-        structs = new HashMap<String, DataStructure>();
+        this(new HashMap<String, DataStructure>());
     }
 
     public Step (Map<String, DataStructure> structs) {
         this.structs = structs;
+        journal = new UndoJournal();
     }
 
     public void reset () {
-        lastOp = null;
+        journal.clear();
         structs.values().forEach(DataStructure::clear);
     }
 
+    /**
+     * Restore the structures to a previously captured state. Structures without a state are
+     * cleared.
+     *
+     * @param states
+     *            The states to restore, keyed by identifier.
+     */
+    public void restore (Map<String, DataStructure.State> states) {
+        journal.clear();
+        for (DataStructure struct : structs.values()) {
+            DataStructure.State state = states.get(struct.identifier);
+            if (state == null) {
+                struct.clear();
+            } else {
+                struct.restoreState(state);
+            }
+        }
+    }
+
     public Map<String, DataStructure> getStructures () {
         // Should do a deep copy
         return structs;
     }
 
-    public Operation getLastOp () {
-        return lastOp;
+    /**
+     * Set the listener to notify of messages and errors.
+     *
+     * @param listener
+     *            A StepListener. May be null.
+     */
+    public void setListener (StepListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the listener notified of messages and errors.
+     *
+     * @return The StepListener of this Step. May be null.
+     */
+    public StepListener getListener () {
+        return listener;
+    }
+
+    /**
+     * Enable or disable journaling. Operations applied while journaling is disabled cannot be
+     * reverted, and leave the journal empty.
+     *
+     * @param journaling
+     *            {@code true} to record applied operations in the journal.
+     */
+    public void setJournaling (boolean journaling) {
+        this.journaling = journaling;
     }
 
     /**
-     * Apply an operation to the model.
+     * Returns the journal used to revert operations.
+     *
+     * @return The UndoJournal of this Step.
+     */
+    public UndoJournal getJournal () {
+        return journal;
+    }
+
+    /**
+     * Apply an operation to the model. The previous state of affected elements is recorded, allowing
+     * the operation to be reverted using {@link #revertOperation(Operation)}.
      *
      * @param op
      *            The operation to apply.
-     * @return 0 if the operation should be applied.
      */
     public void applyOperation (Operation op) {
+        journal.beginStep();
+        reversible = journaling;
+
         switch (op.operation) {
 
         case message:
-            Main.console.info("MESSAGE: " + ((OP_Message) op).getMessage());
+            if (listener != null) {
+                listener.message(((OP_Message) op).getMessage());
+            }
             break;
         case read:
         case write:
             Locator source = OpUtils.getLocator(op, Key.source);
             if (source != null) {
-                DataStructure sourceStruct = structs.get(source.identifier);
-                if (sourceStruct != null) {
-                    sourceStruct.applyOperation(op);
-                }
+                apply(op, structure(source));
             }
 
             Locator target = OpUtils.getLocator(op, Key.target);
             if (target != null) {
-                DataStructure targetStruct = structs.get(target.identifier);
-                if (targetStruct != null) {
-                    targetStruct.applyOperation(op);
-                }
+                apply(op, structure(target));
             }
             break;
         case swap:
             Locator var1 = OpUtils.getLocator(op, Key.var1);
-            structs.get(var1.identifier).applyOperation(op);
+            apply(op, structure(var1));
 
             Locator var2 = OpUtils.getLocator(op, Key.var2);
-            structs.get(var2.identifier).applyOperation(op);
+            apply(op, structure(var2));
             break;
         case remove:
             Locator removeTarget = OpUtils.getLocator(op, Key.target);
-            DataStructure targetStruct = structs.get(removeTarget.identifier);
-            if (targetStruct != null) {
-                targetStruct.applyOperation(op);
-            }
+            apply(op, structure(removeTarget));
             break;
         default:
-            Main.console.err("Unknown operation type: \"" + op.operation + "\"");
+            if (listener != null) {
+                listener.error("Unknown operation type: \"" + op.operation + "\"");
+            }
             break;
         }
 
+        endStep();
         if (Debug.OUT) {
             System.out.print("Step.applyOperation(): " + op + "\n");
         }
+    }
+
+    /**
+     * Apply an operation held by an OperationStore. Structures are resolved using the interned
+     * identifiers of the store rather than by identifier lookup, and locators and values are read
+     * from the columns of the store. An operation is only created for messages, for read and
+     * write operations which do not have a single value and for operations the store keeps
+     * as-is.
+     *
+     * @param store
+     *            The store holding the operation.
+     * @param index
+     *            The index of the operation in {@code store}.
+     */
+    public void applyOperation (OperationStore store, int index) {
+        bind(store);
+        OperationType type = store.getType(index);
+        int valueCount = type == null ? -1 : store.getValueCount(index);
+        if (hasParts(type, valueCount) == false) {
+            applyOperation(reader.peek(index));
+            return;
+        }
+
+        journal.beginStep();
+        reversible = journaling;
+
+        DataStructure first = structure(store, store.getFirstId(index));
+        DataStructure second = structure(store, store.getSecondId(index));
+        int[] firstIndex = first == null ? null : store.getFirstIndex(index);
+        int[] secondIndex = second == null ? null : store.getSecondIndex(index);
+        double value1 = valueCount > 0 ? store.getValue(index, 0) : 0;
+        double value2 = valueCount > 1 ? store.getValue(index, 1) : 0;
+
+        if (type != OperationType.remove) {
+            apply(type, first, first, firstIndex, second, secondIndex, value1, value2);
+        }
+        apply(type, second, first, firstIndex, second, secondIndex, value1, value2);
+
+        endStep();
+        if (Debug.OUT) {
+            System.out.print("Step.applyOperation(): " + reader.peek(index) + "\n");
+        }
+    }
+
+    private void endStep () {
+        if (reversible) {
+            journal.endStep();
+        } else {
+            // Earlier steps cannot be reached by reverting this one.
+            journal.clear();
+        }
+    }
+
+    /**
+     * Returns {@code true} if an operation of a store can be applied using
+     * {@link DataStructure#applyOperation(OperationType, boolean, int[], boolean, int[], double, double)}.
+     *
+     * @param type
+     *            The type of the operation, or {@code null} if it is kept as-is.
+     * @param valueCount
+     *            The number of values of the operation.
+     * @return {@code true} if the operation need not be created.
+     */
+    private static boolean hasParts (OperationType type, int valueCount) {
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+        case read:
+        case write:
+            return valueCount == 1;
+        case swap:
+            return valueCount >= 2;
+        case remove:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Prepare the structure cache and reader for the given store.
+     */
+    private void bind (OperationStore store) {
+        if (store != byIdStore || store.getGeneration() != byIdGeneration || structs.size() != byIdStructCount) {
+            if (store != byIdStore) {
+                reader = store.newReader();
+            }
+            byId = new Object[0];
+            byIdStore = store;
+            byIdGeneration = store.getGeneration();
+            byIdStructCount = structs.size();
+        }
+    }
+
+    /**
+     * Returns the structure for an identifier id of the store last bound.
+     */
+    private DataStructure structure (OperationStore store, int id) {
+        if (id < 0) {
+            return null;
+        }
+        if (id >= byId.length) {
+            byId = Arrays.copyOf(byId, Math.max(id + 1, byId.length * 2));
+        }
+        if (byId [id] == null) {
+            DataStructure struct = structs.get(store.getName(id));
+            byId [id] = struct == null ? UNKNOWN : struct;
+        }
+        return byId [id] == UNKNOWN ? null : (DataStructure) byId [id];
+    }
+
+    /**
+     * Returns the structure a Locator refers to, using the id of its identifier if it was
+     * created by the {@link LocatorPool}.
+     */
+    private DataStructure structure (Locator locator) {
+        int id = locator.getId();
+        if (id == 0) {
+            return structs.get(locator.identifier);
+        }
+        if (structs.size() != byPoolIdStructCount) {
+            byPoolId = new Object[0];
+            byPoolIdName = new String[0];
+            byPoolIdStructCount = structs.size();
+        }
+        if (id >= byPoolId.length) {
+            int length = Math.max(id + 1, LocatorPool.getIdentifierCount() + 1);
+            byPoolId = Arrays.copyOf(byPoolId, length);
+            byPoolIdName = Arrays.copyOf(byPoolIdName, length);
+        }
+        // Pooled identifiers are shared, so a reference comparison suffices within a pool.
+        if (byPoolId [id] == null || byPoolIdName [id] != locator.identifier) {
+            DataStructure struct = structs.get(locator.identifier);
+            byPoolId [id] = struct == null ? UNKNOWN : struct;
+            byPoolIdName [id] = locator.identifier;
+        }
+        return byPoolId [id] == UNKNOWN ? null : (DataStructure) byPoolId [id];
+    }
+
+    /**
+     * Revert the operation applied last.
+     *
+     * @param op
+     *            The operation applied last.
+     * @return {@code true} if the operation was reverted, {@code false} if the journal does not
+     *         hold the information needed. The structures are not changed in this case.
+     */
+    public boolean revertOperation (Operation op) {
+        long position = journal.lastStepStart();
+        if (position < 0) {
+            return false;
+        }
+
+        // Find the structures the operation was applied to, in the same order as applyOperation().
+        applied.clear();
+        switch (op.operation) {
+        case read:
+        case write:
+            addApplied(OpUtils.getLocator(op, Key.source));
+            addApplied(OpUtils.getLocator(op, Key.target));
+            break;
+        case swap:
+            addApplied(OpUtils.getLocator(op, Key.var1));
+            addApplied(OpUtils.getLocator(op, Key.var2));
+            break;
+        case remove:
+            addApplied(OpUtils.getLocator(op, Key.target));
+            break;
+        default:
+            break;
+        }
+
+        Element[][] affected = new Element[applied.size()][];
+        for (int i = 0; i < applied.size(); i++) {
+            affected [i] = affectedElements(op, applied.get(i));
+        }
+        revert(position, affected);
+        return true;
+    }
+
+    /**
+     * Revert the operation applied last, held by an OperationStore. Like
+     * {@link #applyOperation(OperationStore, int)}, an operation is only created when it cannot be
+     * read from the columns of the store.
+     *
+     * @param store
+     *            The store holding the operation.
+     * @param index
+     *            The index of the operation in {@code store}.
+     * @return {@code true} if the operation was reverted, {@code false} if the journal does not
+     *         hold the information needed. The structures are not changed in this case.
+     */
+    public boolean revertOperation (OperationStore store, int index) {
+        bind(store);
+        OperationType type = store.getType(index);
+        if (hasParts(type, type == null ? -1 : store.getValueCount(index)) == false) {
+            return revertOperation(reader.peek(index));
+        }
+        long position = journal.lastStepStart();
+        if (position < 0) {
+            return false;
+        }
+
+        DataStructure first = structure(store, store.getFirstId(index));
+        DataStructure second = structure(store, store.getSecondId(index));
+        int[] firstIndex = first == null ? null : store.getFirstIndex(index);
+        int[] secondIndex = second == null ? null : store.getSecondIndex(index);
+
+        // Find the structures the operation was applied to, in the same order as applyOperation().
+        applied.clear();
+        if (first != null && type != OperationType.remove) {
+            applied.add(first);
+        }
+        if (second != null) {
+            applied.add(second);
+        }
+
+        Element[][] affected = new Element[applied.size()][];
+        for (int i = 0; i < applied.size(); i++) {
+            DataStructure struct = applied.get(i);
+            affected [i] = affectedElements(type, struct, first == struct, firstIndex, second == struct, secondIndex);
+        }
+        revert(position, affected);
+        return true;
+    }
+
+    /**
+     * Revert the step starting at the given position of the journal, applied to the structures in
+     * {@link #applied}.
+     *
+     * @param position
+     *            The start of the last step.
+     * @param affected
+     *            The elements affected in each structure.
+     */
+    private void revert (long position, Element[][] affected) {
+        // Records are stored in order of application: one STRUCTURE record followed by one ELEMENT
+        // record per affected element. Find the first record for each application.
+        long[] starts = new long[applied.size()];
+        for (int i = 0; i < applied.size(); i++) {
+            starts [i] = position;
+            position += 1 + affected [i].length;
+        }
+
+        for (int i = applied.size() - 1; i >= 0; i--) {
+            DataStructure struct = applied.get(i);
+            long structRecord = starts [i];
+            for (int j = affected [i].length - 1; j >= 0; j--) {
+                revertElement(struct, affected [i] [j], structRecord + 1 + j);
+            }
+            uncount(struct.getCounter(), structRecord);
+        }
+
+        journal.popStep();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Journaling
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Apply an operation to a structure, recording the previous state of the affected elements.
+     *
+     * @param op
+     *            The operation to apply.
+     * @param struct
+     *            The structure to apply the operation to. May be null.
+     */
+    private void apply (Operation op, DataStructure struct) {
+        if (struct == null) {
+            return;
+        }
+        if (listener != null && op instanceof OP_ReadWrite && op.operation != OperationType.remove) {
+            double[] value = ((OP_ReadWrite) op).getValue();
+            if (value == null || value.length < 1) {
+                listener.error("Bad value in operation: " + op);
+            }
+        }
+
+        Element[] elements = reversible ? affectedElements(op, struct) : null;
+        if (elements == null || struct.isActive() == false) {
+            // Structural change or reactivation of the entire structure.
+            reversible = false;
+            struct.applyOperation(op);
+            return;
+        }
+
+        long structRecord = record(struct, elements);
+        struct.applyOperation(op);
+        recordIncrements(struct, elements, structRecord);
+    }
+
+    /**
+     * Apply an operation given by its parts to a structure, recording the previous state of the
+     * affected elements. See {@link DataStructure#applyOperation(OperationType, boolean, int[],
+     * boolean, int[], double, double)}.
+     *
+     * @param type
+     *            The type of the operation.
+     * @param struct
+     *            The structure to apply the operation to. May be null.
+     * @param first
+     *            The structure of the first locator. May be null.
+     * @param firstIndex
+     *            The index of the first locator.
+     * @param second
+     *            The structure of the second locator. May be null.
+     * @param secondIndex
+     *            The index of the second locator.
+     * @param value1
+     *            The first value.
+     * @param value2
+     *            The second value.
+     */
+    private void apply (OperationType type, DataStructure struct, DataStructure first, int[] firstIndex,
+            DataStructure second, int[] secondIndex, double value1, double value2) {
+        if (struct == null) {
+            return;
+        }
+        boolean ownsFirst = first == struct;
+        boolean ownsSecond = second == struct;
+
+        Element[] elements = reversible ? affectedElements(type, struct, ownsFirst, firstIndex, ownsSecond, secondIndex)
+                : null;
+        if (elements == null || struct.isActive() == false) {
+            // Structural change or reactivation of the entire structure.
+            reversible = false;
+            struct.applyOperation(type, ownsFirst, firstIndex, ownsSecond, secondIndex, value1, value2);
+            return;
+        }
+
+        long structRecord = record(struct, elements);
+        struct.applyOperation(type, ownsFirst, firstIndex, ownsSecond, secondIndex, value1, value2);
+        recordIncrements(struct, elements, structRecord);
+    }
+
+    /**
+     * Record the state of a structure and the given elements before an operation is applied.
+     *
+     * @return The position of the structure record.
+     */
+    private long record (DataStructure struct, Element[] elements) {
+        long structRecord = journal.add(UndoJournal.STRUCTURE, 0);
+        readCounts(struct.getCounter(), structCounts);
+        for (int i = 0; i < elements.length; i++) {
+            Element e = elements [i];
+            records [i] = journal.add(UndoJournal.ELEMENT, e.getNumValue());
+            colorCodes [i] = journal.colorCode(e.getColor());
+            inactive [i] = struct.getInactiveElements().contains(e);
+            readCounts(e.getCounter(), elementCounts [i]);
+        }
+        return structRecord;
+    }
+
+    /**
+     * Record the counter increments of an operation after it was applied.
+     */
+    private void recordIncrements (DataStructure struct, Element[] elements, long structRecord) {
+        int increments = increments(struct.getCounter(), structCounts);
+        if (increments < 0) {
+            reversible = false;
+            return;
+        }
+        journal.setState(structRecord, false, 0, increments);
+        for (int i = 0; i < elements.length; i++) {
+            increments = increments(elements [i].getCounter(), elementCounts [i]);
+            if (increments < 0 || colorCodes [i] < 0) {
+                reversible = false;
+                return;
+            }
+            journal.setState(records [i], inactive [i], colorCodes [i], increments);
+        }
+    }
+
+    /**
+     * Returns the elements of a structure affected by an operation. The same elements are returned
+     * before and after the operation is applied, provided that the operation does not create
+     * elements.
+     *
+     * @param op
+     *            An operation.
+     * @param struct
+     *            A structure.
+     * @return The affected elements, or {@code null} if the operation cannot be reverted for this
+     *         structure.
+     */
+    private static Element[] affectedElements (Operation op, DataStructure struct) {
+        Locator first;
+        Locator second;
+
+        switch (op.operation) {
+        case read:
+        case write:
+            double[] value = ((OP_ReadWrite) op).getValue();
+            if (value == null || value.length != 1) {
+                // Initialisation or bad value.
+                return null;
+            }
+            first = ((OP_ReadWrite) op).getSource();
+            second = ((OP_ReadWrite) op).getTarget();
+            break;
+        case swap:
+            first = ((OP_Swap) op).getVar1();
+            second = ((OP_Swap) op).getVar2();
+            break;
+        case remove:
+            Locator target = ((OP_ReadWrite) op).getTarget();
+            if (target != null && target.index == null && target.identifier.equals(struct.identifier)) {
+                // The entire structure is toggled.
+                return null;
+            }
+            Element e = struct.getElement(target);
+            return e == null ? NONE : new Element[] { e };
+        default:
+            return NONE;
+        }
+
+        boolean owns1 = first != null && first.identifier.equals(struct.identifier);
+        boolean owns2 = second != null && second.identifier.equals(struct.identifier);
+        Element e1 = owns1 ? struct.getElement(first) : null;
+        Element e2 = owns2 ? struct.getElement(second) : null;
+
+        if (owns1 && e1 == null || owns2 && e2 == null) {
+            // The element would be created.
+            return null;
+        } else if (e1 == null || e1 == e2) {
+            return e2 == null ? NONE : new Element[] { e2 };
+        } else if (e2 == null) {
+            return new Element[] { e1 };
+        } else {
+            return new Element[] { e1, e2 };
+        }
+    }
+
+    /**
+     * Returns the elements of a structure affected by an operation given by its parts, as done by
+     * {@link #affectedElements(Operation, DataStructure)}. Read and write operations are assumed to
+     * have a single value.
+     *
+     * @return The affected elements, or {@code null} if the operation cannot be reverted for this
+     *         structure.
+     */
+    private static Element[] affectedElements (OperationType type, DataStructure struct, boolean ownsFirst,
+            int[] firstIndex, boolean ownsSecond, int[] secondIndex) {
+        switch (type) {
+        case read:
+        case write:
+        case swap:
+            break;
+        case remove:
+            if (ownsSecond && secondIndex == null) {
+                // The entire structure is toggled.
+                return null;
+            }
+            Element e = ownsSecond ? struct.getElement(secondIndex) : null;
+            return e == null ? NONE : new Element[] { e };
+        default:
+            return NONE;
+        }
+
+        Element e1 = ownsFirst ? struct.getElement(firstIndex) : null;
+        Element e2 = ownsSecond ? struct.getElement(secondIndex) : null;
+
+        if (ownsFirst && e1 == null || ownsSecond && e2 == null) {
+            // The element would be created.
+            return null;
+        } else if (e1 == null || e1 == e2) {
+            return e2 == null ? NONE : new Element[] { e2 };
+        } else if (e2 == null) {
+            return new Element[] { e1 };
+        } else {
+            return new Element[] { e1, e2 };
+        }
+    }
+
+    private void addApplied (Locator locator) {
+        if (locator != null) {
+            DataStructure struct = structure(locator);
+            if (struct != null) {
+                applied.add(struct);
+            }
+        }
+    }
+
+    private void revertElement (DataStructure struct, Element e, long record) {
+        e.setValue(journal.getValue(record));
+        e.setColor(journal.getColor(record));
+        if (journal.isInactive(record)) {
+            if (struct.getInactiveElements().contains(e) == false) {
+                struct.getInactiveElements().add(e);
+            }
+        } else {
+            struct.getInactiveElements().remove(e);
+        }
+        uncount(e.getCounter(), record);
+    }
+
+    private void uncount (OperationCounter oc, long record) {
+        oc.countOperation(OperationType.read, -journal.getIncrement(record, 0));
+        oc.countOperation(OperationType.write, -journal.getIncrement(record, 1));
+        oc.countOperation(OperationType.swap, -journal.getIncrement(record, 2));
+        oc.countOperation(OperationType.remove, -journal.getIncrement(record, 3));
+    }
+
+    private static void readCounts (OperationCounter oc, int[] counts) {
+        counts [0] = oc.getReads();
+        counts [1] = oc.getWrites();
+        counts [2] = oc.getSwap();
+        counts [3] = oc.getRemove();
+    }
+
+    private static int increments (OperationCounter oc, int[] before) {
+        return UndoJournal.packIncrements(oc.getReads() - before [0], oc.getWrites() - before [1],
+                oc.getSwap() - before [2], oc.getRemove() - before [3]);
+    }
+
+    /**
+     * Interface for receiving messages and errors produced when applying operations.
+     */
+    public interface StepListener {
+        /**
+         * Called when a message operation is applied.
+         *
+         * @param message
+         *            The message.
+         */
+        public void message (String message);
 
-        lastOp = op;
+        /**
+         * Called when an operation cannot be applied correctly.
+         *
+         * @param error
+         *            A description of the error.
+         */
+        public void error (String error);
     }
 }
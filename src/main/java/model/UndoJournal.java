@@ -0,0 +1,365 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A compact log of the information required to revert applied operations. Each step is stored as
+ * one or more records consisting of a {@code double} and a packed {@code int}, held in primitive
+ * ring arrays. When the journal is full the oldest steps are dropped. <br>
+ * <br>
+ * <b>Record layout:</b><br>
+ * bit 31: first record of a step<br>
+ * bits 29-30: record kind ({@link #ELEMENT}, {@link #STRUCTURE} or {@link #EMPTY})<br>
+ * bit 28: element was inactive<br>
+ * bits 16-21: colour code of the element<br>
+ * bits 0-15: counter increments (4 bits each for read, write, swap and remove)
+ */
+public class UndoJournal {
+
+    /**
+     * Default maximum number of records.
+     */
+    public static final int         DEFAULT_CAPACITY = 1 << 22;
+    /**
+     * Record holding the previous state of an element.
+     */
+    public static final int         ELEMENT          = 0;
+    /**
+     * Record marking the application of an operation to a structure.
+     */
+    public static final int         STRUCTURE        = 1;
+    /**
+     * Record for a step which did not change any structure.
+     */
+    public static final int         EMPTY            = 2;
+
+    private static final int        STEP_START       = 1 << 31;
+    private static final int        INACTIVE         = 1 << 28;
+    private static final int        MAX_COLOR_CODES  = 64;
+    private static final int        INITIAL_CAPACITY = 1024;
+
+    /**
+     * Maximum number of records held.
+     */
+    private final int               maxCapacity;
+    /**
+     * Known colours. The colour code of a colour is its position in this array.
+     */
+    private int[]                   colors;
+    private int                     colorCount;
+    private double[]                values;
+    private int[]                   meta;
+    /**
+     * Absolute position of the oldest record.
+     */
+    private long                    head;
+    /**
+     * Absolute position after the newest record.
+     */
+    private long                    tail;
+    /**
+     * Absolute position of the first record of the step being recorded.
+     */
+    private long                    stepStart;
+    /**
+     * The number of complete steps held.
+     */
+    private int                     steps;
+    /**
+     * Set when the step being recorded did not fit in the journal.
+     */
+    private boolean                 overflow;
+
+    /**
+     * Create a new UndoJournal with the default capacity.
+     */
+    public UndoJournal () {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new UndoJournal.
+     *
+     * @param maxCapacity
+     *            The maximum number of records to hold. Will be rounded up to a power of two.
+     */
+    public UndoJournal (int maxCapacity) {
+        this.maxCapacity = Integer.highestOneBit(Math.max(maxCapacity, INITIAL_CAPACITY) - 1) << 1;
+        colors = new int[4];
+        values = new double[INITIAL_CAPACITY];
+        meta = new int[INITIAL_CAPACITY];
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Recording
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Begin recording a new step.
+     */
+    public void beginStep () {
+        stepStart = tail;
+    }
+
+    /**
+     * Add a record to the current step.
+     *
+     * @param kind
+     *            The kind of record.
+     * @param value
+     *            The value to record.
+     * @return The position of the new record.
+     */
+    public long add (int kind, double value) {
+        if (tail - head == values.length && !grow()) {
+            dropOldest();
+        }
+        int pos = (int) (tail & (values.length - 1));
+        values [pos] = value;
+        meta [pos] = (kind << 29) | (tail == stepStart ? STEP_START : 0);
+        return tail++;
+    }
+
+    /**
+     * Set the state information of a record.
+     *
+     * @param position
+     *            The position of the record.
+     * @param inactive
+     *            {@code true} if the element was inactive.
+     * @param colorCode
+     *            The colour code of the element.
+     * @param increments
+     *            Packed counter increments, as returned by {@link #packIncrements(int, int, int, int)}.
+     */
+    public void setState (long position, boolean inactive, int colorCode, int increments) {
+        int pos = (int) (position & (values.length - 1));
+        meta [pos] = (meta [pos] & (STEP_START | 3 << 29)) | (inactive ? INACTIVE : 0) | colorCode << 16
+                | increments;
+    }
+
+    /**
+     * Finish recording the current step.
+     */
+    public void endStep () {
+        if (overflow) {
+            clear();
+            return;
+        }
+        if (tail == stepStart) {
+            add(EMPTY, 0);
+        }
+        steps++;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Reverting
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the position of the first record of the last step.
+     *
+     * @return The position of the first record of the last step, or -1 if the journal is empty.
+     */
+    public long lastStepStart () {
+        if (steps == 0) {
+            return -1;
+        }
+        long position = tail - 1;
+        while ((getMeta(position) & STEP_START) == 0) {
+            position--;
+        }
+        return position;
+    }
+
+    /**
+     * Remove the last step.
+     */
+    public void popStep () {
+        if (steps > 0) {
+            tail = lastStepStart();
+            steps--;
+        }
+    }
+
+    /**
+     * Returns the value of a record.
+     *
+     * @param position
+     *            The position of the record.
+     * @return The value of the record.
+     */
+    public double getValue (long position) {
+        return values [(int) (position & (values.length - 1))];
+    }
+
+    /**
+     * Returns the kind of a record.
+     *
+     * @param position
+     *            The position of the record.
+     * @return The kind of the record.
+     */
+    public int getKind (long position) {
+        return (getMeta(position) >>> 29) & 3;
+    }
+
+    /**
+     * Returns {@code true} if the element of a record was inactive.
+     *
+     * @param position
+     *            The position of the record.
+     * @return {@code true} if the element was inactive.
+     */
+    public boolean isInactive (long position) {
+        return (getMeta(position) & INACTIVE) != 0;
+    }
+
+    /**
+     * Returns the colour of a record.
+     *
+     * @param position
+     *            The position of the record.
+     * @return The colour of the element, as an RGBA value.
+     */
+    public int getColor (long position) {
+        return colors [(getMeta(position) >>> 16) & (MAX_COLOR_CODES - 1)];
+    }
+
+    /**
+     * Returns the counter increment for the given type of a record.
+     *
+     * @param position
+     *            The position of the record.
+     * @param slot
+     *            0 for read, 1 for write, 2 for swap and 3 for remove.
+     * @return The counter increment.
+     */
+    public int getIncrement (long position, int slot) {
+        return (getMeta(position) >>> (slot * 4)) & 0xF;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the colour code for the given colour.
+     *
+     * @param color
+     *            An RGBA value.
+     * @return The code for the colour, or -1 if too many colours are in use.
+     */
+    public int colorCode (int color) {
+        for (int code = 0; code < colorCount; code++) {
+            if (colors [code] == color) {
+                return code;
+            }
+        }
+        if (colorCount == MAX_COLOR_CODES) {
+            return -1;
+        }
+        if (colorCount == colors.length) {
+            colors = Arrays.copyOf(colors, colors.length * 2);
+        }
+        colors [colorCount] = color;
+        return colorCount++;
+    }
+
+    /**
+     * Pack counter increments into 16 bits.
+     *
+     * @param read
+     *            Read increment.
+     * @param write
+     *            Write increment.
+     * @param swap
+     *            Swap increment.
+     * @param remove
+     *            Remove increment.
+     * @return The packed increments, or -1 if any increment is outside of [0, 15].
+     */
+    public static int packIncrements (int read, int write, int swap, int remove) {
+        if ((read | write | swap | remove) < 0 || read > 15 || write > 15 || swap > 15 || remove > 15) {
+            return -1;
+        }
+        return read | write << 4 | swap << 8 | remove << 12;
+    }
+
+    /**
+     * Returns the number of steps held.
+     *
+     * @return The number of steps held.
+     */
+    public int getStepCount () {
+        return steps;
+    }
+
+    /**
+     * Remove all records.
+     */
+    public void clear () {
+        head = 0;
+        tail = 0;
+        stepStart = 0;
+        steps = 0;
+        overflow = false;
+    }
+
+    private int getMeta (long position) {
+        return meta [(int) (position & (values.length - 1))];
+    }
+
+    /**
+     * Double the capacity of the ring.
+     *
+     * @return {@code false} if the maximum capacity has been reached.
+     */
+    private boolean grow () {
+        if (values.length >= maxCapacity) {
+            return false;
+        }
+        double[] newValues = new double[values.length * 2];
+        int[] newMeta = new int[values.length * 2];
+        for (long p = head; p < tail; p++) {
+            int from = (int) (p & (values.length - 1));
+            int to = (int) (p & (newValues.length - 1));
+            newValues [to] = values [from];
+            newMeta [to] = meta [from];
+        }
+        values = newValues;
+        meta = newMeta;
+        return true;
+    }
+
+    /**
+     * Drop the oldest step to make room for a new record.
+     */
+    private void dropOldest () {
+        if (head == stepStart) {
+            // The step being recorded does not fit. Discard it when it is finished.
+            overflow = true;
+            head = tail;
+            stepStart = tail;
+            steps = 0;
+            return;
+        }
+        head++;
+        while (head < stepStart && (getMeta(head) & STEP_START) == 0) {
+            head++;
+        }
+        steps--;
+    }
+}
@@ -0,0 +1,205 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * An append-only list of non-decreasing longs, stored as variable-length deltas. Every
+ * {@link #SAMPLE_INTERVAL}th value is sampled, so that lookups decode at most
+ * {@code SAMPLE_INTERVAL - 1} deltas after a binary search over the samples. Small deltas take a
+ * single byte.
+ */
+public class VarLongList {
+
+    /**
+     * The number of values between two samples.
+     */
+    public static final int SAMPLE_INTERVAL = 32;
+
+    private byte[]          data            = new byte[8];
+    private int             dataSize;
+    /**
+     * Every SAMPLE_INTERVAL:th value, and the offset in data of the delta following it.
+     */
+    private long[]          samples         = new long[1];
+    private int[]           sampleOffsets   = new int[1];
+    private int             size;
+    private long            last;
+    /**
+     * Offset in data of the delta of the last value, or -1 if the last value is a sample.
+     */
+    private int             lastOffset      = -1;
+
+    /**
+     * Append a value.
+     *
+     * @param value
+     *            The value to append. Must not be less than the last value.
+     */
+    public void add (long value) {
+        if (size > 0 && value < last) {
+            throw new IllegalArgumentException("Values must be non-decreasing: " + value + " < " + last);
+        }
+        if (size % SAMPLE_INTERVAL == 0) {
+            int sample = size / SAMPLE_INTERVAL;
+            if (sample == samples.length) {
+                samples = Arrays.copyOf(samples, sample * 2);
+                sampleOffsets = Arrays.copyOf(sampleOffsets, sample * 2);
+            }
+            samples [sample] = value;
+            sampleOffsets [sample] = dataSize;
+            lastOffset = -1;
+        } else {
+            lastOffset = dataSize;
+            write(value - last);
+        }
+        last = value;
+        size++;
+    }
+
+    /**
+     * Replace the last value.
+     *
+     * @param value
+     *            The new last value. Must not be less than the value preceding it.
+     */
+    public void setLast (long value) {
+        if (size == 0) {
+            throw new IllegalStateException("List is empty.");
+        }
+        if (lastOffset < 0) {
+            long previous = size == 1 ? value : get(size - 2);
+            if (value < previous) {
+                throw new IllegalArgumentException("Values must be non-decreasing: " + value + " < " + previous);
+            }
+            samples [(size - 1) / SAMPLE_INTERVAL] = value;
+        } else {
+            long previous = last - readDelta(lastOffset);
+            if (value < previous) {
+                throw new IllegalArgumentException("Values must be non-decreasing: " + value + " < " + previous);
+            }
+            dataSize = lastOffset;
+            write(value - previous);
+        }
+        last = value;
+    }
+
+    /**
+     * Returns the value at the given position.
+     *
+     * @param position
+     *            The position of the value.
+     * @return The value at {@code position}.
+     */
+    public long get (int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size);
+        }
+        if (position == size - 1) {
+            return last;
+        }
+        int sample = position / SAMPLE_INTERVAL;
+        long value = samples [sample];
+        int offset = sampleOffsets [sample];
+        for (int i = sample * SAMPLE_INTERVAL; i < position; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data [offset++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += delta;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of values less than {@code bound}.
+     *
+     * @param bound
+     *            The exclusive upper bound.
+     * @return The number of values less than {@code bound}.
+     */
+    public int countBelow (long bound) {
+        if (size == 0 || samples [0] >= bound) {
+            return 0;
+        } else if (last < bound) {
+            return size;
+        }
+
+        // Find the last sample less than bound.
+        int low = 0;
+        int high = (size - 1) / SAMPLE_INTERVAL;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (samples [mid] < bound) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int count = low * SAMPLE_INTERVAL + 1;
+        long value = samples [low];
+        int offset = sampleOffsets [low];
+        int end = Math.min(size, (low + 1) * SAMPLE_INTERVAL);
+        while (count < end) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data [offset++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += delta;
+            if (value >= bound) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of values in the list.
+     *
+     * @return The size of this list.
+     */
+    public int size () {
+        return size;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by this list.
+     *
+     * @return The approximate memory used.
+     */
+    public long getMemoryUsage () {
+        return 64 + data.length + samples.length * 12L;
+    }
+
+    private void write (long delta) {
+        if (dataSize + 10 > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataSize + 10));
+        }
+        while ((delta & ~0x7FL) != 0) {
+            data [dataSize++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        data [dataSize++] = (byte) delta;
+    }
+
+    private long readDelta (int offset) {
+        long delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data [offset++];
+            delta |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return delta;
+    }
+}
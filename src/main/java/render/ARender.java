@@ -13,9 +13,9 @@ import assets.Tools;
 import contract.datastructure.Array;
 import contract.datastructure.Array.IndexedElement;
 import contract.datastructure.Array.MinMaxListener;
-import contract.utility.OperationCounter.OperationCounterHaver;
 import contract.datastructure.DataStructure;
 import contract.datastructure.Element;
+import contract.utility.Colors;
 import gui.Main;
 import gui.dialog.VisualDialog;
 import javafx.animation.FillTransition;
@@ -458,10 +458,10 @@ public abstract class ARender extends Pane implements MinMaxListener {
      * Order the Render_FX to draw the elements of the Data Structure it carries. <br>
      * The default implementation only calls:
      *
-     * <b>{@code struct.elementsDrawn(Color.WHITE);}</b>
+     * <b>{@code struct.elementsDrawn(Colors.WHITE);}</b>
      */
     public void render () {
-        struct.elementsDrawn(Color.WHITE);
+        struct.elementsDrawn(Colors.WHITE);
         setRelativeNodeSizes();
     }
 
@@ -510,7 +510,7 @@ public abstract class ARender extends Pane implements MinMaxListener {
      */
     public void printStats () {
         Main.console.info("Statistics for \"" + struct + "\":");
-        OperationCounterHaver.printStats(struct);
+        Main.console.info(struct.getCounter().getStats());
     }
 
     /**
@@ -0,0 +1,46 @@
+package render;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import contract.utility.Colors;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * Converts the RGBA colours of the model (see {@link Colors}) to JavaFX paints. Converted colours
+ * are cached, since the model only uses a handful of them.
+ */
+public final class Paints {
+
+    private static final ConcurrentHashMap<Integer, Color> COLORS = new ConcurrentHashMap<Integer, Color>();
+
+    private Paints () {
+    }
+
+    /**
+     * Returns the paint for a colour of the model.
+     *
+     * @param rgba
+     *            An RGBA value.
+     * @return The paint, or {@code null} for {@link Colors#NONE}.
+     */
+    public static Paint toPaint (int rgba) {
+        return rgba == Colors.NONE ? null : toColor(rgba);
+    }
+
+    /**
+     * Returns the JavaFX colour for a colour of the model.
+     *
+     * @param rgba
+     *            An RGBA value.
+     * @return The colour. {@link Colors#NONE} is converted to {@link Color#TRANSPARENT}.
+     */
+    public static Color toColor (int rgba) {
+        Color color = COLORS.get(rgba);
+        if (color == null) {
+            color = Color.rgb(rgba >>> 24, rgba >>> 16 & 0xFF, rgba >>> 8 & 0xFF, (rgba & 0xFF) / 255.0);
+            COLORS.put(rgba, color);
+        }
+        return color;
+    }
+}
@@ -5,7 +5,6 @@ import java.util.HashMap;
 
 import assets.Const;
 import assets.Debug;
-import assets.Tools;
 import contract.datastructure.DataStructure;
 import contract.datastructure.Element;
 import contract.json.Locator;
@@ -59,6 +58,10 @@ public class Visualization extends StackPane {
      * A mapping of renders and their managers.
      */
     private final HashMap<String, ARenderManager> managerMap    = new HashMap<String, ARenderManager>();
+    /**
+     * A FXML pane showing user instructions.
+     */
+    private final HintPane                        hintPane      = new HintPane();
 
     /**
      * Create a new ModelRender.
@@ -76,7 +79,7 @@ public class Visualization extends StackPane {
         useAnimation = true;
 
         // Add stacked canvases
-        getChildren().addAll(Tools.HINT_PANE, managerPane, animationPane);
+        getChildren().addAll(hintPane, managerPane, animationPane);
     }
 
     /**
@@ -86,7 +89,7 @@ public class Visualization extends StackPane {
         managerMap.clear();
         managerPane.getChildren().clear();
         animationPane.getChildren().clear();
-        Tools.HINT_PANE.setVisible(true);
+        hintPane.setVisible(true);
     }
 
     public void clearAndCreateVisuals () {
@@ -98,7 +101,7 @@ public class Visualization extends StackPane {
         }
         // overlay.expandAll();
         placeVisuals();
-        Tools.HINT_PANE.setVisible(managerPane.getChildren().isEmpty());
+        hintPane.setVisible(managerPane.getChildren().isEmpty());
     }
 
     /**
@@ -108,6 +111,7 @@ public class Visualization extends StackPane {
      *            An operation to animate.
      */
     public void render (Operation op) {
+        publishChanges();
         for (Object rm : managerPane.getChildren()) {
             ((ARenderManager) rm).getRender().render();
         }
@@ -120,12 +124,22 @@ public class Visualization extends StackPane {
      * Force Render initialisation.
      */
     public void init () {
+        publishChanges();
         for (Object rm : managerPane.getChildren()) {
             ((ARenderManager) rm).getRender().repaintAll();
         }
 
     }
 
+    /**
+     * Publish the element changes collected by the structures since the last frame.
+     */
+    private void publishChanges () {
+        for (DataStructure struct : model.getStructures().values()) {
+            struct.publishChanges();
+        }
+    }
+
     /**
      * Set the animation time in milliseconds for all animations. Actual animation time will be
      * {@code millis * 0.8} to allow rest time after the animation.
@@ -5,7 +5,6 @@ import java.util.Arrays;
 
 import assets.Debug;
 import contract.datastructure.Element;
-import contract.utility.OperationCounter.OperationCounterHaver;
 import gui.Main;
 import javafx.animation.RotateTransition;
 import javafx.animation.StrokeTransition;
@@ -118,8 +117,8 @@ public abstract class AVElement extends Pane {
         init(node_width, node_height);
 
         // Automatic updating of value
-        valueLabel.textProperty().bind(element.stringProperty);
-        shape.fillProperty().bind(element.fillProperty);
+        valueLabel.textProperty().bind(ElementProperties.of(element).stringValue);
+        shape.fillProperty().bind(ElementProperties.of(element).fillProperty);
     }
 
     /**
@@ -159,8 +158,8 @@ public abstract class AVElement extends Pane {
         init(node_width, node_height);
 
         // Automatic updating of value
-        valueLabel.textProperty().bind(element.stringProperty);
-        shape.fillProperty().bind(element.fillProperty);
+        valueLabel.textProperty().bind(ElementProperties.of(element).stringValue);
+        shape.fillProperty().bind(ElementProperties.of(element).fillProperty);
     }
 
     /**
@@ -231,7 +230,7 @@ public abstract class AVElement extends Pane {
             System.out.println("w = " + width + ", h = " + height);
         }
         Main.console.info("Statistics for \"" + element + "\":");
-        OperationCounterHaver.printStats(element);
+        Main.console.info(element.getCounter().getStats());
     }
 
     /**
@@ -307,7 +306,7 @@ public abstract class AVElement extends Pane {
             valueLabel.setVisible(false);
         } else {
             setMouseTransparent(false);
-            shape.fillProperty().bind(element.fillProperty);
+            shape.fillProperty().bind(ElementProperties.of(element).fillProperty);
             shape.getStrokeDashArray().clear();
             valueLabel.setVisible(true);
         }
@@ -63,7 +63,7 @@ public class BarchartElement extends RectangleElement {
         this.unitHeight = unitHeight;
 
         Rectangle rect = (Rectangle) shape;
-        rect.heightProperty().bind(element.numProperty.multiply(unitHeight));
+        rect.heightProperty().bind(ElementProperties.of(element).numProperty.multiply(unitHeight));
         // root.setPrefHeight(unitHeight * element.getNumValue()); //TODO
         // Uncomment, but fucks up positioning on the Y-axis.
     }
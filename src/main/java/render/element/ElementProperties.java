@@ -0,0 +1,66 @@
+package render.element;
+
+import contract.datastructure.Element;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.binding.StringBinding;
+import javafx.scene.paint.Paint;
+import render.Paints;
+
+/**
+ * JavaFX properties for an {@link Element}, allowing visual elements to bind to the model. The
+ * properties are updated by listening to the element, which happens once per frame. Use
+ * {@link #of(Element)} to get the properties of an element.
+ */
+public class ElementProperties implements Element.ElementListener {
+
+    /**
+     * String value of the element. Invalidated when the string <b>or</b> double value is changed.
+     * The value is formatted lazily, when a bound node reads it.
+     */
+    public final StringBinding               stringValue;
+    /**
+     * Double property for the element. Updated whenever the value is changed.
+     */
+    public final SimpleDoubleProperty        numProperty  = new SimpleDoubleProperty();
+    /**
+     * Fill property for the element. Updated whenever the colour is changed.
+     */
+    public final SimpleObjectProperty<Paint> fillProperty = new SimpleObjectProperty<Paint>();
+
+    private ElementProperties (final Element element) {
+        stringValue = new StringBinding() {
+            @Override protected String computeValue () {
+                return element.getDisplayValue();
+            }
+        };
+        valueChanged(element);
+        colorChanged(element);
+    }
+
+    /**
+     * Returns the properties for an element, creating them if needed. The properties are
+     * installed as the listener of the element.
+     *
+     * @param element
+     *            An element.
+     * @return The properties of {@code element}.
+     */
+    public static ElementProperties of (Element element) {
+        if (element.getListener() instanceof ElementProperties) {
+            return (ElementProperties) element.getListener();
+        }
+        ElementProperties properties = new ElementProperties(element);
+        element.setListener(properties);
+        return properties;
+    }
+
+    @Override public void valueChanged (Element element) {
+        numProperty.set(element.getNumValue());
+        stringValue.invalidate();
+    }
+
+    @Override public void colorChanged (Element element) {
+        fillProperty.set(Paints.toPaint(element.getColor()));
+    }
+}